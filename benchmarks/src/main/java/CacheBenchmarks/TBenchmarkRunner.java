@@ -0,0 +1,50 @@
+package CacheBenchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * Runs the benchmarks for 1, 2, 4 ... threads up to the number of
+ * processors, writing the results of every thread count to a JSON file
+ * {@code <directory>/threads-<count>.json} for tracking the trend across
+ * releases.
+ * <p>
+ * The first argument is the directory of the results, the others are
+ * passed on to JMH, for example a regular expression selecting the
+ * benchmarks or {@code -p distribution=ZIPFIAN}.
+ * </p>
+ * @author Kozlov Ivan
+ */
+public final class TBenchmarkRunner {
+
+    private TBenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        File directory = new File(args.length > 0 ? args[0] : "results");
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Can not create the directory " + directory);
+        }
+        CommandLineOptions options = new CommandLineOptions(
+                args.length > 1 ? Arrays.copyOfRange(args, 1, args.length) : new String[0]);
+        int maximum = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; ; threads = Math.min(threads * 2, maximum)) {
+            new Runner(new OptionsBuilder()
+                    .parent(options)
+                    .threads(threads)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(new File(directory, "threads-" + threads + ".json").getPath())
+                    .build()).run();
+            if (threads == maximum) {
+                break;
+            }
+        }
+    }
+}
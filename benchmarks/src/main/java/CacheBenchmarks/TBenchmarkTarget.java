@@ -0,0 +1,288 @@
+package CacheBenchmarks;
+
+import CacheApi.LongKeyTCache;
+import CacheApi.TCacheConfiguration;
+import CacheApi.TCacheManager;
+
+import javax.cache.Cache;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The operations measured by the benchmarks, implemented by a
+ * {@link CacheApi.TCache}, by a {@link LongKeyTCache} and by the
+ * {@link ConcurrentHashMap} baseline.
+ * @author Kozlov Ivan
+ */
+public interface TBenchmarkTarget {
+
+    byte[] get(Integer key);
+
+    void put(Integer key, byte[] value);
+
+    boolean putIfAbsent(Integer key, byte[] value);
+
+    Map<Integer, byte[]> getAll(Set<Integer> keys);
+
+    void putAll(Map<Integer, byte[]> entries);
+
+    /**
+     * Replaces the value of a key by a copy with its first byte incremented,
+     * atomically.
+     *
+     * @param key the key
+     * @return the new first byte or -1 if the key is not mapped
+     */
+    int increment(Integer key);
+
+    void close();
+
+    /**
+     * The implementations compared by the benchmarks.
+     */
+    enum Type {
+
+        /**
+         * An unbounded {@link CacheApi.TCache}.
+         */
+        TCACHE {
+            @Override
+            TBenchmarkTarget create(int itemCount, boolean isStoreByValue) {
+                return new CacheTarget(createCache(TCacheConfiguration.UNBOUNDED, isStoreByValue));
+            }
+        },
+
+        /**
+         * A {@link CacheApi.TCache} holding a quarter of the keys, so that the
+         * writes evict.
+         */
+        TCACHE_BOUNDED {
+            @Override
+            TBenchmarkTarget create(int itemCount, boolean isStoreByValue) {
+                return new CacheTarget(createCache(itemCount / 4, isStoreByValue));
+            }
+        },
+
+        /**
+         * An unbounded {@link LongKeyTCache}, accessed by primitive keys.
+         */
+        LONG_KEY_TCACHE {
+            @Override
+            TBenchmarkTarget create(int itemCount, boolean isStoreByValue) {
+                TCacheConfiguration<Long, byte[]> configuration = new TCacheConfiguration<>();
+                configuration.setTypes(Long.class, byte[].class);
+                configuration.setStoreByValue(isStoreByValue);
+                return new LongKeyTarget(new TCacheManager().createLongKeyCache("benchmark", configuration));
+            }
+        },
+
+        /**
+         * A plain {@link ConcurrentHashMap}, the upper bound of the
+         * throughput of a cache built on it.
+         */
+        CONCURRENT_HASH_MAP {
+            @Override
+            TBenchmarkTarget create(int itemCount, boolean isStoreByValue) {
+                return new MapTarget(itemCount, isStoreByValue);
+            }
+        };
+
+        abstract TBenchmarkTarget create(int itemCount, boolean isStoreByValue);
+
+        private static Cache<Integer, byte[]> createCache(long maximumSize, boolean isStoreByValue) {
+            TCacheConfiguration<Integer, byte[]> configuration = new TCacheConfiguration<>();
+            configuration.setTypes(Integer.class, byte[].class);
+            configuration.setStoreByValue(isStoreByValue);
+            configuration.setMaximumSize(maximumSize);
+            return new TCacheManager().createCache("benchmark", configuration);
+        }
+    }
+
+    /**
+     * Runs the operations on a cache.
+     */
+    final class CacheTarget implements TBenchmarkTarget {
+
+        private final Cache<Integer, byte[]> cache;
+
+        CacheTarget(Cache<Integer, byte[]> cache) {
+            this.cache = cache;
+        }
+
+        @Override
+        public byte[] get(Integer key) {
+            return cache.get(key);
+        }
+
+        @Override
+        public void put(Integer key, byte[] value) {
+            cache.put(key, value);
+        }
+
+        @Override
+        public boolean putIfAbsent(Integer key, byte[] value) {
+            return cache.putIfAbsent(key, value);
+        }
+
+        @Override
+        public Map<Integer, byte[]> getAll(Set<Integer> keys) {
+            return cache.getAll(keys);
+        }
+
+        @Override
+        public void putAll(Map<Integer, byte[]> entries) {
+            cache.putAll(entries);
+        }
+
+        @Override
+        public int increment(Integer key) {
+            return cache.invoke(key, (entry, arguments) -> {
+                if (!entry.exists()) {
+                    return -1;
+                }
+                byte[] value = entry.getValue().clone();
+                value[0]++;
+                entry.setValue(value);
+                return (int) value[0];
+            });
+        }
+
+        @Override
+        public void close() {
+            cache.getCacheManager().close();
+        }
+    }
+
+    /**
+     * Runs the operations on a long-keyed cache through its primitive
+     * methods, unboxing the keys of the benchmarks.
+     */
+    final class LongKeyTarget implements TBenchmarkTarget {
+
+        private final LongKeyTCache<byte[]> cache;
+
+        LongKeyTarget(LongKeyTCache<byte[]> cache) {
+            this.cache = cache;
+        }
+
+        @Override
+        public byte[] get(Integer key) {
+            return cache.get(key.longValue());
+        }
+
+        @Override
+        public void put(Integer key, byte[] value) {
+            cache.put(key.longValue(), value);
+        }
+
+        @Override
+        public boolean putIfAbsent(Integer key, byte[] value) {
+            return cache.putIfAbsent(key.longValue(), value);
+        }
+
+        @Override
+        public Map<Integer, byte[]> getAll(Set<Integer> keys) {
+            Map<Integer, byte[]> result = new HashMap<>();
+            for (Integer key : keys) {
+                byte[] value = cache.get(key.longValue());
+                if (null != value) {
+                    result.put(key, value);
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public void putAll(Map<Integer, byte[]> entries) {
+            entries.forEach(this::put);
+        }
+
+        @Override
+        public int increment(Integer key) {
+            return cache.invokeLong(key.longValue(), (entry, arguments) -> {
+                if (!entry.exists()) {
+                    return -1;
+                }
+                byte[] value = entry.getValue().clone();
+                value[0]++;
+                entry.setValue(value);
+                return (int) value[0];
+            });
+        }
+
+        @Override
+        public void close() {
+            cache.getCacheManager().close();
+        }
+    }
+
+    /**
+     * Runs the operations on a map, copying the values like a cache storing
+     * by value if configured.
+     */
+    final class MapTarget implements TBenchmarkTarget {
+
+        private final ConcurrentHashMap<Integer, byte[]> map;
+
+        private final boolean isStoreByValue;
+
+        MapTarget(int itemCount, boolean isStoreByValue) {
+            this.map = new ConcurrentHashMap<>(itemCount);
+            this.isStoreByValue = isStoreByValue;
+        }
+
+        private byte[] copy(byte[] value) {
+            return isStoreByValue && null != value ? Arrays.copyOf(value, value.length) : value;
+        }
+
+        @Override
+        public byte[] get(Integer key) {
+            return copy(map.get(key));
+        }
+
+        @Override
+        public void put(Integer key, byte[] value) {
+            map.put(key, copy(value));
+        }
+
+        @Override
+        public boolean putIfAbsent(Integer key, byte[] value) {
+            return null == map.putIfAbsent(key, copy(value));
+        }
+
+        @Override
+        public Map<Integer, byte[]> getAll(Set<Integer> keys) {
+            Map<Integer, byte[]> result = new HashMap<>();
+            for (Integer key : keys) {
+                byte[] value = get(key);
+                if (null != value) {
+                    result.put(key, value);
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public void putAll(Map<Integer, byte[]> entries) {
+            entries.forEach(this::put);
+        }
+
+        @Override
+        public int increment(Integer key) {
+            byte[] value = map.computeIfPresent(key, (k, v) -> {
+                byte[] newValue = v.clone();
+                newValue[0]++;
+                return newValue;
+            });
+            return null == value ? -1 : value[0];
+        }
+
+        @Override
+        public void close() {
+            map.clear();
+        }
+    }
+}
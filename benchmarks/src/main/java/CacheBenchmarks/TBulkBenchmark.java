@@ -0,0 +1,79 @@
+package CacheBenchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of {@code getAll} and {@code putAll}, in calls.
+ * The batches are built ahead from the keys of the distribution.
+ * @author Kozlov Ivan
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TBulkBenchmark {
+
+    /**
+     * The number of batches built ahead.
+     */
+    private static final int BATCH_COUNT = 1024;
+
+    @State(Scope.Benchmark)
+    public static class Batches {
+
+        @Param({"10", "100", "1000"})
+        public int batchSize;
+
+        List<Set<Integer>> keySets;
+
+        List<Map<Integer, byte[]>> entryMaps;
+
+        @Setup(Level.Trial)
+        public void setup(TCacheState cache) {
+            keySets = new ArrayList<>(BATCH_COUNT);
+            entryMaps = new ArrayList<>(BATCH_COUNT);
+            int index = 0;
+            for (int i = 0; i < BATCH_COUNT; i++) {
+                Set<Integer> keys = new HashSet<>();
+                Map<Integer, byte[]> entries = new HashMap<>();
+                while (keys.size() < batchSize) {
+                    Integer key = cache.keys[index++ & TCacheState.KEY_MASK];
+                    keys.add(key);
+                    entries.put(key, cache.value);
+                }
+                keySets.add(keys);
+                entryMaps.add(entries);
+            }
+        }
+    }
+
+    @Benchmark
+    public Map<Integer, byte[]> getAll(TCacheState cache, Batches batches, TCacheState.ThreadState thread) {
+        return cache.target.getAll(batches.keySets.get(thread.index++ & (BATCH_COUNT - 1)));
+    }
+
+    @Benchmark
+    public void putAll(TCacheState cache, Batches batches, TCacheState.ThreadState thread) {
+        cache.target.putAll(batches.entryMaps.get(thread.index++ & (BATCH_COUNT - 1)));
+    }
+}
@@ -0,0 +1,78 @@
+package CacheBenchmarks;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The cache shared by the threads of a benchmark, filled with every key
+ * before the measurement, and the keys and values the threads use.
+ * <p>
+ * The parameters can be narrowed or widened on the command line of JMH,
+ * for example {@code -p implementation=TCACHE -p storeByValue=true}.
+ * </p>
+ * @author Kozlov Ivan
+ */
+@State(Scope.Benchmark)
+public class TCacheState {
+
+    /**
+     * The number of distinct keys.
+     */
+    static final int ITEM_COUNT = 1 << 16;
+
+    /**
+     * The number of keys drawn ahead, a power of two.
+     */
+    static final int KEY_COUNT = 1 << 20;
+
+    static final int KEY_MASK = KEY_COUNT - 1;
+
+    @Param({"TCACHE", "TCACHE_BOUNDED", "LONG_KEY_TCACHE", "CONCURRENT_HASH_MAP"})
+    public TBenchmarkTarget.Type implementation;
+
+    @Param({"UNIFORM", "ZIPFIAN", "SCRAMBLED_ZIPFIAN"})
+    public TKeyDistribution distribution;
+
+    @Param({"16", "1024"})
+    public int valueSize;
+
+    @Param({"false"})
+    public boolean storeByValue;
+
+    TBenchmarkTarget target;
+
+    Integer[] keys;
+
+    byte[] value;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        target = implementation.create(ITEM_COUNT, storeByValue);
+        keys = distribution.keys(ITEM_COUNT, KEY_COUNT, 42);
+        value = new byte[valueSize];
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            target.put(i, value);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        target.close();
+    }
+
+    /**
+     * The position of a thread in the keys, starting at random so that the
+     * threads do not access the same keys in step.
+     */
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        int index = ThreadLocalRandom.current().nextInt(KEY_COUNT);
+    }
+}
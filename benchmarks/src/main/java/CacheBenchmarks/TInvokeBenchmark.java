@@ -0,0 +1,30 @@
+package CacheBenchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of {@code invoke} with a processor replacing the
+ * value by an updated copy, an atomic read-modify-write. The baseline runs
+ * the same update by {@link java.util.concurrent.ConcurrentHashMap#computeIfPresent}.
+ * @author Kozlov Ivan
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TInvokeBenchmark {
+
+    @Benchmark
+    public int invoke(TCacheState cache, TCacheState.ThreadState thread) {
+        return cache.target.increment(cache.keys[thread.index++ & TCacheState.KEY_MASK]);
+    }
+}
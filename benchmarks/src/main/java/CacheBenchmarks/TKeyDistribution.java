@@ -0,0 +1,122 @@
+package CacheBenchmarks;
+
+import java.util.Random;
+
+/**
+ * The distributions the benchmarks draw their keys from. The keys are
+ * drawn ahead of the measurement into an array which the benchmark threads
+ * cycle through, so that drawing costs nothing while measuring.
+ * <p>
+ * The Zipfian distribution follows the generator of YCSB: the rank of a key
+ * is drawn with a skew of {@link #ZIPFIAN_CONSTANT}, the most popular keys
+ * being the smallest. The scrambled Zipfian distribution hashes the ranks,
+ * so that the popular keys spread over the hash table of the cache instead
+ * of crowding its first bins.
+ * </p>
+ * @author Kozlov Ivan
+ */
+public enum TKeyDistribution {
+
+    UNIFORM {
+        @Override
+        int next(Random random, int itemCount, Zipfian zipfian) {
+            return random.nextInt(itemCount);
+        }
+    },
+
+    ZIPFIAN {
+        @Override
+        int next(Random random, int itemCount, Zipfian zipfian) {
+            return zipfian.next(random);
+        }
+    },
+
+    SCRAMBLED_ZIPFIAN {
+        @Override
+        int next(Random random, int itemCount, Zipfian zipfian) {
+            return (int) Long.remainderUnsigned(fnv(zipfian.next(random)), itemCount);
+        }
+    };
+
+    /**
+     * The skew of the Zipfian distributions, the default of YCSB.
+     */
+    static final double ZIPFIAN_CONSTANT = 0.99;
+
+    abstract int next(Random random, int itemCount, Zipfian zipfian);
+
+    /**
+     * Draws keys.
+     *
+     * @param itemCount the number of distinct keys
+     * @param count     the number of keys drawn
+     * @param seed      the seed of the random numbers
+     * @return the keys, boxed ahead so that the benchmarks do not allocate them
+     */
+    Integer[] keys(int itemCount, int count, long seed) {
+        Random random = new Random(seed);
+        Zipfian zipfian = this == UNIFORM ? null : new Zipfian(itemCount);
+        Integer[] keys = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = next(random, itemCount, zipfian);
+        }
+        return keys;
+    }
+
+    /**
+     * Hashes a rank by 64-bit FNV-1a.
+     */
+    private static long fnv(long value) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < 8; i++) {
+            hash ^= value & 0xFF;
+            hash *= 0x100000001B3L;
+            value >>>= 8;
+        }
+        return hash;
+    }
+
+    /**
+     * Draws ranks from 0 to the item count with a Zipfian distribution.
+     */
+    static final class Zipfian {
+
+        private final int itemCount;
+
+        private final double alpha;
+
+        private final double zetan;
+
+        private final double eta;
+
+        private final double theta;
+
+        Zipfian(int itemCount) {
+            this.itemCount = itemCount;
+            this.theta = ZIPFIAN_CONSTANT;
+            this.alpha = 1 / (1 - theta);
+            this.zetan = zeta(itemCount, theta);
+            this.eta = (1 - Math.pow(2.0 / itemCount, 1 - theta)) / (1 - zeta(2, theta) / zetan);
+        }
+
+        private static double zeta(int n, double theta) {
+            double sum = 0;
+            for (int i = 1; i <= n; i++) {
+                sum += 1 / Math.pow(i, theta);
+            }
+            return sum;
+        }
+
+        int next(Random random) {
+            double u = random.nextDouble();
+            double uz = u * zetan;
+            if (uz < 1) {
+                return 0;
+            }
+            if (uz < 1 + Math.pow(0.5, theta)) {
+                return 1;
+            }
+            return Math.min(itemCount - 1, (int) (itemCount * Math.pow(eta * u - eta + 1, alpha)));
+        }
+    }
+}
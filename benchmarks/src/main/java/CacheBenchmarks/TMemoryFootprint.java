@@ -0,0 +1,99 @@
+package CacheBenchmarks;
+
+import CacheApi.LongKeyTCache;
+import CacheApi.TCacheConfiguration;
+import CacheApi.TCacheManager;
+
+import javax.cache.Cache;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongFunction;
+
+/**
+ * Measures the heap taken per entry by a {@link CacheApi.TCache}, a
+ * {@link LongKeyTCache} and a {@link ConcurrentHashMap}, all keyed by longs.
+ * <p>
+ * Every entry maps to the same value, so that only the structure of the
+ * cache and the keys are measured. The heap used is sampled after a garbage
+ * collection before the entries are put and after, with the cache still
+ * reachable; the first round only warms up. Run it with a fixed heap, for example
+ * {@code java -Xms2g -Xmx2g -cp benchmarks/target/benchmarks.jar CacheBenchmarks.TMemoryFootprint 1000000}.
+ * </p>
+ * @author Kozlov Ivan
+ */
+public final class TMemoryFootprint {
+
+    private static final int DEFAULT_ENTRY_COUNT = 1_000_000;
+
+    private static final String VALUE = "value";
+
+    /**
+     * Keeps the measured cache reachable until the heap used is sampled.
+     */
+    private static Object measured;
+
+    private TMemoryFootprint() {
+    }
+
+    public static void main(String[] args) {
+        int entryCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ENTRY_COUNT;
+        //the first round warms up the classes and the code
+        for (int round = 0; round < 2; round++) {
+            boolean isReported = round > 0;
+            measure("TCache", entryCount, isReported, count -> {
+                TCacheConfiguration<Long, String> configuration = new TCacheConfiguration<>();
+                configuration.setTypes(Long.class, String.class);
+                configuration.setStoreByValue(false);
+                Cache<Long, String> cache = new TCacheManager().createCache("footprint", configuration);
+                for (long key = 0; key < count; key++) {
+                    cache.put(key, VALUE);
+                }
+                return cache;
+            });
+            measure("LongKeyTCache", entryCount, isReported, count -> {
+                TCacheConfiguration<Long, String> configuration = new TCacheConfiguration<>();
+                configuration.setTypes(Long.class, String.class);
+                configuration.setStoreByValue(false);
+                LongKeyTCache<String> cache = new TCacheManager().createLongKeyCache("footprint", configuration);
+                for (long key = 0; key < count; key++) {
+                    cache.put(key, VALUE);
+                }
+                return cache;
+            });
+            measure("ConcurrentHashMap", entryCount, isReported, count -> {
+                ConcurrentHashMap<Long, String> map = new ConcurrentHashMap<>();
+                for (long key = 0; key < count; key++) {
+                    map.put(key, VALUE);
+                }
+                return map;
+            });
+        }
+    }
+
+    private static void measure(String name, int entryCount, boolean isReported, LongFunction<Object> fill) {
+        long before = usedMemory();
+        measured = fill.apply(entryCount);
+        long after = usedMemory();
+        if (isReported) {
+            System.out.printf("%-20s %8.1f bytes per entry%n", name, (after - before) / (double) entryCount);
+        }
+        if (measured instanceof Cache) {
+            ((Cache<?, ?>) measured).getCacheManager().close();
+        }
+        measured = null;
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        try {
+            //let the threads of a closed manager end
+            Thread.sleep(100);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        //a few collections, the collector may need more than one to settle
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,113 @@
+package CacheBenchmarks;
+
+import CacheApi.TCacheConfiguration;
+import CacheApi.TCacheManager;
+import CacheApi.TPartitionedCache;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the aggregate throughput of a {@link TPartitionedCache} for 1, 2
+ * ... N members on the loopback interface of this host.
+ * <p>
+ * Every member runs its own clients, which read and write random keys of
+ * the whole key space through their member, so that a share of
+ * {@code (members - 1) / members} of the operations goes to another member.
+ * The members run in this JVM and share the cores of the host: the
+ * throughput grows with the members as long as there are cores for their
+ * clients and servers. Run it as
+ * {@code java -cp benchmarks/target/benchmarks.jar CacheBenchmarks.TPartitionedThroughput 4 5},
+ * for up to 4 members measured for 5 seconds each.
+ * </p>
+ * @author Kozlov Ivan
+ */
+public final class TPartitionedThroughput {
+
+    private static final int KEY_COUNT = 100_000;
+
+    private static final int CLIENTS_PER_MEMBER = 4;
+
+    /**
+     * The percentage of the operations that are reads.
+     */
+    private static final int READ_PERCENTAGE = 90;
+
+    private TPartitionedThroughput() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int maximumMemberCount = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        //the first round warms up the classes and the code
+        measure(1, 1, false);
+        for (int memberCount = 1; memberCount <= maximumMemberCount; memberCount++) {
+            measure(memberCount, seconds, true);
+        }
+    }
+
+    private static void measure(int memberCount, int seconds, boolean isReported) throws Exception {
+        List<TCacheManager> cacheManagers = new ArrayList<>();
+        List<TPartitionedCache<Integer, String>> caches = new ArrayList<>();
+        InetSocketAddress firstAddress = null;
+        for (int i = 0; i < memberCount; i++) {
+            TCacheManager cacheManager = new TCacheManager();
+            TCacheConfiguration<Integer, String> configuration = new TCacheConfiguration<>();
+            configuration.setTypes(Integer.class, String.class);
+            caches.add(cacheManager.createPartitionedCache("throughput", configuration));
+            InetSocketAddress localAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+            if (null == firstAddress) {
+                firstAddress = cacheManager.joinCluster(localAddress).getLocalAddress();
+            } else {
+                cacheManager.joinCluster(localAddress, firstAddress);
+            }
+            cacheManagers.add(cacheManager);
+        }
+        try {
+            for (int key = 0; key < KEY_COUNT; key++) {
+                caches.get(0).put(key, "value_" + key);
+            }
+            LongAdder operations = new LongAdder();
+            long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+            List<Thread> clients = new ArrayList<>();
+            for (TPartitionedCache<Integer, String> cache : caches) {
+                for (int i = 0; i < CLIENTS_PER_MEMBER; i++) {
+                    Thread client = new Thread(() -> run(cache, end, operations));
+                    client.start();
+                    clients.add(client);
+                }
+            }
+            for (Thread client : clients) {
+                client.join();
+            }
+            if (isReported) {
+                System.out.printf("%d members %12.0f operations per second%n",
+                        memberCount, operations.sum() / (double) seconds);
+            }
+        } finally {
+            for (TCacheManager cacheManager : cacheManagers) {
+                cacheManager.close();
+            }
+        }
+    }
+
+    private static void run(TPartitionedCache<Integer, String> cache, long end, LongAdder operations) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int count = 0;
+        while (System.nanoTime() < end) {
+            int key = random.nextInt(KEY_COUNT);
+            if (random.nextInt(100) < READ_PERCENTAGE) {
+                cache.get(key);
+            } else {
+                cache.put(key, "value_" + key);
+            }
+            count++;
+        }
+        operations.add(count);
+    }
+}
@@ -0,0 +1,52 @@
+package CacheBenchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of {@code get} and {@code put} mixed in a ratio,
+ * and of {@code putIfAbsent} of present keys.
+ * @author Kozlov Ivan
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TReadWriteBenchmark {
+
+    /**
+     * The percentage of the operations that are reads.
+     */
+    @Param({"100", "95", "75", "50", "0"})
+    public int readPercentage;
+
+    @Benchmark
+    public void readWrite(TCacheState cache, TCacheState.ThreadState thread, Blackhole blackhole) {
+        int index = thread.index++;
+        Integer key = cache.keys[index & TCacheState.KEY_MASK];
+        //the operations cycle through 100 slots, the first ones reading
+        if (Integer.remainderUnsigned(index, 100) < readPercentage) {
+            blackhole.consume(cache.target.get(key));
+        } else {
+            cache.target.put(key, cache.value);
+        }
+    }
+
+    @Benchmark
+    public boolean putIfAbsent(TCacheState cache, TCacheState.ThreadState thread) {
+        return cache.target.putIfAbsent(cache.keys[thread.index++ & TCacheState.KEY_MASK], cache.value);
+    }
+}
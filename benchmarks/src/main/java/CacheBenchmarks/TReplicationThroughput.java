@@ -0,0 +1,95 @@
+package CacheBenchmarks;
+
+import CacheApi.TCacheConfiguration;
+import CacheApi.TCacheManager;
+import CacheApi.TReplicationMode;
+import CacheApi.TReplicationStatistics;
+import CacheApi.TSocketTransport;
+
+import javax.cache.Cache;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput and the lag of the replication of the puts of a
+ * cache between two {@link TCacheManager}s, linked by
+ * {@link TSocketTransport}s on the loopback interface of this host.
+ * <p>
+ * The writer puts the keys in bursts that fit into the queue of the
+ * sender, waiting for every burst to be applied by the other manager, so
+ * that no message is lost. The managers run in this JVM and share the
+ * cores of the host. Run it as
+ * {@code java -cp benchmarks/target/benchmarks.jar CacheBenchmarks.TReplicationThroughput 20},
+ * for 20 bursts.
+ * </p>
+ * @author Kozlov Ivan
+ */
+public final class TReplicationThroughput {
+
+    /**
+     * The puts of a burst, within the queue of the sender.
+     */
+    private static final int BURST_SIZE = 50_000;
+
+    private static final long TIMEOUT = TimeUnit.SECONDS.toNanos(30);
+
+    private TReplicationThroughput() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int burstCount = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        //the first round warms up the classes and the code
+        measure(2, false);
+        measure(burstCount, true);
+    }
+
+    private static void measure(int burstCount, boolean isReported) throws Exception {
+        TCacheManager writer = new TCacheManager();
+        TCacheManager reader = new TCacheManager();
+        try {
+            TCacheConfiguration<Integer, String> configuration = new TCacheConfiguration<>();
+            configuration.setTypes(Integer.class, String.class);
+            configuration.setReplicationMode(TReplicationMode.UPDATE);
+            Cache<Integer, String> cache = writer.createCache("replicated", configuration);
+            reader.createCache("replicated", configuration);
+            TSocketTransport writerTransport = new TSocketTransport(0);
+            TSocketTransport readerTransport = new TSocketTransport(0);
+            writer.enableReplication(writerTransport);
+            reader.enableReplication(readerTransport);
+            writerTransport.addPeer(readerTransport.getLocalAddress());
+            readerTransport.addPeer(writerTransport.getLocalAddress());
+
+            long start = System.nanoTime();
+            for (int burst = 0; burst < burstCount; burst++) {
+                for (int i = 0; i < BURST_SIZE; i++) {
+                    int key = burst * BURST_SIZE + i;
+                    cache.put(key, "value_" + key);
+                }
+                awaitApplied(reader, (long) (burst + 1) * BURST_SIZE);
+            }
+            long elapsed = System.nanoTime() - start;
+            if (isReported) {
+                long count = (long) burstCount * BURST_SIZE;
+                System.out.printf("%d puts replicated in %d ms, %12.0f messages per second%n", count,
+                        TimeUnit.NANOSECONDS.toMillis(elapsed), count * 1e9 / elapsed);
+                System.out.println(reader.getReplicationStatistics());
+            }
+        } finally {
+            writer.close();
+            reader.close();
+        }
+    }
+
+    private static void awaitApplied(TCacheManager reader, long count) throws InterruptedException {
+        long deadline = System.nanoTime() + TIMEOUT;
+        while (true) {
+            TReplicationStatistics statistics = reader.getReplicationStatistics();
+            if (statistics.getAppliedMessageCount() >= count) {
+                return;
+            }
+            if (statistics.getLostCount() > 0 || System.nanoTime() > deadline) {
+                throw new IllegalStateException("The replication fell behind: " + statistics);
+            }
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,1039 @@
+package CacheApi;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import javax.cache.configuration.CacheEntryListenerConfiguration;
+import javax.cache.configuration.Configuration;
+import javax.cache.expiry.Duration;
+import javax.cache.expiry.EternalExpiryPolicy;
+import javax.cache.expiry.ExpiryPolicy;
+import javax.cache.integration.CompletionListener;
+import javax.cache.management.CacheStatisticsMXBean;
+import javax.cache.processor.EntryProcessor;
+import javax.cache.processor.EntryProcessorException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A {@link Cache} keyed by longs, storing its entries in a
+ * {@link TLongKeyTable} instead of a map of boxed keys, so that an entry
+ * costs three slots of arrays rather than a key, a node and a
+ * {@link TCachedValue} object. It is created by
+ * {@link TCacheManager#createLongKeyCache(String, Configuration)}.
+ * <p>
+ * The primitive methods such as {@link #get(long)} and
+ * {@link #put(long, Object)} neither box the key nor allocate beyond the
+ * stored value; the {@link Cache} methods unbox their key and call them.
+ * The reads do not lock and the writes lock the segment of the table of
+ * their key. The reads of a cache whose {@link ExpiryPolicy} moves the
+ * expiry time on access lock the segment only to store it, at most once per
+ * tick of the clock, see {@link TLongKeyTable.Segment#touch}. Expired
+ * entries are dropped by the writes of their key and swept by the
+ * maintenance of the manager.
+ * </p>
+ * <p>
+ * The cache supports the expiry policy, storing by value and the
+ * statistics. The features that need the entries as objects are not
+ * supported: bounds and eviction, loaders, writers, listeners, off-heap
+ * storage, persistence and the disk tier. Configuring one of them fails
+ * with an {@link IllegalArgumentException}.
+ * </p>
+ * @param <V> the type of cached values
+ * @author Kozlov Ivan
+ */
+public class LongKeyTCache<V> implements Cache<Long, V> {
+
+    /**
+     * The share of the segments of the table the maintenance sweeps at a
+     * time, so that the whole table is swept in a few maintenance periods.
+     */
+    private static final int SWEEP_FRACTION = 4;
+
+    private final String cacheName;
+
+    private final TCacheManager cacheManager;
+
+    private final TCacheConfiguration<Long, V> configuration;
+
+    /**
+     * The key and value types of the configuration the cache was created
+     * with, checked by the typed lookups of the {@link TCacheManager}.
+     */
+    private final Class<Long> keyType;
+
+    private final Class<V> valueType;
+
+    private final ExpiryPolicy expiryPolicy;
+
+    /**
+     * Whether the entries never expire, so that the maintenance has nothing
+     * to sweep.
+     */
+    private final boolean isEternal;
+
+    private final TClock clock;
+
+    /**
+     * The {@link TSerializer} copying the values or null if the values are
+     * stored by reference or can not be changed.
+     */
+    private final TSerializer<V> valueSerializer;
+
+    private final TCacheStatistics statistics;
+
+    private final TLongKeyTable table = new TLongKeyTable();
+
+    /**
+     * The next segment swept by the maintenance. Only used by the
+     * maintenance thread.
+     */
+    private int sweepIndex;
+
+    private volatile boolean isClosed;
+
+    /**
+     * Constructs a cache.
+     *
+     * @param cacheManager  the manager creating the cache
+     * @param cacheName     the name of the cache
+     * @param configuration the configuration of the cache
+     * @throws IllegalArgumentException if the configuration uses a feature the cache does not support
+     */
+    LongKeyTCache(TCacheManager cacheManager, String cacheName, Configuration<Long, V> configuration) {
+        this.cacheManager = cacheManager;
+        this.cacheName = cacheName;
+        this.clock = cacheManager.getClock();
+        this.configuration = new TCacheConfiguration<Long, V>(configuration);
+        checkSupported(this.configuration);
+        this.keyType = this.configuration.getKeyType();
+        this.valueType = this.configuration.getValueType();
+        this.expiryPolicy = this.configuration.getExpiryPolicyFactory().create();
+        this.isEternal = expiryPolicy instanceof EternalExpiryPolicy;
+        this.valueSerializer = createValueSerializer();
+        this.statistics = new TCacheStatistics(this.configuration.isStatisticsEnabled(),
+                this.configuration.getLatencySampleInterval(), this.configuration.isLatencyHistogramsEnabled(), 0);
+        if (!isEternal) {
+            clock.acquire();
+        }
+    }
+
+    private static void checkSupported(TCacheConfiguration<Long, ?> configuration) {
+        Class<?> keyType = configuration.getKeyType();
+        if (keyType != Object.class && keyType != Long.class) {
+            throw new IllegalArgumentException("The keys of a long-keyed cache are longs, not " + keyType);
+        }
+        if (configuration.isBounded() || null != configuration.getWeigherFactory()) {
+            unsupported("a maximum size or weight");
+        }
+        if (configuration.isReadThrough() && null != configuration.getCacheLoaderFactory()) {
+            unsupported("a cache loader");
+        }
+        if (configuration.isWriteThrough() && null != configuration.getCacheWriterFactory()) {
+            unsupported("a cache writer");
+        }
+        if (configuration.getCacheEntryListenerConfigurations().iterator().hasNext()) {
+            unsupported("listeners");
+        }
+        if (configuration.isOffHeap()) {
+            unsupported("off-heap storage");
+        }
+        if (null != configuration.getWriteAheadLogDirectory() || null != configuration.getSnapshotFile()) {
+            unsupported("persistence");
+        }
+        if (null != configuration.getDiskTierDirectory()) {
+            unsupported("a disk tier");
+        }
+        if (configuration.getHotKeyCount() > 0) {
+            unsupported("hot key tracking");
+        }
+        if (configuration.getReplicationMode() != TReplicationMode.NONE) {
+            unsupported("replication");
+        }
+    }
+
+    private static void unsupported(String feature) {
+        throw new IllegalArgumentException("A long-keyed cache does not support " + feature);
+    }
+
+    private TSerializer<V> createValueSerializer() {
+        if (!configuration.isStoreByValue()) {
+            return null;
+        }
+        if (null != configuration.getValueSerializerFactory()) {
+            return configuration.getValueSerializerFactory().create();
+        }
+        if (TSerializers.isImmutable(valueType)) {
+            return null;
+        }
+        return TSerializers.forType(valueType);
+    }
+
+    /**
+     * Converts a value to its representation in the table, its serialized
+     * bytes if the cache stores by value.
+     */
+    private Object toInternal(V value) {
+        return null == valueSerializer ? value : TSerializers.toBytes(valueSerializer, value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private V fromInternal(Object internalValue) {
+        if (null == internalValue) {
+            return null;
+        }
+        return null == valueSerializer
+                ? (V) internalValue
+                : TSerializers.fromBytes(valueSerializer, (byte[]) internalValue);
+    }
+
+    private boolean equalsValue(Object internalValue, V value) {
+        return fromInternal(internalValue).equals(value);
+    }
+
+    /**
+     * Gets the value of a key.
+     *
+     * @param key the key
+     * @return the value or null if the key is not mapped
+     * @see #get(Long)
+     */
+    public V get(long key) {
+        ensureOpen();
+        long start = statistics.startSample();
+        Object internalValue = getInternal(key, clock.millis());
+        statistics.recordGetTime(start, 1);
+        return fromInternal(internalValue);
+    }
+
+    /**
+     * Looks a key up, counting a hit or a miss and moving the expiry time
+     * on access.
+     */
+    private Object getInternal(long key, long now) {
+        long hash = TLongKeyTable.hash(key);
+        TLongKeyTable.Segment segment = table.segmentFor(hash);
+        Object internalValue;
+        Duration duration = expiryPolicy.getExpiryForAccess();
+        if (null == duration) {
+            internalValue = segment.get(key, hash, now);
+        } else {
+            internalValue = segment.touch(key, hash, now, duration.getAdjustedTime(now));
+        }
+        if (null == internalValue) {
+            statistics.recordMisses(1);
+        } else {
+            statistics.recordHits(1);
+        }
+        return internalValue;
+    }
+
+    /**
+     * Finds the slot of a key, removing its entry if it expired. Has to be
+     * called while the write lock of the segment is held.
+     *
+     * @return the index or -1 if the key is absent or expired
+     */
+    private static int liveIndexOf(TLongKeyTable.Segment segment, long key, long hash, long now) {
+        int index = segment.indexOf(key, hash);
+        if (index >= 0 && TLongKeyTable.isExpired(segment.expiryTimeAt(index), now)) {
+            segment.removeAt(index);
+            return -1;
+        }
+        return index;
+    }
+
+    /**
+     * Inserts the entry of an absent key, unless it expires at once. Has to
+     * be called while the write lock of the segment is held.
+     */
+    private void create(TLongKeyTable.Segment segment, long key, long hash, Object internalValue, long now) {
+        Duration duration = expiryPolicy.getExpiryForCreation();
+        long expiryTime = null == duration ? Duration.ETERNAL.getAdjustedTime(now) : duration.getAdjustedTime(now);
+        if (!TLongKeyTable.isExpired(expiryTime, now)) {
+            segment.insert(key, hash, internalValue, expiryTime);
+        }
+    }
+
+    /**
+     * Replaces the value of an entry. Has to be called while the write lock
+     * of the segment is held.
+     */
+    private void update(TLongKeyTable.Segment segment, int index, Object internalValue, long now) {
+        Duration duration = expiryPolicy.getExpiryForUpdate();
+        segment.set(index, internalValue,
+                null == duration ? segment.expiryTimeAt(index) : duration.getAdjustedTime(now));
+    }
+
+    /**
+     * Determines if a key is mapped, without counting as an access.
+     *
+     * @param key the key
+     * @return true if the key is mapped
+     * @see #containsKey(Long)
+     */
+    public boolean containsKey(long key) {
+        ensureOpen();
+        long hash = TLongKeyTable.hash(key);
+        return null != table.segmentFor(hash).get(key, hash, clock.millis());
+    }
+
+    /**
+     * Maps a key to a value.
+     *
+     * @param key   the key
+     * @param value the value
+     * @see #put(Long, Object)
+     */
+    public void put(long key, V value) {
+        ensureOpen();
+        requireValue(value);
+        long start = statistics.startSample();
+        putInternal(key, toInternal(value));
+        statistics.recordPutTime(start, 1);
+    }
+
+    private void putInternal(long key, Object internalValue) {
+        long hash = TLongKeyTable.hash(key);
+        TLongKeyTable.Segment segment = table.segmentFor(hash);
+        long stamp = segment.writeLock();
+        try {
+            long now = clock.millis();
+            int index = liveIndexOf(segment, key, hash, now);
+            if (index < 0) {
+                create(segment, key, hash, internalValue, now);
+            } else {
+                update(segment, index, internalValue, now);
+            }
+        } finally {
+            segment.unlockWrite(stamp);
+        }
+        statistics.recordPuts(1);
+    }
+
+    /**
+     * Maps a key to a value and returns the previous value.
+     *
+     * @param key   the key
+     * @param value the value
+     * @return the previous value or null if the key was not mapped
+     * @see #getAndPut(Long, Object)
+     */
+    public V getAndPut(long key, V value) {
+        ensureOpen();
+        requireValue(value);
+        long start = statistics.startSample();
+        Object internalValue = toInternal(value);
+        long hash = TLongKeyTable.hash(key);
+        TLongKeyTable.Segment segment = table.segmentFor(hash);
+        Object oldValue;
+        long stamp = segment.writeLock();
+        try {
+            long now = clock.millis();
+            int index = liveIndexOf(segment, key, hash, now);
+            if (index < 0) {
+                oldValue = null;
+                create(segment, key, hash, internalValue, now);
+            } else {
+                oldValue = segment.valueAt(index);
+                update(segment, index, internalValue, now);
+            }
+        } finally {
+            segment.unlockWrite(stamp);
+        }
+        recordHitOrMiss(oldValue);
+        statistics.recordPuts(1);
+        statistics.recordPutTime(start, 1);
+        return fromInternal(oldValue);
+    }
+
+    /**
+     * Maps a key to a value if it is not mapped.
+     *
+     * @param key   the key
+     * @param value the value
+     * @return true if the value was put
+     * @see #putIfAbsent(Long, Object)
+     */
+    public boolean putIfAbsent(long key, V value) {
+        ensureOpen();
+        requireValue(value);
+        long start = statistics.startSample();
+        Object internalValue = toInternal(value);
+        long hash = TLongKeyTable.hash(key);
+        TLongKeyTable.Segment segment = table.segmentFor(hash);
+        boolean isAbsent;
+        long stamp = segment.writeLock();
+        try {
+            long now = clock.millis();
+            isAbsent = liveIndexOf(segment, key, hash, now) < 0;
+            if (isAbsent) {
+                create(segment, key, hash, internalValue, now);
+            }
+        } finally {
+            segment.unlockWrite(stamp);
+        }
+        if (isAbsent) {
+            statistics.recordPuts(1);
+        }
+        statistics.recordPutTime(start, 1);
+        return isAbsent;
+    }
+
+    /**
+     * Removes the mapping of a key.
+     *
+     * @param key the key
+     * @return true if the key was mapped
+     * @see #remove(Long)
+     */
+    public boolean remove(long key) {
+        ensureOpen();
+        long start = statistics.startSample();
+        boolean isRemoved = null != removeInternal(key);
+        statistics.recordRemoveTime(start, 1);
+        return isRemoved;
+    }
+
+    /**
+     * Removes the mapping of a key and returns its value.
+     *
+     * @param key the key
+     * @return the removed value or null if the key was not mapped
+     * @see #getAndRemove(Long)
+     */
+    public V getAndRemove(long key) {
+        ensureOpen();
+        long start = statistics.startSample();
+        Object oldValue = removeInternal(key);
+        recordHitOrMiss(oldValue);
+        statistics.recordRemoveTime(start, 1);
+        return fromInternal(oldValue);
+    }
+
+    private Object removeInternal(long key) {
+        long hash = TLongKeyTable.hash(key);
+        TLongKeyTable.Segment segment = table.segmentFor(hash);
+        Object oldValue = null;
+        long stamp = segment.writeLock();
+        try {
+            int index = liveIndexOf(segment, key, hash, clock.millis());
+            if (index >= 0) {
+                oldValue = segment.valueAt(index);
+                segment.removeAt(index);
+            }
+        } finally {
+            segment.unlockWrite(stamp);
+        }
+        if (null != oldValue) {
+            statistics.recordRemovals(1);
+        }
+        return oldValue;
+    }
+
+    /**
+     * Removes the mapping of a key if it is mapped to a value.
+     *
+     * @param key      the key
+     * @param oldValue the expected value
+     * @return true if the mapping was removed
+     * @see #remove(Long, Object)
+     */
+    public boolean remove(long key, V oldValue) {
+        ensureOpen();
+        requireValue(oldValue);
+        long start = statistics.startSample();
+        long hash = TLongKeyTable.hash(key);
+        TLongKeyTable.Segment segment = table.segmentFor(hash);
+        boolean isPresent;
+        boolean isRemoved = false;
+        long stamp = segment.writeLock();
+        try {
+            int index = liveIndexOf(segment, key, hash, clock.millis());
+            isPresent = index >= 0;
+            if (isPresent && equalsValue(segment.valueAt(index), oldValue)) {
+                segment.removeAt(index);
+                isRemoved = true;
+            }
+        } finally {
+            segment.unlockWrite(stamp);
+        }
+        recordHitOrMiss(isPresent);
+        if (isRemoved) {
+            statistics.recordRemovals(1);
+        }
+        statistics.recordRemoveTime(start, 1);
+        return isRemoved;
+    }
+
+    /**
+     * Replaces the value of a key if it is mapped to an expected value.
+     *
+     * @param key      the key
+     * @param oldValue the expected value
+     * @param newValue the new value
+     * @return true if the value was replaced
+     * @see #replace(Long, Object, Object)
+     */
+    public boolean replace(long key, V oldValue, V newValue) {
+        ensureOpen();
+        requireValue(oldValue);
+        requireValue(newValue);
+        long start = statistics.startSample();
+        Object internalValue = toInternal(newValue);
+        long hash = TLongKeyTable.hash(key);
+        TLongKeyTable.Segment segment = table.segmentFor(hash);
+        boolean isPresent;
+        boolean isReplaced = false;
+        long stamp = segment.writeLock();
+        try {
+            long now = clock.millis();
+            int index = liveIndexOf(segment, key, hash, now);
+            isPresent = index >= 0;
+            if (isPresent && equalsValue(segment.valueAt(index), oldValue)) {
+                update(segment, index, internalValue, now);
+                isReplaced = true;
+            }
+        } finally {
+            segment.unlockWrite(stamp);
+        }
+        recordHitOrMiss(isPresent);
+        if (isReplaced) {
+            statistics.recordPuts(1);
+        }
+        statistics.recordPutTime(start, 1);
+        return isReplaced;
+    }
+
+    /**
+     * Replaces the value of a key if it is mapped.
+     *
+     * @param key   the key
+     * @param value the new value
+     * @return true if the value was replaced
+     * @see #replace(Long, Object)
+     */
+    public boolean replace(long key, V value) {
+        return null != replaceInternal(key, value);
+    }
+
+    /**
+     * Replaces the value of a key if it is mapped and returns the previous
+     * value.
+     *
+     * @param key   the key
+     * @param value the new value
+     * @return the previous value or null if the key was not mapped
+     * @see #getAndReplace(Long, Object)
+     */
+    public V getAndReplace(long key, V value) {
+        return fromInternal(replaceInternal(key, value));
+    }
+
+    private Object replaceInternal(long key, V value) {
+        ensureOpen();
+        requireValue(value);
+        long start = statistics.startSample();
+        Object internalValue = toInternal(value);
+        long hash = TLongKeyTable.hash(key);
+        TLongKeyTable.Segment segment = table.segmentFor(hash);
+        Object oldValue = null;
+        long stamp = segment.writeLock();
+        try {
+            long now = clock.millis();
+            int index = liveIndexOf(segment, key, hash, now);
+            if (index >= 0) {
+                oldValue = segment.valueAt(index);
+                update(segment, index, internalValue, now);
+            }
+        } finally {
+            segment.unlockWrite(stamp);
+        }
+        recordHitOrMiss(oldValue);
+        if (null != oldValue) {
+            statistics.recordPuts(1);
+        }
+        statistics.recordPutTime(start, 1);
+        return oldValue;
+    }
+
+    /**
+     * Invokes an {@link EntryProcessor} against the entry of a key. The
+     * processor runs once, while the segment of the key is locked, and its
+     * changes are applied atomically with it.
+     * <p>
+     * It is not an overload of {@link #invoke(Long, EntryProcessor, Object...)},
+     * which a call with a long key and a lambda could not be resolved against.
+     * </p>
+     *
+     * @param key            the key
+     * @param entryProcessor the processor
+     * @param arguments      the additional arguments passed to the processor
+     * @param <T>            the type of the result of the processor
+     * @return the result of the processor
+     * @throws EntryProcessorException if the processor failed
+     * @see #invoke(Long, EntryProcessor, Object...)
+     */
+    public <T> T invokeLong(long key, EntryProcessor<Long, V, T> entryProcessor, Object... arguments) {
+        ensureOpen();
+        if (null == entryProcessor) {
+            throw new NullPointerException("entryProcessor");
+        }
+        long start = statistics.startSample();
+        long hash = TLongKeyTable.hash(key);
+        TLongKeyTable.Segment segment = table.segmentFor(hash);
+        T result;
+        long stamp = segment.writeLock();
+        try {
+            long now = clock.millis();
+            int index = liveIndexOf(segment, key, hash, now);
+            TCachedValue<V> cachedValue = index < 0
+                    ? null
+                    : new TCachedValue<>(fromInternal(segment.valueAt(index)), now, segment.expiryTimeAt(index));
+            TMutableEntry<Long, V> entry = new TMutableEntry<>(key, cachedValue, now, null);
+            try {
+                result = entryProcessor.process(entry, arguments);
+            } catch (EntryProcessorException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                throw new EntryProcessorException(e);
+            }
+            switch (entry.getOperation()) {
+                case ACCESS:
+                    statistics.recordHits(1);
+                    Duration duration = expiryPolicy.getExpiryForAccess();
+                    if (null != duration) {
+                        segment.setExpiryTime(index, duration.getAdjustedTime(now));
+                    }
+                    break;
+                case CREATE:
+                    statistics.recordPuts(1);
+                    create(segment, key, hash, toInternal(entry.getNewValue()), now);
+                    break;
+                case UPDATE:
+                    statistics.recordPuts(1);
+                    update(segment, index, toInternal(entry.getNewValue()), now);
+                    break;
+                case REMOVE:
+                    statistics.recordRemovals(1);
+                    segment.removeAt(index);
+                    break;
+                default:
+                    break;
+            }
+        } finally {
+            segment.unlockWrite(stamp);
+        }
+        statistics.recordInvokeTime(start);
+        return result;
+    }
+
+    private void recordHitOrMiss(Object oldValue) {
+        recordHitOrMiss(null != oldValue);
+    }
+
+    private void recordHitOrMiss(boolean isHit) {
+        if (isHit) {
+            statistics.recordHits(1);
+        } else {
+            statistics.recordMisses(1);
+        }
+    }
+
+    private static void requireKey(Long key) {
+        if (null == key) {
+            throw new NullPointerException("key");
+        }
+    }
+
+    private static void requireValue(Object value) {
+        if (null == value) {
+            throw new NullPointerException("value");
+        }
+    }
+
+    @Override
+    public V get(Long key) {
+        requireKey(key);
+        return get(key.longValue());
+    }
+
+    @Override
+    public Map<Long, V> getAll(Set<? extends Long> keys) {
+        ensureOpen();
+        long start = statistics.startSample();
+        long now = clock.millis();
+        Map<Long, V> result = new HashMap<>();
+        for (Long key : keys) {
+            requireKey(key);
+            Object internalValue = getInternal(key, now);
+            if (null != internalValue) {
+                result.put(key, fromInternal(internalValue));
+            }
+        }
+        statistics.recordGetTime(start, keys.size());
+        return result;
+    }
+
+    @Override
+    public boolean containsKey(Long key) {
+        requireKey(key);
+        return containsKey(key.longValue());
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * A long-keyed cache has no loader, the completion listener is called
+     * at once.
+     * </p>
+     */
+    @Override
+    public void loadAll(Set<? extends Long> keys, boolean replaceExistingValues, CompletionListener completionListener) {
+        ensureOpen();
+        if (null == keys) {
+            throw new NullPointerException("keys");
+        }
+        if (null != completionListener) {
+            completionListener.onCompletion();
+        }
+    }
+
+    @Override
+    public void put(Long key, V value) {
+        requireKey(key);
+        put(key.longValue(), value);
+    }
+
+    @Override
+    public V getAndPut(Long key, V value) {
+        requireKey(key);
+        return getAndPut(key.longValue(), value);
+    }
+
+    @Override
+    public void putAll(Map<? extends Long, ? extends V> map) {
+        ensureOpen();
+        long start = statistics.startSample();
+        for (Map.Entry<? extends Long, ? extends V> entry : map.entrySet()) {
+            requireKey(entry.getKey());
+            requireValue(entry.getValue());
+            putInternal(entry.getKey(), toInternal(entry.getValue()));
+        }
+        statistics.recordPutTime(start, map.size());
+    }
+
+    @Override
+    public boolean putIfAbsent(Long key, V value) {
+        requireKey(key);
+        return putIfAbsent(key.longValue(), value);
+    }
+
+    @Override
+    public boolean remove(Long key) {
+        requireKey(key);
+        return remove(key.longValue());
+    }
+
+    @Override
+    public boolean remove(Long key, V oldValue) {
+        requireKey(key);
+        return remove(key.longValue(), oldValue);
+    }
+
+    @Override
+    public V getAndRemove(Long key) {
+        requireKey(key);
+        return getAndRemove(key.longValue());
+    }
+
+    @Override
+    public boolean replace(Long key, V oldValue, V newValue) {
+        requireKey(key);
+        return replace(key.longValue(), oldValue, newValue);
+    }
+
+    @Override
+    public boolean replace(Long key, V value) {
+        requireKey(key);
+        return replace(key.longValue(), value);
+    }
+
+    @Override
+    public V getAndReplace(Long key, V value) {
+        requireKey(key);
+        return getAndReplace(key.longValue(), value);
+    }
+
+    @Override
+    public void removeAll(Set<? extends Long> keys) {
+        ensureOpen();
+        long start = statistics.startSample();
+        for (Long key : keys) {
+            requireKey(key);
+            removeInternal(key);
+        }
+        statistics.recordRemoveTime(start, keys.size());
+    }
+
+    @Override
+    public void removeAll() {
+        ensureOpen();
+        long now = clock.millis();
+        for (TLongKeyTable.Segment segment : table.getSegments()) {
+            TLongKeyTable.Copy copy = segment.copy(now);
+            for (int i = 0; i < copy.count; i++) {
+                removeInternal(copy.keys[i]);
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        ensureOpen();
+        table.clear();
+    }
+
+    @Override
+    public Configuration<Long, V> getConfiguration() {
+        return configuration;
+    }
+
+    @Override
+    public <T> T invoke(Long key, EntryProcessor<Long, V, T> entryProcessor, Object... arguments) {
+        requireKey(key);
+        return invokeLong(key.longValue(), entryProcessor, arguments);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Every key is processed as by {@link #invokeLong(long, EntryProcessor, Object...)}.
+     * All keys are processed even if the processor fails for some of them;
+     * the failure of the first key is thrown afterwards with the others as
+     * suppressed exceptions.
+     * </p>
+     */
+    @Override
+    public <T> Map<Long, T> invokeAll(Set<? extends Long> keys, EntryProcessor<Long, V, T> entryProcessor,
+                                      Object... arguments) {
+        ensureOpen();
+        Map<Long, T> results = new HashMap<>();
+        EntryProcessorException failure = null;
+        for (Long key : keys) {
+            requireKey(key);
+            try {
+                T result = invokeLong(key.longValue(), entryProcessor, arguments);
+                if (null != result) {
+                    results.put(key, result);
+                }
+            } catch (EntryProcessorException e) {
+                if (null == failure) {
+                    failure = new EntryProcessorException("Failed to process key " + key, e);
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (null != failure) {
+            throw failure;
+        }
+        return results;
+    }
+
+    @Override
+    public String getName() {
+        return cacheName;
+    }
+
+    @Override
+    public CacheManager getCacheManager() {
+        return cacheManager;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Closing is idempotent. The cache is released from its manager and its
+     * table is dropped.
+     * </p>
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (isClosed) {
+                return;
+            }
+            isClosed = true;
+        }
+        cacheManager.releaseCache(this);
+        table.clear();
+        if (!isEternal) {
+            clock.release();
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return isClosed;
+    }
+
+    private void ensureOpen() {
+        if (isClosed) {
+            throw new IllegalStateException("Cache " + cacheName + " is closed");
+        }
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> aClass) {
+        if (aClass.isAssignableFrom(getClass())) {
+            return aClass.cast(this);
+        }
+        throw new IllegalArgumentException("Unwapping to " + aClass + " is not a supported by this implementation");
+    }
+
+    /**
+     * Not supported, a long-keyed cache does not publish events. The
+     * listeners are rejected as if they were configured.
+     *
+     * @throws IllegalArgumentException always
+     */
+    @Override
+    public void registerCacheEntryListener(CacheEntryListenerConfiguration<Long, V> cacheEntryListenerConfiguration) {
+        if (null == cacheEntryListenerConfiguration) {
+            throw new NullPointerException("CacheEntryListenerConfiguration can't be null");
+        }
+        unsupported("listeners");
+    }
+
+    @Override
+    public void deregisterCacheEntryListener(CacheEntryListenerConfiguration<Long, V> cacheEntryListenerConfiguration) {
+        if (null == cacheEntryListenerConfiguration) {
+            throw new NullPointerException("CacheEntryListenerConfiguration can't be null");
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The iterator is weakly consistent: it copies the entries of a segment
+     * of the table at a time, so that it may or may not reflect the
+     * mutations made while it runs. The entries are boxed as they are
+     * returned.
+     * </p>
+     */
+    @Override
+    public Iterator<Entry<Long, V>> iterator() {
+        ensureOpen();
+        return new EntryIterator(clock.millis());
+    }
+
+    /**
+     * Gets the statistics of the cache.
+     *
+     * @return the statistics MBean
+     */
+    public CacheStatisticsMXBean getStatistics() {
+        return statistics;
+    }
+
+    void setStatisticsEnabled(boolean isEnabled) {
+        configuration.setStatisticsEnabled(isEnabled);
+        statistics.setEnabled(isEnabled);
+    }
+
+    /**
+     * Determines if the key and value types of the cache are those of a
+     * typed lookup, as {@link TCache} does.
+     */
+    boolean hasTypes(Class<?> keyType, Class<?> valueType) {
+        return this.keyType == keyType && this.valueType == valueType;
+    }
+
+    Class<Long> getKeyType() {
+        return keyType;
+    }
+
+    Class<V> getValueType() {
+        return valueType;
+    }
+
+    /**
+     * Performs the periodic maintenance of the cache, called by the
+     * maintenance thread of the {@link TCacheManager}: sweeps the expired
+     * entries from a share of the segments of the table.
+     *
+     * @param now the current time in milliseconds (since the Epoc)
+     */
+    void runMaintenance(long now) {
+        if (isEternal) {
+            return;
+        }
+        TLongKeyTable.Segment[] segments = table.getSegments();
+        for (int i = 0; i < Math.max(1, segments.length / SWEEP_FRACTION); i++) {
+            TLongKeyTable.Segment segment = segments[sweepIndex];
+            sweepIndex = (sweepIndex + 1) & (segments.length - 1);
+            long stamp = segment.writeLock();
+            try {
+                segment.removeExpired(now);
+            } finally {
+                segment.unlockWrite(stamp);
+            }
+        }
+    }
+
+    /**
+     * Iterates over the entries, copying a segment at a time.
+     */
+    private final class EntryIterator implements Iterator<Entry<Long, V>> {
+
+        private final long now;
+
+        private int segmentIndex;
+
+        private TLongKeyTable.Copy copy;
+
+        private int index;
+
+        private Long lastKey;
+
+        EntryIterator(long now) {
+            this.now = now;
+        }
+
+        @Override
+        public boolean hasNext() {
+            TLongKeyTable.Segment[] segments = table.getSegments();
+            while (null == copy || index == copy.count) {
+                if (segmentIndex == segments.length) {
+                    return false;
+                }
+                copy = segments[segmentIndex++].copy(now);
+                index = 0;
+            }
+            return true;
+        }
+
+        @Override
+        public Entry<Long, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            lastKey = copy.keys[index];
+            V value = fromInternal(copy.values[index]);
+            index++;
+            return new TEntry<>(lastKey, value);
+        }
+
+        @Override
+        public void remove() {
+            if (null == lastKey) {
+                throw new IllegalStateException();
+            }
+            LongKeyTCache.this.remove(lastKey.longValue());
+            lastKey = null;
+        }
+    }
+}
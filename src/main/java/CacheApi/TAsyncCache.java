@@ -0,0 +1,167 @@
+package CacheApi;
+
+import javax.cache.processor.EntryProcessor;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * A non-blocking view of a {@link TCache}, returned by {@link TCache#async()}.
+ * <p>
+ * Operations that only touch the entries in memory, such as a hit or a put
+ * into a cache without a writer, run on the calling thread and return a
+ * completed future. Operations that may block on the
+ * {@link javax.cache.integration.CacheLoader}, the
+ * {@link javax.cache.integration.CacheWriter}, a full write-behind queue or
+ * the sync of the write-ahead log run on the executor of the cache. An
+ * operation on a closed cache returns a failed future. The view shares the entries, the loads in flight and the
+ * statistics of the cache.
+ * </p>
+ * @param <K> the type of keys maintained by the cache
+ * @param <V> the type of cached values
+ * @author Kozlov Ivan
+ */
+public class TAsyncCache<K, V> {
+
+    private final TCache<K, V> cache;
+
+    private final Executor executor;
+
+    /**
+     * Constructs a view.
+     *
+     * @param cache    the cache
+     * @param executor the executor running the operations that may block
+     */
+    TAsyncCache(TCache<K, V> cache, Executor executor) {
+        this.cache = cache;
+        this.executor = executor;
+    }
+
+    /**
+     * Gets the synchronous cache of this view.
+     *
+     * @return the cache
+     */
+    public TCache<K, V> sync() {
+        return cache;
+    }
+
+    /**
+     * Gets an entry from the cache, loading it if the cache is read-through.
+     *
+     * @param key the key whose associated value is to be returned
+     * @return the future of the value, null if there is none
+     * @see TCache#get(Object)
+     */
+    public CompletableFuture<V> getAsync(K key) {
+        V value;
+        try {
+            value = cache.getIfPresent(key);
+        } catch (RuntimeException e) {
+            return failed(e);
+        }
+        if (null != value || !cache.isReadThrough()) {
+            return CompletableFuture.completedFuture(value);
+        }
+        return CompletableFuture.supplyAsync(() -> cache.loadMissing(key), executor);
+    }
+
+    /**
+     * Gets a collection of entries from the cache, loading the missing ones
+     * with a single call of the loader if the cache is read-through.
+     *
+     * @param keys the keys whose associated values are to be returned
+     * @return the future of the values of the keys that have one
+     * @see TCache#getAll(Set)
+     */
+    public CompletableFuture<Map<K, V>> getAllAsync(Set<? extends K> keys) {
+        Map<K, V> values = new HashMap<>();
+        Set<K> missingKeys = new HashSet<>();
+        try {
+            for (K key : keys) {
+                V value = cache.getIfPresent(key);
+                if (null != value) {
+                    values.put(key, value);
+                } else {
+                    missingKeys.add(key);
+                }
+            }
+        } catch (RuntimeException e) {
+            return failed(e);
+        }
+        if (missingKeys.isEmpty() || !cache.isReadThrough()) {
+            return CompletableFuture.completedFuture(values);
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            values.putAll(cache.loadAllMissing(missingKeys));
+            return values;
+        }, executor);
+    }
+
+    /**
+     * Associates a value with a key.
+     *
+     * @param key   the key
+     * @param value the value
+     * @return the future completing once the value was put
+     * @see TCache#put(Object, Object)
+     */
+    public CompletableFuture<Void> putAsync(K key, V value) {
+        return run(cache.isMutationBlocking(), () -> {
+            cache.put(key, value);
+            return null;
+        });
+    }
+
+    /**
+     * Removes the mapping of a key.
+     *
+     * @param key the key
+     * @return the future of whether a mapping was removed
+     * @see TCache#remove(Object)
+     */
+    public CompletableFuture<Boolean> removeAsync(K key) {
+        return run(cache.isMutationBlocking(), () -> cache.remove(key));
+    }
+
+    /**
+     * Invokes an {@link EntryProcessor} against the entry of a key.
+     *
+     * @param key            the key
+     * @param entryProcessor the processor
+     * @param arguments      the additional arguments passed to the processor
+     * @param <T>            the type of the result of the processor
+     * @return the future of the result of the processor
+     * @see TCache#invoke(Object, EntryProcessor, Object...)
+     */
+    public <T> CompletableFuture<T> invokeAsync(K key, EntryProcessor<K, V, T> entryProcessor, Object... arguments) {
+        return run(cache.isMutationBlocking() || cache.isReadThrough(),
+                () -> cache.invoke(key, entryProcessor, arguments));
+    }
+
+    /**
+     * Runs an operation on the executor if it may block, otherwise on the
+     * calling thread.
+     */
+    private <T> CompletableFuture<T> run(boolean isBlocking, Supplier<T> operation) {
+        if (isBlocking) {
+            return CompletableFuture.supplyAsync(operation, executor);
+        }
+        try {
+            return CompletableFuture.completedFuture(operation.get());
+        } catch (RuntimeException e) {
+            return failed(e);
+        }
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable throwable) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(throwable);
+        return future;
+    }
+}
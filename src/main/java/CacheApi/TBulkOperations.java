@@ -0,0 +1,77 @@
+package CacheApi;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Applies the operations of a bulk call of a {@link TCache} such as
+ * {@link TCache#putAll} to its keys.
+ * <p>
+ * The keys are grouped by the low bits of their spread hash code, the bits
+ * that select the bin of the {@link java.util.concurrent.ConcurrentHashMap}
+ * of the entries. As its table is a power of two at least as large as the
+ * number of groups, keys of different groups never share a bin, so that
+ * the groups are applied in parallel without contending for the locks of
+ * the bins. Small calls are applied by the calling thread.
+ * </p>
+ * <p>
+ * Every key is applied atomically, as if by the corresponding single key
+ * operation. Keys of the same group are applied in the iteration order of
+ * the call; there is no order between groups, and concurrent readers may
+ * observe some keys of a call applied and others not yet.
+ * </p>
+ * @author Kozlov Ivan
+ */
+final class TBulkOperations {
+
+    /**
+     * The number of keys from which a call is applied in parallel by the
+     * common {@link ForkJoinPool}.
+     */
+    static final int PARALLEL_THRESHOLD = 1024;
+
+    /**
+     * The number of groups per thread of the common pool, so that the work
+     * is balanced when the groups differ in size.
+     */
+    private static final int GROUPS_PER_THREAD = 4;
+
+    private TBulkOperations() {
+    }
+
+    /**
+     * Applies an operation to every item of a bulk call.
+     *
+     * @param items  the items, such as the keys or the entries
+     * @param keyOf  the function extracting the key of an item
+     * @param action the single key operation
+     * @param <T>    the type of the items
+     */
+    static <T> void forEach(Collection<T> items, Function<? super T, ?> keyOf, Consumer<? super T> action) {
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        if (items.size() < PARALLEL_THRESHOLD || parallelism <= 1) {
+            items.forEach(action);
+            return;
+        }
+        int groupCount = Integer.highestOneBit(parallelism * GROUPS_PER_THREAD - 1) << 1;
+        List<List<T>> groups = new ArrayList<>(groupCount);
+        for (int i = 0; i < groupCount; i++) {
+            groups.add(new ArrayList<>(items.size() / groupCount + 1));
+        }
+        for (T item : items) {
+            groups.get(spread(keyOf.apply(item).hashCode()) & (groupCount - 1)).add(item);
+        }
+        groups.parallelStream().forEach(group -> group.forEach(action));
+    }
+
+    /**
+     * Spreads the hash code as {@link java.util.concurrent.ConcurrentHashMap} does.
+     */
+    private static int spread(int hashCode) {
+        return (hashCode ^ (hashCode >>> 16)) & 0x7fffffff;
+    }
+}
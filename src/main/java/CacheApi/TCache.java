@@ -2,19 +2,39 @@ package CacheApi;
 
 
 import javax.cache.Cache;
+import javax.cache.CacheException;
 import javax.cache.CacheManager;
 import javax.cache.configuration.CacheEntryListenerConfiguration;
 import javax.cache.configuration.Configuration;
-import javax.cache.configuration.MutableConfiguration;
+import javax.cache.event.EventType;
 import javax.cache.expiry.Duration;
+import javax.cache.expiry.EternalExpiryPolicy;
 import javax.cache.expiry.ExpiryPolicy;
+import javax.cache.integration.CacheLoader;
+import javax.cache.integration.CacheWriter;
+import javax.cache.integration.CacheWriterException;
 import javax.cache.integration.CompletionListener;
+import javax.cache.management.CacheStatisticsMXBean;
 import javax.cache.processor.EntryProcessor;
 import javax.cache.processor.EntryProcessorException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 
 /**
@@ -25,6 +45,8 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  */
 public class TCache<K, V> implements Cache<K, V> {
 
+    private static final Logger LOGGER = Logger.getLogger("javax.cache");
+
     /**
      * The name of the {@link Cache} as used with in the scope of the
      * Cache Manager.
@@ -39,7 +61,17 @@ public class TCache<K, V> implements Cache<K, V> {
     /**
      * The Configuration for the Cache.
      */
-    private final MutableConfiguration<K, V> configuration;
+    private final TCacheConfiguration<K, V> configuration;
+
+    /**
+     * The key and value types of the configuration the cache was created
+     * with, checked by the typed lookups of the {@link TCacheManager}.
+     */
+    private final Class<K> keyType;
+
+    private final Class<V> valueType;
+
+    private volatile boolean isClosed;
 
     /**
      * This map used to store cache entries, keyed by the
@@ -52,11 +84,128 @@ public class TCache<K, V> implements Cache<K, V> {
      */
     private final ExpiryPolicy expiryPolicy;
 
-    private final ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+    /**
+     * The {@link TEvictionPolicy} bounding the size of the {@link Cache}
+     * or null if the cache is unbounded.
+     */
+    private final TEvictionPolicy evictionPolicy;
+
+    /**
+     * The {@link TCacheWeigher} of the entries or null if every entry
+     * weighs one.
+     */
+    private final TCacheWeigher<? super K, ? super V> weigher;
+
+    /**
+     * The memory budget of the {@link TCacheManager} or null.
+     */
+    private final TMemoryBudget memoryBudget;
+
+    /**
+     * The {@link TTimerWheel} scheduling the removal of expired entries
+     * or null if the entries never expire.
+     */
+    private final TTimerWheel timerWheel;
+
+    /**
+     * The coarse {@link TClock} of the {@link TCacheManager}.
+     */
+    private final TClock clock;
+
+    /**
+     * The {@link TOffHeapStore} holding the values or null if the values
+     * are stored on the heap.
+     */
+    private final TOffHeapStore offHeapStore;
+
+    /**
+     * The {@link TSerializer} copying the values or null if the values are
+     * stored by reference or can not be changed.
+     */
+    private final TSerializer<V> valueSerializer;
+
+    /**
+     * The {@link TLoadCoordinator} running the {@link CacheLoader} or null
+     * if the cache is not read-through.
+     */
+    private final TLoadCoordinator<K, V> loadCoordinator;
+
+    /**
+     * The {@link CacheWriter} or null if the cache is not write-through.
+     */
+    private final CacheWriter<K, V> cacheWriter;
+
+    /**
+     * The {@link TWriteBehindQueue} buffering the mutations or null if the
+     * {@link CacheWriter} is called synchronously.
+     */
+    private final TWriteBehindQueue<K, V> writeBehindQueue;
+
+    /**
+     * The time in milliseconds before its expiry when a read refreshes an
+     * entry or -1 if the entries are not refreshed ahead.
+     */
+    private final long refreshAheadTime;
+
+    /**
+     * The keys whose refresh is in flight, mapped to a token of the refresh.
+     * A write of a key marks its token stale, so that the refresh does not
+     * overwrite the written value, and keeps it until the refresh is done,
+     * so that no second refresh of the key is scheduled meanwhile.
+     */
+    private final ConcurrentHashMap<Object, RefreshToken> refreshes = new ConcurrentHashMap<>();
+
+    private final LongAdder refreshCount = new LongAdder();
+
+    /**
+     * The non-blocking view of this cache.
+     */
+    private final TAsyncCache<K, V> asyncView;
+
+    /**
+     * The executor of the non-blocking view created for this cache, shut
+     * down with it, or null if the executor of the manager is used.
+     */
+    private final Executor asyncExecutor;
+
+    /**
+     * Whether the write-ahead log was replayed, so that a cache failing to
+     * recover does not overwrite its snapshot with the entries it has.
+     */
+    private volatile boolean isRecovered;
+
+    /**
+     * The statistics of the cache, recorded while they are enabled.
+     */
+    private final TCacheStatistics statistics;
+
+    /**
+     * The dispatcher of the events to the registered listeners.
+     */
+    private final TCacheEventDispatcher<K, V> eventDispatcher;
+
+    /**
+     * The write-ahead log of a durable cache or null.
+     */
+    private final TWriteAheadLog<K, V> writeAheadLog;
+
+    /**
+     * What the cache tells the caches of the same name of other managers
+     * about its mutations.
+     */
+    private final TReplicationMode replicationMode;
 
-    private final Lock readLock = readWriteLock.readLock();
+    /**
+     * The {@link TDiskTier} the entries evicted from the heap are demoted to
+     * or null if the cache is not tiered.
+     */
+    private final TDiskTier<V> diskTier;
 
-    private final Lock writeLock = readWriteLock.writeLock();
+    /**
+     * The keys moved between the tiers during the running snapshots, one
+     * set per snapshot.
+     */
+    private final List<Set<Object>> movedKeys = new CopyOnWriteArrayList<>();
 
     /**
      * Constructs a cache.
@@ -66,199 +215,1823 @@ public class TCache<K, V> implements Cache<K, V> {
      //* @param classLoader   the ClassLoader the RICache will use for loading classes
      * @param configuration the Configuration of the Cache
      */
+    @SuppressWarnings("unchecked")
     TCache(TCacheManager cacheManager,
             String cacheName,
             //ClassLoader classLoader,
             Configuration<K, V> configuration) {
         this.cacheManager = cacheManager;
         this.cacheName = cacheName;
+        this.clock = cacheManager.getClock();
 
         //we make a copy of the configuration here so that the provided one
         //may be changed and or used independently for other caches.  we do this
         //as we don't know if the provided configuration is mutable
 
-        //support use of Basic Configuration
-        MutableConfiguration mutableConfiguration = new MutableConfiguration();
-        mutableConfiguration.setStoreByValue(configuration.isStoreByValue());
-        mutableConfiguration.setTypes(configuration.getKeyType(), configuration.getValueType());
-        mutableConfiguration.setExpiryPolicyFactory(configuration.getExpiryPolicyFactory());
-        this.configuration = new MutableConfiguration<K, V>(mutableConfiguration);
+        //support use of Basic Configuration as well as of TCacheConfiguration
+        this.configuration = new TCacheConfiguration<K, V>(configuration);
+        this.keyType = this.configuration.getKeyType();
+        this.valueType = this.configuration.getValueType();
         this.expiryPolicy = this.configuration.getExpiryPolicyFactory().create();
         this.entries = new ConcurrentHashMap<>();
+        if (this.configuration.isOffHeap()) {
+            if (!this.configuration.isStoreByValue()) {
+                throw new IllegalArgumentException("An off-heap cache has to store by value");
+            }
+            this.offHeapStore = new TOffHeapStore(this.configuration.getOffHeapSlabSize());
+        } else {
+            this.offHeapStore = null;
+        }
+        this.valueSerializer = createValueSerializer();
+        this.replicationMode = this.configuration.getReplicationMode();
+        this.writeAheadLog = null == this.configuration.getWriteAheadLogDirectory()
+                ? null
+                : new TWriteAheadLog<>(cacheName, Paths.get(this.configuration.getWriteAheadLogDirectory()),
+                        getSnapshotKeySerializer(), getSnapshotValueSerializer(),
+                        this.configuration.getWriteAheadLogSyncPolicy(),
+                        this.configuration.getWriteAheadLogSyncInterval(),
+                        this.configuration.getWriteAheadLogSegmentSize());
+        this.weigher = this.configuration.getWeigherFactory() == null
+                ? null
+                : this.configuration.getWeigherFactory().create();
+        this.memoryBudget = cacheManager.getMemoryBudget();
+        if (this.configuration.isBounded() || null != memoryBudget) {
+            this.evictionPolicy = new TEvictionPolicy(this.configuration.getMaximum(),
+                    null != weigher, memoryBudget, this::evict);
+            if (null != memoryBudget) {
+                memoryBudget.register(evictionPolicy);
+            }
+        } else {
+            this.evictionPolicy = null;
+        }
+        this.statistics = new TCacheStatistics(this.configuration.isStatisticsEnabled(),
+                this.configuration.getLatencySampleInterval(), this.configuration.isLatencyHistogramsEnabled(),
+                this.configuration.getHotKeyCount());
+        if (null != this.configuration.getDiskTierDirectory()) {
+            if (null == evictionPolicy) {
+                throw new IllegalArgumentException("A tiered cache has to be bounded");
+            }
+            this.diskTier = new TDiskTier<>(Paths.get(this.configuration.getDiskTierDirectory()),
+                    this.configuration.getDiskTierSize(), this.configuration.getDiskTierSegmentSize(),
+                    getSnapshotValueSerializer(), statistics);
+        } else {
+            this.diskTier = null;
+        }
+        this.timerWheel = expiryPolicy instanceof EternalExpiryPolicy
+                ? null
+                : new TTimerWheel(this::expire, clock.millis());
+        this.loadCoordinator = this.configuration.isReadThrough() && null != this.configuration.getCacheLoaderFactory()
+                ? new TLoadCoordinator<>(this.configuration.getCacheLoaderFactory().create(), this::storeLoadedValue,
+                        statistics)
+                : null;
+        this.cacheWriter = this.configuration.isWriteThrough() && null != this.configuration.getCacheWriterFactory()
+                ? (CacheWriter<K, V>) this.configuration.getCacheWriterFactory().create()
+                : null;
+        this.writeBehindQueue = null != cacheWriter && this.configuration.isWriteBehind()
+                ? new TWriteBehindQueue<>(cacheName, cacheWriter, this.configuration.getWriteBehindBatchSize(),
+                        this.configuration.getWriteBehindDelay(), this.configuration.getWriteBehindQueueCapacity())
+                : null;
+        Duration lifetime = expiryPolicy.getExpiryForCreation();
+        this.refreshAheadTime = null != loadCoordinator && this.configuration.getRefreshAheadFraction() > 0
+                && null != lifetime && !lifetime.isEternal() && !lifetime.isZero()
+                ? (long) (lifetime.getTimeUnit().toMillis(lifetime.getDurationAmount())
+                        * (double) this.configuration.getRefreshAheadFraction())
+                : -1;
+        this.eventDispatcher = new TCacheEventDispatcher<>(this, this.configuration.getEventQueueCapacity(),
+                this.configuration.getEventOfferTimeout());
+        for (CacheEntryListenerConfiguration<K, V> listenerConfiguration
+                : this.configuration.getCacheEntryListenerConfigurations()) {
+            eventDispatcher.register(listenerConfiguration);
+        }
+        this.asyncExecutor = null == this.configuration.getAsyncExecutorFactory()
+                ? null
+                : this.configuration.getAsyncExecutorFactory().create();
+        this.asyncView = new TAsyncCache<>(this, null == asyncExecutor ? cacheManager.getAsyncExecutor() : asyncExecutor);
+        if (null != timerWheel) {
+            clock.acquire();
+        }
+    }
+
+    /**
+     * The default Duration to use when a Duration can't be determined.
+     *
+     * @return the default Duration
+     */
+
+    @Override
+    public V get(K k) {
+        long start = statistics.startSample();
+        V value = getIfPresent(k);
+        if (null == value && null != loadCoordinator) {
+            value = loadCoordinator.load(k);
+        }
+        statistics.recordGetTime(start, 1);
+        return value;
+    }
+
+    /**
+     * Gets the value of a key without calling the {@link CacheLoader}.
+     * @param k the key whose associated value is to be returned
+     * @return the value or null if there is no mapping for the key
+     * @throws IllegalStateException if the cache is closed
+     */
+    V getIfPresent(K k) {
+        ensureOpen();
+        statistics.recordAccess(k);
+        TCachedValue<V> cachedValue = entries.get(k);
+        if (null == cachedValue && null != diskTier && !diskTier.isEmpty()) {
+            cachedValue = entries.compute(k, this::promote);
+            if (null != cachedValue) {
+                statistics.recordDiskHits(1);
+                afterWrite();
+            }
+        }
+        if(null != cachedValue) {
+            long now = clock.millis();
+            if (!cachedValue.isExpiredAt(now)) {
+                if (null != evictionPolicy) {
+                    evictionPolicy.recordRead(k);
+                }
+                updateExpiryOnAccess(cachedValue, now);
+                if (refreshAheadTime > 0) {
+                    long expiryTime = cachedValue.getExpiryTime();
+                    if (expiryTime > -1 && expiryTime - now <= refreshAheadTime) {
+                        scheduleRefresh(k, cachedValue);
+                    }
+                }
+                statistics.recordHits(1);
+                return cachedValue.getInternalValue();
+            } else if (removeExpired(k, cachedValue)) {
+                onRemoval(k, cachedValue);
+                afterWrite();
+            }
+        }
+        statistics.recordMisses(1);
+        return null;
+    }
+
+    /**
+     * Loads the value of a key that missed.
+     * @param k the key
+     * @return the loaded value or null if the loader has none
+     */
+    V loadMissing(K k) {
+        return loadCoordinator.load(k);
+    }
+
+    /**
+     * Loads the values of keys that missed with a single call of the loader.
+     * @param keys the keys
+     * @return the loaded values, without the keys the loader has no value for
+     */
+    Map<K, V> loadAllMissing(Collection<? extends K> keys) {
+        return loadCoordinator.loadAll(keys, false);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The keys are read as described by {@link TBulkOperations}, without
+     * a consistent snapshot across the keys.
+     * </p>
+     */
+    @Override
+    public Map<K, V> getAll(Set<? extends K> setKeys) {
+        ensureOpen();
+        long start = statistics.startSample();
+        Map<K, V> resultMap = new ConcurrentHashMap<>();
+        Collection<K> missingKeys = new ConcurrentLinkedQueue<>();
+        TBulkOperations.forEach(setKeys, key -> key, key -> {
+            V value = this.getIfPresent(key);
+            if (null != value) {
+                resultMap.put(key, value);
+            } else if (null != loadCoordinator) {
+                missingKeys.add(key);
+            }
+        });
+        if (!missingKeys.isEmpty()) {
+            //load the misses with a single call of the loader
+            resultMap.putAll(loadCoordinator.loadAll(missingKeys, false));
+        }
+        statistics.recordGetTime(start, setKeys.size());
+        return resultMap;
+    }
+
+    @Override
+    public boolean containsKey(K k) {
+        ensureOpen();
+        TCachedValue<V> cachedValue = entries.get(k);
+        if (null == cachedValue) {
+            //not an access, the entry is not promoted
+            return null != diskTier && diskTier.containsKey(k, clock.millis());
+        }
+        return !cachedValue.isExpiredAt(clock.millis());
+    }
+
+    @Override
+    public void loadAll(Set<? extends K> keys, boolean replaceExistingValues, CompletionListener completionListener) {
+        ensureOpen();
+        if (null == keys) {
+            throw new NullPointerException("keys");
+        }
+        if (keys.contains(null)) {
+            throw new NullPointerException("keys contains a null");
+        }
+        if (null == loadCoordinator) {
+            if (null != completionListener) {
+                completionListener.onCompletion();
+            }
+            return;
+        }
+        List<K> keysToLoad = new ArrayList<>(keys);
+        cacheManager.getLoaderExecutor().execute(() -> {
+            try {
+                if (!replaceExistingValues) {
+                    keysToLoad.removeIf(this::containsKey);
+                }
+                if (!keysToLoad.isEmpty()) {
+                    loadCoordinator.loadAll(keysToLoad, replaceExistingValues);
+                }
+                if (null != completionListener) {
+                    completionListener.onCompletion();
+                }
+            } catch (Exception e) {
+                if (null != completionListener) {
+                    completionListener.onException(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Gets the non-blocking view of this cache, sharing its entries.
+     *
+     * @return the asynchronous cache
+     */
+    public TAsyncCache<K, V> async() {
+        return asyncView;
+    }
+
+    /**
+     * Determines if misses are loaded by a {@link CacheLoader}.
+     * @return true if the cache is read-through
+     */
+    boolean isReadThrough() {
+        return null != loadCoordinator;
+    }
+
+    /**
+     * Determines if mutations may block the calling thread: on the
+     * {@link CacheWriter} of a write-through cache, on a full write-behind
+     * queue, or on the sync of a write-ahead log forced on every mutation.
+     * @return true if the mutations may block
+     */
+    boolean isMutationBlocking() {
+        return null != cacheWriter
+                || (null != writeAheadLog && writeAheadLog.getSyncPolicy() == TLogSyncPolicy.ALWAYS);
+    }
+
+    /**
+     * Reloads an entry nearing its expiry in the background, unless its
+     * refresh is in flight already.
+     * @param key the key of the entry
+     * @param cachedValue the entry
+     */
+    private void scheduleRefresh(K key, TCachedValue<V> cachedValue) {
+        if (refreshes.containsKey(key)) {
+            return;
+        }
+        RefreshToken token = new RefreshToken();
+        if (null != refreshes.putIfAbsent(key, token)) {
+            return;
+        }
+        try {
+            cacheManager.getRefreshExecutor().execute(() -> refresh(key, cachedValue, token));
+        } catch (RejectedExecutionException e) {
+            //the executor is saturated, a later read will try again
+            refreshes.remove(key, token);
+        }
+    }
+
+    /**
+     * Replaces the value of an entry by a reloaded one, unless the entry
+     * was changed while it was reloaded.
+     * @param key the key of the entry
+     * @param cachedValue the entry
+     * @param token the token of the refresh
+     */
+    private void refresh(K key, TCachedValue<V> cachedValue, RefreshToken token) {
+        try {
+            V value = loadCoordinator.reload(key);
+            if (null == value) {
+                return;
+            }
+            entries.computeIfPresent(key, (k, v) -> {
+                if (v == cachedValue && !token.isStale) {
+                    updateEntry(k, v, value);
+                    //the refreshed entry lives as long as a newly created one
+                    Duration lifetime = expiryPolicy.getExpiryForCreation();
+                    if (null != lifetime) {
+                        v.setExpiryTime(lifetime.getAdjustedTime(clock.millis()));
+                    }
+                    refreshCount.increment();
+                }
+                return v;
+            });
+            afterWrite();
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Failed to refresh an entry of cache: " + cacheName, e);
+        } finally {
+            refreshes.remove(key, token);
+        }
+    }
+
+    /**
+     * Stores a value returned by the {@link CacheLoader}.
+     * @param key the key of the value
+     * @param value the loaded value
+     * @param replaceExistingValue whether a value already in the cache is replaced
+     */
+    private void storeLoadedValue(K key, V value, boolean replaceExistingValue) {
+        if (replaceExistingValue) {
+            put(key, value, false, false);
+        } else {
+            putIfAbsent(key, value, false, k -> true);
+        }
+    }
+
+    /**
+     * Chooses the serializer of the values: the configured one, otherwise
+     * the built-in one of the value type. Values that can not be changed are
+     * kept by reference on the heap even when storing by value.
+     */
+    private TSerializer<V> createValueSerializer() {
+        if (!configuration.isStoreByValue()) {
+            return null;
+        }
+        if (null != configuration.getValueSerializerFactory()) {
+            return configuration.getValueSerializerFactory().create();
+        }
+        Class<V> valueType = configuration.getValueType();
+        if (null == offHeapStore && TSerializers.isImmutable(valueType)) {
+            return null;
+        }
+        return TSerializers.forType(valueType);
+    }
+
+    /**
+     * factory method
+     * Not thread-safe method
+     * @param value the internal value of building entry
+     * @return the new building entry
+     */
+    private TCachedValue<V> createNewEntry(V value) {
+        long now = clock.millis();
+        Duration duration = expiryPolicy.getExpiryForCreation();
+        long expiryTime = null == duration ? Duration.ETERNAL.getAdjustedTime(now) : duration.getAdjustedTime(now);
+        return createEntry(value, now, expiryTime);
+    }
+
+    /**
+     * Determines if a new entry expired as it was created, which happens if
+     * its duration is zero. Such an entry is not cached at all.
+     * @param cachedValue the new entry
+     * @return true if the entry expired
+     */
+    private boolean isExpiredOnCreation(TCachedValue<V> cachedValue) {
+        return cachedValue.isExpiredAt(clock.millis());
+    }
+
+    /**
+     * Creates the representation of a value chosen by the configuration.
+     * @param value the internal value of building entry
+     * @param creationTime the time when the entry was created
+     * @param expiryTime the time when the entry expires
+     * @return the new building entry
+     */
+    private TCachedValue<V> createEntry(V value, long creationTime, long expiryTime) {
+        if (null != offHeapStore) {
+            return new TOffHeapCachedValue<>(offHeapStore, valueSerializer, value, creationTime, expiryTime);
+        }
+        if (null != valueSerializer) {
+            return new TSerializedCachedValue<>(valueSerializer, value, creationTime, expiryTime);
+        }
+        return new TCachedValue<>(value, creationTime, expiryTime);
+    }
+
+    /**
+     * Applies the {@link ExpiryPolicy#getExpiryForAccess()} to an entry that
+     * was read. The expiry time is only written if it changes, that is at
+     * most once per tick of the clock, and a concurrent update wins.
+     * @param cachedValue the accessed entry
+     * @param now the time of the access
+     */
+    private void updateExpiryOnAccess(TCachedValue<V> cachedValue, long now) {
+        Duration duration = expiryPolicy.getExpiryForAccess();
+        if (null != duration) {
+            cachedValue.compareAndSetExpiryTime(cachedValue.getExpiryTime(), duration.getAdjustedTime(now));
+        }
+    }
+
+    /**
+     * Notifies the eviction policy about a new entry.
+     * Has to be called while the mapping of the key is locked
+     * @param key the key of the created entry
+     * @param cachedValue the created entry
+     */
+    private void onCreation(Object key, TCachedValue<V> cachedValue) {
+        track(key, cachedValue);
+        if (null != writeAheadLog) {
+            logPut(key, cachedValue.getInternalValue(), cachedValue);
+        }
+        replicatePut(key, cachedValue);
+        if (eventDispatcher.hasListeners()) {
+            publish(EventType.CREATED, key, cachedValue.getInternalValue(), null);
+        }
+    }
+
+    /**
+     * Notifies the eviction policy and the timer wheel about an entry put
+     * into the heap, without publishing or logging it.
+     * Has to be called while the mapping of the key is locked
+     * @param key the key of the entry
+     * @param cachedValue the entry
+     */
+    private void track(Object key, TCachedValue<V> cachedValue) {
+        if (null != evictionPolicy) {
+            evictionPolicy.recordCreation(key, cachedValue, weighEntry(key, cachedValue));
+        }
+        if (null != timerWheel) {
+            timerWheel.recordSchedule(key, cachedValue);
+        }
+    }
+
+    /**
+     * Takes the entry of a key missing from the heap back from the disk
+     * tier. Called first by the mutations of a key, see {@link #promoting},
+     * so that they find the entry on the heap whichever tier it was in.
+     * Has to be called while the mapping of the key is locked
+     * @param key the key
+     * @param cachedValue the entry on the heap or null
+     * @return the entry on the heap, the promoted one or null
+     */
+    private TCachedValue<V> promote(Object key, TCachedValue<V> cachedValue) {
+        if (null != cachedValue || null == diskTier || diskTier.isEmpty()) {
+            return cachedValue;
+        }
+        TCachedValue<V> diskValue = diskTier.take(key, clock.millis());
+        if (null == diskValue) {
+            return null;
+        }
+        TCachedValue<V> promotedValue = createEntry(diskValue.getInternalValue(), diskValue.getCreationTime(),
+                diskValue.getExpiryTime());
+        track(key, promotedValue);
+        recordMove(key);
+        return promotedValue;
+    }
+
+    /**
+     * Wraps a mutation of a key, so that it finds the entry of the key
+     * promoted from the disk tier. If the mutation fails, for example as
+     * the {@link CacheWriter} or an {@link EntryProcessor} threw, the
+     * promoted entry is put back into the disk tier, as the mapping of the
+     * heap is left unchanged.
+     * @param mutation the mutation, called while the mapping of the key is locked
+     * @return the remapping function of the mutation
+     */
+    private BiFunction<Object, TCachedValue<V>, TCachedValue<V>> promoting(
+            BiFunction<Object, TCachedValue<V>, TCachedValue<V>> mutation) {
+        return (key, cachedValue) -> {
+            TCachedValue<V> promotedValue = promote(key, cachedValue);
+            if (promotedValue == cachedValue) {
+                return mutation.apply(key, cachedValue);
+            }
+            try {
+                return mutation.apply(key, promotedValue);
+            } catch (RuntimeException | Error e) {
+                demote(key, promotedValue);
+                throw e;
+            }
+        };
+    }
+
+    /**
+     * Puts an entry promoted by a failed mutation back into the disk tier
+     * and forgets it on the heap.
+     * Has to be called while the mapping of the key is locked
+     * @param key the key of the entry
+     * @param promotedValue the promoted entry, which is not mapped on the heap
+     */
+    private void demote(Object key, TCachedValue<V> promotedValue) {
+        if (diskTier.put(key, promotedValue)) {
+            recordMove(key);
+        }
+        onRemoval(key, promotedValue);
+    }
+
+    /**
+     * Removes an entry a mutation of its key found expired, so that the
+     * mutation treats the key as absent.
+     * Has to be called while the mapping of the key is locked
+     * @param key the key
+     * @param cachedValue the entry on the heap or null
+     * @return the entry, or null if it was missing or expired
+     */
+    private TCachedValue<V> removeIfExpired(Object key, TCachedValue<V> cachedValue) {
+        if (null != cachedValue && cachedValue.isExpiredAt(clock.millis())) {
+            onExpiry(key, cachedValue);
+            onRemoval(key, cachedValue);
+            return null;
+        }
+        return cachedValue;
+    }
+
+    /**
+     * Records a key moved between the tiers for the running snapshots.
+     * @param key the key
+     */
+    private void recordMove(Object key) {
+        for (Set<Object> keys : movedKeys) {
+            keys.add(key);
+        }
+    }
+
+    /**
+     * Appends the put of an entry to the write-ahead log.
+     * Has to be called while the mapping of the key is locked
+     * @param key the key of the entry
+     * @param value the new value of the entry
+     * @param cachedValue the entry
+     */
+    @SuppressWarnings("unchecked")
+    private void logPut(Object key, V value, TCachedValue<V> cachedValue) {
+        writeAheadLog.appendPut((K) key, value, cachedValue.getCreationTime(), cachedValue.getExpiryTime());
+    }
+
+    /**
+     * Publishes the removal of an entry by the application.
+     * Has to be called while the mapping of the key is locked, before the
+     * entry is released
+     * @param key the key of the removed entry
+     * @param cachedValue the removed entry
+     */
+    @SuppressWarnings("unchecked")
+    private void onRemovedByApplication(Object key, TCachedValue<V> cachedValue) {
+        if (null != writeAheadLog) {
+            writeAheadLog.appendRemove((K) key);
+        }
+        TReplicator replicator = getReplicator();
+        if (null != replicator) {
+            replicator.publishRemove(this, key);
+        }
+        if (eventDispatcher.hasListeners()) {
+            V value = cachedValue.getInternalValue();
+            publish(EventType.REMOVED, key, value, value);
+        }
+    }
+
+    /**
+     * Publishes the put of an entry to the other managers, as an update or
+     * as an invalidation by the replication mode.
+     * Has to be called while the mapping of the key is locked, so that the
+     * mutations of a key are published in order
+     * @param key the key of the entry
+     * @param cachedValue the entry
+     */
+    private void replicatePut(Object key, TCachedValue<V> cachedValue) {
+        TReplicator replicator = getReplicator();
+        if (null == replicator) {
+            return;
+        }
+        if (replicationMode == TReplicationMode.UPDATE) {
+            replicator.publishPut(this, key, cachedValue.getInternalValue());
+        } else {
+            replicator.publishRemove(this, key);
+        }
+    }
+
+    /**
+     * Gets the replicator publishing the mutations of the cache.
+     * @return the replicator or null if the cache is not replicated
+     */
+    private TReplicator getReplicator() {
+        return replicationMode == TReplicationMode.NONE ? null : cacheManager.getReplicator();
+    }
+
+    /**
+     * Publishes the expiry of an entry.
+     * Has to be called while the mapping of the key is locked, before the
+     * entry is released
+     * @param key the key of the expired entry
+     * @param cachedValue the expired entry
+     */
+    private void onExpiry(Object key, TCachedValue<V> cachedValue) {
+        if (eventDispatcher.hasListeners()) {
+            V value = cachedValue.getInternalValue();
+            publish(EventType.EXPIRED, key, value, value);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void publish(EventType eventType, Object key, V value, V oldValue) {
+        eventDispatcher.publish(eventType, (K) key, value, eventDispatcher.isOldValueRequired() ? oldValue : null);
+    }
+
+    /**
+     * Removes an expired entry unless it was replaced meanwhile.
+     * @param key the key of the entry
+     * @param cachedValue the expired entry
+     * @return true if the entry was removed
+     */
+    private boolean removeExpired(Object key, TCachedValue<?> cachedValue) {
+        if (!eventDispatcher.hasListeners()) {
+            return entries.remove(key, cachedValue);
+        }
+        //the event is published while the mapping is locked to keep the events of the key in order
+        boolean[] isRemoved = {false};
+        entries.computeIfPresent(key, (k, v) -> {
+            if (v != cachedValue) {
+                return v;
+            }
+            onExpiry(k, v);
+            isRemoved[0] = true;
+            return null;
+        });
+        return isRemoved[0];
+    }
+
+    /**
+     * Notifies the eviction policy about a removed entry
+     * @param key the key of the removed entry
+     * @param cachedValue the removed entry
+     */
+    private void onRemoval(Object key, TCachedValue<V> cachedValue) {
+        if (null != evictionPolicy) {
+            evictionPolicy.recordRemoval(key, cachedValue, weighEntry(key, cachedValue));
+        }
+        if (null != timerWheel) {
+            timerWheel.recordRemoval(cachedValue);
+        }
+        release(cachedValue);
+    }
+
+    /**
+     * Frees the off-heap memory of a removed entry
+     * @param cachedValue the removed entry
+     */
+    private static void release(TCachedValue<?> cachedValue) {
+        if (cachedValue instanceof TOffHeapCachedValue) {
+            ((TOffHeapCachedValue<?>) cachedValue).free();
+        }
+    }
+
+    /**
+     * Removes an entry the eviction policy decided to discard
+     * @param key the key of the evicted entry
+     * @param cachedValue the evicted entry
+     * @return true if the entry was removed
+     */
+    private boolean evict(Object key, TCachedValue<?> cachedValue) {
+        if (null == diskTier) {
+            if (!entries.remove(key, cachedValue)) {
+                return false;
+            }
+            statistics.recordEvictions(1);
+            if (null != timerWheel) {
+                timerWheel.recordRemoval(cachedValue);
+            }
+            release(cachedValue);
+            return true;
+        }
+        //the entry is demoted while its mapping is locked, so that it is in one tier at any time
+        boolean[] isRemoved = {false};
+        boolean[] isDemoted = {false};
+        entries.computeIfPresent(key, (k, v) -> {
+            if (v != cachedValue) {
+                return v;
+            }
+            isRemoved[0] = true;
+            if (!v.isExpiredAt(clock.millis()) && diskTier.put(k, v)) {
+                isDemoted[0] = true;
+                recordMove(k);
+            }
+            return null;
+        });
+        if (!isRemoved[0]) {
+            return false;
+        }
+        if (isDemoted[0]) {
+            statistics.recordDemotions(1);
+        } else {
+            statistics.recordEvictions(1);
+        }
+        if (null != timerWheel) {
+            timerWheel.recordRemoval(cachedValue);
+        }
+        release(cachedValue);
+        return true;
+    }
+
+    /**
+     * Removes an entry the timer wheel found to be expired
+     * @param key the key of the expired entry
+     * @param cachedValue the expired entry
+     * @return true if the entry was removed
+     */
+    @SuppressWarnings("unchecked")
+    private boolean expire(Object key, TCachedValue<?> cachedValue) {
+        if (!removeExpired(key, cachedValue)) {
+            return false;
+        }
+        if (null != evictionPolicy) {
+            TCachedValue<V> expiredValue = (TCachedValue<V>) cachedValue;
+            evictionPolicy.recordRemoval(key, expiredValue, weighEntry(key, expiredValue));
+        }
+        release(cachedValue);
+        return true;
+    }
+
+    /**
+     * Performs the periodic maintenance of the cache, called by the
+     * maintenance thread of the {@link TCacheManager}: removes the expired
+     * entries and lets the eviction policy catch up.
+     * @param now the current time in milliseconds (since the Epoc)
+     */
+    void runMaintenance(long now) {
+        if (null != timerWheel) {
+            timerWheel.advance(now);
+        }
+        if (null != writeAheadLog && writeAheadLog.isCompactionDue()) {
+            try {
+                cacheManager.getLoaderExecutor().execute(() -> {
+                    Set<Object> keys = startScan();
+                    try {
+                        writeAheadLog.compact(scanKeys(keys), this::peekEntry, clock.millis());
+                    } finally {
+                        movedKeys.remove(keys);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                //the manager is closing
+            }
+        }
+        afterWrite();
+    }
+
+    /**
+     * Replays the write-ahead log of a durable cache and opens it for the
+     * mutations. Called by the manager before the cache is made visible.
+     *
+     * @throws CacheException if the log can not be replayed or opened
+     */
+    void recover() {
+        if (null == writeAheadLog) {
+            isRecovered = true;
+            return;
+        }
+        try {
+            long count = writeAheadLog.replay(this::replay, this::restore, clock.millis(),
+                    cacheManager.getLoaderExecutor());
+            writeAheadLog.open();
+            isRecovered = true;
+            LOGGER.log(Level.INFO, "Replayed " + count + " records of the write-ahead log of cache " + cacheName);
+        } catch (IOException e) {
+            throw new CacheException("Error replaying the write-ahead log of cache " + cacheName, e);
+        }
+    }
+
+    /**
+     * Applies a record of the write-ahead log. The record is neither
+     * logged again, nor written through, nor published.
+     * @param type the type of the record
+     * @param key the key
+     * @param value the value of a put
+     * @param creationTime the creation time of a put
+     * @param expiryTime the expiry time of a put
+     */
+    private void replay(int type, K key, V value, long creationTime, long expiryTime) {
+        switch (type) {
+            case TWriteAheadLog.PUT:
+                entries.compute(key, (k, cachedValue) -> {
+                    if (null != cachedValue) {
+                        onRemoval(k, cachedValue);
+                    } else if (null != diskTier) {
+                        //the replayed entries overflowing the heap were demoted
+                        diskTier.remove(k);
+                    }
+                    if (expiryTime > -1 && expiryTime <= clock.millis()) {
+                        return null;
+                    }
+                    TCachedValue<V> newValue = createEntry(value, creationTime, expiryTime);
+                    track(k, newValue);
+                    return newValue;
+                });
+                break;
+            case TWriteAheadLog.REMOVE:
+                entries.compute(key, (k, cachedValue) -> {
+                    if (null != cachedValue) {
+                        onRemoval(k, cachedValue);
+                    } else if (null != diskTier) {
+                        diskTier.remove(k);
+                    }
+                    return null;
+                });
+                break;
+            case TWriteAheadLog.CLEAR:
+                for (Object k : entries.keySet()) {
+                    TCachedValue<V> oldValue = entries.remove(k);
+                    if (null != oldValue) {
+                        onRemoval(k, oldValue);
+                    }
+                }
+                if (null != diskTier) {
+                    diskTier.clear();
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown record type " + type);
+        }
+        afterWrite();
+    }
+
+    /**
+     * Forces the mutations of a durable cache to the disk and waits for it,
+     * whatever the {@link TLogSyncPolicy}, for example before a planned
+     * shutdown of the machine.
+     *
+     * @see TCacheConfiguration#setWriteAheadLogDirectory(String)
+     */
+    public void syncLog() {
+        if (null != writeAheadLog) {
+            writeAheadLog.sync();
+        }
+    }
+
+    /**
+     * Gets the number of times the write-ahead log was forced to the disk.
+     * Concurrent mutations share a sync, so that it grows slower than the
+     * number of mutations.
+     *
+     * @return the sync count, 0 if the cache is not durable
+     */
+    public long getLogSyncCount() {
+        return null == writeAheadLog ? 0 : writeAheadLog.getSyncCount();
+    }
+
+    /**
+     * Gets the statistics of the cache. They are recorded only while
+     * {@link TCacheConfiguration#isStatisticsEnabled()}.
+     *
+     * @return the statistics
+     */
+    public CacheStatisticsMXBean getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Gets the latencies of {@link #get} and {@link #getAll}, per key.
+     *
+     * @return the latencies or null if the histograms are not enabled
+     * @see TCacheConfiguration#setLatencyHistogramsEnabled(boolean)
+     */
+    public TLatencySnapshot getGetLatency() {
+        return statistics.getGetLatency();
+    }
+
+    /**
+     * Gets the latencies of the puts, per entry.
+     *
+     * @return the latencies or null if the histograms are not enabled
+     * @see TCacheConfiguration#setLatencyHistogramsEnabled(boolean)
+     */
+    public TLatencySnapshot getPutLatency() {
+        return statistics.getPutLatency();
+    }
+
+    /**
+     * Gets the latencies of {@link #invoke}, including the calls made by
+     * {@link #invokeAll}.
+     *
+     * @return the latencies or null if the histograms are not enabled
+     * @see TCacheConfiguration#setLatencyHistogramsEnabled(boolean)
+     */
+    public TLatencySnapshot getInvokeLatency() {
+        return statistics.getInvokeLatency();
+    }
+
+    /**
+     * Gets the latencies of the calls of the {@link CacheLoader}, per key.
+     *
+     * @return the latencies or null if the histograms are not enabled
+     * @see TCacheConfiguration#setLatencyHistogramsEnabled(boolean)
+     */
+    public TLatencySnapshot getLoadLatency() {
+        return statistics.getLoadLatency();
+    }
+
+    /**
+     * Gets the most frequently accessed keys with their estimated number of
+     * reads and invocations.
+     *
+     * @return the keys, the most frequent first, empty if they are not tracked
+     * @see TCacheConfiguration#setHotKeyCount(int)
+     */
+    @SuppressWarnings("unchecked")
+    public Map<K, Long> getHotKeys() {
+        return (Map<K, Long>) (Map<?, Long>) statistics.getHotKeys();
+    }
+
+    /**
+     * Gets the number of gets served by the disk tier, which promoted
+     * their entries to the heap.
+     *
+     * @return the disk hit count, 0 if the cache is not tiered
+     * @see TCacheConfiguration#setDiskTierDirectory(String)
+     */
+    public long getDiskHitCount() {
+        return statistics.getDiskHits();
+    }
+
+    /**
+     * Gets the number of entries evicted from the heap to the disk tier.
+     * The entries evicted from the disk tier, and those evicted from the
+     * heap but not demoted, count as evictions.
+     *
+     * @return the demotion count, 0 if the cache is not tiered
+     */
+    public long getDemotionCount() {
+        return statistics.getDemotions();
+    }
+
+    /**
+     * Gets the percentage of the gets served by the heap tier.
+     *
+     * @return the percentage of all gets
+     */
+    public float getHeapHitPercentage() {
+        return statistics.getHeapHitPercentage();
+    }
+
+    /**
+     * Gets the percentage of the gets missing the heap that were served
+     * by the disk tier.
+     *
+     * @return the percentage of the heap misses, 0 if the cache is not tiered
+     */
+    public float getDiskHitPercentage() {
+        return statistics.getDiskHitPercentage();
+    }
+
+    /**
+     * Determines if the entries evicted from the heap are demoted to a
+     * disk tier.
+     *
+     * @return true if the cache is tiered
+     */
+    public boolean isTiered() {
+        return null != diskTier;
+    }
+
+    /**
+     * Starts or stops recording the statistics.
+     * @param isEnabled whether the statistics are recorded
+     */
+    void setStatisticsEnabled(boolean isEnabled) {
+        configuration.setStatisticsEnabled(isEnabled);
+        statistics.setEnabled(isEnabled);
+    }
+
+    /**
+     * Gets the number of values loaded by the {@link CacheLoader}.
+     *
+     * @return the load count
+     */
+    public long getLoadCount() {
+        return null == loadCoordinator ? 0 : loadCoordinator.getLoadCount();
+    }
+
+    /**
+     * Gets the number of calls of the {@link CacheLoader} that failed.
+     *
+     * @return the load failure count
+     */
+    public long getLoadFailureCount() {
+        return null == loadCoordinator ? 0 : loadCoordinator.getLoadFailureCount();
+    }
+
+    /**
+     * Gets the number of misses that waited for a load of the same key
+     * already in flight instead of calling the {@link CacheLoader} again.
+     *
+     * @return the coalesced load count
+     */
+    public long getCoalescedLoadCount() {
+        return null == loadCoordinator ? 0 : loadCoordinator.getCoalescedLoadCount();
+    }
+
+    /**
+     * Gets the mean time the {@link CacheLoader} takes to load a value.
+     *
+     * @return the time in microseconds
+     */
+    public float getAverageLoadTime() {
+        return null == loadCoordinator ? 0 : loadCoordinator.getAverageLoadTime();
+    }
+
+    /**
+     * Gets the number of entries refreshed ahead of their expiry.
+     *
+     * @return the refresh count
+     */
+    public long getRefreshCount() {
+        return refreshCount.sum();
+    }
+
+    /**
+     * Passes the mutations waiting to be written behind on to the
+     * {@link CacheWriter} and waits until they are written.
+     */
+    public void flushWrites() {
+        if (null != writeBehindQueue) {
+            writeBehindQueue.flush();
+        }
+    }
+
+    /**
+     * Writes the entries of the cache to a snapshot file, to be loaded by
+     * {@link #loadSnapshot(Path)} when the application restarts. The
+     * keys and the values are serialized by the built-in
+     * {@link TSerializer}s of their types unless a value serializer is
+     * configured.
+     * <p>
+     * The entries are scanned without blocking the writers of the cache, so
+     * that every entry is written as it was at some point of the scan. The
+     * snapshot replaces the file only once it is complete.
+     * </p>
+     *
+     * @param file the snapshot file
+     * @return the number of entries written
+     * @throws CacheException if the snapshot can not be written
+     * @see TCacheConfiguration#setSnapshotFile(String)
+     */
+    public long writeSnapshot(Path file) {
+        Set<Object> keys = startScan();
+        try {
+            return TSnapshotFile.write(scanKeys(keys), this::peekEntry, getSnapshotKeySerializer(),
+                    getSnapshotValueSerializer(), clock.millis(), file);
+        } catch (IOException e) {
+            throw new CacheException("Error writing a snapshot of cache " + cacheName + " to " + file, e);
+        } finally {
+            movedKeys.remove(keys);
+        }
+    }
+
+    /**
+     * Writes the snapshot of the cache, if a snapshot file is configured.
+     * Failures are logged.
+     *
+     * @return true if the snapshot was written
+     * @see TCacheConfiguration#setSnapshotFile(String)
+     */
+    boolean writeConfiguredSnapshot() {
+        String snapshotFile = configuration.getSnapshotFile();
+        if (null == snapshotFile) {
+            return false;
+        }
+        try {
+            writeSnapshot(Paths.get(snapshotFile));
+            return true;
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Error writing the snapshot of cache: " + cacheName, e);
+            return false;
+        }
+    }
+
+    /**
+     * Starts recording the keys moved between the tiers for a snapshot.
+     * @return the set of the moved keys, to be removed from {@link #movedKeys} once the snapshot is written
+     */
+    private Set<Object> startScan() {
+        Set<Object> keys = ConcurrentHashMap.newKeySet();
+        if (null != diskTier) {
+            movedKeys.add(keys);
+        }
+        return keys;
+    }
+
+    /**
+     * Gets the keys a snapshot scans: those of the heap, then those of the
+     * disk tier, then those moved between the tiers meanwhile, which the
+     * scan of their tier might have missed.
+     * @param keys the keys moved during the snapshot
+     * @return the keys, some of them more than once
+     */
+    private Iterator<Object> scanKeys(Set<Object> keys) {
+        if (null == diskTier) {
+            return entries.keySet().iterator();
+        }
+        return Stream.concat(Stream.concat(entries.keySet().stream(), diskTier.keySet().stream()),
+                Stream.of(keys).flatMap(Set::stream)).iterator();
+    }
+
+    /**
+     * Gets the entry of a key in either tier for a snapshot, without
+     * counting as an access.
+     * @param key the key
+     * @return the entry or null if the key is not mapped
+     */
+    private TCachedValue<V> peekEntry(Object key) {
+        TCachedValue<V> cachedValue = entries.get(key);
+        if (null != cachedValue || null == diskTier) {
+            return cachedValue;
+        }
+        cachedValue = diskTier.peek(key);
+        if (null != cachedValue) {
+            return cachedValue;
+        }
+        //the entry may be moving between the tiers, look again while its mapping is locked
+        AtomicReference<TCachedValue<V>> result = new AtomicReference<>();
+        entries.compute(key, (k, v) -> {
+            result.set(null != v ? v : diskTier.peek(k));
+            return v;
+        });
+        return result.get();
+    }
+
+    /**
+     * Gets the entry of a key for another manager, which owns the key now
+     * and waits for the entry to be handed over to it. The lookup is not
+     * an access: the statistics, the expiry and the eviction policy do not
+     * see it and the entry is not refreshed.
+     *
+     * @param key the key
+     * @return the entry or null if the key is not mapped or expired
+     */
+    TCachedValue<V> peek(K key) {
+        ensureOpen();
+        TCachedValue<V> cachedValue = peekEntry(key);
+        return null == cachedValue || cachedValue.isExpiredAt(clock.millis()) ? null : cachedValue;
+    }
+
+    /**
+     * Loads the entries of a snapshot written by {@link #writeSnapshot(Path)}.
+     * The file is mapped into memory and its segments are restored in
+     * parallel by the loader threads of the manager. The entries keep
+     * their creation and expiry times, those expired since the snapshot
+     * are dropped and those already in the cache are kept. Restoring an
+     * entry is neither written through, nor published to the listeners,
+     * nor counted by the statistics.
+     *
+     * @param file the snapshot file
+     * @return the number of entries restored
+     * @throws CacheException if the file is not a complete snapshot
+     */
+    public long loadSnapshot(Path file) {
+        try {
+            return TSnapshotFile.read(file, getSnapshotKeySerializer(), getSnapshotValueSerializer(),
+                    clock.millis(), cacheManager.getLoaderExecutor(), this::restore);
+        } catch (IOException e) {
+            throw new CacheException("Error loading a snapshot of cache " + cacheName + " from " + file, e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    TSerializer<K> getSnapshotKeySerializer() {
+        return TSerializers.forType(configuration.getKeyType());
+    }
+
+    TSerializer<V> getSnapshotValueSerializer() {
+        if (null != valueSerializer) {
+            return valueSerializer;
+        }
+        if (null != configuration.getValueSerializerFactory()) {
+            return configuration.getValueSerializerFactory().create();
+        }
+        return TSerializers.forType(configuration.getValueType());
+    }
+
+    /**
+     * Stores an entry of a snapshot unless the key is mapped already.
+     * @param key the key
+     * @param value the value
+     * @param creationTime the time when the entry was created
+     * @param expiryTime the time when the entry expires
+     * @return true if the entry was stored
+     */
+    private boolean restore(K key, V value, long creationTime, long expiryTime) {
+        boolean[] isRestored = {false};
+        entries.computeIfAbsent(key, k -> {
+            if (null != diskTier && diskTier.containsKey(k, clock.millis())) {
+                return null;
+            }
+            TCachedValue<V> cachedValue = createEntry(value, creationTime, expiryTime);
+            track(k, cachedValue);
+            isRestored[0] = true;
+            return cachedValue;
+        });
+        afterWrite();
+        return isRestored[0];
+    }
+
+    /**
+     * Waits until the events published so far were delivered to the
+     * asynchronous {@link javax.cache.event.CacheEntryListener}s.
+     */
+    public void flushEvents() {
+        eventDispatcher.flush();
+    }
+
+    /**
+     * Gets the number of events waiting for the asynchronous listeners.
+     *
+     * @return the pending event count
+     */
+    public int getPendingEventCount() {
+        return eventDispatcher.getPendingCount();
+    }
+
+    /**
+     * Gets the number of events not delivered to the asynchronous
+     * listeners because their queue was full.
+     *
+     * @return the dropped event count
+     * @see TCacheConfiguration#setEventQueueCapacity(int)
+     */
+    public long getDroppedEventCount() {
+        return eventDispatcher.getDroppedCount();
+    }
+
+    /**
+     * Gets the number of calls of the listeners that failed.
+     *
+     * @return the listener failure count
+     */
+    public long getListenerFailureCount() {
+        return eventDispatcher.getFailureCount();
+    }
+
+    /**
+     * Gets the number of keys waiting to be written behind.
+     *
+     * @return the pending write count
+     */
+    public int getPendingWriteCount() {
+        return null == writeBehindQueue ? 0 : writeBehindQueue.getPendingCount();
+    }
+
+    /**
+     * Gets the number of mutations that collapsed into a later mutation of
+     * the same key before they were written behind.
+     *
+     * @return the coalesced write count
+     */
+    public long getCoalescedWriteCount() {
+        return null == writeBehindQueue ? 0 : writeBehindQueue.getCoalescedCount();
+    }
+
+    /**
+     * Gets the number of batches written behind.
+     *
+     * @return the write batch count
+     */
+    public long getWriteBatchCount() {
+        return null == writeBehindQueue ? 0 : writeBehindQueue.getBatchCount();
+    }
+
+    /**
+     * Gets the number of mutations the {@link CacheWriter} failed to write
+     * behind.
+     *
+     * @return the write failure count
+     */
+    public long getWriteFailureCount() {
+        return null == writeBehindQueue ? 0 : writeBehindQueue.getFailureCount();
+    }
+
+    /**
+     * Gets the number of expired entries removed by the maintenance thread.
+     *
+     * @return the reaped count
+     */
+    public long getReapedCount() {
+        return null == timerWheel ? 0 : timerWheel.getReapedCount();
+    }
+
+    /**
+     * Gets the maximum delay in milliseconds between the expiry and the
+     * removal of an entry, as observed by the latest maintenance run.
+     *
+     * @return the lag of the latest run
+     */
+    public long getReapLag() {
+        return null == timerWheel ? 0 : timerWheel.getLastReapLag();
+    }
+
+    /**
+     * Gets the maximum delay in milliseconds between the expiry and the
+     * removal of an entry, as observed since the cache was created.
+     *
+     * @return the maximum lag
+     */
+    public long getMaximumReapLag() {
+        return null == timerWheel ? 0 : timerWheel.getMaximumReapLag();
+    }
+
+    /**
+     * Gets the number of bytes of off-heap memory taken by the cache.
+     *
+     * @return the reserved off-heap bytes, 0 for an on-heap cache
+     */
+    public long getOffHeapReservedBytes() {
+        return null == offHeapStore ? 0 : offHeapStore.getReservedBytes();
+    }
+
+    /**
+     * Gets the number of bytes of off-heap memory holding entries.
+     *
+     * @return the used off-heap bytes, 0 for an on-heap cache
+     */
+    public long getOffHeapUsedBytes() {
+        return null == offHeapStore ? 0 : offHeapStore.getUsedBytes();
     }
 
     /**
-     * The default Duration to use when a Duration can't be determined.
-     *
-     * @return the default Duration
+     * Lets the eviction policy catch up with the mutations of the cache,
+     * evicting entries if the cache or the memory budget of the manager
+     * has grown over its maximum.
      */
-
-    @Override
-    public V get(K k) {
-        TCachedValue<V> cachedValue = entries.get(k);
-        if(null != cachedValue) {
-            long now = System.currentTimeMillis();
-            if (!cachedValue.isExpiredAt(now)) {
-                return cachedValue.getInternalValue(now);
-            } else {
-                entries.remove(k);
-            }
+    private void afterWrite() {
+        if (null != evictionPolicy) {
+            evictionPolicy.afterWrite();
         }
-        return null;
-    }
-
-    @Override
-    public Map<K, V> getAll(Set<? extends K> setKeys) {
-        Map<K, V> resultMap = new HashMap<>();
-        try {
-            readLock.lock();
-            setKeys.forEach((key) -> resultMap.put(key, this.get(key)));
-        } finally {
-            readLock.unlock();
+        if (null != memoryBudget) {
+            memoryBudget.afterWrite();
         }
-        return resultMap;
-    }
-
-    @Override
-    public boolean containsKey(K k) {
-        return entries.containsKey(k);
+        if (null != writeAheadLog) {
+            writeAheadLog.awaitDurable();
+        }
+        eventDispatcher.dispatchSynchronous();
     }
 
-    @Override
-    public void loadAll(Set<? extends K> set, boolean b, CompletionListener completionListener) {
+    /**
+     * Calculates the weight of an entry.
+     * @param key the key of the entry
+     * @param value the value of the entry
+     * @return the weight, one if no weigher is configured
+     */
+    @SuppressWarnings("unchecked")
+    private int weigh(Object key, V value) {
+        if (null == weigher) {
+            return 1;
+        }
+        int weight = weigher.weigh((K) key, value);
+        if (weight < 0) {
+            throw new IllegalArgumentException("The weight of an entry must not be negative");
+        }
+        return weight;
     }
 
     /**
-     * factory method
-     * Not thread-safe method
-     * @param value the internal value of building entry
-     * @return the new building entry
+     * Calculates the weight of an entry, reading its value only if a weigher
+     * is configured, since that may deserialize it.
+     * @param key the key of the entry
+     * @param cachedValue the entry
+     * @return the weight, one if no weigher is configured
      */
-    private TCachedValue<V> createNewEntry(V value) {
-        long now = System.currentTimeMillis();
-        Duration duration = expiryPolicy.getExpiryForCreation();
-        long expiryTime = duration.getAdjustedTime(now);
-        return new TCachedValue<>(value, now, expiryTime);
+    private int weighEntry(Object key, TCachedValue<V> cachedValue) {
+        return null == weigher ? 1 : weigh(key, cachedValue.getInternalValue());
     }
 
     /**
      * Not thread-safe method
+     * @param key the key of the cachedValue
      * @param cachedValue the cachedValue will update
      * @param newValue the new internal value for updating value
      */
-    private void updateEntry(TCachedValue<V> cachedValue, V newValue) {
-        long now = System.currentTimeMillis();
+    private void updateEntry(Object key, TCachedValue<V> cachedValue, V newValue) {
+        V oldValue = eventDispatcher.hasListeners() && eventDispatcher.isOldValueRequired()
+                ? cachedValue.getInternalValue()
+                : null;
+        if (null != evictionPolicy && null != weigher) {
+            evictionPolicy.recordUpdate(key, cachedValue,
+                    weighEntry(key, cachedValue), weigh(key, newValue));
+        }
+        long now = clock.millis();
         Duration duration = expiryPolicy.getExpiryForUpdate();
-        long expiryTime = duration.getAdjustedTime(now);
-        cachedValue.setExpiryTime(expiryTime);
-        cachedValue.setInternalValue(newValue, now);
+        if (null != duration) {
+            cachedValue.setExpiryTime(duration.getAdjustedTime(now));
+        }
+        cachedValue.setInternalValue(newValue);
+        if (refreshAheadTime > 0) {
+            RefreshToken token = refreshes.get(key);
+            if (null != token) {
+                token.isStale = true;
+            }
+        }
+        if (null != timerWheel) {
+            timerWheel.recordSchedule(key, cachedValue);
+        }
+        if (null != writeAheadLog) {
+            logPut(key, newValue, cachedValue);
+        }
+        replicatePut(key, cachedValue);
+        if (eventDispatcher.hasListeners()) {
+            publish(EventType.UPDATED, key, newValue, oldValue);
+        }
     }
 
-    @Override
-    public void put(K key, V value) {
-       entries.compute(key, (k, cachedValue) -> {
+    /**
+     * Passes a written value on to the {@link CacheWriter}.
+     * Has to be called while the mapping of the key is locked, so that the
+     * mutations of a key reach the writer in order
+     * @param key the key of the written value
+     * @param value the written value
+     */
+    private void writeThrough(K key, V value) {
+        if (null != writeBehindQueue) {
+            writeBehindQueue.write(key, value);
+        } else if (null != cacheWriter) {
+            try {
+                cacheWriter.write(new TEntry<>(key, value));
+            } catch (CacheWriterException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CacheWriterException(e);
+            }
+        }
+    }
+
+    /**
+     * Passes a removed key on to the {@link CacheWriter}.
+     * Has to be called while the mapping of the key is locked, so that the
+     * mutations of a key reach the writer in order
+     * @param key the removed key
+     */
+    private void deleteThrough(K key) {
+        if (null != writeBehindQueue) {
+            writeBehindQueue.delete(key);
+        } else if (null != cacheWriter) {
+            try {
+                cacheWriter.delete(key);
+            } catch (CacheWriterException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CacheWriterException(e);
+            }
+        }
+    }
+
+    /**
+     * Maps a key to a value.
+     * @param key the key
+     * @param value the value
+     * @param isWriteThrough whether the value is passed on to the {@link CacheWriter}
+     * @param isOldValueRequired whether the previous value is returned
+     * @return the previous value if required and present, otherwise null
+     */
+    private V put(K key, V value, boolean isWriteThrough, boolean isOldValueRequired) {
+        List<V> oldValue = new ArrayList<>(1);
+        entries.compute(key, promoting((k, cachedValue) -> {
+            if (isWriteThrough) {
+                writeThrough(key, value);
+            }
+            if (null != cachedValue && cachedValue.isExpiredAt(clock.millis())) {
+                onExpiry(k, cachedValue);
+                onRemoval(k, cachedValue);
+                cachedValue = null;
+            }
             if (null != cachedValue) {
-                updateEntry(cachedValue, value);
+                if (isOldValueRequired) {
+                    oldValue.add(cachedValue.getInternalValue());
+                }
+                updateEntry(k, cachedValue, value);
             } else {
                 cachedValue = createNewEntry(value);
+                if (isExpiredOnCreation(cachedValue)) {
+                    //created with a zero duration, the entry is not cached at all
+                    return null;
+                }
+                onCreation(k, cachedValue);
             }
             return cachedValue;
-        });
+        }));
+        afterWrite();
+        return oldValue.isEmpty() ? null : oldValue.get(0);
+    }
+
+    @Override
+    public void put(K key, V value) {
+        ensureOpen();
+        long start = statistics.startSample();
+        put(key, value, true, false);
+        statistics.recordPuts(1);
+        statistics.recordPutTime(start, 1);
     }
 
     @Override
     public V getAndPut(K k, V v) {
-        V oldValue = this.get(k);
-        if (null != oldValue)
-            this.put(k, v);
+        ensureOpen();
+        long start = statistics.startSample();
+        V oldValue = put(k, v, true, true);
+        recordGet(oldValue);
+        statistics.recordPuts(1);
+        statistics.recordPutTime(start, 1);
         return oldValue;
     }
 
+    /**
+     * Records a hit if a value was read, a miss otherwise.
+     * @param value the value read or null
+     */
+    private void recordGet(V value) {
+        if (null != value) {
+            statistics.recordHits(1);
+        } else {
+            statistics.recordMisses(1);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The entries are put as described by {@link TBulkOperations}: every
+     * entry atomically, large maps in parallel and without an order between
+     * the entries. Every entry is written through while its key is locked,
+     * as by {@link #put}, so that the writes of a key reach the
+     * {@link CacheWriter} in order. The entries the writer fails to write
+     * are not put, the others are, and the first failure is thrown.
+     * </p>
+     */
     @Override
     public void putAll(Map<? extends K, ? extends V> map) {
-        try {
-            writeLock.lock();
-            map.forEach(this::put);
-        } finally {
-            writeLock.unlock();
+        ensureOpen();
+        long start = statistics.startSample();
+        AtomicReference<CacheWriterException> failure = new AtomicReference<>();
+        LongAdder unwrittenCount = new LongAdder();
+        TBulkOperations.forEach(map.entrySet(), Map.Entry::getKey, entry -> {
+            try {
+                put(entry.getKey(), entry.getValue(), true, false);
+            } catch (CacheWriterException e) {
+                failure.compareAndSet(null, e);
+                unwrittenCount.increment();
+            }
+        });
+        statistics.recordPuts(map.size() - unwrittenCount.sum());
+        statistics.recordPutTime(start, map.size());
+        if (null != failure.get()) {
+            throw failure.get();
         }
     }
 
+    /**
+     * Maps a key to a value unless it is mapped already.
+     * @param key the key
+     * @param value the value
+     * @param isWriteThrough whether the value is passed on to the {@link CacheWriter}
+     * @param isAccepted decides if the value is put to an absent key, while its mapping is locked
+     * @return true if the value was put
+     */
+    private boolean putIfAbsent(K key, V value, boolean isWriteThrough, Predicate<Object> isAccepted) {
+        boolean[] isPut = {false};
+        entries.compute(key, promoting((k, cachedValue) -> {
+            if (null != cachedValue && !cachedValue.isExpiredAt(clock.millis()) || !isAccepted.test(k)) {
+                return cachedValue;
+            }
+            if (isWriteThrough) {
+                writeThrough(key, value);
+            }
+            if (null != cachedValue) {
+                onExpiry(k, cachedValue);
+                onRemoval(k, cachedValue);
+            }
+            cachedValue = createNewEntry(value);
+            isPut[0] = true;
+            if (isExpiredOnCreation(cachedValue)) {
+                return null;
+            }
+            onCreation(k, cachedValue);
+            return cachedValue;
+        }));
+        afterWrite();
+        return isPut[0];
+    }
+
     @Override
     public boolean putIfAbsent(K key, V value) {
-        TCachedValue<V> oldCachedValue = entries.get(key);
-        TCachedValue<V> possibleCachedValue = entries.computeIfAbsent(key, k -> createNewEntry(value));
-        return oldCachedValue != possibleCachedValue;
+        ensureOpen();
+        long start = statistics.startSample();
+        boolean isPut = putIfAbsent(key, value, true, k -> true);
+        if (isPut) {
+            statistics.recordPuts(1);
+        }
+        statistics.recordPutTime(start, 1);
+        return isPut;
+    }
+
+    /**
+     * Removes the mapping of a key. An expired entry is removed as expired
+     * and treated as absent.
+     * @param key the key
+     * @param isWriteThrough whether the removal is passed on to the {@link CacheWriter}
+     * @return the removed entry or null if there was no unexpired mapping
+     */
+    private TCachedValue<V> removeEntry(K key, boolean isWriteThrough) {
+        AtomicReference<TCachedValue<V>> oldValue = new AtomicReference<>();
+        entries.compute(key, promoting((k, cachedValue) -> {
+            if (isWriteThrough) {
+                deleteThrough(key);
+            }
+            cachedValue = removeIfExpired(k, cachedValue);
+            if (null != cachedValue) {
+                onRemovedByApplication(k, cachedValue);
+            }
+            oldValue.set(cachedValue);
+            return null;
+        }));
+        return oldValue.get();
     }
 
     @Override
     public boolean remove(K k) {
-        TCachedValue<V> oldValue = entries.remove(k);
+        ensureOpen();
+        long start = statistics.startSample();
+        TCachedValue<V> oldValue = removeEntry(k, true);
+        if (null != oldValue) {
+            onRemoval(k, oldValue);
+            afterWrite();
+            statistics.recordRemovals(1);
+        }
+        statistics.recordRemoveTime(start, 1);
         return (null != oldValue);
     }
 
     @Override
     public boolean remove(K key, V value) {
-        TCachedValue oldValue = entries.computeIfPresent(key, (k, v) -> {
-            if (v.equalsValue(value))
+        ensureOpen();
+        long start = statistics.startSample();
+        boolean[] isRemoved = {false};
+        entries.compute(key, promoting((k, v) -> {
+            v = removeIfExpired(k, v);
+            if (null != v && v.equalsValue(value)) {
+                deleteThrough(key);
+                onRemovedByApplication(k, v);
+                onRemoval(k, v);
+                isRemoved[0] = true;
                 return null;
+            }
             return v;
-        });
-        return (null != oldValue);
+        }));
+        afterWrite();
+        if (isRemoved[0]) {
+            statistics.recordRemovals(1);
+        }
+        statistics.recordRemoveTime(start, 1);
+        return isRemoved[0];
     }
 
     @Override
     public V getAndRemove(K k) {
-        TCachedValue<V> oldValue = entries.remove(k);
-        return null != oldValue ? oldValue.getInternalValue(-1) : null;
+        ensureOpen();
+        long start = statistics.startSample();
+        TCachedValue<V> oldValue = removeEntry(k, true);
+        V value = null;
+        if (null != oldValue) {
+            value = oldValue.getInternalValue();
+            onRemoval(k, oldValue);
+            afterWrite();
+            statistics.recordRemovals(1);
+        }
+        recordGet(value);
+        statistics.recordRemoveTime(start, 1);
+        return value;
     }
 
     @Override
     public boolean replace(K key, V oldValue, V newValue) {
-        TCachedValue<V> oldCachedValue = entries.computeIfPresent(key, (k, v) -> {
-            if (v.equalsValue(oldValue))
-                updateEntry(v, newValue);
+        ensureOpen();
+        boolean[] isReplaced = {false};
+        entries.compute(key, promoting((k, v) -> {
+            v = removeIfExpired(k, v);
+            if (null != v && v.equalsValue(oldValue)) {
+                writeThrough(key, newValue);
+                updateEntry(k, v, newValue);
+                isReplaced[0] = true;
+            }
             return v;
-        });
-        return null != oldCachedValue;
+        }));
+        afterWrite();
+        if (isReplaced[0]) {
+            statistics.recordPuts(1);
+        }
+        return isReplaced[0];
     }
 
     @Override
     public boolean replace(K key, V value) {
-        TCachedValue<V> oldCachedValue = entries.computeIfPresent(key, (k, v) -> {
-            updateEntry(v, value);
+        ensureOpen();
+        TCachedValue<V> oldCachedValue = entries.compute(key, promoting((k, v) -> {
+            v = removeIfExpired(k, v);
+            if (null == v) {
+                return null;
+            }
+            writeThrough(key, value);
+            updateEntry(k, v, value);
             return v;
-        });
+        }));
+        afterWrite();
+        if (null != oldCachedValue) {
+            statistics.recordPuts(1);
+        }
         return null != oldCachedValue;
     }
 
     @Override
     public V getAndReplace(K key, V value) {
-        TCachedValue<V> oldCachedValue = entries.computeIfPresent(key, (k, v) -> {
-            updateEntry(v, value);
+        ensureOpen();
+        List<V> oldValue = new ArrayList<>(1);
+        entries.compute(key, promoting((k, v) -> {
+            v = removeIfExpired(k, v);
+            if (null == v) {
+                return null;
+            }
+            writeThrough(key, value);
+            oldValue.add(v.getInternalValue());
+            updateEntry(k, v, value);
             return v;
-        });
-        return null != oldCachedValue ? oldCachedValue.getInternalValue(-1) : null;
+        }));
+        afterWrite();
+        V previousValue = oldValue.isEmpty() ? null : oldValue.get(0);
+        recordGet(previousValue);
+        if (null != previousValue) {
+            statistics.recordPuts(1);
+        }
+        return previousValue;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The keys are removed as described by {@link TBulkOperations}. Every
+     * key is deleted through while it is locked, as by {@link #remove}. The
+     * keys the {@link CacheWriter} fails to delete are not removed, the
+     * others are, and the first failure is thrown.
+     * </p>
+     */
     @Override
     public void removeAll(Set<? extends K> set) {
-        try{
-            writeLock.lock();
-            set.forEach(entries::remove);
-        } finally {
-            writeLock.unlock();
+        ensureOpen();
+        AtomicReference<CacheWriterException> failure = new AtomicReference<>();
+        TBulkOperations.forEach(set, key -> key, key -> {
+            try {
+                remove(key);
+            } catch (CacheWriterException e) {
+                failure.compareAndSet(null, e);
+            }
+        });
+        if (null != failure.get()) {
+            throw failure.get();
         }
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public void removeAll() {
-        entries.clear();
+        ensureOpen();
+        if (null == cacheWriter && !statistics.isEnabled() && !eventDispatcher.hasListeners()) {
+            clear();
+        } else {
+            Set<K> keys = new HashSet<>((Set<K>) (Set<?>) entries.keySet());
+            if (null != diskTier) {
+                keys.addAll((Set<K>) (Set<?>) diskTier.keySet());
+            }
+            removeAll(keys);
+        }
     }
 
     @Override
     public void clear() {
-        entries.clear();
+        ensureOpen();
+        if (null != writeAheadLog) {
+            writeAheadLog.appendClear();
+        }
+        TReplicator replicator = getReplicator();
+        if (null != replicator) {
+            replicator.publishClear(this);
+        }
+        if (null == evictionPolicy && null == timerWheel && null == offHeapStore) {
+            entries.clear();
+            return;
+        }
+        for (Object key : entries.keySet()) {
+            TCachedValue<V> oldValue = entries.remove(key);
+            if (null != oldValue) {
+                onRemoval(key, oldValue);
+            }
+        }
+        if (null != diskTier) {
+            diskTier.clear();
+        }
+        afterWrite();
     }
 
     @Override
@@ -266,14 +2039,148 @@ public class TCache<K, V> implements Cache<K, V> {
         return configuration;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The processor runs once, while the mapping of the key is locked, and
+     * its changes are applied atomically with it.
+     * </p>
+     */
     @Override
     public <T> T invoke(K k, EntryProcessor<K, V, T> entryProcessor, Object... objects) throws EntryProcessorException {
-        return null;
+        ensureOpen();
+        if (null == k) {
+            throw new NullPointerException("key");
+        }
+        if (null == entryProcessor) {
+            throw new NullPointerException("entryProcessor");
+        }
+        long start = statistics.startSample();
+        statistics.recordAccess(k);
+        List<T> result = new ArrayList<>(1);
+        List<TMutableEntry.Operation> operation = new ArrayList<>(1);
+        entries.compute(k, promoting((key, cachedValue) -> {
+            long now = clock.millis();
+            TCachedValue<V> expiredValue = null;
+            if (null != cachedValue && cachedValue.isExpiredAt(now)) {
+                expiredValue = cachedValue;
+                cachedValue = null;
+            }
+            TMutableEntry<K, V> entry = new TMutableEntry<>(k, cachedValue, now, loadCoordinator);
+            try {
+                result.add(entryProcessor.process(entry, objects));
+            } catch (EntryProcessorException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                throw new EntryProcessorException(e);
+            }
+            //the mapping is unchanged if the processor failed
+            if (null != expiredValue) {
+                onExpiry(key, expiredValue);
+                onRemoval(key, expiredValue);
+            }
+            operation.add(entry.getOperation());
+            return applyProcessing(k, cachedValue, entry, now);
+        }));
+        //recorded once the mapping is unlocked, a full read buffer drains the policy, which may evict
+        if (null != evictionPolicy && !operation.isEmpty() && operation.get(0) == TMutableEntry.Operation.ACCESS) {
+            evictionPolicy.recordRead(k);
+        }
+        afterWrite();
+        statistics.recordInvokeTime(start);
+        return result.get(0);
+    }
+
+    /**
+     * Applies the change of an entry made by an {@link EntryProcessor}.
+     * Has to be called while the mapping of the key is locked; the read of
+     * an accessed entry is recorded by the caller once it is unlocked
+     * @param key the key of the entry
+     * @param cachedValue the unexpired value in the cache or null
+     * @param entry the processed entry
+     * @param now the time of the processing
+     * @return the new value of the mapping
+     */
+    private TCachedValue<V> applyProcessing(K key, TCachedValue<V> cachedValue, TMutableEntry<K, V> entry, long now) {
+        switch (entry.getOperation()) {
+            case ACCESS:
+                statistics.recordHits(1);
+                updateExpiryOnAccess(cachedValue, now);
+                return cachedValue;
+            case CREATE:
+            case LOAD:
+                if (entry.getOperation() == TMutableEntry.Operation.CREATE) {
+                    writeThrough(key, entry.getNewValue());
+                    statistics.recordPuts(1);
+                } else {
+                    statistics.recordMisses(1);
+                }
+                TCachedValue<V> newValue = createNewEntry(entry.getNewValue());
+                if (isExpiredOnCreation(newValue)) {
+                    return null;
+                }
+                onCreation(key, newValue);
+                return newValue;
+            case UPDATE:
+                writeThrough(key, entry.getNewValue());
+                statistics.recordPuts(1);
+                updateEntry(key, cachedValue, entry.getNewValue());
+                return cachedValue;
+            case REMOVE:
+                deleteThrough(key);
+                statistics.recordRemovals(1);
+                onRemovedByApplication(key, cachedValue);
+                onRemoval(key, cachedValue);
+                return null;
+            default:
+                return cachedValue;
+        }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Every key is processed as by {@link #invoke}, large sets in parallel
+     * as described by {@link TBulkOperations}. All keys are processed even
+     * if the processor fails for some of them; the failure of the first key
+     * is thrown afterwards with the others as suppressed exceptions. Use
+     * {@link #invokeAllWithResults} to get the failure of every key.
+     * </p>
+     */
     @Override
     public <T> Map<K, T> invokeAll(Set<? extends K> set, EntryProcessor<K, V, T> entryProcessor, Object... objects) {
-        return null;
+        ensureOpen();
+        return TEntryProcessorResult.getAll(invokeAllWithResults(set, entryProcessor, objects));
+    }
+
+    /**
+     * Invokes an {@link EntryProcessor} against the entries of a set of keys,
+     * capturing the result or the failure of every key.
+     *
+     * @param set the keys of the entries to process
+     * @param entryProcessor the processor
+     * @param objects the additional arguments passed to the processor
+     * @param <T> the type of the result of the processor
+     * @return the result of every key
+     */
+    public <T> Map<K, TEntryProcessorResult<T>> invokeAllWithResults(Set<? extends K> set,
+                                                                     EntryProcessor<K, V, T> entryProcessor,
+                                                                     Object... objects) {
+        ensureOpen();
+        if (null == entryProcessor) {
+            throw new NullPointerException("entryProcessor");
+        }
+        Map<K, TEntryProcessorResult<T>> results = new ConcurrentHashMap<>();
+        TBulkOperations.forEach(set, key -> key, key -> {
+            try {
+                results.put(key, TEntryProcessorResult.success(invoke(key, entryProcessor, objects)));
+            } catch (EntryProcessorException e) {
+                results.put(key, TEntryProcessorResult.failure(e));
+            } catch (RuntimeException e) {
+                results.put(key, TEntryProcessorResult.failure(new EntryProcessorException(e)));
+            }
+        });
+        return results;
     }
 
     @Override
@@ -286,33 +2193,320 @@ public class TCache<K, V> implements Cache<K, V> {
         return cacheManager;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Closing is idempotent. The cache is released from its manager, its
+     * snapshot is written if a snapshot file is configured, the pending
+     * writes and events are flushed and the threads, off-heap memory,
+     * log and disk tier files of the cache are released.
+     * </p>
+     */
     @Override
     public void close() {
-
+        synchronized (this) {
+            if (isClosed) {
+                return;
+            }
+            isClosed = true;
+        }
+        cacheManager.releaseCache(this);
+        if (isRecovered) {
+            writeConfiguredSnapshot();
+        }
+        if (null != writeBehindQueue) {
+            writeBehindQueue.close();
+        }
+        eventDispatcher.close();
+        if (asyncExecutor instanceof ExecutorService) {
+            ((ExecutorService) asyncExecutor).shutdown();
+        }
+        if (null != writeAheadLog) {
+            writeAheadLog.close();
+        }
+        if (null != memoryBudget) {
+            //return the weight of the entries to the budget of the manager
+            memoryBudget.unregister(evictionPolicy);
+            evictionPolicy.invalidate();
+        }
+        if (null != offHeapStore) {
+            entries.clear();
+            offHeapStore.release();
+        }
+        if (null != diskTier) {
+            diskTier.clear();
+        }
+        if (null != timerWheel) {
+            clock.release();
+        }
     }
 
     @Override
     public boolean isClosed() {
-        return false;
+        return isClosed;
+    }
+
+    /**
+     * Checks that the cache is open, before an operation.
+     *
+     * @throws IllegalStateException if the cache is closed
+     */
+    private void ensureOpen() {
+        if (isClosed) {
+            throw new IllegalStateException("Cache " + cacheName + " is closed");
+        }
+    }
+
+    /**
+     * Determines if the key and value types of the cache are those of a
+     * typed lookup. The types are those of the configuration the cache was
+     * created with, later changes of {@link #getConfiguration()} do not
+     * count.
+     *
+     * @param keyType   the key type looked up
+     * @param valueType the value type looked up
+     * @return true if the types match, false if the cache is untyped or the types differ
+     */
+    boolean hasTypes(Class<?> keyType, Class<?> valueType) {
+        return this.keyType == keyType && this.valueType == valueType;
+    }
+
+    /**
+     * Gets what the cache tells the caches of the same name of other
+     * managers about its mutations.
+     *
+     * @return the replication mode
+     */
+    TReplicationMode getReplicationMode() {
+        return replicationMode;
+    }
+
+    /**
+     * Puts a value handed over by the previous owner of its key, unless the
+     * key is mapped: a value written since this manager owns the key is
+     * newer than the handed over one. The value is not passed on to the
+     * {@link CacheWriter}, the other manager did that.
+     *
+     * @param key   the key
+     * @param value the value
+     */
+    void putIfAbsentWithoutWriter(K key, V value) {
+        putIfAbsentWithoutWriter(key, value, k -> true);
+    }
+
+    /**
+     * Puts a value handed over by the previous owner of its key, as
+     * {@link #putIfAbsentWithoutWriter(Object, Object)}, unless the owner
+     * rejects it. The owner decides while the mapping of the key is locked,
+     * as the local mutations apply theirs.
+     *
+     * @param key        the key
+     * @param value      the value
+     * @param isAccepted decides if the value is put to an absent key
+     */
+    void putIfAbsentWithoutWriter(K key, V value, Predicate<Object> isAccepted) {
+        ensureOpen();
+        putIfAbsent(key, value, false, isAccepted);
+    }
+
+    /**
+     * Removes a key handed over to another manager. The removal is not
+     * passed on to the {@link CacheWriter}, the entry lives on elsewhere.
+     *
+     * @param key the key
+     */
+    void removeWithoutWriter(K key) {
+        ensureOpen();
+        TCachedValue<V> oldValue = removeEntry(key, false);
+        if (null != oldValue) {
+            onRemoval(key, oldValue);
+            afterWrite();
+        }
+    }
+
+    /**
+     * Puts a value replicated by another manager, unless the replicator
+     * rejects it as older than the last mutation of the key. The replicator
+     * decides while the mapping of the key is locked, as the local
+     * mutations publish theirs. The value is not passed on to the
+     * {@link CacheWriter}, the other manager did that.
+     *
+     * @param key        the key
+     * @param value      the value
+     * @param isAccepted decides if the mutation is applied, given the key
+     */
+    void applyReplicatedPut(K key, V value, Predicate<Object> isAccepted) {
+        ensureOpen();
+        entries.compute(key, promoting((k, cachedValue) -> {
+            if (!isAccepted.test(k)) {
+                return cachedValue;
+            }
+            cachedValue = removeIfExpired(k, cachedValue);
+            if (null != cachedValue) {
+                updateEntry(k, cachedValue, value);
+                return cachedValue;
+            }
+            cachedValue = createNewEntry(value);
+            if (isExpiredOnCreation(cachedValue)) {
+                return null;
+            }
+            onCreation(k, cachedValue);
+            return cachedValue;
+        }));
+        afterWrite();
+    }
+
+    /**
+     * Removes a key removed or changed by another manager, unless the
+     * replicator rejects the removal as older than the last mutation of the
+     * key, as {@link #applyReplicatedPut}.
+     *
+     * @param key        the key
+     * @param isAccepted decides if the mutation is applied, given the key
+     */
+    void applyReplicatedRemove(K key, Predicate<Object> isAccepted) {
+        ensureOpen();
+        AtomicReference<TCachedValue<V>> oldValue = new AtomicReference<>();
+        entries.compute(key, promoting((k, cachedValue) -> {
+            //an absent key takes the stamp too, so that an older put is rejected
+            if (!isAccepted.test(k) || null == cachedValue) {
+                return cachedValue;
+            }
+            onRemovedByApplication(k, cachedValue);
+            oldValue.set(cachedValue);
+            return null;
+        }));
+        if (null != oldValue.get()) {
+            onRemoval(key, oldValue.get());
+        }
+        afterWrite();
+    }
+
+    /**
+     * Clears the cache as another manager cleared its cache, or after
+     * mutations of other managers were lost.
+     */
+    void applyReplicatedClear() {
+        clear();
+    }
+
+    /**
+     * Gets the key type the cache was created with.
+     *
+     * @return the key type or null if the cache is untyped
+     */
+    Class<K> getKeyType() {
+        return keyType;
+    }
+
+    /**
+     * Gets the value type the cache was created with.
+     *
+     * @return the value type or null if the cache is untyped
+     */
+    Class<V> getValueType() {
+        return valueType;
     }
 
     @Override
     public <T> T unwrap(Class<T> aClass) {
-        return null;
+        if (aClass.isAssignableFrom(getClass())) {
+            return aClass.cast(this);
+        }
+
+        throw new IllegalArgumentException("Unwapping to " + aClass + " is not a supported by this implementation");
     }
 
     @Override
     public void registerCacheEntryListener(CacheEntryListenerConfiguration<K, V> cacheEntryListenerConfiguration) {
-
+        ensureOpen();
+        if (null == cacheEntryListenerConfiguration) {
+            throw new NullPointerException("CacheEntryListenerConfiguration can't be null");
+        }
+        configuration.addCacheEntryListenerConfiguration(cacheEntryListenerConfiguration);
+        eventDispatcher.register(cacheEntryListenerConfiguration);
     }
 
     @Override
     public void deregisterCacheEntryListener(CacheEntryListenerConfiguration<K, V> cacheEntryListenerConfiguration) {
-
+        ensureOpen();
+        if (null == cacheEntryListenerConfiguration) {
+            throw new NullPointerException("CacheEntryListenerConfiguration can't be null");
+        }
+        configuration.removeCacheEntryListenerConfiguration(cacheEntryListenerConfiguration);
+        eventDispatcher.deregister(cacheEntryListenerConfiguration);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The iterator is weakly consistent, see {@link #spliterator(boolean)}.
+     * </p>
+     */
     @Override
     public Iterator<Entry<K, V>> iterator() {
-        return null;
+        return new TEntryIterator<>(this, spliterator(false));
+    }
+
+    /**
+     * Creates a {@link Spliterator} over the entries of the cache, see
+     * {@link #spliterator(boolean)}. Every element is a new entry.
+     *
+     * @return the spliterator
+     */
+    @Override
+    public Spliterator<Entry<K, V>> spliterator() {
+        return spliterator(false);
+    }
+
+    /**
+     * Creates a {@link Spliterator} over the entries of the cache, to be
+     * scanned by {@link java.util.stream.StreamSupport#stream(Spliterator, boolean)},
+     * in parallel too.
+     * <p>
+     * The scan is weakly consistent: it never throws
+     * {@link java.util.ConcurrentModificationException}, returns every
+     * entry at most once and may or may not reflect the mutations made
+     * while it runs. Entries expired when the scan was created are skipped,
+     * but left for the expiry to remove. The scan does not count as an
+     * access: it updates neither the expiry times, nor the eviction
+     * policy, nor the statistics, and does not call the loader. The disk
+     * tier of a tiered cache is scanned after the heap, without promoting
+     * its entries; an entry moving between the tiers during the scan may be
+     * returned twice.
+     * </p>
+     * <p>
+     * A flyweight scan reuses a single entry for every element of a split,
+     * so that it does not allocate an entry per element. Such an entry is
+     * only valid while the action it is passed to runs; the action has to
+     * copy the key and the value to keep them.
+     * </p>
+     *
+     * @param isFlyweight whether the entries are reused
+     * @return the spliterator
+     */
+    public Spliterator<Entry<K, V>> spliterator(boolean isFlyweight) {
+        ensureOpen();
+        long now = clock.millis();
+        Spliterator<Entry<K, V>> heapEntries = new TEntrySpliterator<>(entries::get, entries.keySet().spliterator(),
+                now, isFlyweight);
+        if (null == diskTier) {
+            return heapEntries;
+        }
+        Spliterator<Entry<K, V>> diskEntries = new TEntrySpliterator<>(diskTier::peek,
+                diskTier.keySet().spliterator(), now, isFlyweight);
+        return Stream.concat(StreamSupport.stream(heapEntries, false), StreamSupport.stream(diskEntries, false))
+                .spliterator();
+    }
+
+    /**
+     * The token of a refresh in flight, see {@link #refreshes}.
+     */
+    private static final class RefreshToken {
+
+        /**
+         * Whether the key was written since the refresh was scheduled.
+         */
+        volatile boolean isStale;
     }
 }
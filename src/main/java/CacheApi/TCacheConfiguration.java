@@ -0,0 +1,980 @@
+package CacheApi;
+
+import javax.cache.configuration.CacheEntryListenerConfiguration;
+import javax.cache.configuration.Configuration;
+import javax.cache.configuration.Factory;
+import javax.cache.configuration.MutableConfiguration;
+import java.util.concurrent.Executor;
+
+/**
+ * A {@link MutableConfiguration} carrying the TCache specific settings
+ * that the JSR107 {@link Configuration} has no place for.
+ * <p>
+ * Any {@link Configuration} may be passed to
+ * {@link TCacheManager#createCache(String, Configuration)}; the extended
+ * settings are only honoured when an instance of this class is used.
+ * </p>
+ * @param <K> the type of keys maintained by the cache
+ * @param <V> the type of cached values
+ * @author Kozlov Ivan
+ */
+public class TCacheConfiguration<K, V> extends MutableConfiguration<K, V> {
+
+    public static final long serialVersionUID = 201711090001L;
+
+    /**
+     * A value of {@link #UNBOUNDED} indicates that the size of the cache
+     * is not limited.
+     */
+    public static final long UNBOUNDED = -1;
+
+    /**
+     * The maximum number of entries the cache may hold before the eviction
+     * policy starts to discard entries.
+     */
+    protected long maximumSize = UNBOUNDED;
+
+    /**
+     * The maximum total weight of the entries the cache may hold before the
+     * eviction policy starts to discard entries.
+     */
+    protected long maximumWeight = UNBOUNDED;
+
+    /**
+     * The {@link Factory} for the {@link TCacheWeigher} or null if every
+     * entry weighs one.
+     */
+    protected Factory<TCacheWeigher<? super K, ? super V>> weigherFactory;
+
+    /**
+     * Whether the values are stored off the Java heap.
+     */
+    protected boolean isOffHeap;
+
+    /**
+     * The size in bytes of the slabs of off-heap memory.
+     */
+    protected int offHeapSlabSize = TOffHeapStore.DEFAULT_SLAB_SIZE;
+
+    /**
+     * The {@link Factory} for the {@link TSerializer} of the values or null
+     * if the serializer is chosen by the value type.
+     */
+    protected Factory<TSerializer<V>> valueSerializerFactory;
+
+    /**
+     * Whether the {@link javax.cache.integration.CacheWriter} is called
+     * asynchronously in batches.
+     */
+    protected boolean isWriteBehind;
+
+    /**
+     * The maximum number of mutations passed to the writer at once.
+     */
+    protected int writeBehindBatchSize = 100;
+
+    /**
+     * The maximum time in milliseconds a mutation waits to be written behind.
+     */
+    protected long writeBehindDelay = 1000;
+
+    /**
+     * The maximum number of keys waiting to be written behind.
+     */
+    protected int writeBehindQueueCapacity = 10000;
+
+    /**
+     * The fraction of the lifetime of an entry left when a read refreshes it,
+     * 0 if entries are not refreshed ahead of their expiry.
+     */
+    protected float refreshAheadFraction;
+
+    /**
+     * The {@link Factory} for the {@link Executor} of the asynchronous view
+     * or null if the executor of the {@link TCacheManager} is used.
+     */
+    protected Factory<Executor> asyncExecutorFactory;
+
+    /**
+     * One in how many operations is timed by the statistics, 0 if none is.
+     */
+    protected int latencySampleInterval = 16;
+
+    /**
+     * Whether the sampled latencies are recorded by histograms.
+     */
+    protected boolean isLatencyHistogramsEnabled;
+
+    /**
+     * The number of most frequently accessed keys tracked, 0 if none is.
+     */
+    protected int hotKeyCount;
+
+    /**
+     * The maximum number of events waiting for the asynchronous listeners.
+     */
+    protected int eventQueueCapacity = 8192;
+
+    /**
+     * The maximum time in milliseconds a mutation waits for room in the
+     * queue of the asynchronous listeners before the event is dropped.
+     */
+    protected long eventOfferTimeout;
+
+    /**
+     * The path of the snapshot file of the cache or null if the cache is
+     * not persisted.
+     */
+    protected String snapshotFile;
+
+    /**
+     * The directory of the write-ahead log of the cache or null if the
+     * cache is not durable.
+     */
+    protected String writeAheadLogDirectory;
+
+    /**
+     * When the write-ahead log is forced to the disk.
+     */
+    protected TLogSyncPolicy writeAheadLogSyncPolicy = TLogSyncPolicy.PERIODIC;
+
+    /**
+     * The interval in milliseconds of the periodic sync of the write-ahead log.
+     */
+    protected long writeAheadLogSyncInterval = 100;
+
+    /**
+     * The size in bytes of a segment of the write-ahead log.
+     */
+    protected long writeAheadLogSegmentSize = 64 << 20;
+
+    /**
+     * The directory of the disk tier of the cache or null if the cache
+     * is not tiered.
+     */
+    protected String diskTierDirectory;
+
+    /**
+     * The maximum size in bytes of the disk tier.
+     */
+    protected long diskTierSize = 1L << 30;
+
+    /**
+     * The size in bytes of a segment of the disk tier.
+     */
+    protected long diskTierSegmentSize = 64 << 20;
+
+    /**
+     * What the cache tells the caches of the same name of other managers
+     * about its mutations.
+     */
+    protected TReplicationMode replicationMode = TReplicationMode.NONE;
+
+    /**
+     * Constructs a default configuration of an unbounded cache.
+     */
+    public TCacheConfiguration() {
+        super();
+    }
+
+    /**
+     * Constructs a configuration based on another one. The TCache specific
+     * settings are copied only if the provided configuration is a
+     * {@link TCacheConfiguration} too.
+     *
+     * @param configuration the configuration to copy
+     */
+    public TCacheConfiguration(Configuration<K, V> configuration) {
+        super(configuration);
+        if (configuration instanceof TCacheConfiguration) {
+            TCacheConfiguration<K, V> tConfiguration = (TCacheConfiguration<K, V>) configuration;
+            this.maximumSize = tConfiguration.maximumSize;
+            this.maximumWeight = tConfiguration.maximumWeight;
+            this.weigherFactory = tConfiguration.weigherFactory;
+            this.isOffHeap = tConfiguration.isOffHeap;
+            this.offHeapSlabSize = tConfiguration.offHeapSlabSize;
+            this.valueSerializerFactory = tConfiguration.valueSerializerFactory;
+            this.isWriteBehind = tConfiguration.isWriteBehind;
+            this.writeBehindBatchSize = tConfiguration.writeBehindBatchSize;
+            this.writeBehindDelay = tConfiguration.writeBehindDelay;
+            this.writeBehindQueueCapacity = tConfiguration.writeBehindQueueCapacity;
+            this.refreshAheadFraction = tConfiguration.refreshAheadFraction;
+            this.asyncExecutorFactory = tConfiguration.asyncExecutorFactory;
+            this.latencySampleInterval = tConfiguration.latencySampleInterval;
+            this.isLatencyHistogramsEnabled = tConfiguration.isLatencyHistogramsEnabled;
+            this.hotKeyCount = tConfiguration.hotKeyCount;
+            this.eventQueueCapacity = tConfiguration.eventQueueCapacity;
+            this.eventOfferTimeout = tConfiguration.eventOfferTimeout;
+            this.snapshotFile = tConfiguration.snapshotFile;
+            this.writeAheadLogDirectory = tConfiguration.writeAheadLogDirectory;
+            this.writeAheadLogSyncPolicy = tConfiguration.writeAheadLogSyncPolicy;
+            this.writeAheadLogSyncInterval = tConfiguration.writeAheadLogSyncInterval;
+            this.writeAheadLogSegmentSize = tConfiguration.writeAheadLogSegmentSize;
+            this.diskTierDirectory = tConfiguration.diskTierDirectory;
+            this.diskTierSize = tConfiguration.diskTierSize;
+            this.diskTierSegmentSize = tConfiguration.diskTierSegmentSize;
+            this.replicationMode = tConfiguration.replicationMode;
+        }
+    }
+
+    /**
+     * Gets the maximum number of entries of the cache.
+     *
+     * @return the maximum size or {@link #UNBOUNDED}
+     */
+    public long getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Sets the maximum number of entries of the cache. Once it is exceeded
+     * the W-TinyLFU policy evicts the entries that are least likely to be
+     * used again.
+     *
+     * @param maximumSize the maximum size or {@link #UNBOUNDED}
+     * @return the {@link TCacheConfiguration} to permit fluent-style method calls
+     */
+    public TCacheConfiguration<K, V> setMaximumSize(long maximumSize) {
+        if (maximumSize < 0 && maximumSize != UNBOUNDED) {
+            throw new IllegalArgumentException("maximumSize must not be negative");
+        }
+        this.maximumSize = maximumSize;
+        return this;
+    }
+
+    /**
+     * Gets the maximum total weight of the entries of the cache.
+     *
+     * @return the maximum weight or {@link #UNBOUNDED}
+     */
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    /**
+     * Sets the maximum total weight of the entries of the cache, as
+     * calculated by the configured {@link TCacheWeigher}. A cache is bounded
+     * either by size or by weight.
+     *
+     * @param maximumWeight the maximum weight or {@link #UNBOUNDED}
+     * @return the {@link TCacheConfiguration} to permit fluent-style method calls
+     */
+    public TCacheConfiguration<K, V> setMaximumWeight(long maximumWeight) {
+        if (maximumWeight < 0 && maximumWeight != UNBOUNDED) {
+            throw new IllegalArgumentException("maximumWeight must not be negative");
+        }
+        this.maximumWeight = maximumWeight;
+        return this;
+    }
+
+    /**
+     * Gets the {@link Factory} for the {@link TCacheWeigher}.
+     *
+     * @return the factory or null if every entry weighs one
+     */
+    public Factory<TCacheWeigher<? super K, ? super V>> getWeigherFactory() {
+        return weigherFactory;
+    }
+
+    /**
+     * Sets the {@link Factory} for the {@link TCacheWeigher}. The weights are
+     * also charged to the memory budget of the {@link TCacheManager}.
+     *
+     * @param factory the factory or null if every entry weighs one
+     * @return the {@link TCacheConfiguration} to permit fluent-style method calls
+     */
+    @SuppressWarnings("unchecked")
+    public TCacheConfiguration<K, V> setWeigherFactory(
+            Factory<? extends TCacheWeigher<? super K, ? super V>> factory) {
+        this.weigherFactory = (Factory<TCacheWeigher<? super K, ? super V>>) factory;
+        return this;
+    }
+
+    /**
+     * Determines if the values are stored off the Java heap.
+     *
+     * @return true if the values are stored off-heap
+     */
+    public boolean isOffHeap() {
+        return isOffHeap;
+    }
+
+    /**
+     * Sets whether the values are stored off the Java heap. Off-heap values
+     * are serialized into slabs of direct memory together with their
+     * timestamps, which requires the cache to store by value.
+     *
+     * @param isOffHeap true if the values should be stored off-heap
+     * @return the {@link TCacheConfiguration} to permit fluent-style method calls
+     */
+    public TCacheConfiguration<K, V> setOffHeap(boolean isOffHeap) {
+        this.isOffHeap = isOffHeap;
+        return this;
+    }
+
+    /**
+     * Gets the size in bytes of the slabs of off-heap memory.
+     *
+     * @return the slab size
+     */
+    public int getOffHeapSlabSize() {
+        return offHeapSlabSize;
+    }
+
+    /**
+     * Sets the size in bytes of the slabs of off-heap memory, which is also
+     * the maximum size of a serialized value.
+     *
+     * @param offHeapSlabSize the slab size, a power of two
+     * @return the {@link TCacheConfiguration} to permit fluent-style method calls
+     */
+    public TCacheConfiguration<K, V> setOffHeapSlabSize(int offHeapSlabSize) {
+        if (offHeapSlabSize < 64 || Integer.bitCount(offHeapSlabSize) != 1) {
+            throw new IllegalArgumentException("offHeapSlabSize must be a power of two of at least 64 bytes");
+        }
+        this.offHeapSlabSize = offHeapSlabSize;
+        return this;
+    }
+
+    /**
+     * Gets the {@link Factory} for the {@link TSerializer} of the values.
+     *
+     * @return the factory or null if the serializer is chosen by the value type
+     */
+    public Factory<TSerializer<V>> getValueSerializerFactory() {
+        return valueSerializerFactory;
+    }
+
+    /**
+     * Sets the {@link Factory} for the {@link TSerializer} copying the values
+     * of a cache storing by value. Without one the built-in serializer of the
+     * value type is used, falling back to Java serialization; values of
+     * {@link String} and the boxed primitives are not copied at all as they
+     * can not be changed.
+     *
+     * @param factory the factory or null if the serializer is chosen by the value type
+     * @return the {@link TCacheConfiguration} to permit fluent-style method calls
+     */
+    @SuppressWarnings("unchecked")
+    public TCacheConfiguration<K, V> setValueSerializerFactory(
+            Factory<? extends TSerializer<V>> factory) {
+        this.valueSerializerFactory = (Factory<TSerializer<V>>) factory;
+        return this;
+    }
+
+    /**
+     * Determines if the {@link javax.cache.integration.CacheWriter} of a
+     * write-through cache is called asynchronously.
+     *
+     * @return true if the mutations are written behind
+     */
+    public boolean isWriteBehind() {
+        return isWriteBehind;
+    }
+
+    /**
+     * Sets whether the {@link javax.cache.integration.CacheWriter} of a
+     * write-through cache is called asynchronously. The mutations are queued,
+     * repeated mutations of a key collapse into the last one and the queue is
+     * flushed in batches by {@link javax.cache.integration.CacheWriter#writeAll}
+     * and {@link javax.cache.integration.CacheWriter#deleteAll}. Failures of
+     * the writer are logged instead of being thrown to the caller.
+     *
+     * @param isWriteBehind true if the mutations should be written behind
+     * @return the {@link TCacheConfiguration} to permit fluent-style method calls
+     */
+    public TCacheConfiguration<K, V> setWriteBehind(boolean isWriteBehind) {
+        this.isWriteBehind = isWriteBehind;
+        return this;
+    }
+
+    /**
+     * Gets the maximum number of mutations written behind at once.
+     *
+     * @return the batch size
+     */
+    public int getWriteBehindBatchSize() {
+        return writeBehindBatchSize;
+    }
+
+    /**
+     * Sets the maximum number of mutations written behind at once. A batch
+     * is flushed as soon as it is full.
+     *
+     * @param writeBehindBatchSize the batch size
+     * @return the {@link TCacheConfiguration} to permit fluent-style method calls
+     */
+    public TCacheConfiguration<K, V> setWriteBehindBatchSize(int writeBehindBatchSize) {
+        if (writeBehindBatchSize <= 0) {
+            throw new IllegalArgumentException("writeBehindBatchSize must be positive");
+        }
+        this.writeBehindBatchSize = writeBehindBatchSize;
+        return this;
+    }
+
+    /**
+     * Gets the maximum time a mutation waits to be written behind.
+     *
+     * @return the delay in milliseconds
+     */
+    public long getWriteBehindDelay() {
+        return writeBehindDelay;
+    }
+
+    /**
+     * Sets the maximum time a mutation waits to be written behind, after
+     * which a batch is flushed even if it is not full.
+     *
+     * @param writeBehindDelay the delay in milliseconds
+     * @return the {@link TCacheConfiguration} to permit fluent-style method calls
+     */
+    public TCacheConfiguration<K, V> setWriteBehindDelay(long writeBehindDelay) {
+        if (writeBehindDelay < 0) {
+            throw new IllegalArgumentException("writeBehindDelay must not be negative");
+        }
+        this.writeBehindDelay = writeBehindDelay;
+        return this;
+    }
+
+    /**
+     * Gets the maximum number of keys waiting to be written behind.
+     *
+     * @return the queue capacity
+     */
+    public int getWriteBehindQueueCapacity() {
+        return writeBehindQueueCapacity;
+    }
+
+    /**
+     * Sets the maximum number of keys waiting to be written behind. Once it
+     * is reached, mutations of further keys block until a batch is flushed.
+     *
+     * @param writeBehindQueueCapacity the queue capacity
+     * @return the {@link TCacheConfiguration} to permit fluent-style method calls
+     */
+    public TCacheConfiguration<K, V> setWriteBehindQueueCapacity(int writeBehindQueueCapacity) {
+        if (writeBehindQueueCapacity <= 0) {
+            throw new IllegalArgumentException("writeBehindQueueCapacity must be positive");
+        }
+        this.writeBehindQueueCapacity = writeBehindQueueCapacity;
+        return this;
+    }
+
+    /**
+     * Gets the fraction of the lifetime of an entry left when a read
+     * refreshes it.
+     *
+     * @return the refresh-ahead fraction, 0 if disabled
+     */
+    public float getRefreshAheadFraction() {
+        return refreshAheadFraction;
+    }
+
+    /**
+     * Sets the fraction of the lifetime of an entry left when a read
+     * refreshes it. A read-through cache returns the current value of such
+     * an entry and reloads it in the background, so that hot entries are
+     * replaced before they expire instead of being loaded on a miss. The
+     * lifetime is the {@link javax.cache.expiry.ExpiryPolicy#getExpiryForCreation()}.
+     *
+     * @param refreshAheadFraction the fraction between 0 (disabled) and 1
+     * @return the {@link TCacheConfiguration} to permit fluent-style method calls
+     */
+    public TCacheConfiguration<K, V> setRefreshAheadFraction(float refreshAheadFraction) {
+        if (!(refreshAheadFraction >= 0 && refreshAheadFraction < 1)) {
+            throw new IllegalArgumentException("refreshAheadFraction must be at least 0 and below 1");
+        }
+        this.refreshAheadFraction = refreshAheadFraction;
+        return this;
+    }
+
+    /**
+     * Gets the {@link Factory} for the {@link Executor} of the asynchronous
+     * view of the cache.
+     *
+     * @return the factory or null if the executor of the manager is used
+     */
+    public Factory<Executor> getAsyncExecutorFactory() {
+        return asyncExecutorFactory;
+    }
+
+    /**
+     * Sets the {@link Factory} for the {@link Executor} running the
+     * operations of {@link TCache#async()} that may block on the loader or
+     * the writer. Without one the executor of the {@link TCacheManager} is
+     * used, which runs every operation on a virtual thread where the JVM
+     * supports them. An {@link java.util.concurrent.ExecutorService} created
+     * by the factory is shut down when the cache is closed.
+     *
+     * @param factory the factory or null if the executor of the manager is used
+     * @return the {@link TCacheConfiguration} to permit fluent-style method calls
+     */
+    @SuppressWarnings("unchecked")
+    public TCacheConfiguration<K, V> setAsyncExecutorFactory(Factory<? extends Executor> factory) {
+        this.asyncExecutorFactory = (Factory<Executor>) factory;
+        return this;
+    }
+
+    /**
+     * Gets one in how many operations is timed by the statistics.
+     *
+     * @return the sample interval or 0 if no operation is timed
+     */
+    public int getLatencySampleInterval() {
+        return latencySampleInterval;
+    }
+
+    /**
+     * Sets one in how many operations is timed by the statistics of the
+     * cache, see {@link #setStatisticsEnabled(boolean)}. The operations
+     * are counted either way; timing every operation reads the clock twice
+     * per call, so by default one in 16 is sampled for the average times.
+     *
+     * @param latencySampleInterval a power of two, 1 to time every operation
+     *                              or 0 to time none
+     * @return the {@link TCacheConfiguration} to permit fluent-style method calls
+     */
+    public TCacheConfiguration<K, V> setLatencySampleInterval(int latencySampleInterval) {
+        if (latencySampleInterval < 0 || (latencySampleInterval & (latencySampleInterval - 1)) != 0) {
+            throw new IllegalArgumentException("latencySampleInterval must be 0 or a power of two");
+        }
+        this.latencySampleInterval = latencySampleInterval;
+        return this;
+    }
+
+    /**
+     * Checks whether the sampled latencies are recorded by histograms.
+     *
+     * @return true if the histograms are enabled
+     */
+    public boolean isLatencyHistogramsEnabled() {
+        return isLatencyHistogramsEnabled;
+    }
+
+    /**
+     * Sets whether the latencies of get, put, invoke and the calls of the
+     * loader are recorded by histograms, reported by
+     * {@link TCache#getGetLatency()} and friends. They record the operations
+     * sampled by {@link #setLatencySampleInterval(int)}, and the calls of
+     * the loader, while the statistics are enabled.
+     *
+     * @param isLatencyHistogramsEnabled whether the histograms are enabled
+     * @return the {@link TCacheConfiguration} to permit fluent-style method calls
+     */
+    public TCacheConfiguration<K, V> setLatencyHistogramsEnabled(boolean isLatencyHistogramsEnabled) {
+        this.isLatencyHistogramsEnabled = isLatencyHistogramsEnabled;
+        return this;
+    }
+
+    /**
+     * Gets the number of most frequently accessed keys tracked.
+     *
+     * @return the hot key count or 0 if none is tracked
+     */
+    public int getHotKeyCount() {
+        return hotKeyCount;
+    }
+
+    /**
+     * Sets the number of most frequently accessed keys tracked while the
+     * statistics are enabled, reported by {@link TCache#getHotKeys()}.
+     *
+     * @param hotKeyCount the hot key count or 0 if none is tracked
+     * @return the {@link TCacheConfiguration} to permit fluent-style method calls
+     */
+    public TCacheConfiguration<K, V> setHotKeyCount(int hotKeyCount) {
+        if (hotKeyCount < 0) {
+            throw new IllegalArgumentException("hotKeyCount must not be negative");
+        }
+        this.hotKeyCount = hotKeyCount;
+        return this;
+    }
+
+    /**
+     * Gets the maximum number of events waiting for the asynchronous
+     * listeners.
+     *
+     * @return the event queue capacity
+     */
+    public int getEventQueueCapacity() {
+        return eventQueueCapacity;
+    }
+
+    /**
+     * Sets the maximum number of events waiting to be delivered to the
+     * asynchronous {@link javax.cache.event.CacheEntryListener}s. Once it
+     * is reached mutations wait up to the event offer timeout for room,
+     * then the event is dropped and counted by
+     * {@link TCache#getDroppedEventCount()}.
+     *
+     * @param eventQueueCapacity the capacity, at least one
+     * @return the {@link TCacheConfiguration} to permit fluent-style method calls
+     */
+    public TCacheConfiguration<K, V> setEventQueueCapacity(int eventQueueCapacity) {
+        if (eventQueueCapacity < 1) {
+            throw new IllegalArgumentException("eventQueueCapacity must be positive");
+        }
+        this.eventQueueCapacity = eventQueueCapacity;
+        return this;
+    }
+
+    /**
+     * Gets the maximum time a mutation waits for room in the event queue.
+     *
+     * @return the timeout in milliseconds
+     */
+    public long getEventOfferTimeout() {
+        return eventOfferTimeout;
+    }
+
+    /**
+     * Sets the maximum time a mutation waits for room in the queue of the
+     * asynchronous listeners, applying backpressure to the writers of the
+     * cache. By default events are dropped at once while the queue is full.
+     *
+     * @param eventOfferTimeout the timeout in milliseconds, 0 to drop at once
+     * @return the {@link TCacheConfiguration} to permit fluent-style method calls
+     */
+    public TCacheConfiguration<K, V> setEventOfferTimeout(long eventOfferTimeout) {
+        if (eventOfferTimeout < 0) {
+            throw new IllegalArgumentException("eventOfferTimeout must not be negative");
+        }
+        this.eventOfferTimeout = eventOfferTimeout;
+        return this;
+    }
+
+    /**
+     * Gets the path of the snapshot file of the cache.
+     *
+     * @return the path or null if the cache is not persisted
+     */
+    public String getSnapshotFile() {
+        return snapshotFile;
+    }
+
+    /**
+     * Sets the path of the snapshot file of the cache. The cache is warmed
+     * from the snapshot when it is created, and the
+     * {@link TCacheManager} writes the snapshot when it is closed and on
+     * {@link TCacheManager#writeSnapshots()}.
+     *
+     * @param snapshotFile the path or null if the cache is not persisted
+     * @return the {@link TCacheConfiguration} to permit fluent-style method calls
+     */
+    public TCacheConfiguration<K, V> setSnapshotFile(String snapshotFile) {
+        this.snapshotFile = snapshotFile;
+        return this;
+    }
+
+    /**
+     * Gets the directory of the write-ahead log of the cache.
+     *
+     * @return the directory or null if the cache is not durable
+     */
+    public String getWriteAheadLogDirectory() {
+        return writeAheadLogDirectory;
+    }
+
+    /**
+     * Makes the cache durable: its puts, removals, replacements and clears
+     * are appended to a write-ahead log in the directory, which is replayed
+     * when the cache is created again. Expiry and eviction are not logged;
+     * the entries keep their expiry times and the expired ones are dropped
+     * on replay. A directory belongs to a single cache.
+     *
+     * @param writeAheadLogDirectory the directory or null if the cache is not durable
+     * @return the {@link TCacheConfiguration} to permit fluent-style method calls
+     */
+    public TCacheConfiguration<K, V> setWriteAheadLogDirectory(String writeAheadLogDirectory) {
+        this.writeAheadLogDirectory = writeAheadLogDirectory;
+        return this;
+    }
+
+    /**
+     * Gets when the write-ahead log is forced to the disk.
+     *
+     * @return the sync policy
+     */
+    public TLogSyncPolicy getWriteAheadLogSyncPolicy() {
+        return writeAheadLogSyncPolicy;
+    }
+
+    /**
+     * Sets when the write-ahead log is forced to the disk, by default
+     * {@link TLogSyncPolicy#PERIODIC}.
+     *
+     * @param writeAheadLogSyncPolicy the sync policy
+     * @return the {@link TCacheConfiguration} to permit fluent-style method calls
+     */
+    public TCacheConfiguration<K, V> setWriteAheadLogSyncPolicy(TLogSyncPolicy writeAheadLogSyncPolicy) {
+        if (null == writeAheadLogSyncPolicy) {
+            throw new NullPointerException("writeAheadLogSyncPolicy can't be null");
+        }
+        this.writeAheadLogSyncPolicy = writeAheadLogSyncPolicy;
+        return this;
+    }
+
+    /**
+     * Gets the interval of the periodic sync of the write-ahead log.
+     *
+     * @return the interval in milliseconds
+     */
+    public long getWriteAheadLogSyncInterval() {
+        return writeAheadLogSyncInterval;
+    }
+
+    /**
+     * Sets the interval of the sync of the write-ahead log under the
+     * {@link TLogSyncPolicy#PERIODIC} policy, by default 100 milliseconds.
+     *
+     * @param writeAheadLogSyncInterval the interval in milliseconds
+     * @return the {@link TCacheConfiguration} to permit fluent-style method calls
+     */
+    public TCacheConfiguration<K, V> setWriteAheadLogSyncInterval(long writeAheadLogSyncInterval) {
+        if (writeAheadLogSyncInterval <= 0) {
+            throw new IllegalArgumentException("writeAheadLogSyncInterval must be positive");
+        }
+        this.writeAheadLogSyncInterval = writeAheadLogSyncInterval;
+        return this;
+    }
+
+    /**
+     * Gets the size of a segment of the write-ahead log.
+     *
+     * @return the size in bytes
+     */
+    public long getWriteAheadLogSegmentSize() {
+        return writeAheadLogSegmentSize;
+    }
+
+    /**
+     * Sets the size beyond which the write-ahead log starts a new segment,
+     * by default 64 MB. The log is compacted once a few segments were
+     * written since the last compaction.
+     *
+     * @param writeAheadLogSegmentSize the size in bytes
+     * @return the {@link TCacheConfiguration} to permit fluent-style method calls
+     */
+    public TCacheConfiguration<K, V> setWriteAheadLogSegmentSize(long writeAheadLogSegmentSize) {
+        if (writeAheadLogSegmentSize <= 0 || writeAheadLogSegmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("writeAheadLogSegmentSize must be positive and below 2 GB");
+        }
+        this.writeAheadLogSegmentSize = writeAheadLogSegmentSize;
+        return this;
+    }
+
+    /**
+     * Gets the directory of the disk tier of the cache.
+     *
+     * @return the directory or null if the cache is not tiered
+     */
+    public String getDiskTierDirectory() {
+        return diskTierDirectory;
+    }
+
+    /**
+     * Makes the cache tiered: the entries evicted from the heap are demoted
+     * to memory-mapped segment files in the directory instead of being
+     * discarded, and promoted back to the heap when they are used again.
+     * The heap has to be bounded by {@link #setMaximumSize(long)} or by the
+     * memory budget of the manager. The disk tier is not persistent, its
+     * files are deleted when the cache is created and closed. A directory
+     * belongs to a single cache.
+     *
+     * @param diskTierDirectory the directory or null if the cache is not tiered
+     * @return the {@link TCacheConfiguration} to permit fluent-style method calls
+     */
+    public TCacheConfiguration<K, V> setDiskTierDirectory(String diskTierDirectory) {
+        this.diskTierDirectory = diskTierDirectory;
+        return this;
+    }
+
+    /**
+     * Gets the maximum size of the disk tier.
+     *
+     * @return the size in bytes
+     */
+    public long getDiskTierSize() {
+        return diskTierSize;
+    }
+
+    /**
+     * Sets the maximum size of the disk tier, by default 1 GB. Once it is
+     * full, the oldest segment is dropped and its entries are evicted.
+     *
+     * @param diskTierSize the size in bytes
+     * @return the {@link TCacheConfiguration} to permit fluent-style method calls
+     */
+    public TCacheConfiguration<K, V> setDiskTierSize(long diskTierSize) {
+        if (diskTierSize <= 0) {
+            throw new IllegalArgumentException("diskTierSize must be positive");
+        }
+        this.diskTierSize = diskTierSize;
+        return this;
+    }
+
+    /**
+     * Gets the size of a segment of the disk tier.
+     *
+     * @return the size in bytes
+     */
+    public long getDiskTierSegmentSize() {
+        return diskTierSegmentSize;
+    }
+
+    /**
+     * Sets the size of a segment of the disk tier, by default 64 MB. The
+     * tier is evicted a segment at a time, and an entry larger than a
+     * segment is evicted rather than demoted.
+     *
+     * @param diskTierSegmentSize the size in bytes
+     * @return the {@link TCacheConfiguration} to permit fluent-style method calls
+     */
+    public TCacheConfiguration<K, V> setDiskTierSegmentSize(long diskTierSegmentSize) {
+        if (diskTierSegmentSize <= 0 || diskTierSegmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("diskTierSegmentSize must be positive and below 2 GB");
+        }
+        this.diskTierSegmentSize = diskTierSegmentSize;
+        return this;
+    }
+
+    /**
+     * Gets what the cache tells the caches of the same name of other
+     * managers about its mutations.
+     *
+     * @return the replication mode
+     */
+    public TReplicationMode getReplicationMode() {
+        return replicationMode;
+    }
+
+    /**
+     * Sets what the cache tells the caches of the same name of other
+     * managers about its mutations, by default {@link TReplicationMode#NONE}.
+     * The mutations are published and applied once the manager of the
+     * cache is linked to the others by
+     * {@link TCacheManager#enableReplication(TReplicationTransport)}.
+     *
+     * @param replicationMode the replication mode
+     * @return the {@link TCacheConfiguration} to permit fluent-style method calls
+     */
+    public TCacheConfiguration<K, V> setReplicationMode(TReplicationMode replicationMode) {
+        if (null == replicationMode) {
+            throw new NullPointerException("replicationMode can't be null");
+        }
+        this.replicationMode = replicationMode;
+        return this;
+    }
+
+    /**
+     * Removes the configuration of a listener deregistered from the cache.
+     *
+     * @param configuration the configuration of the listener
+     */
+    void removeCacheEntryListenerConfiguration(CacheEntryListenerConfiguration<K, V> configuration) {
+        listenerConfigurations.remove(configuration);
+    }
+
+    /**
+     * Determines if the size of the cache is limited.
+     *
+     * @return true if a maximum size or weight was configured
+     */
+    public boolean isBounded() {
+        return maximumSize != UNBOUNDED || maximumWeight != UNBOUNDED;
+    }
+
+    /**
+     * Gets the bound the eviction policy enforces, the maximum weight if one
+     * was configured and the maximum size otherwise.
+     *
+     * @return the maximum or {@link #UNBOUNDED}
+     */
+    long getMaximum() {
+        if (maximumSize != UNBOUNDED && maximumWeight != UNBOUNDED) {
+            throw new IllegalArgumentException("maximumSize and maximumWeight can not be combined");
+        }
+        return maximumWeight != UNBOUNDED ? maximumWeight : maximumSize;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = super.hashCode();
+        result = 31 * result + (int) (maximumSize ^ (maximumSize >>> 32));
+        result = 31 * result + (int) (maximumWeight ^ (maximumWeight >>> 32));
+        result = 31 * result + (weigherFactory == null ? 0 : weigherFactory.hashCode());
+        result = 31 * result + (isOffHeap ? 1 : 0);
+        result = 31 * result + offHeapSlabSize;
+        result = 31 * result + (valueSerializerFactory == null ? 0 : valueSerializerFactory.hashCode());
+        result = 31 * result + (isWriteBehind ? 1 : 0);
+        result = 31 * result + writeBehindBatchSize;
+        result = 31 * result + (int) (writeBehindDelay ^ (writeBehindDelay >>> 32));
+        result = 31 * result + writeBehindQueueCapacity;
+        result = 31 * result + Float.floatToIntBits(refreshAheadFraction);
+        result = 31 * result + (asyncExecutorFactory == null ? 0 : asyncExecutorFactory.hashCode());
+        result = 31 * result + latencySampleInterval;
+        result = 31 * result + (isLatencyHistogramsEnabled ? 1 : 0);
+        result = 31 * result + hotKeyCount;
+        result = 31 * result + eventQueueCapacity;
+        result = 31 * result + (int) (eventOfferTimeout ^ (eventOfferTimeout >>> 32));
+        result = 31 * result + (snapshotFile == null ? 0 : snapshotFile.hashCode());
+        result = 31 * result + (writeAheadLogDirectory == null ? 0 : writeAheadLogDirectory.hashCode());
+        result = 31 * result + writeAheadLogSyncPolicy.hashCode();
+        result = 31 * result + (int) (writeAheadLogSyncInterval ^ (writeAheadLogSyncInterval >>> 32));
+        result = 31 * result + (int) (writeAheadLogSegmentSize ^ (writeAheadLogSegmentSize >>> 32));
+        result = 31 * result + (diskTierDirectory == null ? 0 : diskTierDirectory.hashCode());
+        result = 31 * result + (int) (diskTierSize ^ (diskTierSize >>> 32));
+        result = 31 * result + (int) (diskTierSegmentSize ^ (diskTierSegmentSize >>> 32));
+        result = 31 * result + replicationMode.hashCode();
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (this == object) {
+            return true;
+        }
+        if (!(object instanceof TCacheConfiguration) || !super.equals(object)) {
+            return false;
+        }
+        TCacheConfiguration<?, ?> other = (TCacheConfiguration<?, ?>) object;
+        return maximumSize == other.maximumSize
+                && maximumWeight == other.maximumWeight
+                && isOffHeap == other.isOffHeap
+                && offHeapSlabSize == other.offHeapSlabSize
+                && isWriteBehind == other.isWriteBehind
+                && writeBehindBatchSize == other.writeBehindBatchSize
+                && writeBehindDelay == other.writeBehindDelay
+                && writeBehindQueueCapacity == other.writeBehindQueueCapacity
+                && refreshAheadFraction == other.refreshAheadFraction
+                && latencySampleInterval == other.latencySampleInterval
+                && isLatencyHistogramsEnabled == other.isLatencyHistogramsEnabled
+                && hotKeyCount == other.hotKeyCount
+                && eventQueueCapacity == other.eventQueueCapacity
+                && eventOfferTimeout == other.eventOfferTimeout
+                && (snapshotFile == null
+                        ? other.snapshotFile == null
+                        : snapshotFile.equals(other.snapshotFile))
+                && (writeAheadLogDirectory == null
+                        ? other.writeAheadLogDirectory == null
+                        : writeAheadLogDirectory.equals(other.writeAheadLogDirectory))
+                && writeAheadLogSyncPolicy == other.writeAheadLogSyncPolicy
+                && writeAheadLogSyncInterval == other.writeAheadLogSyncInterval
+                && writeAheadLogSegmentSize == other.writeAheadLogSegmentSize
+                && (diskTierDirectory == null
+                        ? other.diskTierDirectory == null
+                        : diskTierDirectory.equals(other.diskTierDirectory))
+                && diskTierSize == other.diskTierSize
+                && diskTierSegmentSize == other.diskTierSegmentSize
+                && replicationMode == other.replicationMode
+                && (asyncExecutorFactory == null
+                        ? other.asyncExecutorFactory == null
+                        : asyncExecutorFactory.equals(other.asyncExecutorFactory))
+                && (weigherFactory == null
+                        ? other.weigherFactory == null
+                        : weigherFactory.equals(other.weigherFactory))
+                && (valueSerializerFactory == null
+                        ? other.valueSerializerFactory == null
+                        : valueSerializerFactory.equals(other.valueSerializerFactory));
+    }
+}
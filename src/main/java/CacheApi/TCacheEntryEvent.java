@@ -0,0 +1,76 @@
+package CacheApi;
+
+import javax.cache.Cache;
+import javax.cache.event.CacheEntryEvent;
+import javax.cache.event.EventType;
+
+/**
+ * A {@link CacheEntryEvent} of a {@link TCache}.
+ * @param <K> the type of key
+ * @param <V> the type of value
+ * @author Kozlov Ivan
+ */
+class TCacheEntryEvent<K, V> extends CacheEntryEvent<K, V> {
+
+    private static final long serialVersionUID = 201711090002L;
+
+    private final K key;
+
+    private final V value;
+
+    private final V oldValue;
+
+    private final boolean isOldValueAvailable;
+
+    /**
+     * Constructs an event.
+     *
+     * @param source              the cache
+     * @param eventType           the type of the event
+     * @param key                 the key of the entry
+     * @param value               the new value, the removed or expired one for such events
+     * @param oldValue            the value before the event or null
+     * @param isOldValueAvailable whether the old value was captured
+     */
+    TCacheEntryEvent(Cache<K, V> source, EventType eventType, K key, V value, V oldValue,
+                     boolean isOldValueAvailable) {
+        super(source, eventType);
+        this.key = key;
+        this.value = value;
+        this.oldValue = oldValue;
+        this.isOldValueAvailable = isOldValueAvailable;
+    }
+
+    @Override
+    public K getKey() {
+        return key;
+    }
+
+    @Override
+    public V getValue() {
+        return value;
+    }
+
+    @Override
+    public V getOldValue() {
+        return oldValue;
+    }
+
+    @Override
+    public boolean isOldValueAvailable() {
+        return isOldValueAvailable;
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> clazz) {
+        if (clazz.isAssignableFrom(getClass())) {
+            return clazz.cast(this);
+        }
+        throw new IllegalArgumentException("Unwrapping to " + clazz + " is not supported by this implementation");
+    }
+
+    @Override
+    public String toString() {
+        return getEventType() + "[" + key + "=" + value + "]";
+    }
+}
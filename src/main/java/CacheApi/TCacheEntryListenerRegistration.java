@@ -0,0 +1,123 @@
+package CacheApi;
+
+import javax.cache.configuration.CacheEntryListenerConfiguration;
+import javax.cache.event.CacheEntryCreatedListener;
+import javax.cache.event.CacheEntryEvent;
+import javax.cache.event.CacheEntryEventFilter;
+import javax.cache.event.CacheEntryExpiredListener;
+import javax.cache.event.CacheEntryListener;
+import javax.cache.event.CacheEntryRemovedListener;
+import javax.cache.event.CacheEntryUpdatedListener;
+import javax.cache.event.EventType;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link CacheEntryListener} registered with a {@link TCache}, created
+ * with its filter from a {@link CacheEntryListenerConfiguration}.
+ * @param <K> the type of keys maintained by the cache
+ * @param <V> the type of cached values
+ * @author Kozlov Ivan
+ */
+class TCacheEntryListenerRegistration<K, V> {
+
+    private final CacheEntryListenerConfiguration<K, V> configuration;
+
+    private final CacheEntryListener<? super K, ? super V> listener;
+
+    private final CacheEntryEventFilter<? super K, ? super V> filter;
+
+    /**
+     * Creates the listener and the filter of a configuration.
+     *
+     * @param configuration the configuration of the listener
+     */
+    TCacheEntryListenerRegistration(CacheEntryListenerConfiguration<K, V> configuration) {
+        this.configuration = configuration;
+        this.listener = configuration.getCacheEntryListenerFactory().create();
+        this.filter = null == configuration.getCacheEntryEventFilterFactory()
+                ? null
+                : configuration.getCacheEntryEventFilterFactory().create();
+    }
+
+    CacheEntryListenerConfiguration<K, V> getConfiguration() {
+        return configuration;
+    }
+
+    boolean isSynchronous() {
+        return configuration.isSynchronous();
+    }
+
+    boolean isOldValueRequired() {
+        return configuration.isOldValueRequired();
+    }
+
+    /**
+     * Determines if the listener is interested in a type of events.
+     *
+     * @param eventType the type
+     * @return true if the listener implements the interface of the type
+     */
+    boolean isListeningTo(EventType eventType) {
+        switch (eventType) {
+            case CREATED:
+                return listener instanceof CacheEntryCreatedListener;
+            case UPDATED:
+                return listener instanceof CacheEntryUpdatedListener;
+            case REMOVED:
+                return listener instanceof CacheEntryRemovedListener;
+            case EXPIRED:
+                return listener instanceof CacheEntryExpiredListener;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Passes events on to the listener in their order. Consecutive events of
+     * the same type are passed in a single call, events rejected by the
+     * filter are skipped.
+     *
+     * @param events the events
+     */
+    @SuppressWarnings("unchecked")
+    void deliver(List<TCacheEntryEvent<K, V>> events) {
+        List<CacheEntryEvent<? extends K, ? extends V>> run = new ArrayList<>();
+        EventType runType = null;
+        for (TCacheEntryEvent<K, V> event : events) {
+            if (!isListeningTo(event.getEventType()) || (null != filter && !filter.evaluate(event))) {
+                continue;
+            }
+            if (event.getEventType() != runType && !run.isEmpty()) {
+                deliver(runType, run);
+                run = new ArrayList<>();
+            }
+            runType = event.getEventType();
+            run.add(event);
+        }
+        if (!run.isEmpty()) {
+            deliver(runType, run);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void deliver(EventType eventType, List<CacheEntryEvent<? extends K, ? extends V>> run) {
+        Iterable<CacheEntryEvent<? extends K, ? extends V>> events = run;
+        switch (eventType) {
+            case CREATED:
+                ((CacheEntryCreatedListener<K, V>) listener).onCreated(events);
+                break;
+            case UPDATED:
+                ((CacheEntryUpdatedListener<K, V>) listener).onUpdated(events);
+                break;
+            case REMOVED:
+                ((CacheEntryRemovedListener<K, V>) listener).onRemoved(events);
+                break;
+            case EXPIRED:
+                ((CacheEntryExpiredListener<K, V>) listener).onExpired(events);
+                break;
+            default:
+                break;
+        }
+    }
+}
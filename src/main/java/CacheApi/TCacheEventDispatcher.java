@@ -0,0 +1,376 @@
+package CacheApi;
+
+import javax.cache.configuration.CacheEntryListenerConfiguration;
+import javax.cache.event.CacheEntryListenerException;
+import javax.cache.event.EventType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Dispatches the events of a {@link TCache} to its registered
+ * {@link javax.cache.event.CacheEntryListener}s.
+ * <p>
+ * Events are published while the mapping of their key is locked, so that
+ * the events of a key are published in the order of its mutations.
+ * Synchronous listeners are called by the mutating thread once the mapping
+ * is unlocked, before the mutation returns. Events for asynchronous
+ * listeners are put into a bounded ring buffer and delivered in batches by
+ * a dedicated thread, in the order they were published. While the buffer
+ * is full a mutation waits for the configured offer timeout at most and
+ * then drops the event, so that a slow listener never stalls the cache
+ * for longer; dropped events are counted.
+ * </p>
+ * @param <K> the type of keys maintained by the cache
+ * @param <V> the type of cached values
+ * @author Kozlov Ivan
+ */
+class TCacheEventDispatcher<K, V> {
+
+    private static final Logger LOGGER = Logger.getLogger("javax.cache");
+
+    /**
+     * The maximum number of events delivered to a listener at once.
+     */
+    static final int MAXIMUM_BATCH_SIZE = 256;
+
+    private final TCache<K, V> cache;
+
+    private final long offerTimeoutNanos;
+
+    private final CopyOnWriteArrayList<TCacheEntryListenerRegistration<K, V>> registrations =
+            new CopyOnWriteArrayList<>();
+
+    private volatile boolean hasSynchronousListeners;
+
+    private volatile boolean hasAsynchronousListeners;
+
+    private volatile boolean isOldValueRequired;
+
+    /**
+     * The events of the current mutation of a thread for the synchronous listeners.
+     */
+    private final ThreadLocal<List<TCacheEntryEvent<K, V>>> synchronousEvents =
+            ThreadLocal.withInitial(ArrayList::new);
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition isNotEmpty = lock.newCondition();
+
+    private final Condition isNotFull = lock.newCondition();
+
+    private final Condition isDelivered = lock.newCondition();
+
+    // the fields below are guarded by the lock
+
+    private final Object[] ring;
+
+    private int head;
+
+    private int size;
+
+    private boolean isDelivering;
+
+    private boolean isClosed;
+
+    private Thread deliverer;
+
+    private final LongAdder droppedCount = new LongAdder();
+
+    private final LongAdder failureCount = new LongAdder();
+
+    /**
+     * Constructs a dispatcher.
+     *
+     * @param cache         the cache, the source of the events
+     * @param capacity      the maximum number of events waiting for the asynchronous listeners
+     * @param offerTimeout  the maximum time in milliseconds a mutation waits while the buffer is full
+     */
+    TCacheEventDispatcher(TCache<K, V> cache, int capacity, long offerTimeout) {
+        this.cache = cache;
+        this.ring = new Object[capacity];
+        this.offerTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(offerTimeout);
+    }
+
+    /**
+     * Determines if any listener is registered. The callers check it
+     * before they capture the values of an event.
+     *
+     * @return true if events are published
+     */
+    boolean hasListeners() {
+        return hasSynchronousListeners || hasAsynchronousListeners;
+    }
+
+    /**
+     * Determines if a registered listener requires the old values.
+     *
+     * @return true if the old values are captured
+     */
+    boolean isOldValueRequired() {
+        return isOldValueRequired;
+    }
+
+    /**
+     * Registers a listener.
+     *
+     * @param configuration the configuration of the listener
+     */
+    synchronized void register(CacheEntryListenerConfiguration<K, V> configuration) {
+        TCacheEntryListenerRegistration<K, V> registration = new TCacheEntryListenerRegistration<>(configuration);
+        if (!registration.isSynchronous()) {
+            lock.lock();
+            try {
+                if (null == deliverer && !isClosed) {
+                    deliverer = new Thread(this::runDeliverer, "TCache-" + cache.getName() + "-events");
+                    deliverer.setDaemon(true);
+                    deliverer.start();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        registrations.add(registration);
+        updateFlags();
+    }
+
+    /**
+     * Deregisters a listener. Events published before may still reach it.
+     *
+     * @param configuration the configuration of the listener
+     */
+    synchronized void deregister(CacheEntryListenerConfiguration<K, V> configuration) {
+        registrations.removeIf(registration -> registration.getConfiguration().equals(configuration));
+        updateFlags();
+    }
+
+    private void updateFlags() {
+        boolean hasSynchronous = false;
+        boolean hasAsynchronous = false;
+        boolean isOldValueRequired = false;
+        for (TCacheEntryListenerRegistration<K, V> registration : registrations) {
+            hasSynchronous |= registration.isSynchronous();
+            hasAsynchronous |= !registration.isSynchronous();
+            isOldValueRequired |= registration.isOldValueRequired();
+        }
+        this.isOldValueRequired = isOldValueRequired;
+        this.hasSynchronousListeners = hasSynchronous;
+        this.hasAsynchronousListeners = hasAsynchronous;
+    }
+
+    /**
+     * Publishes an event. Has to be called while the mapping of the key is
+     * locked, so that the events of a key are published in order.
+     *
+     * @param eventType the type of the event
+     * @param key       the key of the entry
+     * @param value     the new value, the removed or expired one for such events
+     * @param oldValue  the value before the event or null
+     */
+    void publish(EventType eventType, K key, V value, V oldValue) {
+        TCacheEntryEvent<K, V> event = new TCacheEntryEvent<>(cache, eventType, key, value, oldValue,
+                isOldValueRequired && null != oldValue);
+        if (hasSynchronousListeners) {
+            synchronousEvents.get().add(event);
+        }
+        if (hasAsynchronousListeners) {
+            enqueue(event);
+        }
+    }
+
+    /**
+     * Calls the synchronous listeners with the events the current thread
+     * published since the last call. Has to be called once the mapping of
+     * the keys is unlocked.
+     *
+     * @throws CacheEntryListenerException if a listener failed
+     */
+    void dispatchSynchronous() {
+        if (!hasSynchronousListeners) {
+            return;
+        }
+        List<TCacheEntryEvent<K, V>> pending = synchronousEvents.get();
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<TCacheEntryEvent<K, V>> events = new ArrayList<>(pending);
+        pending.clear();
+        CacheEntryListenerException failure = null;
+        for (TCacheEntryListenerRegistration<K, V> registration : registrations) {
+            if (!registration.isSynchronous()) {
+                continue;
+            }
+            try {
+                registration.deliver(events);
+            } catch (RuntimeException e) {
+                failureCount.increment();
+                CacheEntryListenerException exception = e instanceof CacheEntryListenerException
+                        ? (CacheEntryListenerException) e
+                        : new CacheEntryListenerException(e);
+                if (null == failure) {
+                    failure = exception;
+                } else {
+                    failure.addSuppressed(exception);
+                }
+            }
+        }
+        if (null != failure) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Waits until the events published so far were delivered to the
+     * asynchronous listeners.
+     */
+    void flush() {
+        lock.lock();
+        try {
+            while ((size > 0 || isDelivering) && null != deliverer && deliverer.isAlive()) {
+                isDelivered.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Delivers the buffered events and stops the delivering thread.
+     */
+    void close() {
+        Thread thread;
+        lock.lock();
+        try {
+            isClosed = true;
+            isNotEmpty.signal();
+            isNotFull.signalAll();
+            thread = deliverer;
+        } finally {
+            lock.unlock();
+        }
+        if (null == thread) {
+            return;
+        }
+        boolean isInterrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                isInterrupted = true;
+            }
+        }
+        if (isInterrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Gets the number of events waiting for the asynchronous listeners.
+     *
+     * @return the pending count
+     */
+    int getPendingCount() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    long getFailureCount() {
+        return failureCount.sum();
+    }
+
+    private void enqueue(TCacheEntryEvent<K, V> event) {
+        lock.lock();
+        try {
+            long remaining = offerTimeoutNanos;
+            while (size == ring.length && !isClosed) {
+                if (remaining <= 0) {
+                    droppedCount.increment();
+                    return;
+                }
+                try {
+                    remaining = isNotFull.awaitNanos(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    droppedCount.increment();
+                    return;
+                }
+            }
+            if (isClosed) {
+                droppedCount.increment();
+                return;
+            }
+            ring[(head + size) % ring.length] = event;
+            if (size++ == 0) {
+                isNotEmpty.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void runDeliverer() {
+        List<TCacheEntryEvent<K, V>> batch = new ArrayList<>(Math.min(MAXIMUM_BATCH_SIZE, ring.length));
+        while (nextBatch(batch)) {
+            for (TCacheEntryListenerRegistration<K, V> registration : registrations) {
+                if (registration.isSynchronous()) {
+                    continue;
+                }
+                try {
+                    registration.deliver(batch);
+                } catch (Exception e) {
+                    failureCount.increment();
+                    LOGGER.log(Level.WARNING, "A listener of cache " + cache.getName()
+                            + " failed to process " + batch.size() + " events", e);
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Waits for events and takes up to a batch of them from the buffer.
+     *
+     * @return false once the dispatcher is closed and all events were delivered
+     */
+    @SuppressWarnings("unchecked")
+    private boolean nextBatch(List<TCacheEntryEvent<K, V>> batch) {
+        lock.lock();
+        try {
+            isDelivering = false;
+            if (size == 0) {
+                isDelivered.signalAll();
+            }
+            while (size == 0) {
+                if (isClosed) {
+                    return false;
+                }
+                isNotEmpty.awaitUninterruptibly();
+            }
+            while (size > 0 && batch.size() < MAXIMUM_BATCH_SIZE) {
+                batch.add((TCacheEntryEvent<K, V>) ring[head]);
+                ring[head] = null;
+                head = (head + 1) % ring.length;
+                size--;
+            }
+            isDelivering = true;
+            isNotFull.signalAll();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
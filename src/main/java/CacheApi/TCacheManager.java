@@ -4,23 +4,216 @@ import javax.cache.Cache;
 import javax.cache.CacheException;
 import javax.cache.CacheManager;
 import javax.cache.configuration.Configuration;
+import javax.cache.management.CacheStatisticsMXBean;
 import javax.cache.spi.CachingProvider;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
 import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class TCacheManager implements CacheManager {
 
     private static final Logger LOGGER = Logger.getLogger("javax.cache");
-    private final HashMap<String, TCache<?, ?>> caches = new HashMap<String, TCache<?, ?>>();
+
+    /**
+     * The period in milliseconds of the maintenance of the caches.
+     */
+    private static final long MAINTENANCE_PERIOD = 250;
+
+    /**
+     * The number of managers constructed, numbering their MBeans.
+     */
+    private static final AtomicInteger MANAGER_COUNT = new AtomicInteger();
+
+    /**
+     * The caches by name. The lookups do not lock; the caches are added
+     * while the manager is locked, so that they become visible only once
+     * they are recovered, and removed when they are closed.
+     */
+    private final ConcurrentHashMap<String, TCache<?, ?>> caches = new ConcurrentHashMap<String, TCache<?, ?>>();
+
+    /**
+     * The long-keyed caches by name, which share the names of the caches.
+     */
+    private final ConcurrentHashMap<String, LongKeyTCache<?>> longKeyCaches =
+            new ConcurrentHashMap<String, LongKeyTCache<?>>();
+
+    /**
+     * The partitioned caches by name, which share the names of the caches.
+     */
+    private final ConcurrentHashMap<String, TPartitionedCache<?, ?>> partitionedCaches =
+            new ConcurrentHashMap<String, TPartitionedCache<?, ?>>();
 
     private volatile boolean isClosed;
 
+    /**
+     * The memory budget shared by the caches of this manager or null.
+     */
+    private final TMemoryBudget memoryBudget;
+
+    /**
+     * The thread shared by the caches of this manager for their periodic
+     * maintenance, such as removing expired entries.
+     */
+    private final ScheduledExecutorService maintenanceExecutor;
+
+    /**
+     * The threads shared by the caches of this manager for loading values in
+     * the background, such as {@link Cache#loadAll}.
+     */
+    private final ThreadPoolExecutor loaderExecutor;
+
+    /**
+     * The maximum number of refreshes waiting for a thread.
+     */
+    private static final int REFRESH_QUEUE_CAPACITY = 1024;
+
+    /**
+     * The threads shared by the caches of this manager for refreshing the
+     * entries nearing their expiry. Its queue is bounded, refreshes beyond
+     * its capacity are rejected and left to the next read.
+     */
+    private final ThreadPoolExecutor refreshExecutor;
+
+    /**
+     * The executor of the asynchronous views of the caches, creating a
+     * virtual thread per task where the JVM supports them.
+     */
+    private final ExecutorService asyncExecutor;
+
+    /**
+     * The coarse clock of the caches, ticked by the maintenance executor
+     * or, while a cache with expiry is open, by the ticker of the clocks.
+     */
+    private final TClock clock = new TClock();
+
+    /**
+     * The name of this manager in the names of the MBeans of its caches,
+     * unique within the JVM.
+     */
+    private final String managementName = "TCacheManager-" + MANAGER_COUNT.incrementAndGet();
+
+    /**
+     * The replicator of the caches configured for replication or null if
+     * the replication is not enabled.
+     */
+    private volatile TReplicator replicator;
+
+    /**
+     * The cluster this manager joined or null.
+     */
+    private volatile TCluster cluster;
+
     /**
      * Constructs a new RICacheManager with the specified name
      */
     public TCacheManager() {
+        this((TMemoryBudget) null);
+    }
+
+    /**
+     * Constructs a new TCacheManager whose caches share a memory budget.
+     * The weights of the entries are calculated by the
+     * {@link TCacheWeigher}s of the caches and the coldest entries of all
+     * caches are evicted first once the budget is exceeded.
+     *
+     * @param maximumWeight the maximum total weight of the entries of all caches
+     */
+    public TCacheManager(long maximumWeight) {
+        this(new TMemoryBudget(maximumWeight));
+    }
+
+    private TCacheManager(TMemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        this.maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "TCacheManager-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        maintenanceExecutor.scheduleWithFixedDelay(this::runMaintenance,
+                MAINTENANCE_PERIOD, MAINTENANCE_PERIOD, TimeUnit.MILLISECONDS);
+        int loaderThreads = Runtime.getRuntime().availableProcessors();
+        this.loaderExecutor = new ThreadPoolExecutor(loaderThreads, loaderThreads,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "TCacheManager-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        loaderExecutor.allowCoreThreadTimeOut(true);
+        this.refreshExecutor = new ThreadPoolExecutor(loaderThreads, loaderThreads,
+                60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(REFRESH_QUEUE_CAPACITY), runnable -> {
+            Thread thread = new Thread(runnable, "TCacheManager-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refreshExecutor.allowCoreThreadTimeOut(true);
+        this.asyncExecutor = createAsyncExecutor();
+    }
+
+    /**
+     * Creates an executor starting a virtual thread per task if the JVM
+     * supports them, a pool of daemon threads otherwise.
+     */
+    private static ExecutorService createAsyncExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            //virtual threads are not available before Java 21
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "TCacheManager-async");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Performs the periodic maintenance of every cache of this manager.
+     */
+    private void runMaintenance() {
+        //the clock is ticked here unless a cache with expiry acquired it
+        clock.tick();
+        long now = clock.millis();
+        for (TCache<?, ?> cache : caches.values()) {
+            try {
+                cache.runMaintenance(now);
+            } catch (Exception e) {
+                getLogger().log(Level.WARNING, "Error maintaining cache: " + cache.getName(), e);
+            }
+        }
+        for (TPartitionedCache<?, ?> cache : partitionedCaches.values()) {
+            try {
+                cache.getPartition().runMaintenance(now);
+            } catch (Exception e) {
+                getLogger().log(Level.WARNING, "Error maintaining cache: " + cache.getName(), e);
+            }
+        }
+        for (LongKeyTCache<?> cache : longKeyCaches.values()) {
+            try {
+                cache.runMaintenance(now);
+            } catch (Exception e) {
+                getLogger().log(Level.WARNING, "Error maintaining cache: " + cache.getName(), e);
+            }
+        }
     }
 
     /**
@@ -43,11 +236,15 @@ public class TCacheManager implements CacheManager {
 
             isClosed = true;
 
-            ArrayList<Cache<?, ?>> cacheList;
-            synchronized (caches) {
-                cacheList = new ArrayList<Cache<?, ?>>(caches.values());
-                caches.clear();
+            //hands the entries of the partitioned caches over while they are open
+            if (null != cluster) {
+                cluster.leave();
             }
+
+            //closing a cache writes its snapshot and releases it from the manager
+            List<Cache<?, ?>> cacheList = new ArrayList<Cache<?, ?>>(caches.values());
+            cacheList.addAll(longKeyCaches.values());
+            cacheList.addAll(partitionedCaches.values());
             for (Cache<?, ?> cache : cacheList) {
                 try {
                     cache.close();
@@ -55,6 +252,14 @@ public class TCacheManager implements CacheManager {
                     getLogger().log(Level.WARNING, "Error stopping cache: " + cache, e);
                 }
             }
+            //sends the mutations the caches made while they were closed
+            if (null != replicator) {
+                replicator.close();
+            }
+            maintenanceExecutor.shutdownNow();
+            loaderExecutor.shutdown();
+            refreshExecutor.shutdownNow();
+            asyncExecutor.shutdown();
         }
     }
 
@@ -96,24 +301,160 @@ public class TCacheManager implements CacheManager {
             throw new NullPointerException("configuration must not be null");
         }
 
-        synchronized (caches) {
-            TCache<?, ?> cache = caches.get(cacheName);
+        TCache<?, ?> cache;
+        synchronized (this) {
+            if (isClosed()) {
+                throw new IllegalStateException();
+            }
+            checkNameIsFree(cacheName);
+            cache = new TCache<>(this, cacheName, configuration);
+            //a durable cache is not visible before its log was replayed
+            try {
+                cache.recover();
+            } catch (RuntimeException e) {
+                cache.close();
+                throw e;
+            }
+            caches.put(cache.getName(), cache);
+            if (cache.getConfiguration().isStatisticsEnabled()) {
+                registerStatistics(cacheName, cache.getStatistics());
+            }
+        }
+        //warm the cache once it is visible, so that readers do not wait for the snapshot
+        loadSnapshot(cache);
+        return (Cache<K, V>) cache;
+    }
+
+    /**
+     * Creates a cache keyed by longs, storing its entries in a primitive
+     * table instead of a map of boxed keys. It is looked up, destroyed and
+     * closed like the other caches of this manager.
+     *
+     * @param cacheName     the name of the cache
+     * @param configuration the configuration, with a key type of {@link Long} or {@link Object}
+     * @param <V>           the type of cached values
+     * @return the cache
+     * @throws IllegalArgumentException if the configuration uses a feature a long-keyed cache does not support
+     * @throws CacheException           if a cache of the name already exists
+     * @see LongKeyTCache
+     */
+    public <V> LongKeyTCache<V> createLongKeyCache(String cacheName, Configuration<Long, V> configuration) {
+        if (isClosed()) {
+            throw new IllegalStateException();
+        }
+        if (cacheName == null) {
+            throw new NullPointerException("cacheName must not be null");
+        }
+        if (configuration == null) {
+            throw new NullPointerException("configuration must not be null");
+        }
+        synchronized (this) {
+            if (isClosed()) {
+                throw new IllegalStateException();
+            }
+            checkNameIsFree(cacheName);
+            LongKeyTCache<V> cache = new LongKeyTCache<>(this, cacheName, configuration);
+            longKeyCaches.put(cacheName, cache);
+            if (cache.getConfiguration().isStatisticsEnabled()) {
+                registerStatistics(cacheName, cache.getStatistics());
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * Creates a cache whose keys are split among the members of the
+     * cluster of this manager, see {@link #joinCluster(InetSocketAddress, InetSocketAddress...)}.
+     * Every member creates the cache with the same name and configuration,
+     * before it joins the cluster, so that it takes the entries it owns. It
+     * is looked up, destroyed and closed like the other caches of this
+     * manager.
+     *
+     * @param cacheName     the name of the cache
+     * @param configuration the configuration of the partition of each member
+     * @param <K>           the type of keys
+     * @param <V>           the type of values
+     * @return the cache
+     * @throws IllegalArgumentException if the configuration uses a feature a partitioned cache does not support
+     * @throws CacheException           if a cache of the name already exists
+     * @see TPartitionedCache
+     */
+    public <K, V> TPartitionedCache<K, V> createPartitionedCache(String cacheName, Configuration<K, V> configuration) {
+        if (isClosed()) {
+            throw new IllegalStateException();
+        }
+        if (cacheName == null) {
+            throw new NullPointerException("cacheName must not be null");
+        }
+        if (configuration == null) {
+            throw new NullPointerException("configuration must not be null");
+        }
+        synchronized (this) {
+            if (isClosed()) {
+                throw new IllegalStateException();
+            }
+            checkNameIsFree(cacheName);
+            TPartitionedCache<K, V> cache = new TPartitionedCache<>(this, cacheName, configuration);
+            partitionedCaches.put(cacheName, cache);
+            if (cache.getConfiguration().isStatisticsEnabled()) {
+                registerStatistics(cacheName, cache.getStatistics());
+            }
+            return cache;
+        }
+    }
+
+    private void checkNameIsFree(String cacheName) {
+        if (caches.containsKey(cacheName) || longKeyCaches.containsKey(cacheName)
+                || partitionedCaches.containsKey(cacheName)) {
+            throw new CacheException("A cache named " + cacheName + " already exists.");
+        }
+    }
 
-            if (cache == null) {
-                cache = new TCache<>(this, cacheName, configuration);
-                caches.put(cache.getName(), cache);
+    /**
+     * Warms a cache from its snapshot file, if one is configured and exists.
+     * A snapshot that can not be loaded is logged and the cache starts cold.
+     *
+     * @param cache the cache
+     */
+    private void loadSnapshot(TCache<?, ?> cache) {
+        String snapshotFile = ((TCacheConfiguration<?, ?>) cache.getConfiguration()).getSnapshotFile();
+        if (null == snapshotFile || !Files.exists(Paths.get(snapshotFile))) {
+            return;
+        }
+        try {
+            long start = System.nanoTime();
+            long count = cache.loadSnapshot(Paths.get(snapshotFile));
+            getLogger().log(Level.INFO, "Restored " + count + " entries of cache " + cache.getName() + " in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        } catch (Exception e) {
+            getLogger().log(Level.WARNING, "Error loading the snapshot of cache: " + cache.getName(), e);
+        }
+    }
 
-                return (Cache<K, V>) cache;
-            } else {
-                throw new CacheException("A cache named " + cacheName + " already exists.");
+    /**
+     * Writes the snapshots of the caches with a snapshot file configured,
+     * for example periodically, so that a crash loses only the mutations
+     * since the last snapshot. The caches keep running while they are
+     * written. The snapshot of a cache is also written when it is closed.
+     *
+     * @return the number of snapshots written
+     * @see TCacheConfiguration#setSnapshotFile(String)
+     */
+    public int writeSnapshots() {
+        int count = 0;
+        for (TCache<?, ?> cache : getCacheList()) {
+            if (cache.writeConfiguredSnapshot()) {
+                count++;
             }
         }
+        return count;
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
+    @SuppressWarnings("unchecked")
     public <K, V> Cache<K, V> getCache(String cacheName, Class<K> keyType, Class<V> valueType) {
         if (isClosed()) {
             throw new IllegalStateException();
@@ -127,31 +468,36 @@ public class TCacheManager implements CacheManager {
             throw new NullPointerException("valueType can not be null");
         }
 
-        synchronized (caches) {
-            TCache<?, ?> cache = caches.get(cacheName);
-
-            if (cache == null) {
-                return null;
-            } else {
-                Configuration<?, ?> configuration = cache.getConfiguration();
-
-                if (configuration.getKeyType() != null &&
-                        configuration.getKeyType().equals(keyType)) {
-
-                    if (configuration.getValueType() != null &&
-                            configuration.getValueType().equals(valueType)) {
-
-                        return (Cache<K, V>) cache;
-                    } else {
-                        throw new ClassCastException("Incompatible cache value types specified, expected " +
-                                configuration.getValueType() + " but " + valueType + " was specified");
-                    }
-                } else {
-                    throw new ClassCastException("Incompatible cache key types specified, expected " +
-                            configuration.getKeyType() + " but " + keyType + " was specified");
-                }
+        TCache<?, ?> cache = caches.get(cacheName);
+        if (cache != null) {
+            if (cache.hasTypes(keyType, valueType)) {
+                return (Cache<K, V>) cache;
             }
+            throw incompatibleTypes(cache.getKeyType(), cache.getValueType(), keyType, valueType);
         }
+        TPartitionedCache<?, ?> partitionedCache = partitionedCaches.get(cacheName);
+        if (partitionedCache != null) {
+            TCache<?, ?> partition = partitionedCache.getPartition();
+            if (partition.hasTypes(keyType, valueType)) {
+                return (Cache<K, V>) partitionedCache;
+            }
+            throw incompatibleTypes(partition.getKeyType(), partition.getValueType(), keyType, valueType);
+        }
+        LongKeyTCache<?> longKeyCache = longKeyCaches.get(cacheName);
+        if (longKeyCache == null || longKeyCache.hasTypes(keyType, valueType)) {
+            return (Cache<K, V>) longKeyCache;
+        }
+        throw incompatibleTypes(longKeyCache.getKeyType(), longKeyCache.getValueType(), keyType, valueType);
+    }
+
+    private static ClassCastException incompatibleTypes(Class<?> cacheKeyType, Class<?> cacheValueType,
+                                                        Class<?> keyType, Class<?> valueType) {
+        if (!keyType.equals(cacheKeyType)) {
+            return new ClassCastException("Incompatible cache key types specified, expected " +
+                    cacheKeyType + " but " + keyType + " was specified");
+        }
+        return new ClassCastException("Incompatible cache value types specified, expected " +
+                cacheValueType + " but " + valueType + " was specified");
     }
 
     /**
@@ -162,9 +508,11 @@ public class TCacheManager implements CacheManager {
         if (isClosed()) {
             throw new IllegalStateException();
         }
-        synchronized (caches) {
-            return caches.get(cacheName);
+        Cache<?, ?> cache = caches.get(cacheName);
+        if (null == cache) {
+            cache = partitionedCaches.get(cacheName);
         }
+        return null == cache ? longKeyCaches.get(cacheName) : cache;
     }
 
     /**
@@ -175,17 +523,19 @@ public class TCacheManager implements CacheManager {
         if (isClosed()) {
             throw new IllegalStateException();
         }
-        synchronized (caches) {
-            HashSet<String> set = new HashSet<String>();
-            for (Cache<?, ?> cache : caches.values()) {
-                set.add(cache.getName());
-            }
-            return Collections.unmodifiableSet(set);
-        }
+        HashSet<String> names = new HashSet<String>(caches.keySet());
+        names.addAll(longKeyCaches.keySet());
+        names.addAll(partitionedCaches.keySet());
+        return Collections.unmodifiableSet(names);
     }
 
     /**
      * {@inheritDoc}
+     * <p>
+     * The entries of the cache are cleared, also from its write-ahead log,
+     * before it is closed, so that a cache created later with the same
+     * name and persistent files starts empty.
+     * </p>
      */
     public void destroyCache(String cacheName) {
         if (isClosed()) {
@@ -195,28 +545,50 @@ public class TCacheManager implements CacheManager {
             throw new NullPointerException();
         }
 
-        Cache<?, ?> cache;
-        synchronized (caches) {
-            cache = caches.get(cacheName);
+        synchronized (this) {
+            Cache<?, ?> cache = getCache(cacheName);
+            if (cache == null) {
+                return;
+            }
+            if (!cache.isClosed()) {
+                cache.clear();
+            }
+            cache.close();
         }
+    }
 
-        if (cache != null) {
-            cache.close();
+    /**
+     * Releases a Cache from being managed by this CacheManager, when it is
+     * closed, and unregisters its statistics. A cache created since with
+     * the same name is left alone.
+     *
+     * @param cache the Cache to release
+     */
+    void releaseCache(TCache<?, ?> cache) {
+        if (caches.remove(cache.getName(), cache)) {
+            unregisterStatistics(cache.getName());
         }
     }
 
     /**
-     * Releases the Cache with the specified name from being managed by
-     * this CacheManager.
+     * Releases a long-keyed Cache, as {@link #releaseCache(TCache)}.
      *
-     * @param cacheName the name of the Cache to releaseCacheManager
+     * @param cache the Cache to release
      */
-    void releaseCache(String cacheName) {
-        if (cacheName == null) {
-            throw new NullPointerException();
+    void releaseCache(LongKeyTCache<?> cache) {
+        if (longKeyCaches.remove(cache.getName(), cache)) {
+            unregisterStatistics(cache.getName());
         }
-        synchronized (caches) {
-            caches.remove(cacheName);
+    }
+
+    /**
+     * Releases a partitioned Cache, as {@link #releaseCache(TCache)}.
+     *
+     * @param cache the Cache to release
+     */
+    void releaseCache(TPartitionedCache<?, ?> cache) {
+        if (partitionedCaches.remove(cache.getName(), cache)) {
+            unregisterStatistics(cache.getName());
         }
     }
 
@@ -231,7 +603,88 @@ public class TCacheManager implements CacheManager {
         if (cacheName == null) {
             throw new NullPointerException();
         }
-        //((CacheApi.TCache) caches.get(cacheName)).setStatisticsEnabled(enabled);
+        TCache<?, ?> cache = caches.get(cacheName);
+        if (null == cache && partitionedCaches.containsKey(cacheName)) {
+            cache = partitionedCaches.get(cacheName).getPartition();
+        }
+        if (null != cache) {
+            synchronized (cache) {
+                if (enabled != cache.getConfiguration().isStatisticsEnabled()) {
+                    cache.setStatisticsEnabled(enabled);
+                    enableStatistics(cacheName, cache.getStatistics(), enabled);
+                }
+            }
+            return;
+        }
+        LongKeyTCache<?> longKeyCache = longKeyCaches.get(cacheName);
+        if (null == longKeyCache) {
+            throw new IllegalArgumentException("There is no cache named " + cacheName);
+        }
+        synchronized (longKeyCache) {
+            if (enabled != longKeyCache.getConfiguration().isStatisticsEnabled()) {
+                longKeyCache.setStatisticsEnabled(enabled);
+                enableStatistics(cacheName, longKeyCache.getStatistics(), enabled);
+            }
+        }
+    }
+
+    private void enableStatistics(String cacheName, CacheStatisticsMXBean statistics, boolean enabled) {
+        if (enabled) {
+            registerStatistics(cacheName, statistics);
+        } else {
+            unregisterStatistics(cacheName);
+        }
+    }
+
+    /**
+     * Registers the statistics of a cache as a
+     * {@link javax.cache.management.CacheStatisticsMXBean} on the platform
+     * MBeanServer.
+     *
+     * @param cacheName  the name of the cache
+     * @param statistics the statistics of the cache
+     */
+    private void registerStatistics(String cacheName, CacheStatisticsMXBean statistics) {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = getStatisticsObjectName(cacheName);
+            if (!mBeanServer.isRegistered(objectName)) {
+                mBeanServer.registerMBean(statistics, objectName);
+            }
+        } catch (JMException e) {
+            throw new CacheException("Error registering the statistics of cache: " + cacheName, e);
+        }
+    }
+
+    /**
+     * Unregisters the statistics MBean of a cache, if it is registered.
+     *
+     * @param cacheName the name of the cache
+     */
+    private void unregisterStatistics(String cacheName) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(getStatisticsObjectName(cacheName));
+        } catch (InstanceNotFoundException e) {
+            //the statistics were not enabled
+        } catch (JMException e) {
+            throw new CacheException("Error unregistering the statistics of cache: " + cacheName, e);
+        }
+    }
+
+    /**
+     * Gets the name of the statistics MBean of a cache,
+     * {@code javax.cache:type=CacheStatistics,CacheManager=<manager>,Cache=<cache>}.
+     *
+     * @param cacheName the name of the cache
+     * @return the object name
+     */
+    public ObjectName getStatisticsObjectName(String cacheName) {
+        try {
+            return new ObjectName("javax.cache:type=CacheStatistics,CacheManager=" + managementName
+                    + ",Cache=" + ObjectName.quote(cacheName));
+        } catch (MalformedObjectNameException e) {
+            throw new CacheException("Illegal name of cache: " + cacheName, e);
+        }
     }
 
     /**
@@ -257,6 +710,238 @@ public class TCacheManager implements CacheManager {
         throw new IllegalArgumentException("Unwapping to " + cls + " is not a supported by this implementation");
     }
 
+    /**
+     * Dumps the statistics, the latency histograms and the hot keys of the
+     * caches as text, for diagnosis. The caches keep running while they
+     * are dumped.
+     *
+     * @return the text, a block of lines per cache
+     * @see TCacheConfiguration#setLatencyHistogramsEnabled(boolean)
+     * @see TCacheConfiguration#setHotKeyCount(int)
+     */
+    public String dumpStatistics() {
+        return TStatisticsDump.toText(getCacheList());
+    }
+
+    /**
+     * Dumps the statistics, the latency histograms and the hot keys of the
+     * caches as a JSON document, the latencies in microseconds.
+     *
+     * @return the JSON document
+     * @see #dumpStatistics()
+     */
+    public String dumpStatisticsAsJson() {
+        return TStatisticsDump.toJson(getCacheList());
+    }
+
+    private List<TCache<?, ?>> getCacheList() {
+        if (isClosed()) {
+            throw new IllegalStateException();
+        }
+        return new ArrayList<TCache<?, ?>>(caches.values());
+    }
+
+    /**
+     * Enables the replication of the caches whose configurations set a
+     * {@link TReplicationMode} to the managers, usually of other processes
+     * of the host, reached by a transport. The mutations of the caches are
+     * sent in batches by a thread of the manager and the mutations received
+     * are applied by another, so that the replicated caches of the
+     * managers converge within a lag. The replication ends when the
+     * manager is closed.
+     *
+     * @param transport the transport to the other managers
+     * @throws IllegalStateException if the manager is closed or the
+     *                               replication is enabled already
+     * @throws CacheException        if the transport can not be started
+     */
+    public void enableReplication(TReplicationTransport transport) {
+        if (null == transport) {
+            throw new NullPointerException("transport");
+        }
+        synchronized (this) {
+            if (isClosed()) {
+                throw new IllegalStateException();
+            }
+            if (null != replicator) {
+                throw new IllegalStateException("The replication is enabled already");
+            }
+            TReplicator newReplicator = new TReplicator(this, transport);
+            try {
+                newReplicator.start();
+            } catch (IOException e) {
+                transport.close();
+                throw new CacheException("Failed to start the replication transport", e);
+            }
+            replicator = newReplicator;
+        }
+    }
+
+    /**
+     * Gets the statistics of the replication of the caches.
+     *
+     * @return the statistics or null if the replication is not enabled
+     */
+    public TReplicationStatistics getReplicationStatistics() {
+        TReplicator current = replicator;
+        return null == current ? null : current.getStatistics();
+    }
+
+    /**
+     * Joins a cluster of managers, which split the keys of their
+     * {@link TPartitionedCache}s among them. The manager listens on its
+     * address for the requests of the other members and tells the given
+     * members, and the members they know, that it joined; the members join
+     * one at a time. It leaves the cluster when it is closed, handing its
+     * entries over to the remaining members.
+     *
+     * @param localAddress the address the other members reach this one at,
+     *                     with port 0 for any free one
+     * @param members      the addresses of members of the cluster, none to start a new cluster
+     * @return the membership of this manager
+     * @throws IllegalStateException if the manager is closed or joined a cluster already
+     * @throws CacheException        if the address can not be bound or a member can not be reached
+     * @see #createPartitionedCache(String, Configuration)
+     */
+    public TCluster joinCluster(InetSocketAddress localAddress, InetSocketAddress... members) {
+        if (null == localAddress) {
+            throw new NullPointerException("localAddress");
+        }
+        synchronized (this) {
+            if (isClosed()) {
+                throw new IllegalStateException();
+            }
+            if (null != cluster) {
+                throw new IllegalStateException("The manager joined a cluster already");
+            }
+            TCluster newCluster;
+            try {
+                newCluster = new TCluster(this, localAddress);
+            } catch (IOException e) {
+                throw new CacheException("Failed to listen on " + localAddress, e);
+            }
+            cluster = newCluster;
+            try {
+                newCluster.join(Arrays.asList(members));
+            } catch (RuntimeException e) {
+                newCluster.leave();
+                cluster = null;
+                throw e;
+            }
+            return newCluster;
+        }
+    }
+
+    /**
+     * Gets the cluster this manager joined.
+     *
+     * @return the membership or null if the manager did not join a cluster
+     */
+    public TCluster getCluster() {
+        return cluster;
+    }
+
+    /**
+     * Gets the threads loading values in the background.
+     *
+     * @return the loader executor
+     */
+    ExecutorService getLoaderExecutor() {
+        return loaderExecutor;
+    }
+
+    /**
+     * Gets the threads refreshing entries ahead of their expiry.
+     *
+     * @return the refresh executor, rejecting tasks once its queue is full
+     */
+    ExecutorService getRefreshExecutor() {
+        return refreshExecutor;
+    }
+
+    /**
+     * Gets the executor of the asynchronous views of the caches.
+     *
+     * @return the async executor
+     */
+    ExecutorService getAsyncExecutor() {
+        return asyncExecutor;
+    }
+
+    /**
+     * Gets the coarse clock shared by the caches.
+     *
+     * @return the clock
+     */
+    TClock getClock() {
+        return clock;
+    }
+
+    /**
+     * Gets the memory budget shared by the caches.
+     *
+     * @return the budget or null if the caches are not bounded together
+     */
+    TMemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Gets the replicator of the caches.
+     *
+     * @return the replicator or null if the replication is not enabled
+     */
+    TReplicator getReplicator() {
+        return replicator;
+    }
+
+    /**
+     * Gets an open cache replicated by this manager.
+     *
+     * @param cacheName the name of the cache
+     * @return the cache or null if there is no such cache or it is not
+     * configured for replication
+     */
+    TCache<?, ?> getReplicatedCache(String cacheName) {
+        TCache<?, ?> cache = caches.get(cacheName);
+        return null == cache || cache.isClosed() || cache.getReplicationMode() == TReplicationMode.NONE
+                ? null : cache;
+    }
+
+    /**
+     * Gets the open caches replicated by this manager.
+     *
+     * @return the caches
+     */
+    List<TCache<?, ?>> getReplicatedCaches() {
+        List<TCache<?, ?>> replicatedCaches = new ArrayList<TCache<?, ?>>();
+        for (TCache<?, ?> cache : caches.values()) {
+            if (!cache.isClosed() && cache.getReplicationMode() != TReplicationMode.NONE) {
+                replicatedCaches.add(cache);
+            }
+        }
+        return replicatedCaches;
+    }
+
+    /**
+     * Gets a partitioned cache serving the requests of other members.
+     *
+     * @param cacheName the name of the cache
+     * @return the cache or null if there is no such cache
+     */
+    TPartitionedCache<?, ?> getPartitionedCache(String cacheName) {
+        return partitionedCaches.get(cacheName);
+    }
+
+    /**
+     * Gets the partitioned caches.
+     *
+     * @return the caches
+     */
+    List<TPartitionedCache<?, ?>> getPartitionedCaches() {
+        return new ArrayList<TPartitionedCache<?, ?>>(partitionedCaches.values());
+    }
+
     /**
      * Obtain the logger.
      *
@@ -0,0 +1,437 @@
+package CacheApi;
+
+import javax.cache.management.CacheStatisticsMXBean;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The statistics of a {@link TCache}, registered as a
+ * {@link CacheStatisticsMXBean} while they are enabled.
+ * <p>
+ * The counters are {@link LongAdder}s, striped across cells so that threads
+ * on different cores do not contend for a single cache line. Timing every
+ * operation would cost more than counting it, so only a sample of the
+ * operations is timed: one in {@link TCacheConfiguration#getLatencySampleInterval()}
+ * on average, chosen at random. The average times are the averages of the
+ * sampled operations.
+ * </p>
+ * <p>
+ * If configured, the sampled latencies are also recorded by
+ * {@link TLatencyHistogram}s per operation and the accessed keys by
+ * {@link THotKeys}. Like the counters they are recorded without allocation
+ * and only while the statistics are enabled.
+ * </p>
+ * @author Kozlov Ivan
+ */
+class TCacheStatistics implements CacheStatisticsMXBean {
+
+    /**
+     * The start time of an operation that is not timed.
+     */
+    static final long NOT_SAMPLED = Long.MIN_VALUE;
+
+    /**
+     * The mask selecting the sampled operations from a random number,
+     * -1 if no operation is timed.
+     */
+    private final int sampleMask;
+
+    private volatile boolean isEnabled;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder puts = new LongAdder();
+
+    private final LongAdder removals = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    private final LongAdder diskHits = new LongAdder();
+
+    private final LongAdder demotions = new LongAdder();
+
+    private final LongAdder getTime = new LongAdder();
+
+    private final LongAdder getSamples = new LongAdder();
+
+    private final LongAdder putTime = new LongAdder();
+
+    private final LongAdder putSamples = new LongAdder();
+
+    private final LongAdder removeTime = new LongAdder();
+
+    private final LongAdder removeSamples = new LongAdder();
+
+    private final TLatencyHistogram getHistogram;
+
+    private final TLatencyHistogram putHistogram;
+
+    private final TLatencyHistogram invokeHistogram;
+
+    private final TLatencyHistogram loadHistogram;
+
+    private final THotKeys hotKeys;
+
+    /**
+     * Constructs the statistics of a cache.
+     *
+     * @param isEnabled              whether the operations are recorded
+     * @param latencySampleInterval  one in how many operations is timed, a
+     *                               power of two, or 0 if none is timed
+     * @param isHistogramsEnabled    whether the latencies are recorded by histograms
+     * @param hotKeyCount            the number of hot keys tracked, 0 if none is
+     */
+    TCacheStatistics(boolean isEnabled, int latencySampleInterval, boolean isHistogramsEnabled, int hotKeyCount) {
+        this.isEnabled = isEnabled;
+        this.sampleMask = latencySampleInterval - 1;
+        this.getHistogram = isHistogramsEnabled ? new TLatencyHistogram() : null;
+        this.putHistogram = isHistogramsEnabled ? new TLatencyHistogram() : null;
+        this.invokeHistogram = isHistogramsEnabled ? new TLatencyHistogram() : null;
+        this.loadHistogram = isHistogramsEnabled ? new TLatencyHistogram() : null;
+        this.hotKeys = hotKeyCount > 0 ? new THotKeys(hotKeyCount) : null;
+    }
+
+    boolean isEnabled() {
+        return isEnabled;
+    }
+
+    void setEnabled(boolean isEnabled) {
+        this.isEnabled = isEnabled;
+    }
+
+    /**
+     * Decides whether an operation is timed.
+     *
+     * @return the start time of the operation or {@link #NOT_SAMPLED}
+     */
+    long startSample() {
+        if (!isEnabled || sampleMask < 0 || (ThreadLocalRandom.current().nextInt() & sampleMask) != 0) {
+            return NOT_SAMPLED;
+        }
+        return System.nanoTime();
+    }
+
+    void recordHits(long count) {
+        if (isEnabled) {
+            hits.add(count);
+        }
+    }
+
+    void recordMisses(long count) {
+        if (isEnabled) {
+            misses.add(count);
+        }
+    }
+
+    void recordPuts(long count) {
+        if (isEnabled) {
+            puts.add(count);
+        }
+    }
+
+    void recordRemovals(long count) {
+        if (isEnabled) {
+            removals.add(count);
+        }
+    }
+
+    /**
+     * Records hits served by the disk tier, counted as hits as well.
+     *
+     * @param count the number of hits
+     */
+    void recordDiskHits(long count) {
+        if (isEnabled) {
+            diskHits.add(count);
+        }
+    }
+
+    void recordDemotions(long count) {
+        if (isEnabled) {
+            demotions.add(count);
+        }
+    }
+
+    void recordEvictions(long count) {
+        if (isEnabled) {
+            evictions.add(count);
+        }
+    }
+
+    /**
+     * Records the time of a sampled get.
+     *
+     * @param start the time returned by {@link #startSample()}
+     * @param count the number of keys read by the operation
+     */
+    void recordGetTime(long start, int count) {
+        record(getTime, getSamples, getHistogram, start, count);
+    }
+
+    /**
+     * Records the time of a sampled put.
+     *
+     * @param start the time returned by {@link #startSample()}
+     * @param count the number of entries written by the operation
+     */
+    void recordPutTime(long start, int count) {
+        record(putTime, putSamples, putHistogram, start, count);
+    }
+
+    /**
+     * Records the time of a sampled removal.
+     *
+     * @param start the time returned by {@link #startSample()}
+     * @param count the number of keys removed by the operation
+     */
+    void recordRemoveTime(long start, int count) {
+        record(removeTime, removeSamples, null, start, count);
+    }
+
+    /**
+     * Records the time of a sampled invocation of an entry processor.
+     *
+     * @param start the time returned by {@link #startSample()}
+     */
+    void recordInvokeTime(long start) {
+        if (start != NOT_SAMPLED && null != invokeHistogram) {
+            invokeHistogram.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Records the time of a call of the loader. Every call is recorded.
+     *
+     * @param nanos the time of the call
+     * @param count the number of keys loaded by the call
+     */
+    void recordLoadTime(long nanos, int count) {
+        if (isEnabled && null != loadHistogram && count > 0) {
+            loadHistogram.record(nanos / count);
+        }
+    }
+
+    /**
+     * Records an access of a key for the detection of hot keys.
+     *
+     * @param key the key
+     */
+    void recordAccess(Object key) {
+        if (isEnabled && null != hotKeys) {
+            hotKeys.record(key);
+        }
+    }
+
+    /**
+     * Records the time of a sampled operation. The histogram records the
+     * mean time per key of an operation on several keys.
+     */
+    private static void record(LongAdder time, LongAdder samples, TLatencyHistogram histogram, long start, int count) {
+        if (start != NOT_SAMPLED && count > 0) {
+            long elapsed = System.nanoTime() - start;
+            time.add(elapsed);
+            samples.add(count);
+            if (null != histogram) {
+                histogram.record(elapsed / count);
+            }
+        }
+    }
+
+    TLatencySnapshot getGetLatency() {
+        return null == getHistogram ? null : getHistogram.snapshot();
+    }
+
+    TLatencySnapshot getPutLatency() {
+        return null == putHistogram ? null : putHistogram.snapshot();
+    }
+
+    TLatencySnapshot getInvokeLatency() {
+        return null == invokeHistogram ? null : invokeHistogram.snapshot();
+    }
+
+    TLatencySnapshot getLoadLatency() {
+        return null == loadHistogram ? null : loadHistogram.snapshot();
+    }
+
+    /**
+     * Gets the hot keys with their estimated number of accesses.
+     *
+     * @return the keys, the most frequent first, empty if they are not tracked
+     */
+    Map<Object, Long> getHotKeys() {
+        return null == hotKeys ? Collections.emptyMap() : hotKeys.snapshot();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear() {
+        hits.reset();
+        misses.reset();
+        puts.reset();
+        removals.reset();
+        evictions.reset();
+        diskHits.reset();
+        demotions.reset();
+        getTime.reset();
+        getSamples.reset();
+        putTime.reset();
+        putSamples.reset();
+        removeTime.reset();
+        removeSamples.reset();
+        for (TLatencyHistogram histogram : new TLatencyHistogram[]{
+                getHistogram, putHistogram, invokeHistogram, loadHistogram}) {
+            if (null != histogram) {
+                histogram.clear();
+            }
+        }
+        if (null != hotKeys) {
+            hotKeys.clear();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getCacheHits() {
+        return hits.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public float getCacheHitPercentage() {
+        long gets = getCacheGets();
+        return gets == 0 ? 0 : (float) getCacheHits() / gets * 100;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getCacheMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public float getCacheMissPercentage() {
+        long gets = getCacheGets();
+        return gets == 0 ? 0 : (float) getCacheMisses() / gets * 100;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getCacheGets() {
+        return getCacheHits() + getCacheMisses();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getCachePuts() {
+        return puts.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getCacheRemovals() {
+        return removals.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getCacheEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Gets the number of hits served by the disk tier.
+     *
+     * @return the disk hit count
+     */
+    long getDiskHits() {
+        return diskHits.sum();
+    }
+
+    /**
+     * Gets the number of entries evicted from the heap to the disk tier.
+     *
+     * @return the demotion count
+     */
+    long getDemotions() {
+        return demotions.sum();
+    }
+
+    /**
+     * Gets the percentage of the gets served by the heap tier.
+     *
+     * @return the percentage of all gets
+     */
+    float getHeapHitPercentage() {
+        long gets = getCacheGets();
+        return gets == 0 ? 0 : (float) (getCacheHits() - getDiskHits()) / gets * 100;
+    }
+
+    /**
+     * Gets the percentage of the gets missing the heap tier that were
+     * served by the disk tier.
+     *
+     * @return the percentage of the heap misses
+     */
+    float getDiskHitPercentage() {
+        long heapMisses = getCacheMisses() + getDiskHits();
+        return heapMisses == 0 ? 0 : (float) getDiskHits() / heapMisses * 100;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public float getAverageGetTime() {
+        return average(getTime, getSamples);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public float getAveragePutTime() {
+        return average(putTime, putSamples);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public float getAverageRemoveTime() {
+        return average(removeTime, removeSamples);
+    }
+
+    /**
+     * Calculates the mean time of the sampled operations.
+     *
+     * @return the time in microseconds
+     */
+    private static float average(LongAdder time, LongAdder samples) {
+        long count = samples.sum();
+        return count == 0 ? 0 : (float) time.sum() / TimeUnit.MICROSECONDS.toNanos(1) / count;
+    }
+}
@@ -0,0 +1,25 @@
+package CacheApi;
+
+/**
+ * Calculates the weights of cache entries, used to bound a {@link TCache}
+ * and a {@link TCacheManager} by the memory their entries occupy rather
+ * than by the number of entries.
+ * <p>
+ * The weight of an entry is calculated when the entry is created or updated
+ * and must not change while the entry is cached.
+ * </p>
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ * @author Kozlov Ivan
+ */
+public interface TCacheWeigher<K, V> {
+
+    /**
+     * Returns the weight of a cache entry, for example its size in bytes.
+     *
+     * @param key   the key of the entry
+     * @param value the value of the entry
+     * @return the non-negative weight of the entry
+     */
+    int weigh(K key, V value);
+}
@@ -1,16 +1,42 @@
 package CacheApi;
 
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * The value of an entry of a {@link TCache} with the metadata the cache
+ * needs, kept compact since there is one per entry: the value, the expiry
+ * time, the creation time in seconds and the node of the timer wheel take
+ * 32 bytes with compressed references. The access and modification times
+ * are not kept, the cache does not read them; the expiry on access moves
+ * the expiry time instead.
+ * @param <V> the type of the value
+ * @author Kozlov Ivan
+ */
 public class TCachedValue <V> {
 
+    @SuppressWarnings("unchecked")
+    private static final AtomicLongFieldUpdater<TCachedValue<?>> EXPIRY_TIME =
+            AtomicLongFieldUpdater.newUpdater((Class<TCachedValue<?>>) (Class<?>) TCachedValue.class, "expiryTime");
+
+    /**
+     * The epoch of the creation times, 2020-01-01T00:00:00Z, in milliseconds
+     * since the Epoc. An int of seconds since it covers the years 1952 to
+     * 2088.
+     */
+    static final long CREATION_EPOCH = 1577836800000L;
+
     /**
      * The internal representation of Cache Entry value
      */
-    private V internalValue;
+    private volatile V internalValue;
 
     /**
-     * The time (since the Epoc) in milliseconds since the internal value was created.
+     * The time in seconds since the {@link #CREATION_EPOCH} when the internal
+     * value was created. Seconds are precise enough: the creation time is
+     * only persisted along with the entry, the decisions of the cache rest
+     * on the expiry time.
      */
-    private long creationTime;
+    private final int creationTime;
 
     /**
      * The time (since the Epoc) in milliseconds when the Cache Entry associated
@@ -19,23 +45,17 @@ public class TCachedValue <V> {
      * A value of -1 indicates that the Cache Entry should never expire.
      * </p>
      */
-    private long expiryTime;
+    private volatile long expiryTime;
 
     /**
-     * The time (since the Epoc) in milliseconds since the internal value was
-     * last modified.
+     * The node linking this value into the {@link TTimerWheel} of the cache
+     * or null if the value is not scheduled for expiry. Guarded by the lock
+     * of the wheel.
      */
-    private long modificationTime;
+    TTimerWheel.Node timerNode;
 
     /**
-     * The time (since the Epoc) in milliseconds since the internal value was
-     * last accessed.
-     */
-    private long accessTime;
-
-    /**
-     * Constructs an CacheApi.TCachedValue with the creation, access and
-     * modification times being the current time.
+     * Constructs an CacheApi.TCachedValue.
      *
      * @param internalValue the internal representation of the value
      * @param creationTime  the time when the cache entry was created
@@ -43,22 +63,16 @@ public class TCachedValue <V> {
      */
     public TCachedValue(V internalValue, long creationTime, long expiryTime) {
         this.internalValue = internalValue;
-        this.creationTime = creationTime;
+        this.creationTime = (int) Math.floorDiv(creationTime - CREATION_EPOCH, 1000L);
         this.expiryTime = expiryTime;
-        this.accessTime = creationTime;
-        this.modificationTime = creationTime;
     }
 
     /**
-     * Sets the internal value with the additional side-effect of updating the
-     * modification time to that which is specified and incrementing the
-     * modification count.
+     * Sets the internal value.
      *
-     * @param internalValue    the new internal value
-     * @param modificationTime the time when the value was modified
+     * @param internalValue the new internal value
      */
-    public void setInternalValue(V internalValue, long modificationTime) {
-        this.modificationTime = modificationTime;
+    public void setInternalValue(V internalValue) {
         this.internalValue = internalValue;
     }
 
@@ -72,8 +86,27 @@ public class TCachedValue <V> {
         this.expiryTime = expiryTime;
     }
 
-    public V getInternalValue(long accessTime) {
-        this.accessTime = accessTime;
+    /**
+     * Sets the expiry time if it was not changed concurrently. Used by the
+     * readers, which lose against a concurrent update as if they had read
+     * the value before it.
+     *
+     * @param expectedExpiryTime the expiry time the reader has seen
+     * @param expiryTime         time in milliseconds (since the Epoc)
+     * @return true if the expiry time was set
+     */
+    public boolean compareAndSetExpiryTime(long expectedExpiryTime, long expiryTime) {
+        return expectedExpiryTime == expiryTime
+                || EXPIRY_TIME.compareAndSet(this, expectedExpiryTime, expiryTime);
+    }
+
+    /**
+     * Gets the internal value. Reading it does not write to the entry, so
+     * that concurrent readers of a hot entry do not contend on it.
+     *
+     * @return the internal value
+     */
+    public V getInternalValue() {
         return internalValue;
     }
 
@@ -81,8 +114,14 @@ public class TCachedValue <V> {
         return internalValue.equals(value);
     }
 
+    /**
+     * Gets the time (since the Epoc) in milliseconds when the entry was
+     * created, truncated to seconds.
+     *
+     * @return the creation time
+     */
     public long getCreationTime() {
-        return creationTime;
+        return CREATION_EPOCH + creationTime * 1000L;
     }
 
     public long getExpiryTime() {
@@ -0,0 +1,114 @@
+package CacheApi;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A coarse clock shared by the caches of a {@link TCacheManager}.
+ * <p>
+ * The time is read from the system once per tick, so that the read path of
+ * the caches costs a volatile read instead of a call to
+ * {@link System#currentTimeMillis()}. As the time only changes once per
+ * tick, hot entries are also written at most once per tick to record their
+ * accesses.
+ * </p>
+ * <p>
+ * Only the caches whose entries expire need the time to the
+ * {@link #RESOLUTION}. While one of them is open the clock is
+ * {@link #acquire() acquired} and ticked by a single thread shared by the
+ * clocks of all managers, which is stopped once no clock is acquired.
+ * Otherwise the clock is ticked by the maintenance of its manager.
+ * </p>
+ * @author Kozlov Ivan
+ */
+class TClock {
+
+    /**
+     * The resolution of the clock in milliseconds.
+     */
+    static final long RESOLUTION = 1;
+
+    /**
+     * The acquired clocks, ticked by the {@link #ticker}.
+     */
+    private static final Set<TClock> TICKING = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The thread ticking the acquired clocks or null while none is acquired.
+     * Guarded by the class.
+     */
+    private static ScheduledExecutorService ticker;
+
+    private volatile long millis = System.currentTimeMillis();
+
+    /**
+     * The number of open caches needing the time of this clock.
+     * Guarded by this clock.
+     */
+    private int acquired;
+
+    /**
+     * Gets the time of the latest tick.
+     *
+     * @return the time in milliseconds (since the Epoc)
+     */
+    long millis() {
+        return millis;
+    }
+
+    /**
+     * Reads the time from the system.
+     */
+    void tick() {
+        millis = System.currentTimeMillis();
+    }
+
+    /**
+     * Ticks this clock every {@link #RESOLUTION} until it is released by
+     * every cache acquiring it.
+     */
+    synchronized void acquire() {
+        if (acquired++ == 0) {
+            tick();
+            startTicking(this);
+        }
+    }
+
+    /**
+     * Releases the clock acquired by a cache.
+     */
+    synchronized void release() {
+        if (--acquired == 0) {
+            stopTicking(this);
+        }
+    }
+
+    private static synchronized void startTicking(TClock clock) {
+        TICKING.add(clock);
+        if (null == ticker) {
+            ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "TClock-ticker");
+                thread.setDaemon(true);
+                return thread;
+            });
+            ticker.scheduleAtFixedRate(TClock::tickAll, RESOLUTION, RESOLUTION, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static synchronized void stopTicking(TClock clock) {
+        TICKING.remove(clock);
+        if (TICKING.isEmpty() && null != ticker) {
+            ticker.shutdownNow();
+            ticker = null;
+        }
+    }
+
+    private static void tickAll() {
+        for (TClock clock : TICKING) {
+            clock.tick();
+        }
+    }
+}
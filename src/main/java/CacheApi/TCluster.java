@@ -0,0 +1,430 @@
+package CacheApi;
+
+import javax.cache.CacheException;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The membership of a {@link TCacheManager} in a cluster of managers,
+ * which split the keys of their {@link TPartitionedCache}s among them by a
+ * {@link TConsistentHashRing}. It is joined by
+ * {@link TCacheManager#joinCluster(InetSocketAddress, InetSocketAddress...)}
+ * and left when the manager is closed.
+ * <p>
+ * Every member listens on its address for the requests of the others,
+ * served by a {@link TClusterServer}, and opens a
+ * {@link TClusterConnection} to each member it sends requests to. A
+ * member joins by telling the members it knows about itself, which answer
+ * with the members they know, until it told all of them; the members join
+ * one at a time. A member that learns about a new member hands the entries
+ * the new member now owns over to it, and a member that leaves hands all
+ * its entries over to their next owners. Each member tells the new member
+ * once it handed the entries over, see {@link #getHandOverFuture()};
+ * until all did, the new member reads the keys it misses from their
+ * previous owners. The reads routed to the next owners of a leaving member
+ * before its entries arrived miss, as do the reads of the entries whose
+ * hand-over failed.
+ * </p>
+ * <p>
+ * A member that is sent a request for a key it does not own, by a member
+ * that did not learn about a change of the membership yet, rejects it and
+ * tells the members it knows, see {@link TClusterProtocol#MOVED}; the
+ * sender adds those it did not know and sends the request to the owner
+ * again. A write applied by the previous owner while it hands the entries
+ * over may still be lost.
+ * </p>
+ * @author Kozlov Ivan
+ */
+public final class TCluster {
+
+    private static final Logger LOGGER = Logger.getLogger("javax.cache");
+
+    private final TCacheManager cacheManager;
+
+    private final TClusterServer server;
+
+    private final InetSocketAddress localAddress;
+
+    private volatile TConsistentHashRing ring;
+
+    private final ConcurrentHashMap<InetSocketAddress, TClusterConnection> connections = new ConcurrentHashMap<>();
+
+    /**
+     * The members that left, which the members that did not learn about it
+     * yet may still tell about.
+     */
+    private final Set<InetSocketAddress> leftMembers = new HashSet<>();
+
+    /**
+     * The thread handing the entries over after the membership changed, so
+     * that the server does not wait for other members.
+     */
+    private final ExecutorService rebalanceExecutor;
+
+    private volatile boolean isLeft;
+
+    /**
+     * The hand-over of the entries this member owns since it joined, or
+     * null once all members handed them over.
+     */
+    private volatile HandOver handOver;
+
+    private final CompletableFuture<Void> handOverFuture = new CompletableFuture<>();
+
+    /**
+     * Starts listening for the other members.
+     *
+     * @param cacheManager the manager of the partitioned caches
+     * @param address      the address the other members reach this one at
+     * @throws IOException if the address can not be bound
+     */
+    TCluster(TCacheManager cacheManager, InetSocketAddress address) throws IOException {
+        if (address.isUnresolved() || address.getAddress().isAnyLocalAddress()) {
+            throw new IllegalArgumentException("The address of a member has to be one the others reach it at, not "
+                    + address);
+        }
+        this.cacheManager = cacheManager;
+        this.server = new TClusterServer(address, this::handle);
+        this.localAddress = server.getLocalAddress();
+        this.ring = new TConsistentHashRing(Collections.singletonList(localAddress));
+        this.rebalanceExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "TCluster-rebalance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.start();
+    }
+
+    /**
+     * Joins the members, which tell about the members they know.
+     *
+     * @param members the addresses of some members
+     * @throws CacheException if a member can not be reached
+     */
+    void join(Collection<InetSocketAddress> members) {
+        HandOver joining = new HandOver();
+        handOver = joining;
+        Set<InetSocketAddress> told = new HashSet<>();
+        told.add(localAddress);
+        Deque<InetSocketAddress> toTell = new ArrayDeque<>(members);
+        while (!toTell.isEmpty()) {
+            InetSocketAddress member = toTell.poll();
+            if (!told.add(member)) {
+                continue;
+            }
+            //the member may hand the entries over before it answers
+            joining.pendingMembers.add(member);
+            List<InetSocketAddress> knownMembers = TClusterConnection.await(connection(member).call(
+                    TClusterProtocol.JOIN, out -> TClusterProtocol.writeAddress(out, localAddress),
+                    TClusterProtocol::readAddresses));
+            addMember(member);
+            toTell.addAll(knownMembers);
+        }
+        joining.isJoining = false;
+        completeHandOver(joining);
+        //the entries this member had before it joined may be owned by the others now
+        rebalance();
+    }
+
+    private synchronized void addMember(InetSocketAddress member) {
+        leftMembers.remove(member);
+        ring = ring.with(member);
+        HandOver pending = handOver;
+        if (null != pending && pending.isJoining) {
+            pending.previousRing = pending.previousRing.with(member);
+        }
+    }
+
+    /**
+     * Adds the members another member knows and this one did not, handing
+     * the entries they own over to them.
+     *
+     * @param members the members the other member knows
+     * @return whether a member was added
+     */
+    boolean learn(Collection<InetSocketAddress> members) {
+        boolean isChanged = false;
+        synchronized (this) {
+            for (InetSocketAddress member : members) {
+                if (!ring.contains(member) && !leftMembers.contains(member)) {
+                    ring = ring.with(member);
+                    isChanged = true;
+                }
+            }
+        }
+        if (isChanged) {
+            rebalanceLater(null);
+        }
+        return isChanged;
+    }
+
+    private synchronized void removeMember(InetSocketAddress member) {
+        leftMembers.add(member);
+        ring = ring.without(member);
+        TClusterConnection connection = connections.remove(member);
+        if (null != connection) {
+            connection.close();
+        }
+        HandOver pending = handOver;
+        if (null != pending) {
+            //a leaving member hands all its entries over to their next owners instead
+            pending.previousRing = pending.previousRing.without(member);
+            pending.pendingMembers.remove(member);
+            completeHandOver(pending);
+        }
+    }
+
+    /**
+     * Completes a hand-over once this member told all members about itself
+     * and they all handed the entries over.
+     */
+    private void completeHandOver(HandOver pending) {
+        if (!pending.isJoining && pending.pendingMembers.isEmpty()) {
+            handOver = null;
+            handOverFuture.complete(null);
+        }
+    }
+
+    /**
+     * Gets the completion of the hand-over of the entries this member owns
+     * since it joined the cluster, by the members it told about itself. The
+     * hand-overs of the members joining or leaving later are not awaited.
+     *
+     * @return the future completed once every member handed the entries over, or left
+     */
+    public CompletableFuture<Void> getHandOverFuture() {
+        return handOverFuture;
+    }
+
+    /**
+     * Gets the address the other members reach this one at.
+     *
+     * @return the address, with the port chosen if it was given as 0
+     */
+    public InetSocketAddress getLocalAddress() {
+        return localAddress;
+    }
+
+    /**
+     * Gets the members known to this one, itself included.
+     *
+     * @return the addresses of the members
+     */
+    public List<InetSocketAddress> getMembers() {
+        return ring.getMembers();
+    }
+
+    /**
+     * Gets the owner of a key.
+     *
+     * @param keyHash the hash of the serialized key, see {@link TConsistentHashRing#hash(byte[])}
+     * @return the address of the owner
+     */
+    InetSocketAddress owner(long keyHash) {
+        return ring.owner(keyHash);
+    }
+
+    /**
+     * Gets the member that owned a key this member owns, while its entry
+     * may still be handed over to this member.
+     *
+     * @param keyHash the hash of the serialized key, see {@link TConsistentHashRing#hash(byte[])}
+     * @return the address of the previous owner, or null once the entries are handed over
+     */
+    InetSocketAddress previousOwner(long keyHash) {
+        HandOver pending = handOver;
+        return null == pending ? null : pending.previousRing.owner(keyHash);
+    }
+
+    /**
+     * Determines if the entries this member owns since it joined may still
+     * be handed over to it.
+     *
+     * @return true until every member handed them over
+     */
+    boolean isHandingOver() {
+        return null != handOver;
+    }
+
+    boolean isLocal(InetSocketAddress member) {
+        return localAddress.equals(member);
+    }
+
+    /**
+     * Checks that this member owns a key another member sent a request for.
+     *
+     * @param key the serialized key
+     * @throws TClusterProtocol.MovedException if another member owns the key
+     */
+    void checkOwner(byte[] key) {
+        TConsistentHashRing current = ring;
+        if (!isLocal(current.owner(TConsistentHashRing.hash(key)))) {
+            throw new TClusterProtocol.MovedException(current.getMembers());
+        }
+    }
+
+    /**
+     * Gets the connection to a member.
+     *
+     * @param member the address of the member
+     * @return the connection, opened on its first request
+     * @throws IllegalStateException if this member left the cluster
+     */
+    TClusterConnection connection(InetSocketAddress member) {
+        if (isLeft) {
+            throw new IllegalStateException("The manager left the cluster");
+        }
+        return connections.computeIfAbsent(member, TClusterConnection::new);
+    }
+
+    private void handle(int operation, DataInputStream in, DataOutputStream out) throws IOException {
+        switch (operation) {
+            case TClusterProtocol.JOIN:
+                InetSocketAddress joining = TClusterProtocol.readAddress(in);
+                addMember(joining);
+                TClusterProtocol.writeAddresses(out, ring.getMembers());
+                rebalanceLater(joining);
+                break;
+            case TClusterProtocol.LEAVE:
+                removeMember(TClusterProtocol.readAddress(in));
+                break;
+            case TClusterProtocol.HANDED_OVER:
+                InetSocketAddress member = TClusterProtocol.readAddress(in);
+                HandOver pending = handOver;
+                if (null != pending) {
+                    pending.pendingMembers.remove(member);
+                    completeHandOver(pending);
+                }
+                break;
+            default:
+                String cacheName = in.readUTF();
+                TPartitionedCache<?, ?> cache = cacheManager.getPartitionedCache(cacheName);
+                if (null == cache) {
+                    throw new IllegalStateException("No partitioned cache named " + cacheName + " on " + localAddress);
+                }
+                cache.handle(operation, in, out);
+        }
+    }
+
+    /**
+     * Hands the entries over in the background.
+     *
+     * @param joining the member to tell once its entries are handed over, or null
+     */
+    private void rebalanceLater(InetSocketAddress joining) {
+        try {
+            rebalanceExecutor.execute(() -> {
+                rebalance();
+                if (null != joining) {
+                    tellHandedOver(joining);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            //left meanwhile, the entries were handed over
+        }
+    }
+
+    private void tellHandedOver(InetSocketAddress joining) {
+        try {
+            TClusterConnection.await(connection(joining).call(TClusterProtocol.HANDED_OVER,
+                    out -> TClusterProtocol.writeAddress(out, localAddress), in -> null));
+        } catch (CacheException | IllegalStateException e) {
+            LOGGER.log(Level.WARNING, "Failed to tell " + joining + " about the entries handed over to it", e);
+        }
+    }
+
+    /**
+     * Hands the entries owned by other members over to them.
+     */
+    private void rebalance() {
+        if (isLeft) {
+            return;
+        }
+        TConsistentHashRing current = ring;
+        for (TPartitionedCache<?, ?> cache : cacheManager.getPartitionedCaches()) {
+            try {
+                cache.handOver(this, current, false);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Failed to hand over the entries of " + cache.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * Leaves the cluster: tells the other members, hands all entries over
+     * to their next owners and stops serving.
+     */
+    void leave() {
+        if (isLeft) {
+            return;
+        }
+        rebalanceExecutor.shutdown();
+        try {
+            rebalanceExecutor.awaitTermination(TClusterConnection.TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        TConsistentHashRing remaining = ring.without(localAddress);
+        List<CompletableFuture<Void>> leaves = new ArrayList<>();
+        for (InetSocketAddress member : remaining.getMembers()) {
+            leaves.add(connection(member).call(TClusterProtocol.LEAVE,
+                    out -> TClusterProtocol.writeAddress(out, localAddress), in -> null));
+        }
+        for (CompletableFuture<Void> leave : leaves) {
+            try {
+                TClusterConnection.await(leave);
+            } catch (CacheException e) {
+                LOGGER.log(Level.WARNING, "Failed to tell a member about leaving the cluster", e);
+            }
+        }
+        for (TPartitionedCache<?, ?> cache : cacheManager.getPartitionedCaches()) {
+            try {
+                cache.handOver(this, remaining, true);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Failed to hand over the entries of " + cache.getName(), e);
+            }
+        }
+        isLeft = true;
+        server.close();
+        for (TClusterConnection connection : connections.values()) {
+            connection.close();
+        }
+    }
+
+    /**
+     * The hand-over of the entries a member owns since it joined.
+     */
+    private static final class HandOver {
+
+        /**
+         * The members this member told about itself and that did not hand
+         * the entries over yet.
+         */
+        final Set<InetSocketAddress> pendingMembers = ConcurrentHashMap.newKeySet();
+
+        /**
+         * The ring of the other members, which owned the keys before.
+         */
+        volatile TConsistentHashRing previousRing = new TConsistentHashRing(Collections.emptyList());
+
+        volatile boolean isJoining = true;
+    }
+}
@@ -0,0 +1,325 @@
+package CacheApi;
+
+import javax.cache.CacheException;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The connection of a {@link TCluster} to another member, sending the
+ * requests of the {@link TPartitionedCache}s for the keys the member owns.
+ * <p>
+ * The requests are pipelined: a caller queues its request and is answered
+ * by a future, which a reader thread completes once the response arrived.
+ * The caller that finds the connection idle writes all queued requests in
+ * one frame, those queued meanwhile by other threads included, so that
+ * the requests of concurrent callers are batched without waiting for a
+ * batch to fill. The connection is opened on the first request and
+ * reopened on the next one after a failure, which fails the requests that
+ * were not answered.
+ * </p>
+ * @author Kozlov Ivan
+ */
+final class TClusterConnection {
+
+    /**
+     * The time in milliseconds a caller waits for a response.
+     */
+    static final long TIMEOUT = 10000;
+
+    /**
+     * The timeout in milliseconds of connecting to a member.
+     */
+    private static final int CONNECT_TIMEOUT = 1000;
+
+    /**
+     * Encodes the payload of a request.
+     */
+    interface Encoder {
+        void encode(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Decodes the payload of a response.
+     *
+     * @param <T> the type of the result
+     */
+    interface Decoder<T> {
+        T decode(DataInputStream in) throws IOException;
+    }
+
+    private final InetSocketAddress address;
+
+    private final AtomicLong nextId = new AtomicLong();
+
+    private final Map<Long, Call<?>> calls = new ConcurrentHashMap<>();
+
+    private final ConcurrentLinkedQueue<byte[]> queue = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Held by the caller writing the queued requests.
+     */
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    private volatile SocketChannel channel;
+
+    private volatile boolean isClosed;
+
+    /**
+     * Constructs a connection, which is opened on the first request.
+     *
+     * @param address the address of the member
+     */
+    TClusterConnection(InetSocketAddress address) {
+        this.address = address;
+    }
+
+    /**
+     * Sends a request.
+     *
+     * @param operation the operation, see {@link TClusterProtocol}
+     * @param encoder   the encoder of the payload
+     * @param decoder   the decoder of the payload of the response, called by the reader thread
+     * @param <T>       the type of the result
+     * @return the future result, failed with a {@link CacheException} if the request failed
+     */
+    <T> CompletableFuture<T> call(int operation, Encoder encoder, Decoder<T> decoder) {
+        long id = nextId.incrementAndGet();
+        Call<T> call = new Call<>(decoder);
+        byte[] request;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(id);
+            out.writeByte(operation);
+            out.writeInt(0);
+            encoder.encode(out);
+            out.flush();
+            request = bytes.toByteArray();
+        } catch (IOException e) {
+            call.future.completeExceptionally(new CacheException("Failed to encode a request", e));
+            return call.future;
+        }
+        ByteBuffer.wrap(request).putInt(9, request.length - TClusterProtocol.HEADER_SIZE);
+        try {
+            connect();
+        } catch (IOException e) {
+            call.future.completeExceptionally(new CacheException("Failed to connect to " + address, e));
+            return call.future;
+        }
+        calls.put(id, call);
+        //a call timed out by await is forgotten, its response is dropped should it arrive
+        call.future.whenComplete((result, failure) -> calls.remove(id, call));
+        queue.add(request);
+        flush();
+        return call.future;
+    }
+
+    private synchronized void connect() throws IOException {
+        if (isClosed) {
+            throw new IOException("The connection is closed");
+        }
+        if (null != channel) {
+            return;
+        }
+        SocketChannel newChannel = SocketChannel.open();
+        try {
+            newChannel.socket().setTcpNoDelay(true);
+            newChannel.socket().connect(address, CONNECT_TIMEOUT);
+        } catch (IOException e) {
+            newChannel.close();
+            throw e;
+        }
+        channel = newChannel;
+        Thread reader = new Thread(() -> read(newChannel), "TCluster-connection-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Writes the queued requests unless another caller does.
+     */
+    private void flush() {
+        //rechecks the queue after unlocking, for the requests queued while the lock was held
+        while (!queue.isEmpty() && writeLock.tryLock()) {
+            try {
+                writeQueued();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    private void writeQueued() {
+        List<byte[]> requests = new ArrayList<>();
+        int length = TClusterProtocol.FRAME_HEADER_SIZE;
+        byte[] request;
+        while (requests.size() < TClusterProtocol.MAXIMUM_FRAME_COUNT && null != (request = queue.poll())) {
+            requests.add(request);
+            length += request.length;
+        }
+        if (requests.isEmpty()) {
+            return;
+        }
+        ByteBuffer frame = ByteBuffer.allocate(length);
+        frame.putInt(length - 4).putInt(requests.size());
+        for (byte[] r : requests) {
+            frame.put(r);
+        }
+        frame.flip();
+        SocketChannel current = channel;
+        try {
+            if (null == current) {
+                throw new IOException("The connection was lost");
+            }
+            while (frame.hasRemaining()) {
+                current.write(frame);
+            }
+        } catch (IOException e) {
+            fail(current, e);
+            //the requests were not sent, but may be known by their ids only
+            for (byte[] r : requests) {
+                Call<?> call = calls.remove(ByteBuffer.wrap(r).getLong(0));
+                if (null != call) {
+                    call.future.completeExceptionally(new CacheException("Failed to send to " + address, e));
+                }
+            }
+        }
+    }
+
+    private void read(SocketChannel readChannel) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(readChannel)))) {
+            while (true) {
+                byte[] frame = new byte[in.readInt()];
+                in.readFully(frame);
+                DataInputStream responses = new DataInputStream(new ByteArrayInputStream(frame));
+                int count = responses.readInt();
+                int offset = 4;
+                for (int i = 0; i < count; i++) {
+                    long id = responses.readLong();
+                    int status = responses.readByte();
+                    int length = responses.readInt();
+                    offset += TClusterProtocol.HEADER_SIZE;
+                    Call<?> call = calls.remove(id);
+                    if (null != call) {
+                        call.complete(status, new DataInputStream(new ByteArrayInputStream(frame, offset, length)));
+                    }
+                    responses.skipBytes(length);
+                    offset += length;
+                }
+            }
+        } catch (IOException e) {
+            fail(readChannel, e);
+        }
+    }
+
+    /**
+     * Closes a channel that failed and fails the requests that were not
+     * answered.
+     */
+    private void fail(SocketChannel failedChannel, IOException cause) {
+        synchronized (this) {
+            if (null == failedChannel || channel != failedChannel) {
+                return;
+            }
+            channel = null;
+        }
+        try {
+            failedChannel.close();
+        } catch (IOException e) {
+            //nothing is left to release
+        }
+        CacheException failure = new CacheException("The connection to " + address + " was lost", cause);
+        for (Long id : calls.keySet()) {
+            Call<?> call = calls.remove(id);
+            if (null != call) {
+                call.future.completeExceptionally(failure);
+            }
+        }
+    }
+
+    /**
+     * Closes the connection, failing the requests that were not answered.
+     */
+    void close() {
+        isClosed = true;
+        SocketChannel current = channel;
+        if (null != current) {
+            fail(current, new IOException("The connection was closed"));
+        }
+    }
+
+    /**
+     * Waits for the result of a request.
+     *
+     * @param future the future result
+     * @param <T>    the type of the result
+     * @return the result
+     * @throws CacheException if the request failed or timed out, which fails the future, a
+     *                        {@link TClusterProtocol.MovedException} if the member does not own the key
+     */
+    static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.get(TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CacheException("Interrupted while waiting for a cluster member", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TClusterProtocol.MovedException) {
+                throw (TClusterProtocol.MovedException) e.getCause();
+            }
+            throw new CacheException(e.getCause().getMessage(), e.getCause());
+        } catch (TimeoutException e) {
+            CacheException timeout = new CacheException("Timed out waiting for a cluster member", e);
+            future.completeExceptionally(timeout);
+            throw timeout;
+        }
+    }
+
+    /**
+     * A request waiting for its response.
+     */
+    private static final class Call<T> {
+
+        final CompletableFuture<T> future = new CompletableFuture<>();
+
+        final Decoder<T> decoder;
+
+        Call(Decoder<T> decoder) {
+            this.decoder = decoder;
+        }
+
+        void complete(int status, DataInputStream in) {
+            try {
+                if (status == TClusterProtocol.OK) {
+                    future.complete(decoder.decode(in));
+                } else if (status == TClusterProtocol.MOVED) {
+                    future.completeExceptionally(new TClusterProtocol.MovedException(
+                            TClusterProtocol.readAddresses(in)));
+                } else {
+                    future.completeExceptionally(new CacheException(in.readUTF()));
+                }
+            } catch (IOException | RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package CacheApi;
+
+import javax.cache.CacheException;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The binary protocol between the members of a {@link TCluster}.
+ * <p>
+ * A connection carries frames of requests one way and frames of responses
+ * the other way. A client sends the requests of all threads queued while
+ * it wrote the previous frame in one frame and does not wait for the
+ * responses before sending the next one; a server answers the requests of
+ * the frames it read at once in one frame. The responses are matched to
+ * the requests by their ids. The numbers are big-endian.
+ * </p>
+ * <pre>
+ * frame:    | length | count | requests or responses ...
+ *           | 4      | 4     |
+ * request:  | id | operation | length | payload
+ *           | 8  | 1         | 4      |
+ * response: | id | status    | length | payload
+ *           | 8  | 1         | 4      |
+ * </pre>
+ * <p>
+ * The payload of a request for a cache starts with the name of the cache.
+ * The keys and values are serialized like in the snapshots of the caches
+ * and written with their length, -1 standing for no value. A member
+ * answers a request for a key it does not own with {@link #MOVED}, the
+ * sender retries it once it learned about the members the receiver knows.
+ * </p>
+ * @author Kozlov Ivan
+ */
+final class TClusterProtocol {
+
+    static final int GET = 1;
+
+    static final int GET_ALL = 2;
+
+    static final int CONTAINS_KEY = 3;
+
+    static final int PUT = 4;
+
+    static final int GET_AND_PUT = 5;
+
+    static final int PUT_ALL = 6;
+
+    static final int PUT_IF_ABSENT = 7;
+
+    static final int REMOVE = 8;
+
+    static final int REMOVE_IF_EQUAL = 9;
+
+    static final int GET_AND_REMOVE = 10;
+
+    static final int REPLACE = 11;
+
+    static final int REPLACE_IF_EQUAL = 12;
+
+    static final int GET_AND_REPLACE = 13;
+
+    static final int REMOVE_ALL = 14;
+
+    static final int REMOVE_EVERYTHING = 15;
+
+    static final int CLEAR = 16;
+
+    static final int LOAD_ALL = 17;
+
+    /**
+     * Stores the entries handed over by their previous owner.
+     */
+    static final int HAND_OVER = 18;
+
+    /**
+     * Adds the sender to the members, answered by the members the receiver
+     * knows.
+     */
+    static final int JOIN = 19;
+
+    static final int LEAVE = 20;
+
+    /**
+     * Gets the value of a key whether the receiver owns it or not, without
+     * loading it, for the next owner of the key while the entry is handed
+     * over to it.
+     */
+    static final int PEEK = 21;
+
+    /**
+     * Tells a joining member that the sender handed the entries it owns
+     * over to it.
+     */
+    static final int HANDED_OVER = 22;
+
+    /**
+     * Runs an entry processor sent with Java serialization against a key,
+     * answered by its result or its failure.
+     */
+    static final int INVOKE = 23;
+
+    static final int INVOKE_ALL = 24;
+
+    static final int OK = 0;
+
+    /**
+     * The status of a failed request, its payload is the message of the
+     * failure.
+     */
+    static final int ERROR = 1;
+
+    /**
+     * The status of a request for a key the receiver does not own, its
+     * payload is the members the receiver knows.
+     */
+    static final int MOVED = 2;
+
+    /**
+     * The size of the header of a frame.
+     */
+    static final int FRAME_HEADER_SIZE = 8;
+
+    /**
+     * The size of the header of a request or a response.
+     */
+    static final int HEADER_SIZE = 13;
+
+    /**
+     * The maximum number of requests or responses in a frame.
+     */
+    static final int MAXIMUM_FRAME_COUNT = 1024;
+
+    private TClusterProtocol() {
+    }
+
+    /**
+     * Tells whether the payload of a request has a key after the name of
+     * its cache.
+     *
+     * @param operation the operation
+     * @return whether the request is for a single key
+     */
+    static boolean hasKey(int operation) {
+        switch (operation) {
+            case GET:
+            case CONTAINS_KEY:
+            case PUT:
+            case GET_AND_PUT:
+            case PUT_IF_ABSENT:
+            case REMOVE:
+            case REMOVE_IF_EQUAL:
+            case GET_AND_REMOVE:
+            case REPLACE:
+            case REPLACE_IF_EQUAL:
+            case GET_AND_REPLACE:
+            case INVOKE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        if (null == bytes) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Writes the message of a failure, with the class of the failure.
+     *
+     * @param out     the payload
+     * @param failure the failure
+     * @throws IOException if the payload can not be written
+     */
+    static void writeFailure(DataOutputStream out, Throwable failure) throws IOException {
+        String message = null == failure.getMessage() ? failure.getClass().getName()
+                : failure.getClass().getName() + ": " + failure.getMessage();
+        out.writeUTF(message.length() > 1024 ? message.substring(0, 1024) : message);
+    }
+
+    static void writeAddress(DataOutputStream out, InetSocketAddress address) throws IOException {
+        byte[] ip = address.getAddress().getAddress();
+        out.writeByte(ip.length);
+        out.write(ip);
+        out.writeShort(address.getPort());
+    }
+
+    static InetSocketAddress readAddress(DataInputStream in) throws IOException {
+        byte[] ip = new byte[in.readByte()];
+        in.readFully(ip);
+        return new InetSocketAddress(InetAddress.getByAddress(ip), in.readUnsignedShort());
+    }
+
+    static void writeAddresses(DataOutputStream out, Collection<InetSocketAddress> addresses) throws IOException {
+        out.writeInt(addresses.size());
+        for (InetSocketAddress address : addresses) {
+            writeAddress(out, address);
+        }
+    }
+
+    static List<InetSocketAddress> readAddresses(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<InetSocketAddress> addresses = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            addresses.add(readAddress(in));
+        }
+        return addresses;
+    }
+
+    /**
+     * Thrown by the handler of a request for a key the member does not own
+     * and answered by {@link #MOVED}, then thrown to the sender.
+     */
+    static final class MovedException extends CacheException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<InetSocketAddress> members;
+
+        MovedException(List<InetSocketAddress> members) {
+            super("The key is owned by another member of " + members);
+            this.members = members;
+        }
+
+        /**
+         * Gets the members known to the member that does not own the key.
+         *
+         * @return the addresses of the members
+         */
+        List<InetSocketAddress> getMembers() {
+            return members;
+        }
+    }
+}
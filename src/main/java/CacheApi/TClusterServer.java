@@ -0,0 +1,526 @@
+package CacheApi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serves the requests of the other members of a {@link TCluster}: a
+ * single thread multiplexes the connections with a {@link Selector}, and
+ * workers handle the requests.
+ * <p>
+ * The thread of the server reads whatever the connections have sent and
+ * passes the requests of the complete frames to the workers, see
+ * {@link TClusterProtocol}. The requests for a key go to the worker of its
+ * stripe, so that they are applied in the order they were sent; the other
+ * requests are spread over the workers, so that a handler calling a
+ * loader or a writer does not stall the other requests. The workers queue
+ * the responses and the worker that finds the connection idle writes
+ * those queued in one frame, leaving what the socket did not take to the
+ * thread of the server. A connection is not read while many of its
+ * requests are pending. A handler must not wait for other members, but
+ * for their answers to {@link TClusterProtocol#PEEK}, which are handled by
+ * a worker of their own whose handler does not wait.
+ * </p>
+ * @author Kozlov Ivan
+ */
+final class TClusterServer {
+
+    private static final Logger LOGGER = Logger.getLogger("javax.cache");
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private static final int WORKER_COUNT = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    /**
+     * The number of requests of a connection handled or waiting for their
+     * responses to be written, above which the connection is not read.
+     */
+    private static final int MAXIMUM_PENDING_COUNT = 4 * TClusterProtocol.MAXIMUM_FRAME_COUNT;
+
+    /**
+     * Handles a request.
+     */
+    interface Handler {
+
+        /**
+         * Handles a request.
+         *
+         * @param operation the operation, see {@link TClusterProtocol}
+         * @param in        the payload of the request
+         * @param out       the payload of the response
+         * @throws IOException if the payload can not be read or written
+         */
+        void handle(int operation, DataInputStream in, DataOutputStream out) throws IOException;
+    }
+
+    private final Handler handler;
+
+    private final ServerSocketChannel serverChannel;
+
+    private final Selector selector;
+
+    private final Thread thread;
+
+    private volatile boolean isClosed;
+
+    /**
+     * The workers, the last one handling {@link TClusterProtocol#PEEK}.
+     */
+    private final Worker[] workers = new Worker[WORKER_COUNT + 1];
+
+    /**
+     * The connections the workers could not write all responses to, or that
+     * may be read again, whose interest the thread of the server updates.
+     */
+    private final ConcurrentLinkedQueue<Connection> changed = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Binds a server, which is started by {@link #start()}.
+     *
+     * @param address the address to listen on
+     * @param handler the handler of the requests
+     * @throws IOException if the address can not be bound
+     */
+    TClusterServer(InetSocketAddress address, Handler handler) throws IOException {
+        this.handler = handler;
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.bind(address);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            serverChannel.close();
+            selector.close();
+            throw e;
+        }
+        this.thread = new Thread(this::run, "TCluster-server");
+        thread.setDaemon(true);
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker();
+        }
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Gets the address the server listens on.
+     *
+     * @return the address, with the port chosen if it was bound to port 0
+     */
+    InetSocketAddress getLocalAddress() {
+        return (InetSocketAddress) serverChannel.socket().getLocalSocketAddress();
+    }
+
+    private void run() {
+        try {
+            while (!isClosed) {
+                selector.select();
+                Connection changedConnection;
+                while (null != (changedConnection = changed.poll())) {
+                    changedConnection.updateInterest();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            Connection connection = (Connection) key.attachment();
+                            if (key.isReadable()) {
+                                connection.read();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.write();
+                            }
+                        }
+                    } catch (IOException | CancelledKeyException e) {
+                        //the member closed the connection or it failed, maybe while a worker wrote it
+                        close(key);
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (!isClosed) {
+                LOGGER.log(Level.WARNING, "The cluster server failed", e);
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (null == channel) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        key.attach(new Connection(key, channel));
+    }
+
+    private static void close(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            //nothing is left to release
+        }
+    }
+
+    /**
+     * Stops the server and its workers and closes its connections.
+     */
+    void close() {
+        isClosed = true;
+        selector.wakeup();
+        try {
+            thread.join(TClusterConnection.TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Worker worker : workers) {
+            worker.executor.shutdownNow();
+        }
+        try {
+            for (SelectionKey key : selector.keys()) {
+                close(key);
+            }
+            selector.close();
+            serverChannel.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to close the cluster server", e);
+        }
+    }
+
+    /**
+     * Chooses the worker of a request: the one of the stripe of its key if
+     * it has one.
+     *
+     * @return the index of the worker
+     */
+    private int worker(int operation, byte[] frame, int offset, int length, long id) {
+        if (operation == TClusterProtocol.PEEK) {
+            return WORKER_COUNT;
+        }
+        int hash = (int) id;
+        if (TClusterProtocol.hasKey(operation) && length >= 2) {
+            //the payload starts with the name of the cache and the key
+            int keyOffset = offset + 2 + (((frame[offset] & 0xff) << 8) | (frame[offset + 1] & 0xff));
+            if (keyOffset + 4 <= offset + length) {
+                int keyLength = ByteBuffer.wrap(frame, keyOffset, 4).getInt();
+                hash = 1;
+                for (int i = keyOffset + 4, end = Math.min(i + keyLength, offset + length); i < end; i++) {
+                    hash = 31 * hash + frame[i];
+                }
+            }
+        }
+        hash ^= hash >>> 16;
+        return (hash & Integer.MAX_VALUE) % WORKER_COUNT;
+    }
+
+    /**
+     * A request, within the frame it was read in.
+     */
+    private static final class Request {
+
+        final long id;
+
+        final int operation;
+
+        final byte[] frame;
+
+        final int offset;
+
+        final int length;
+
+        Request(long id, int operation, byte[] frame, int offset, int length) {
+            this.id = id;
+            this.operation = operation;
+            this.frame = frame;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * A thread handling requests, with the payload of the response being
+     * encoded.
+     */
+    private static final class Worker {
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "TCluster-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+    }
+
+    /**
+     * A connection of another member.
+     */
+    private final class Connection {
+
+        private final SelectionKey key;
+
+        private final SocketChannel channel;
+
+        private ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+        /**
+         * The responses queued by the workers.
+         */
+        private final ConcurrentLinkedQueue<byte[]> responses = new ConcurrentLinkedQueue<>();
+
+        /**
+         * Held by the thread writing the responses.
+         */
+        private final ReentrantLock writeLock = new ReentrantLock();
+
+        /**
+         * The frames the socket did not take yet, guarded by the write lock.
+         */
+        private final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+
+        /**
+         * Whether there are frames the socket did not take.
+         */
+        private volatile boolean isWriteBlocked;
+
+        /**
+         * The number of requests passed to the workers and not written.
+         */
+        private final AtomicInteger pendingCount = new AtomicInteger();
+
+        Connection(SelectionKey key, SocketChannel channel) {
+            this.key = key;
+            this.channel = channel;
+        }
+
+        void read() throws IOException {
+            if (channel.read(in) < 0) {
+                throw new IOException("The connection was closed");
+            }
+            in.flip();
+            //the requests read at once go to every worker in one task
+            List<List<Request>> batches = new ArrayList<>(Collections.nCopies(workers.length, null));
+            while (in.remaining() >= 4 && in.remaining() >= 4 + in.getInt(in.position())) {
+                int length = in.getInt();
+                byte[] frame = new byte[length];
+                in.get(frame);
+                readFrame(frame, batches);
+            }
+            for (int i = 0; i < workers.length; i++) {
+                List<Request> batch = batches.get(i);
+                if (null != batch) {
+                    Worker worker = workers[i];
+                    pendingCount.addAndGet(batch.size());
+                    try {
+                        worker.executor.execute(() -> handle(worker, batch));
+                    } catch (RejectedExecutionException e) {
+                        //the server is closed
+                        break;
+                    }
+                }
+            }
+            if (in.hasRemaining() && in.position() == 0 && in.limit() == in.capacity()) {
+                //a frame larger than the buffer
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * in.capacity(), 4 + in.getInt(0)));
+                larger.put(in);
+                in = larger;
+            } else {
+                in.compact();
+            }
+            updateInterest();
+        }
+
+        /**
+         * Adds the requests of a frame to the batches of their workers.
+         */
+        private void readFrame(byte[] frame, List<List<Request>> batches) throws IOException {
+            DataInputStream requests = new DataInputStream(new ByteArrayInputStream(frame));
+            int count = requests.readInt();
+            int offset = 4;
+            for (int i = 0; i < count; i++) {
+                long id = requests.readLong();
+                int operation = requests.readByte();
+                int length = requests.readInt();
+                offset += TClusterProtocol.HEADER_SIZE;
+                Request request = new Request(id, operation, frame, offset, length);
+                requests.skipBytes(length);
+                offset += length;
+
+                int worker = worker(operation, frame, request.offset, length, id);
+                if (null == batches.get(worker)) {
+                    batches.set(worker, new ArrayList<>());
+                }
+                batches.get(worker).add(request);
+            }
+        }
+
+        /**
+         * Handles requests in order on a worker and writes their responses.
+         */
+        private void handle(Worker worker, List<Request> batch) {
+            for (Request request : batch) {
+                responses.add(handle(worker, request));
+            }
+            flush();
+        }
+
+        private byte[] handle(Worker worker, Request request) {
+            ByteArrayOutputStream payload = worker.payload;
+            payload.reset();
+            DataOutputStream payloadOut = new DataOutputStream(payload);
+            int status = TClusterProtocol.OK;
+            try {
+                try {
+                    handler.handle(request.operation, new DataInputStream(
+                            new ByteArrayInputStream(request.frame, request.offset, request.length)), payloadOut);
+                } catch (TClusterProtocol.MovedException e) {
+                    payload.reset();
+                    TClusterProtocol.writeAddresses(payloadOut, e.getMembers());
+                    status = TClusterProtocol.MOVED;
+                } catch (IOException | RuntimeException e) {
+                    payload.reset();
+                    TClusterProtocol.writeFailure(payloadOut, e);
+                    status = TClusterProtocol.ERROR;
+                }
+                payloadOut.flush();
+            } catch (IOException e) {
+                //a byte array stream does not fail
+                throw new UncheckedIOException(e);
+            }
+            ByteBuffer response = ByteBuffer.allocate(TClusterProtocol.HEADER_SIZE + payload.size());
+            response.putLong(request.id).put((byte) status).putInt(payload.size());
+            response.put(payload.toByteArray());
+            return response.array();
+        }
+
+        /**
+         * Writes the queued responses unless another thread does.
+         */
+        private void flush() {
+            //rechecks the queue after unlocking, for the responses queued while the lock was held
+            while (!responses.isEmpty() && writeLock.tryLock()) {
+                try {
+                    boolean wasPaused = pendingCount.get() >= MAXIMUM_PENDING_COUNT;
+                    if (!writeQueued() || (wasPaused && pendingCount.get() < MAXIMUM_PENDING_COUNT)) {
+                        changed.add(this);
+                        selector.wakeup();
+                    }
+                } catch (IOException e) {
+                    //the member closed the connection or it failed
+                    close(key);
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+        }
+
+        /**
+         * Frames the queued responses and writes the frames.
+         *
+         * @return whether the socket took all frames
+         */
+        private boolean writeQueued() throws IOException {
+            while (!responses.isEmpty()) {
+                List<byte[]> frameResponses = new ArrayList<>();
+                int length = TClusterProtocol.FRAME_HEADER_SIZE;
+                byte[] response;
+                while (frameResponses.size() < TClusterProtocol.MAXIMUM_FRAME_COUNT
+                        && null != (response = responses.poll())) {
+                    frameResponses.add(response);
+                    length += response.length;
+                }
+                ByteBuffer frame = ByteBuffer.allocate(length);
+                frame.putInt(length - 4).putInt(frameResponses.size());
+                for (byte[] r : frameResponses) {
+                    frame.put(r);
+                }
+                frame.flip();
+                out.add(frame);
+                pendingCount.addAndGet(-frameResponses.size());
+            }
+            while (!out.isEmpty()) {
+                ByteBuffer frame = out.peek();
+                channel.write(frame);
+                if (frame.hasRemaining()) {
+                    isWriteBlocked = true;
+                    return false;
+                }
+                out.poll();
+            }
+            isWriteBlocked = false;
+            return true;
+        }
+
+        /**
+         * Writes the frames the socket did not take, on the thread of the
+         * server.
+         */
+        void write() throws IOException {
+            writeLock.lock();
+            try {
+                writeQueued();
+            } finally {
+                writeLock.unlock();
+            }
+            //the responses queued while the lock was held
+            flush();
+            updateInterest();
+        }
+
+        /**
+         * Reads the connection unless too many of its requests are pending
+         * and writes it while there are frames left to write, on the thread
+         * of the server.
+         */
+        void updateInterest() {
+            if (!key.isValid()) {
+                return;
+            }
+            int interest = pendingCount.get() < MAXIMUM_PENDING_COUNT ? SelectionKey.OP_READ : 0;
+            if (isWriteBlocked) {
+                interest |= SelectionKey.OP_WRITE;
+            }
+            try {
+                if (key.interestOps() != interest) {
+                    key.interestOps(interest);
+                }
+            } catch (CancelledKeyException e) {
+                //closed by a worker meanwhile
+            }
+        }
+    }
+}
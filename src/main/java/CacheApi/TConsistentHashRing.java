@@ -0,0 +1,181 @@
+package CacheApi;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The owners of the keys of the partitioned caches of a {@link TCluster}.
+ * <p>
+ * Every member is hashed onto a ring of 64-bit positions at
+ * {@link #VIRTUAL_NODE_COUNT} points, and a key is owned by the member of
+ * the first point at or after the hash of its serialized form. A member
+ * joining takes over the keys between its points and the preceding ones,
+ * a member leaving hands them to the members of the following points, so
+ * that about a share of the keys per member moves. The positions depend
+ * on the addresses of the members only, so that all members that agree on
+ * the membership agree on the owners.
+ * </p>
+ * <p>
+ * A ring is immutable, a change of the membership makes a new one.
+ * </p>
+ * @author Kozlov Ivan
+ */
+final class TConsistentHashRing {
+
+    /**
+     * The points of a member on the ring. The more points, the more evenly
+     * the keys are spread: with 128, the share of a member is within a
+     * few tens of percent of the average.
+     */
+    static final int VIRTUAL_NODE_COUNT = 128;
+
+    private static final Comparator<InetSocketAddress> ADDRESS_ORDER =
+            Comparator.comparing(TConsistentHashRing::nodeName);
+
+    private final List<InetSocketAddress> members;
+
+    /**
+     * The sorted positions of the points.
+     */
+    private final long[] positions;
+
+    /**
+     * The members by the index of their points in {@link #positions}.
+     */
+    private final InetSocketAddress[] owners;
+
+    /**
+     * Constructs the ring of a membership.
+     *
+     * @param members the addresses of the members
+     */
+    TConsistentHashRing(Collection<InetSocketAddress> members) {
+        List<InetSocketAddress> sortedMembers = new ArrayList<>(members);
+        sortedMembers.sort(ADDRESS_ORDER);
+        this.members = Collections.unmodifiableList(sortedMembers);
+
+        int pointCount = sortedMembers.size() * VIRTUAL_NODE_COUNT;
+        long[] points = new long[pointCount];
+        InetSocketAddress[] pointOwners = new InetSocketAddress[pointCount];
+        int p = 0;
+        for (InetSocketAddress member : sortedMembers) {
+            String name = nodeName(member);
+            for (int i = 0; i < VIRTUAL_NODE_COUNT; i++) {
+                points[p] = hash((name + '#' + i).getBytes(StandardCharsets.UTF_8));
+                pointOwners[p] = member;
+                p++;
+            }
+        }
+        Integer[] order = new Integer[pointCount];
+        for (int i = 0; i < pointCount; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(points[a], points[b]));
+        this.positions = new long[pointCount];
+        this.owners = new InetSocketAddress[pointCount];
+        for (int i = 0; i < pointCount; i++) {
+            positions[i] = points[order[i]];
+            owners[i] = pointOwners[order[i]];
+        }
+    }
+
+    /**
+     * Names a member by its IP address rather than its host name, which
+     * the members may know it by or not.
+     */
+    private static String nodeName(InetSocketAddress address) {
+        String host = address.isUnresolved() ? address.getHostString() : address.getAddress().getHostAddress();
+        return host + ':' + address.getPort();
+    }
+
+    /**
+     * Hashes a serialized key, or the name of a point, to a position on
+     * the ring: FNV-1a, mixed by the finalizer of MurmurHash3 so that
+     * similar keys land far apart.
+     *
+     * @param bytes the bytes
+     * @return the position
+     */
+    static long hash(byte[] bytes) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * Gets the owner of a position.
+     *
+     * @param hash the position of a key, see {@link #hash(byte[])}
+     * @return the address of the owner or null if the ring has no members
+     */
+    InetSocketAddress owner(long hash) {
+        if (positions.length == 0) {
+            return null;
+        }
+        int index = Arrays.binarySearch(positions, hash);
+        if (index < 0) {
+            index = -index - 1;
+            if (index == positions.length) {
+                index = 0;
+            }
+        }
+        return owners[index];
+    }
+
+    /**
+     * Gets the members.
+     *
+     * @return the addresses of the members, in the order of their names
+     */
+    List<InetSocketAddress> getMembers() {
+        return members;
+    }
+
+    boolean contains(InetSocketAddress member) {
+        return members.contains(member);
+    }
+
+    /**
+     * Makes the ring with another member.
+     *
+     * @param member the address of the member
+     * @return the new ring, or this one if it contains the member
+     */
+    TConsistentHashRing with(InetSocketAddress member) {
+        if (contains(member)) {
+            return this;
+        }
+        List<InetSocketAddress> newMembers = new ArrayList<>(members);
+        newMembers.add(member);
+        return new TConsistentHashRing(newMembers);
+    }
+
+    /**
+     * Makes the ring without a member.
+     *
+     * @param member the address of the member
+     * @return the new ring, or this one if it does not contain the member
+     */
+    TConsistentHashRing without(InetSocketAddress member) {
+        if (!contains(member)) {
+            return this;
+        }
+        List<InetSocketAddress> newMembers = new ArrayList<>(members);
+        newMembers.remove(member);
+        return new TConsistentHashRing(newMembers);
+    }
+}
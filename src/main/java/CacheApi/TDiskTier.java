@@ -0,0 +1,341 @@
+package CacheApi;
+
+import javax.cache.CacheException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The disk tier of a tiered {@link TCache}, holding the entries evicted from
+ * the heap until they are read again.
+ * <p>
+ * The values are appended to segment files of a fixed size, which are
+ * mapped into memory; an index on the heap maps every key to the location
+ * of its value and its creation and expiry times, so that a lookup reads
+ * the disk only for a live value. A value taken back to the heap or
+ * removed is not erased from its segment. Once the tier is full, the oldest
+ * segment is dropped with the values still in it: the values read again
+ * were promoted to the heap meanwhile, so that the oldest segment holds the
+ * coldest values.
+ * </p>
+ * <p>
+ * The index of a key is only changed while the mapping of the key in the
+ * heap tier is locked, except when the segment of its value is dropped. The
+ * tier is not persistent, its files are deleted when it is opened and
+ * closed.
+ * </p>
+ * @param <V> the type of cached values
+ * @author Kozlov Ivan
+ */
+class TDiskTier<V> {
+
+    private static final Logger LOGGER = Logger.getLogger("javax.cache");
+
+    private static final String SEGMENT_PREFIX = "tier-";
+
+    private static final String SEGMENT_SUFFIX = ".segment";
+
+    private final Path directory;
+
+    private final long segmentSize;
+
+    private final int maximumSegmentCount;
+
+    private final TSerializer<V> serializer;
+
+    private final TCacheStatistics statistics;
+
+    private final ConcurrentHashMap<Object, Slot> index = new ConcurrentHashMap<>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // the fields below are guarded by the lock
+
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+
+    private Segment activeSegment;
+
+    private long nextSegmentNumber;
+
+    /**
+     * Constructs a tier, deleting the segments left by a previous run.
+     *
+     * @param directory   the directory of the segment files
+     * @param maximumSize the maximum total size in bytes of the segments
+     * @param segmentSize the size in bytes of a segment
+     * @param serializer  the serializer of the values
+     * @param statistics  the statistics of the cache
+     */
+    TDiskTier(Path directory, long maximumSize, long segmentSize, TSerializer<V> serializer,
+              TCacheStatistics statistics) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maximumSegmentCount = (int) Math.max(2, maximumSize / segmentSize);
+        this.serializer = serializer;
+        this.statistics = statistics;
+        try {
+            Files.createDirectories(directory);
+            deleteSegmentFiles();
+        } catch (IOException e) {
+            throw new CacheException("Error opening the disk tier in " + directory, e);
+        }
+    }
+
+    /**
+     * Determines if the tier holds no value, so that a miss of the heap
+     * tier need not look it up.
+     *
+     * @return true if the tier is empty
+     */
+    boolean isEmpty() {
+        return index.isEmpty();
+    }
+
+    /**
+     * Determines if the tier holds a value of a key.
+     *
+     * @param key the key
+     * @param now the current time
+     * @return true if the value is present and not expired
+     */
+    boolean containsKey(Object key, long now) {
+        Slot slot = index.get(key);
+        return null != slot && !slot.isExpiredAt(now);
+    }
+
+    /**
+     * Gets the keys of the tier, for scanning.
+     *
+     * @return a weakly consistent view of the keys
+     */
+    Set<Object> keySet() {
+        return index.keySet();
+    }
+
+    /**
+     * Stores an entry evicted from the heap. Has to be called while the
+     * mapping of the key in the heap tier is locked.
+     *
+     * @param key         the key
+     * @param cachedValue the evicted entry
+     * @return true if the entry was stored, false if it is larger than a segment
+     */
+    boolean put(Object key, TCachedValue<V> cachedValue) {
+        long creationTime = cachedValue.getCreationTime();
+        long expiryTime = cachedValue.getExpiryTime();
+        V value = cachedValue.getInternalValue();
+        if (null == value) {
+            return false;
+        }
+        TSerializationBuffer buffer = TSerializationBuffer.forWriting();
+        serializer.write(value, buffer);
+        int length = buffer.length();
+        if (length > segmentSize) {
+            return false;
+        }
+        Segment segment;
+        int offset;
+        lock.lock();
+        try {
+            if (null == activeSegment || activeSegment.position + length > segmentSize) {
+                activeSegment = openSegment();
+            }
+            segment = activeSegment;
+            offset = segment.position;
+            segment.position += length;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error writing the disk tier in " + directory, e);
+            return false;
+        } finally {
+            lock.unlock();
+        }
+        ByteBuffer target = segment.buffer.duplicate();
+        target.position(offset);
+        target.put(buffer.array(), 0, length);
+        segment.keys.add(key);
+        Slot slot = new Slot(segment, offset, length, creationTime, expiryTime);
+        index.put(key, slot);
+        if (segment.isDropped) {
+            //the segment was dropped while it was written
+            index.remove(key, slot);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Removes the value of a key to promote it to the heap. Has to be
+     * called while the mapping of the key in the heap tier is locked.
+     *
+     * @param key the key
+     * @param now the current time
+     * @return the entry or null if the value is absent or expired
+     */
+    TCachedValue<V> take(Object key, long now) {
+        Slot slot = index.remove(key);
+        return null == slot || slot.isExpiredAt(now) ? null : read(slot);
+    }
+
+    /**
+     * Reads the value of a key without removing it, for scanning.
+     *
+     * @param key the key
+     * @return the entry or null if the value is absent
+     */
+    TCachedValue<V> peek(Object key) {
+        Slot slot = index.get(key);
+        return null == slot ? null : read(slot);
+    }
+
+    /**
+     * Removes the value of a key. Has to be called while the mapping of the
+     * key in the heap tier is locked.
+     *
+     * @param key the key
+     */
+    void remove(Object key) {
+        index.remove(key);
+    }
+
+    private TCachedValue<V> read(Slot slot) {
+        ByteBuffer source = slot.segment.buffer.duplicate();
+        source.position(slot.offset);
+        TSerializationBuffer buffer = TSerializationBuffer.forReading(slot.length);
+        source.get(buffer.array(), 0, slot.length);
+        return new TCachedValue<>(serializer.read(buffer), slot.creationTime, slot.expiryTime);
+    }
+
+    /**
+     * Starts a new segment, dropping the oldest one if the tier is full.
+     * Has to be called under the lock.
+     */
+    private Segment openSegment() throws IOException {
+        while (segments.size() >= maximumSegmentCount) {
+            drop(segments.pollFirst());
+        }
+        Path file = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, nextSegmentNumber++,
+                SEGMENT_SUFFIX));
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+        Segment segment = new Segment(file, buffer);
+        segments.addLast(segment);
+        return segment;
+    }
+
+    /**
+     * Drops a segment with the values still in it. The mapping stays valid
+     * for the readers holding a slot of it until they are collected.
+     */
+    private void drop(Segment segment) {
+        segment.isDropped = true;
+        long count = 0;
+        for (Object key : segment.keys) {
+            Slot slot = index.get(key);
+            if (null != slot && slot.segment == segment && index.remove(key, slot)) {
+                count++;
+            }
+        }
+        statistics.recordEvictions(count);
+        try {
+            Files.deleteIfExists(segment.file);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error deleting a segment of the disk tier: " + segment.file, e);
+        }
+    }
+
+    /**
+     * Removes all values and deletes the segments.
+     */
+    void clear() {
+        lock.lock();
+        try {
+            index.clear();
+            while (!segments.isEmpty()) {
+                drop(segments.pollFirst());
+            }
+            activeSegment = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void deleteSegmentFiles() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * A segment file mapped into memory.
+     */
+    private static final class Segment {
+
+        final Path file;
+
+        final MappedByteBuffer buffer;
+
+        /**
+         * The keys whose values were written to the segment, some of them
+         * since moved or removed.
+         */
+        final ConcurrentLinkedQueue<Object> keys = new ConcurrentLinkedQueue<>();
+
+        /**
+         * The end of the written values. Guarded by the lock of the tier.
+         */
+        int position;
+
+        volatile boolean isDropped;
+
+        Segment(Path file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * The location and the times of a value.
+     */
+    private static final class Slot {
+
+        final Segment segment;
+
+        final int offset;
+
+        final int length;
+
+        final long creationTime;
+
+        final long expiryTime;
+
+        Slot(Segment segment, int offset, int length, long creationTime, long expiryTime) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.creationTime = creationTime;
+            this.expiryTime = expiryTime;
+        }
+
+        boolean isExpiredAt(long now) {
+            return expiryTime > -1 && expiryTime <= now;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package CacheApi;
+
+import javax.cache.Cache;
+
+/**
+ * A {@link Cache.Entry} holding a key and its value.
+ * @param <K> the type of key
+ * @param <V> the type of value
+ * @author Kozlov Ivan
+ */
+class TEntry<K, V> implements Cache.Entry<K, V> {
+
+    private final K key;
+
+    private final V value;
+
+    /**
+     * Constructs an entry.
+     *
+     * @param key   the key
+     * @param value the value
+     */
+    TEntry(K key, V value) {
+        this.key = key;
+        this.value = value;
+    }
+
+    @Override
+    public K getKey() {
+        return key;
+    }
+
+    @Override
+    public V getValue() {
+        return value;
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> clazz) {
+        if (clazz.isAssignableFrom(getClass())) {
+            return clazz.cast(this);
+        }
+        throw new IllegalArgumentException("Unwrapping to " + clazz + " is not supported by this implementation");
+    }
+}
@@ -0,0 +1,64 @@
+package CacheApi;
+
+import javax.cache.Cache;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+
+/**
+ * The iterator of a {@link TCache}, weakly consistent like the
+ * {@link TEntrySpliterator} it takes the entries from.
+ * {@link #remove()} removes the last entry from the cache as
+ * {@link Cache#remove(Object)} does.
+ * @param <K> the type of keys maintained by the cache
+ * @param <V> the type of cached values
+ * @author Kozlov Ivan
+ */
+class TEntryIterator<K, V> implements Iterator<Cache.Entry<K, V>> {
+
+    private final TCache<K, V> cache;
+
+    private final Spliterator<Cache.Entry<K, V>> spliterator;
+
+    private Cache.Entry<K, V> nextEntry;
+
+    private Cache.Entry<K, V> lastEntry;
+
+    /**
+     * Constructs an iterator.
+     *
+     * @param cache       the cache
+     * @param spliterator the spliterator of the entries, creating an entry per element
+     */
+    TEntryIterator(TCache<K, V> cache, Spliterator<Cache.Entry<K, V>> spliterator) {
+        this.cache = cache;
+        this.spliterator = spliterator;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (null == nextEntry) {
+            spliterator.tryAdvance(entry -> nextEntry = entry);
+        }
+        return null != nextEntry;
+    }
+
+    @Override
+    public Cache.Entry<K, V> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        lastEntry = nextEntry;
+        nextEntry = null;
+        return lastEntry;
+    }
+
+    @Override
+    public void remove() {
+        if (null == lastEntry) {
+            throw new IllegalStateException("next() was not called before remove()");
+        }
+        cache.remove(lastEntry.getKey());
+        lastEntry = null;
+    }
+}
@@ -0,0 +1,90 @@
+package CacheApi;
+
+import javax.cache.processor.EntryProcessor;
+import javax.cache.processor.EntryProcessorException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The result of processing one key by {@link TCache#invokeAllWithResults}:
+ * either the value returned by the {@link EntryProcessor} or the exception
+ * it failed with, so that a failing key does not hide the results of the
+ * others.
+ * @param <T> the type of the result of the processor
+ * @author Kozlov Ivan
+ */
+public final class TEntryProcessorResult<T> {
+
+    private final T result;
+
+    private final EntryProcessorException exception;
+
+    private TEntryProcessorResult(T result, EntryProcessorException exception) {
+        this.result = result;
+        this.exception = exception;
+    }
+
+    static <T> TEntryProcessorResult<T> success(T result) {
+        return new TEntryProcessorResult<>(result, null);
+    }
+
+    static <T> TEntryProcessorResult<T> failure(EntryProcessorException exception) {
+        return new TEntryProcessorResult<>(null, exception);
+    }
+
+    /**
+     * Gets the results of the keys that were processed without failure, as
+     * returned by {@link javax.cache.Cache#invokeAll}.
+     *
+     * @param results the result of every key
+     * @param <K>     the type of keys
+     * @param <T>     the type of the result of the processor
+     * @return the non-null results
+     * @throws EntryProcessorException the failure of the first key that failed, with the others as suppressed
+     *                                 exceptions
+     */
+    static <K, T> Map<K, T> getAll(Map<K, TEntryProcessorResult<T>> results) throws EntryProcessorException {
+        Map<K, T> resultMap = new HashMap<>();
+        EntryProcessorException failure = null;
+        for (Map.Entry<K, TEntryProcessorResult<T>> result : results.entrySet()) {
+            try {
+                T value = result.getValue().get();
+                if (null != value) {
+                    resultMap.put(result.getKey(), value);
+                }
+            } catch (EntryProcessorException e) {
+                if (null == failure) {
+                    failure = new EntryProcessorException("Failed to process key " + result.getKey(), e);
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (null != failure) {
+            throw failure;
+        }
+        return resultMap;
+    }
+
+    /**
+     * Gets the value returned by the processor.
+     *
+     * @return the result, which may be null
+     * @throws EntryProcessorException if the processing of the key failed
+     */
+    public T get() throws EntryProcessorException {
+        if (null != exception) {
+            throw exception;
+        }
+        return result;
+    }
+
+    /**
+     * Determines if the processing of the key failed.
+     *
+     * @return true if {@link #get()} throws
+     */
+    public boolean isFailure() {
+        return null != exception;
+    }
+}
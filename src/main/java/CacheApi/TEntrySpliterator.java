@@ -0,0 +1,124 @@
+package CacheApi;
+
+import javax.cache.Cache;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Scans the entries of a {@link TCache}.
+ * <p>
+ * The scan is weakly consistent like the iterators of the
+ * {@link ConcurrentHashMap} of the entries: it never throws
+ * {@link java.util.ConcurrentModificationException}, returns every entry
+ * at most once and reflects the mutations made during the scan or not.
+ * Entries expired when the scan started are skipped but left for the
+ * maintenance thread to remove. Scanning reads the values without counting
+ * as an access, so that it touches neither their expiry nor their
+ * popularity for the eviction policy.
+ * </p>
+ * <p>
+ * The keys are scanned by the spliterator of the key set, which splits the
+ * table of the map for parallel streams and, unlike the spliterator of its
+ * entry set, does not allocate a map entry per element. The entries are
+ * allocated per element, or a single {@link TFlyweightEntry} is reused if
+ * the caller opted in. The disk tier of a tiered cache is scanned the same
+ * way over the keys of its index.
+ * </p>
+ * @param <K> the type of keys maintained by the cache
+ * @param <V> the type of cached values
+ * @author Kozlov Ivan
+ */
+class TEntrySpliterator<K, V> implements Spliterator<Cache.Entry<K, V>> {
+
+    private final Function<Object, TCachedValue<V>> lookup;
+
+    private final Spliterator<Object> keys;
+
+    private final long now;
+
+    private final boolean isFlyweight;
+
+    private final TFlyweightEntry<K, V> flyweightEntry;
+
+    /**
+     * The key taken by the last call of {@link Spliterator#tryAdvance} of the keys.
+     */
+    private Object currentKey;
+
+    private final Consumer<Object> setCurrentKey = key -> currentKey = key;
+
+    /**
+     * Constructs a spliterator.
+     *
+     * @param lookup      gets the entry of a key or null if it was removed
+     * @param keys        the spliterator of the keys to scan
+     * @param now         the start time of the scan
+     * @param isFlyweight whether a single entry is reused for every element
+     */
+    TEntrySpliterator(Function<Object, TCachedValue<V>> lookup, Spliterator<Object> keys,
+                      long now, boolean isFlyweight) {
+        this.lookup = lookup;
+        this.keys = keys;
+        this.now = now;
+        this.isFlyweight = isFlyweight;
+        this.flyweightEntry = isFlyweight ? new TFlyweightEntry<>() : null;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Cache.Entry<K, V>> action) {
+        while (keys.tryAdvance(setCurrentKey)) {
+            Cache.Entry<K, V> entry = toEntry(currentKey);
+            currentKey = null;
+            if (null != entry) {
+                action.accept(entry);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super Cache.Entry<K, V>> action) {
+        keys.forEachRemaining(key -> {
+            Cache.Entry<K, V> entry = toEntry(key);
+            if (null != entry) {
+                action.accept(entry);
+            }
+        });
+    }
+
+    @Override
+    public Spliterator<Cache.Entry<K, V>> trySplit() {
+        Spliterator<Object> split = keys.trySplit();
+        return null == split ? null : new TEntrySpliterator<>(lookup, split, now, isFlyweight);
+    }
+
+    @Override
+    public long estimateSize() {
+        return keys.estimateSize();
+    }
+
+    @Override
+    public int characteristics() {
+        return CONCURRENT | DISTINCT | NONNULL;
+    }
+
+    /**
+     * Gets the entry of a key unless it was removed or is expired.
+     */
+    @SuppressWarnings("unchecked")
+    private Cache.Entry<K, V> toEntry(Object key) {
+        TCachedValue<V> cachedValue = lookup.apply(key);
+        if (null == cachedValue || cachedValue.isExpiredAt(now)) {
+            return null;
+        }
+        V value = cachedValue.getInternalValue();
+        if (null == value) {
+            //the off-heap record was freed by a concurrent removal
+            return null;
+        }
+        return isFlyweight ? flyweightEntry.set((K) key, value) : new TEntry<>((K) key, value);
+    }
+}
@@ -0,0 +1,673 @@
+package CacheApi;
+
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The W-TinyLFU eviction policy bounding the size of a {@link TCache}.
+ * <p>
+ * New entries are placed into a small LRU admission window. Entries leaving
+ * the window compete with the coldest entry of the main space, a segmented
+ * LRU (probation and protected segments), and the {@link TFrequencySketch}
+ * decides which of both is more likely to be used again.
+ * </p>
+ * <p>
+ * The cache never waits for the policy on reads: accesses are recorded into
+ * striped lossy buffers and writes into a queue, and both are replayed
+ * against the policy by whichever thread obtains the eviction lock. Writers
+ * only block on the lock when the cache is over its maximum size.
+ * </p>
+ * @author Kozlov Ivan
+ */
+class TEvictionPolicy {
+
+    /**
+     * Removes the entries the policy decided to discard from the cache.
+     */
+    interface Evictor {
+
+        /**
+         * Removes the entry if it is still mapped to the given value.
+         *
+         * @param key   the key of the entry
+         * @param value the value the policy knows about
+         * @return true if the entry was removed
+         */
+        boolean evict(Object key, TCachedValue<?> value);
+    }
+
+    /**
+     * The share of the maximum size given to the admission window.
+     */
+    private static final double WINDOW_FRACTION = 0.01;
+
+    /**
+     * The share of the main space given to the protected segment.
+     */
+    private static final double PROTECTED_FRACTION = 0.80;
+
+    private static final int NCPU = Runtime.getRuntime().availableProcessors();
+
+    private static final int READ_BUFFER_STRIPES = ceilingPowerOfTwo(4 * NCPU);
+
+    private static final int READ_BUFFER_SIZE = 16;
+
+    private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+
+    /**
+     * The distance in longs between two stripe counters, so that counters of
+     * different stripes do not share a cache line.
+     */
+    private static final int PADDING = 8;
+
+    private static final int WINDOW = 0;
+
+    private static final int PROBATION = 1;
+
+    private static final int PROTECTED = 2;
+
+    private static final int CREATION = 0;
+
+    private static final int UPDATE = 1;
+
+    private static final int REMOVAL = 2;
+
+    private final Evictor evictor;
+
+    /**
+     * The budget shared by the caches of a {@link TCacheManager} or null.
+     */
+    private final TMemoryBudget budget;
+
+    private final long maximum;
+
+    private final long windowMaximum;
+
+    private final long protectedMaximum;
+
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    // the fields below are guarded by the eviction lock
+
+    private final TFrequencySketch sketch;
+
+    private final HashMap<Object, Node> nodes = new HashMap<>();
+
+    private final NodeDeque window = new NodeDeque();
+
+    private final NodeDeque probation = new NodeDeque();
+
+    private final NodeDeque protectedSegment = new NodeDeque();
+
+    private long weightedSize;
+
+    private long windowSize;
+
+    private long protectedSize;
+
+    // the lossy read buffer and the write buffer
+
+    private final AtomicReferenceArray<Object> readBuffer =
+            new AtomicReferenceArray<>(READ_BUFFER_STRIPES * READ_BUFFER_SIZE);
+
+    private final AtomicLongArray readBufferWrites = new AtomicLongArray(READ_BUFFER_STRIPES * PADDING);
+
+    private final AtomicLongArray readBufferReads = new AtomicLongArray(READ_BUFFER_STRIPES * PADDING);
+
+    private final ConcurrentLinkedQueue<WriteTask> writeBuffer = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The size of the cache as seen by the writers, ahead of the policy.
+     */
+    private final AtomicLong estimatedSize = new AtomicLong();
+
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * Constructs a policy.
+     *
+     * @param maximum  the maximum total weight of the entries or
+     *                 {@link TCacheConfiguration#UNBOUNDED}
+     * @param weighted true if the weights are not all one
+     * @param budget   the budget shared with other caches or null
+     * @param evictor  the callback removing evicted entries from the cache
+     */
+    TEvictionPolicy(long maximum, boolean weighted, TMemoryBudget budget, Evictor evictor) {
+        this.maximum = maximum == TCacheConfiguration.UNBOUNDED ? Long.MAX_VALUE : maximum;
+        this.budget = budget;
+        this.evictor = evictor;
+        this.windowMaximum = this.maximum == 0 ? 0 : Math.max(1, (long) (this.maximum * WINDOW_FRACTION));
+        this.protectedMaximum = (long) ((this.maximum - windowMaximum) * PROTECTED_FRACTION);
+        // the sketch is sized by the number of entries and grows with the cache
+        this.sketch = new TFrequencySketch(weighted || maximum == TCacheConfiguration.UNBOUNDED ? 0 : maximum);
+    }
+
+    /**
+     * Records the read of an entry. Never blocks, the access may be dropped
+     * when the buffers are full.
+     *
+     * @param key the key that was read
+     */
+    void recordRead(Object key) {
+        if (!offerRead(key)) {
+            tryDrain();
+        }
+    }
+
+    /**
+     * Records the creation of an entry. Has to be called while the mapping
+     * of the key is locked, so that the writes of a key are queued in order.
+     *
+     * @param key    the key of the entry
+     * @param value  the created value
+     * @param weight the weight of the entry
+     */
+    void recordCreation(Object key, TCachedValue<?> value, int weight) {
+        charge(weight);
+        writeBuffer.offer(new WriteTask(key, value, CREATION, weight));
+    }
+
+    /**
+     * Records the change of the weight of an entry. Has to be called while
+     * the mapping of the key is locked.
+     *
+     * @param key       the key of the entry
+     * @param value     the updated value
+     * @param oldWeight the weight before the update
+     * @param newWeight the weight after the update
+     */
+    void recordUpdate(Object key, TCachedValue<?> value, int oldWeight, int newWeight) {
+        if (oldWeight != newWeight) {
+            charge(newWeight - oldWeight);
+            writeBuffer.offer(new WriteTask(key, value, UPDATE, newWeight));
+        }
+    }
+
+    /**
+     * Records the removal of an entry. May be called once the mapping is
+     * gone, as the removal only applies if the policy still tracks the value.
+     *
+     * @param key    the key of the entry
+     * @param value  the removed value
+     * @param weight the weight of the entry
+     */
+    void recordRemoval(Object key, TCachedValue<?> value, int weight) {
+        charge(-weight);
+        writeBuffer.offer(new WriteTask(key, value, REMOVAL, 0));
+    }
+
+    private void charge(long weight) {
+        estimatedSize.addAndGet(weight);
+        if (null != budget) {
+            budget.charge(weight);
+        }
+    }
+
+    /**
+     * Replays the recorded writes after a mutation of the cache, waiting for
+     * the policy only if the cache has grown over its maximum.
+     */
+    void afterWrite() {
+        if (estimatedSize.get() > maximum) {
+            evictionLock.lock();
+            try {
+                drain();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+        tryDrain();
+    }
+
+    /**
+     * Gets the number of entries evicted by the policy.
+     *
+     * @return the eviction count
+     */
+    long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Gets the frequency of the entry that would be evicted next, used to
+     * find the coldest entry among the caches sharing a budget.
+     *
+     * @return the frequency or -1 if the cache is empty
+     */
+    int coldestFrequency() {
+        evictionLock.lock();
+        try {
+            drain();
+            Node victim = victim();
+            return null == victim ? -1 : sketch.frequency(victim.key);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Evicts the entry that would be evicted next.
+     *
+     * @return false if the cache is empty
+     */
+    boolean evictColdest() {
+        evictionLock.lock();
+        try {
+            Node victim = victim();
+            if (null == victim) {
+                return false;
+            }
+            evict(victim);
+            return true;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Forgets all entries, returning their weight to the budget. Used when
+     * the cache is closed.
+     */
+    void invalidate() {
+        evictionLock.lock();
+        try {
+            drain();
+            if (null != budget) {
+                budget.charge(-estimatedSize.getAndSet(0));
+            }
+            nodes.clear();
+            window.clear();
+            probation.clear();
+            protectedSegment.clear();
+            weightedSize = 0;
+            windowSize = 0;
+            protectedSize = 0;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the total weight of the entries tracked by the policy.
+     *
+     * @return the weighted size
+     */
+    long size() {
+        evictionLock.lock();
+        try {
+            drain();
+            return weightedSize;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void tryDrain() {
+        while (evictionLock.tryLock()) {
+            try {
+                drain();
+            } finally {
+                evictionLock.unlock();
+            }
+            // a write may have been queued after the last poll but before the unlock
+            if (writeBuffer.isEmpty()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Replays the buffers and evicts. Has to be called under the eviction lock.
+     */
+    private void drain() {
+        drainReadBuffer();
+        WriteTask task;
+        while ((task = writeBuffer.poll()) != null) {
+            switch (task.type) {
+                case CREATION:
+                    onCreation(task.key, task.value, task.weight);
+                    break;
+                case UPDATE:
+                    onUpdate(task.key, task.value, task.weight);
+                    break;
+                default:
+                    onRemoval(task.key, task.value);
+            }
+        }
+        evictFromMain(evictFromWindow());
+    }
+
+    private boolean offerRead(Object key) {
+        int stripe = stripe();
+        int counter = stripe * PADDING;
+        long reads = readBufferReads.get(counter);
+        long writes = readBufferWrites.get(counter);
+        if (writes - reads >= READ_BUFFER_SIZE) {
+            return false;
+        }
+        if (readBufferWrites.compareAndSet(counter, writes, writes + 1)) {
+            readBuffer.lazySet(stripe * READ_BUFFER_SIZE + (int) (writes & READ_BUFFER_MASK), key);
+            return writes + 1 - reads < READ_BUFFER_SIZE;
+        }
+        return true;
+    }
+
+    private void drainReadBuffer() {
+        for (int stripe = 0; stripe < READ_BUFFER_STRIPES; stripe++) {
+            int counter = stripe * PADDING;
+            long reads = readBufferReads.get(counter);
+            long writes = readBufferWrites.get(counter);
+            for (; reads < writes; reads++) {
+                int index = stripe * READ_BUFFER_SIZE + (int) (reads & READ_BUFFER_MASK);
+                Object key = readBuffer.get(index);
+                if (null == key) {
+                    // the writer has claimed the slot but not published the key yet
+                    break;
+                }
+                readBuffer.lazySet(index, null);
+                onAccess(key);
+            }
+            readBufferReads.lazySet(counter, reads);
+        }
+    }
+
+    private void onAccess(Object key) {
+        sketch.increment(key);
+        Node node = nodes.get(key);
+        if (null == node) {
+            return;
+        }
+        switch (node.queue) {
+            case WINDOW:
+                window.moveToBack(node);
+                break;
+            case PROBATION:
+                probation.remove(node);
+                node.queue = PROTECTED;
+                protectedSegment.addLast(node);
+                protectedSize += node.weight;
+                demoteFromProtected();
+                break;
+            default:
+                protectedSegment.moveToBack(node);
+        }
+    }
+
+    private void onCreation(Object key, TCachedValue<?> value, int weight) {
+        sketch.increment(key);
+        Node node = nodes.get(key);
+        if (null != node) {
+            // the removal of the previous value is recorded after this creation
+            nodes.remove(key);
+            unlink(node);
+        }
+        node = new Node(key, value, weight);
+        nodes.put(key, node);
+        sketch.ensureCapacity(nodes.size());
+        node.queue = WINDOW;
+        window.addLast(node);
+        windowSize += node.weight;
+        weightedSize += node.weight;
+    }
+
+    private void onUpdate(Object key, TCachedValue<?> value, int weight) {
+        Node node = nodes.get(key);
+        if (null == node || node.value != value) {
+            return;
+        }
+        int delta = weight - node.weight;
+        node.weight = weight;
+        weightedSize += delta;
+        if (node.queue == WINDOW) {
+            windowSize += delta;
+        } else if (node.queue == PROTECTED) {
+            protectedSize += delta;
+            demoteFromProtected();
+        }
+    }
+
+    private void onRemoval(Object key, TCachedValue<?> value) {
+        Node node = nodes.get(key);
+        if (null != node && node.value == value) {
+            nodes.remove(key);
+            unlink(node);
+        }
+    }
+
+    private void demoteFromProtected() {
+        while (protectedSize > protectedMaximum) {
+            Node node = protectedSegment.peekFirst();
+            if (null == node) {
+                return;
+            }
+            protectedSegment.remove(node);
+            protectedSize -= node.weight;
+            node.queue = PROBATION;
+            probation.addLast(node);
+        }
+    }
+
+    /**
+     * Moves the entries overflowing the admission window to the probation
+     * segment, where they become candidates for the main space.
+     *
+     * @return the first candidate or null
+     */
+    private Node evictFromWindow() {
+        Node first = null;
+        while (windowSize > windowMaximum) {
+            Node node = window.peekFirst();
+            if (null == node) {
+                break;
+            }
+            window.remove(node);
+            windowSize -= node.weight;
+            node.queue = PROBATION;
+            probation.addLast(node);
+            if (null == first) {
+                first = node;
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Evicts entries while the cache is over its maximum, each time letting
+     * the TinyLFU filter choose between the coldest entry of the probation
+     * segment and a candidate that has just left the window.
+     *
+     * @param candidate the first candidate or null
+     */
+    private void evictFromMain(Node candidate) {
+        while (weightedSize > maximum) {
+            Node victim = victim();
+            if (null == victim) {
+                return;
+            }
+            if (null == candidate) {
+                evict(victim);
+                continue;
+            }
+            Node next = candidate.next;
+            if (candidate == victim) {
+                candidate = next;
+                evict(victim);
+            } else if (admit(candidate.key, victim.key)) {
+                evict(victim);
+            } else {
+                Node rejected = candidate;
+                candidate = next;
+                evict(rejected);
+            }
+        }
+    }
+
+    /**
+     * Returns the entry the policy would evict without a candidate, the
+     * coldest entry of the main space, or the oldest entry of the window.
+     */
+    private Node victim() {
+        Node victim = probation.peekFirst();
+        if (null == victim) {
+            victim = protectedSegment.peekFirst();
+        }
+        if (null == victim) {
+            victim = window.peekFirst();
+        }
+        return victim;
+    }
+
+    /**
+     * Determines if the candidate should replace the victim. A warm candidate
+     * occasionally wins a tie so that an attacker can not keep a hot victim
+     * resident by flooding the sketch with colliding keys.
+     */
+    private boolean admit(Object candidateKey, Object victimKey) {
+        int candidateFrequency = sketch.frequency(candidateKey);
+        int victimFrequency = sketch.frequency(victimKey);
+        if (candidateFrequency > victimFrequency) {
+            return true;
+        }
+        if (candidateFrequency <= 5) {
+            return false;
+        }
+        return (ThreadLocalRandom.current().nextInt() & 127) == 0;
+    }
+
+    private void evict(Node node) {
+        nodes.remove(node.key);
+        unlink(node);
+        if (evictor.evict(node.key, node.value)) {
+            charge(-node.weight);
+            evictionCount.incrementAndGet();
+        }
+    }
+
+    private void unlink(Node node) {
+        switch (node.queue) {
+            case WINDOW:
+                window.remove(node);
+                windowSize -= node.weight;
+                break;
+            case PROBATION:
+                probation.remove(node);
+                break;
+            default:
+                protectedSegment.remove(node);
+                protectedSize -= node.weight;
+        }
+        weightedSize -= node.weight;
+    }
+
+    private static int stripe() {
+        long id = Thread.currentThread().getId();
+        int hash = (int) (id ^ (id >>> 32)) * 0x9e3779b9;
+        return (hash >>> 16) & (READ_BUFFER_STRIPES - 1);
+    }
+
+    private static int ceilingPowerOfTwo(int value) {
+        return value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+    }
+
+    /**
+     * A mutation of the cache waiting to be replayed against the policy.
+     */
+    private static final class WriteTask {
+
+        final Object key;
+
+        final TCachedValue<?> value;
+
+        final int type;
+
+        final int weight;
+
+        WriteTask(Object key, TCachedValue<?> value, int type, int weight) {
+            this.key = key;
+            this.value = value;
+            this.type = type;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * An entry known to the policy, linked into one of its queues.
+     */
+    private static final class Node {
+
+        final Object key;
+
+        TCachedValue<?> value;
+
+        int weight;
+
+        int queue;
+
+        Node prev;
+
+        Node next;
+
+        Node(Object key, TCachedValue<?> value, int weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * An intrusive doubly-linked access order queue.
+     */
+    private static final class NodeDeque {
+
+        private Node first;
+
+        private Node last;
+
+        Node peekFirst() {
+            return first;
+        }
+
+        void addLast(Node node) {
+            node.prev = last;
+            node.next = null;
+            if (null == last) {
+                first = node;
+            } else {
+                last.next = node;
+            }
+            last = node;
+        }
+
+        void remove(Node node) {
+            if (null == node.prev) {
+                first = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (null == node.next) {
+                last = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+        }
+
+        void clear() {
+            first = null;
+            last = null;
+        }
+
+        void moveToBack(Node node) {
+            if (node != last) {
+                remove(node);
+                addLast(node);
+            }
+        }
+    }
+}
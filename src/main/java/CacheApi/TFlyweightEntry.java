@@ -0,0 +1,50 @@
+package CacheApi;
+
+import javax.cache.Cache;
+
+/**
+ * A {@link Cache.Entry} reused for every element of a scan of a
+ * {@link TCache}, see {@link TCache#spliterator(boolean)}. It holds the
+ * current element only while the action of the scan runs.
+ * Not thread-safe class, every part of a split scan has its own.
+ * @param <K> the type of key
+ * @param <V> the type of value
+ * @author Kozlov Ivan
+ */
+class TFlyweightEntry<K, V> implements Cache.Entry<K, V> {
+
+    private K key;
+
+    private V value;
+
+    /**
+     * Makes the entry the current element of the scan.
+     *
+     * @param key   the key
+     * @param value the value
+     * @return this entry
+     */
+    TFlyweightEntry<K, V> set(K key, V value) {
+        this.key = key;
+        this.value = value;
+        return this;
+    }
+
+    @Override
+    public K getKey() {
+        return key;
+    }
+
+    @Override
+    public V getValue() {
+        return value;
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> clazz) {
+        if (clazz.isAssignableFrom(getClass())) {
+            return clazz.cast(this);
+        }
+        throw new IllegalArgumentException("Unwrapping to " + clazz + " is not supported by this implementation");
+    }
+}
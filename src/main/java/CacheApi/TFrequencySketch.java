@@ -0,0 +1,133 @@
+package CacheApi;
+
+import java.util.Arrays;
+
+/**
+ * A probabilistic popularity estimate of the keys of a cache, used by the
+ * TinyLFU admission filter.
+ * <p>
+ * The sketch is a Count-Min sketch of depth four with 4-bit counters, sixteen
+ * counters being packed into every {@code long} of the table. Once the number
+ * of recorded events reaches the sample size all counters are halved so that
+ * the history ages and recently popular keys may replace old ones.
+ * </p>
+ * Not thread-safe class, it is guarded by the eviction lock of the policy.
+ * @author Kozlov Ivan
+ */
+class TFrequencySketch {
+
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private static final int MAXIMUM_FREQUENCY = 15;
+
+    private long[] table;
+
+    private int tableMask;
+
+    private int sampleSize;
+
+    private int additions;
+
+    /**
+     * Constructs a sketch sized for the expected maximum number of entries.
+     *
+     * @param expectedSize the maximum number of entries of the cache
+     */
+    TFrequencySketch(long expectedSize) {
+        this.table = new long[0];
+        ensureCapacity(expectedSize);
+    }
+
+    /**
+     * Grows the sketch if it is too small for the given number of entries,
+     * forgetting the history recorded so far.
+     *
+     * @param expectedSize the number of entries of the cache
+     */
+    void ensureCapacity(long expectedSize) {
+        int capacity = (int) Math.min(Math.max(expectedSize, 16), 1 << 30);
+        if (capacity <= table.length) {
+            return;
+        }
+        int tableSize = Integer.highestOneBit(capacity - 1) << 1;
+        this.table = new long[tableSize];
+        this.tableMask = tableSize - 1;
+        this.sampleSize = (int) Math.min(10L * capacity, Integer.MAX_VALUE);
+        this.additions = 0;
+    }
+
+    /**
+     * Returns the estimated number of occurrences of the key, up to 15.
+     *
+     * @param key the key
+     * @return the estimated frequency
+     */
+    int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int frequency = MAXIMUM_FREQUENCY;
+        for (int i = 0; i < SEEDS.length; i++) {
+            long indexHash = indexHash(hash, i);
+            int index = (int) (indexHash >>> 32) & tableMask;
+            int offset = ((int) indexHash & 15) << 2;
+            int count = (int) ((table[index] >>> offset) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Increments the popularity of the key, aging all counters when the
+     * sample size is reached.
+     *
+     * @param key the key
+     */
+    void increment(Object key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            long indexHash = indexHash(hash, i);
+            int index = (int) (indexHash >>> 32) & tableMask;
+            int offset = ((int) indexHash & 15) << 2;
+            long mask = 0xfL << offset;
+            if ((table[index] & mask) != mask) {
+                table[index] += 1L << offset;
+                added = true;
+            }
+        }
+        if (added && ++additions == sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * Halves every counter of the sketch.
+     */
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions >>>= 1;
+    }
+
+    /**
+     * Forgets the whole history.
+     */
+    void clear() {
+        Arrays.fill(table, 0L);
+        additions = 0;
+    }
+
+    private static long indexHash(int hash, int depth) {
+        long h = (hash + SEEDS[depth]) * SEEDS[depth];
+        return h ^ (h >>> 29);
+    }
+
+    private static int spread(int hash) {
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        return (hash >>> 16) ^ hash;
+    }
+}
@@ -0,0 +1,231 @@
+package CacheApi;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Tracks the most frequently accessed keys of a cache.
+ * <p>
+ * A sample of the accesses, one in {@link #SAMPLE_INTERVAL}, is counted by
+ * a Count-Min sketch of depth four, so that the sketch costs little and hot
+ * keys do not make its counters contended. A key whose estimate exceeds the
+ * lowest estimate of the current top keys takes its place. The top keys
+ * are updated under a lock that is only tried, so that a busy recorder is
+ * skipped instead of waiting. Once the sketch counted a fixed number of
+ * samples all counters are halved, so that keys that cooled down are
+ * replaced. Recording does not allocate; the top keys are held strongly
+ * until they are replaced.
+ * </p>
+ * @author Kozlov Ivan
+ */
+class THotKeys {
+
+    /**
+     * One in how many accesses is counted.
+     */
+    static final int SAMPLE_INTERVAL = 16;
+
+    private static final int DEPTH = 4;
+
+    private static final int WIDTH = 1024;
+
+    /**
+     * The number of counted samples after which the counters are halved.
+     */
+    private static final int AGING_PERIOD = 10 * WIDTH;
+
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+    private final AtomicIntegerArray counters = new AtomicIntegerArray(DEPTH * WIDTH);
+
+    private final AtomicInteger additions = new AtomicInteger();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // the fields below are guarded by the lock
+
+    private final Object[] topKeys;
+
+    private final int[] topCounts;
+
+    private int topSize;
+
+    /**
+     * The lowest estimate of the top keys, 0 until there are as many as
+     * tracked. Read without the lock to skip the keys that are not hot.
+     */
+    private volatile int minimumTopCount;
+
+    /**
+     * Constructs a tracker.
+     *
+     * @param count the number of top keys to track
+     */
+    THotKeys(int count) {
+        this.topKeys = new Object[count];
+        this.topCounts = new int[count];
+    }
+
+    /**
+     * Records an access of a key.
+     *
+     * @param key the key
+     */
+    void record(Object key) {
+        if ((ThreadLocalRandom.current().nextInt() & (SAMPLE_INTERVAL - 1)) != 0) {
+            return;
+        }
+        int hash = spread(key.hashCode());
+        int estimate = Integer.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            estimate = Math.min(estimate, counters.incrementAndGet(indexOf(hash, i)));
+        }
+        if (estimate > minimumTopCount && lock.tryLock()) {
+            try {
+                offer(key, estimate);
+            } finally {
+                lock.unlock();
+            }
+        }
+        if (additions.incrementAndGet() == AGING_PERIOD) {
+            age();
+        }
+    }
+
+    /**
+     * Gets the top keys with their estimated number of accesses, the most
+     * frequent first.
+     *
+     * @return the keys and the counts
+     */
+    Map<Object, Long> snapshot() {
+        List<Object> keys = new ArrayList<>();
+        lock.lock();
+        try {
+            for (int i = 0; i < topSize; i++) {
+                keys.add(topKeys[i]);
+            }
+        } finally {
+            lock.unlock();
+        }
+        //the counts of the top keys are refreshed from the sketch
+        List<Map.Entry<Object, Long>> estimates = new ArrayList<>(keys.size());
+        for (Object key : keys) {
+            estimates.add(new AbstractMap.SimpleImmutableEntry<>(key, (long) estimate(key) * SAMPLE_INTERVAL));
+        }
+        estimates.sort((first, second) -> Long.compare(second.getValue(), first.getValue()));
+        Map<Object, Long> snapshot = new LinkedHashMap<>();
+        for (Map.Entry<Object, Long> entry : estimates) {
+            snapshot.put(entry.getKey(), entry.getValue());
+        }
+        return snapshot;
+    }
+
+    /**
+     * Forgets the recorded accesses.
+     */
+    void clear() {
+        lock.lock();
+        try {
+            for (int i = 0; i < counters.length(); i++) {
+                counters.set(i, 0);
+            }
+            additions.set(0);
+            for (int i = 0; i < topSize; i++) {
+                topKeys[i] = null;
+                topCounts[i] = 0;
+            }
+            topSize = 0;
+            minimumTopCount = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Updates the estimate of a top key or makes the key a top key in place
+     * of the least frequent one. Has to be called while holding the lock.
+     */
+    private void offer(Object key, int estimate) {
+        int minimumIndex = -1;
+        for (int i = 0; i < topSize; i++) {
+            if (topKeys[i].equals(key)) {
+                topCounts[i] = estimate;
+                updateMinimum();
+                return;
+            }
+            if (minimumIndex < 0 || topCounts[i] < topCounts[minimumIndex]) {
+                minimumIndex = i;
+            }
+        }
+        if (topSize < topKeys.length) {
+            topKeys[topSize] = key;
+            topCounts[topSize] = estimate;
+            topSize++;
+        } else if (estimate > topCounts[minimumIndex]) {
+            topKeys[minimumIndex] = key;
+            topCounts[minimumIndex] = estimate;
+        }
+        updateMinimum();
+    }
+
+    private void updateMinimum() {
+        if (topSize < topKeys.length) {
+            minimumTopCount = 0;
+            return;
+        }
+        int minimum = Integer.MAX_VALUE;
+        for (int i = 0; i < topSize; i++) {
+            minimum = Math.min(minimum, topCounts[i]);
+        }
+        minimumTopCount = minimum;
+    }
+
+    /**
+     * Halves every counter, racing with the concurrent increments.
+     */
+    private void age() {
+        lock.lock();
+        try {
+            for (int i = 0; i < counters.length(); i++) {
+                counters.set(i, counters.get(i) >>> 1);
+            }
+            for (int i = 0; i < topSize; i++) {
+                topCounts[i] >>>= 1;
+            }
+            updateMinimum();
+            additions.set(0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int estimate(Object key) {
+        int hash = spread(key.hashCode());
+        int estimate = Integer.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            estimate = Math.min(estimate, counters.get(indexOf(hash, i)));
+        }
+        return estimate;
+    }
+
+    private static int indexOf(int hash, int depth) {
+        long h = (hash + SEEDS[depth]) * SEEDS[depth];
+        h ^= h >>> 29;
+        return depth * WIDTH + ((int) h & (WIDTH - 1));
+    }
+
+    private static int spread(int hash) {
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        return (hash >>> 16) ^ hash;
+    }
+}
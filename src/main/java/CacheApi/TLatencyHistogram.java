@@ -0,0 +1,105 @@
+package CacheApi;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies in nanoseconds with a bounded relative error,
+ * in the manner of an HdrHistogram.
+ * <p>
+ * Values below 32 have a bucket each. Every higher power of two is split
+ * into 32 linear buckets, so that a recorded value is reported with an
+ * error of at most 1/32 of it, about 3%, from a nanosecond up to the
+ * whole range of a {@code long}. Recording is a few arithmetic operations
+ * and atomic additions without allocation; a {@link #snapshot()} copies
+ * the buckets while writers keep recording, so that it is consistent per
+ * bucket but not across buckets.
+ * </p>
+ * @author Kozlov Ivan
+ */
+class TLatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * The number of buckets, covering every non-negative {@code long}.
+     */
+    static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    private final LongAdder totalTime = new LongAdder();
+
+    private final AtomicLong maximum = new AtomicLong();
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos the latency in nanoseconds, negative values count as zero
+     */
+    void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        counts.incrementAndGet(indexOf(value));
+        totalTime.add(value);
+        long max;
+        while (value > (max = maximum.get()) && !maximum.compareAndSet(max, value)) {
+            //another writer raised the maximum, compare again
+        }
+    }
+
+    /**
+     * Copies the recorded latencies.
+     *
+     * @return the snapshot
+     */
+    TLatencySnapshot snapshot() {
+        long[] snapshotCounts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshotCounts[i] = counts.get(i);
+        }
+        return new TLatencySnapshot(snapshotCounts, totalTime.sum(), maximum.get());
+    }
+
+    /**
+     * Forgets the recorded latencies.
+     */
+    void clear() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        totalTime.reset();
+        maximum.set(0);
+    }
+
+    /**
+     * Gets the bucket of a value.
+     *
+     * @param value the non-negative value
+     * @return the index of the bucket
+     */
+    static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) (value >>> shift) - SUB_BUCKET_COUNT;
+    }
+
+    /**
+     * Gets the highest value counted by a bucket.
+     *
+     * @param index the index of the bucket
+     * @return the highest value of the bucket
+     */
+    static long highestValueOf(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        long mantissa = SUB_BUCKET_COUNT + (index & (SUB_BUCKET_COUNT - 1));
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
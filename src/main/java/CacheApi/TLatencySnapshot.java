@@ -0,0 +1,110 @@
+package CacheApi;
+
+import java.util.Locale;
+
+/**
+ * The latencies of an operation of a {@link TCache} recorded up to a
+ * point in time, see {@link TCache#getGetLatency()}.
+ * <p>
+ * The latencies are in nanoseconds. A percentile is reported as the highest
+ * value of the bucket it falls into, at most about 3% above the recorded
+ * value.
+ * </p>
+ * @author Kozlov Ivan
+ */
+public final class TLatencySnapshot {
+
+    private final long[] counts;
+
+    private final long count;
+
+    private final long totalTime;
+
+    private final long maximum;
+
+    /**
+     * Constructs a snapshot.
+     *
+     * @param counts    the counts of the buckets of the histogram
+     * @param totalTime the sum of the latencies
+     * @param maximum   the highest latency
+     */
+    TLatencySnapshot(long[] counts, long totalTime, long maximum) {
+        long sum = 0;
+        for (long bucketCount : counts) {
+            sum += bucketCount;
+        }
+        this.counts = counts;
+        this.count = sum;
+        this.totalTime = totalTime;
+        this.maximum = maximum;
+    }
+
+    /**
+     * Gets the number of recorded latencies.
+     *
+     * @return the count
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the mean latency.
+     *
+     * @return the mean in nanoseconds, 0 if none was recorded
+     */
+    public long getMean() {
+        return count == 0 ? 0 : totalTime / count;
+    }
+
+    /**
+     * Gets the highest latency.
+     *
+     * @return the maximum in nanoseconds, 0 if none was recorded
+     */
+    public long getMaximum() {
+        return maximum;
+    }
+
+    /**
+     * Gets the latency that the given percentage of the recorded latencies
+     * do not exceed.
+     *
+     * @param percentile the percentage between 0 and 100, such as 99.9
+     * @return the latency in nanoseconds, 0 if none was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (!(percentile >= 0 && percentile <= 100)) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100");
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(TLatencyHistogram.highestValueOf(i), maximum);
+            }
+        }
+        return maximum;
+    }
+
+    /**
+     * Describes the distribution with the latencies in microseconds.
+     *
+     * @return the count, the percentiles 50, 99 and 99.9 and the maximum
+     */
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "count=%d p50=%.1fus p99=%.1fus p999=%.1fus max=%.1fus",
+                count, micros(getValueAtPercentile(50)), micros(getValueAtPercentile(99)),
+                micros(getValueAtPercentile(99.9)), micros(maximum));
+    }
+
+    static double micros(long nanos) {
+        return nanos / 1000d;
+    }
+}
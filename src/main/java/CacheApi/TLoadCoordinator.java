@@ -0,0 +1,255 @@
+package CacheApi;
+
+import javax.cache.integration.CacheLoader;
+import javax.cache.integration.CacheLoaderException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs the {@link CacheLoader} of a read-through {@link TCache}.
+ * <p>
+ * Concurrent misses on the same key are coalesced: the first thread to miss
+ * loads the value while the others wait for the result of its load instead
+ * of calling the loader again, so that a hot key expiring does not stampede
+ * the backing store. The loaded value is stored in the cache before the
+ * waiting threads are released.
+ * </p>
+ * @param <K> the type of keys maintained by the cache
+ * @param <V> the type of cached values
+ * @author Kozlov Ivan
+ */
+class TLoadCoordinator<K, V> {
+
+    /**
+     * Stores the loaded values into the cache.
+     */
+    interface Store<K, V> {
+
+        /**
+         * Stores a loaded value.
+         *
+         * @param key                  the key of the value
+         * @param value                the loaded value
+         * @param replaceExistingValue whether a value already in the cache is replaced
+         */
+        void store(K key, V value, boolean replaceExistingValue);
+    }
+
+    private final CacheLoader<K, V> loader;
+
+    private final Store<K, V> store;
+
+    private final TCacheStatistics statistics;
+
+    /**
+     * The loads in flight by key.
+     */
+    private final ConcurrentHashMap<Object, CompletableFuture<V>> loads = new ConcurrentHashMap<>();
+
+    private final LongAdder loadCount = new LongAdder();
+
+    private final LongAdder loadFailureCount = new LongAdder();
+
+    private final LongAdder coalescedLoadCount = new LongAdder();
+
+    private final LongAdder totalLoadTime = new LongAdder();
+
+    /**
+     * Constructs a coordinator.
+     *
+     * @param loader     the loader of the cache
+     * @param store      the callback storing the loaded values into the cache
+     * @param statistics the statistics of the cache
+     */
+    TLoadCoordinator(CacheLoader<K, V> loader, Store<K, V> store, TCacheStatistics statistics) {
+        this.loader = loader;
+        this.store = store;
+        this.statistics = statistics;
+    }
+
+    /**
+     * Loads the value of a key or waits for the load already in flight.
+     *
+     * @param key the key to load
+     * @return the loaded value or null if the loader has none
+     * @throws CacheLoaderException if the loader failed
+     */
+    V load(K key) {
+        CompletableFuture<V> load = new CompletableFuture<>();
+        CompletableFuture<V> inFlightLoad = loads.putIfAbsent(key, load);
+        if (null != inFlightLoad) {
+            coalescedLoadCount.increment();
+            return await(inFlightLoad);
+        }
+        try {
+            long start = System.nanoTime();
+            V value;
+            try {
+                value = loader.load(key);
+            } catch (RuntimeException e) {
+                loadFailureCount.increment();
+                throw e;
+            }
+            recordLoad(start, 1);
+            if (null != value) {
+                store.store(key, value, false);
+            }
+            load.complete(value);
+            return value;
+        } catch (RuntimeException e) {
+            CacheLoaderException exception = toLoaderException(e);
+            load.completeExceptionally(exception);
+            throw exception;
+        } finally {
+            loads.remove(key, load);
+        }
+    }
+
+    /**
+     * Loads the value of a key again to refresh it. The value is neither
+     * stored nor shared with concurrent loads.
+     *
+     * @param key the key to load
+     * @return the loaded value or null if the loader has none
+     * @throws CacheLoaderException if the loader failed
+     */
+    V reload(K key) {
+        long start = System.nanoTime();
+        V value;
+        try {
+            value = loader.load(key);
+        } catch (RuntimeException e) {
+            loadFailureCount.increment();
+            throw toLoaderException(e);
+        }
+        recordLoad(start, 1);
+        return value;
+    }
+
+    /**
+     * Loads the values of several keys with a single call of
+     * {@link CacheLoader#loadAll(Iterable)}, waiting for the keys whose load
+     * is already in flight.
+     *
+     * @param keys                  the keys to load
+     * @param replaceExistingValues whether values already in the cache are replaced
+     * @return the loaded values, without the keys the loader has no value for
+     * @throws CacheLoaderException if the loader failed
+     */
+    Map<K, V> loadAll(Collection<? extends K> keys, boolean replaceExistingValues) {
+        Map<K, CompletableFuture<V>> ownLoads = new LinkedHashMap<>();
+        Map<K, CompletableFuture<V>> inFlightLoads = new HashMap<>();
+        for (K key : keys) {
+            CompletableFuture<V> load = new CompletableFuture<>();
+            CompletableFuture<V> inFlightLoad = loads.putIfAbsent(key, load);
+            if (null == inFlightLoad) {
+                ownLoads.put(key, load);
+            } else if (!ownLoads.containsKey(key)) {
+                coalescedLoadCount.increment();
+                inFlightLoads.put(key, inFlightLoad);
+            }
+        }
+        Map<K, V> result = new HashMap<>();
+        if (!ownLoads.isEmpty()) {
+            try {
+                long start = System.nanoTime();
+                Map<K, V> loadedValues;
+                try {
+                    loadedValues = loader.loadAll(ownLoads.keySet());
+                } catch (RuntimeException e) {
+                    loadFailureCount.increment();
+                    throw e;
+                }
+                recordLoad(start, ownLoads.size());
+                for (Map.Entry<K, CompletableFuture<V>> ownLoad : ownLoads.entrySet()) {
+                    K key = ownLoad.getKey();
+                    V value = null == loadedValues ? null : loadedValues.get(key);
+                    if (null != value) {
+                        store.store(key, value, replaceExistingValues);
+                        result.put(key, value);
+                    }
+                    ownLoad.getValue().complete(value);
+                }
+            } catch (RuntimeException e) {
+                CacheLoaderException exception = toLoaderException(e);
+                ownLoads.values().forEach(load -> load.completeExceptionally(exception));
+                throw exception;
+            } finally {
+                ownLoads.forEach(loads::remove);
+            }
+        }
+        for (Map.Entry<K, CompletableFuture<V>> inFlightLoad : inFlightLoads.entrySet()) {
+            V value = await(inFlightLoad.getValue());
+            if (null != value) {
+                result.put(inFlightLoad.getKey(), value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets the number of values loaded by the loader.
+     *
+     * @return the load count
+     */
+    long getLoadCount() {
+        return loadCount.sum();
+    }
+
+    /**
+     * Gets the number of calls of the loader that failed.
+     *
+     * @return the load failure count
+     */
+    long getLoadFailureCount() {
+        return loadFailureCount.sum();
+    }
+
+    /**
+     * Gets the number of misses that waited for a load already in flight
+     * instead of calling the loader.
+     *
+     * @return the coalesced load count
+     */
+    long getCoalescedLoadCount() {
+        return coalescedLoadCount.sum();
+    }
+
+    /**
+     * Gets the mean time to load a value.
+     *
+     * @return the time in microseconds
+     */
+    float getAverageLoadTime() {
+        long count = loadCount.sum();
+        return count == 0 ? 0 : (float) TimeUnit.NANOSECONDS.toMicros(totalLoadTime.sum()) / count;
+    }
+
+    private void recordLoad(long start, int count) {
+        long elapsed = System.nanoTime() - start;
+        totalLoadTime.add(elapsed);
+        loadCount.add(count);
+        statistics.recordLoadTime(elapsed, count);
+    }
+
+    private V await(CompletableFuture<V> load) {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            throw toLoaderException(e.getCause());
+        }
+    }
+
+    private static CacheLoaderException toLoaderException(Throwable throwable) {
+        return throwable instanceof CacheLoaderException
+                ? (CacheLoaderException) throwable
+                : new CacheLoaderException(throwable);
+    }
+}
@@ -0,0 +1,32 @@
+package CacheApi;
+
+/**
+ * When the write-ahead log of a durable {@link TCache} forces its writes to
+ * the disk, trading the throughput of the mutations for the mutations a
+ * crash may lose.
+ * @author Kozlov Ivan
+ * @see TCacheConfiguration#setWriteAheadLogSyncPolicy(TLogSyncPolicy)
+ */
+public enum TLogSyncPolicy {
+
+    /**
+     * Every mutation waits until it was forced to the disk. Concurrent
+     * mutations share a single sync, so that the throughput grows with the
+     * number of writing threads. A crash loses no completed mutation.
+     */
+    ALWAYS,
+
+    /**
+     * The log is forced every {@link TCacheConfiguration#getWriteAheadLogSyncInterval()}
+     * milliseconds and mutations do not wait for it. A crash of the
+     * machine loses the mutations of the last interval at most.
+     */
+    PERIODIC,
+
+    /**
+     * The log is written to the operating system, which decides when to
+     * write it to the disk. A crash of the process loses no completed
+     * mutation, a crash of the machine may lose many.
+     */
+    OS
+}
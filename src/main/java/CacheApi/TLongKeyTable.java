@@ -0,0 +1,428 @@
+package CacheApi;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * The table of a {@link LongKeyTCache}: an open-addressing hash table keyed
+ * by primitive longs, with the expiry time of every entry stored inline.
+ * <p>
+ * An entry takes a slot of three parallel arrays, a long key, a reference
+ * to the value and a long expiry time, instead of a boxed key, a node of a
+ * {@link java.util.concurrent.ConcurrentHashMap} and a {@link TCachedValue}.
+ * Collisions are resolved by linear probing; a removed entry leaves a
+ * marker that the lookups probe past and the insertions reuse, and that is
+ * dropped once it ends a run of slots or the segment is rehashed.
+ * </p>
+ * <p>
+ * The table is split into segments by the high bits of the hash of the
+ * keys, each guarded by a {@link StampedLock}. The writers hold the write
+ * lock of the segment of their key. The readers do not lock: they probe the
+ * segment optimistically and validate their stamp afterwards, retrying
+ * under the read lock only if a writer changed the segment meanwhile.
+ * </p>
+ * @author Kozlov Ivan
+ */
+class TLongKeyTable {
+
+    /**
+     * Marks the slot of a removed entry.
+     */
+    static final Object REMOVED = new Object();
+
+    /**
+     * The initial number of slots of a segment.
+     */
+    private static final int MINIMUM_CAPACITY = 16;
+
+    /**
+     * The number of segments per available processor, so that writers of
+     * different keys rarely contend for a segment.
+     */
+    private static final int SEGMENTS_PER_PROCESSOR = 4;
+
+    private final Segment[] segments;
+
+    private final int segmentShift;
+
+    /**
+     * Constructs an empty table with a number of segments scaled to the
+     * available processors.
+     */
+    TLongKeyTable() {
+        int count = Integer.highestOneBit(
+                Runtime.getRuntime().availableProcessors() * SEGMENTS_PER_PROCESSOR - 1) << 1;
+        this.segments = new Segment[count];
+        this.segmentShift = 64 - Integer.numberOfTrailingZeros(count);
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * Hashes a key by the finalizer of MurmurHash3, so that sequential keys
+     * spread over the segments and the slots.
+     *
+     * @param key the key
+     * @return the hash
+     */
+    static long hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xFF51AFD7ED558CCDL;
+        key ^= key >>> 33;
+        key *= 0xC4CEB93FE53ECD53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    /**
+     * Gets the segment of a hash, selected by its high bits.
+     *
+     * @param hash the hash of the key
+     * @return the segment
+     */
+    Segment segmentFor(long hash) {
+        return segments[(int) (hash >>> segmentShift)];
+    }
+
+    /**
+     * Gets the segments, for the scans.
+     *
+     * @return the segments
+     */
+    Segment[] getSegments() {
+        return segments;
+    }
+
+    /**
+     * Removes all entries.
+     */
+    void clear() {
+        for (Segment segment : segments) {
+            long stamp = segment.writeLock();
+            try {
+                segment.slots = new Slots(MINIMUM_CAPACITY);
+            } finally {
+                segment.unlockWrite(stamp);
+            }
+        }
+    }
+
+    /**
+     * The arrays of a segment. A segment replaces them when it is rehashed,
+     * so that an optimistic reader sees arrays of the same length.
+     */
+    private static final class Slots {
+
+        final long[] keys;
+
+        final Object[] values;
+
+        final long[] expiryTimes;
+
+        int size;
+
+        int removedCount;
+
+        Slots(int capacity) {
+            this.keys = new long[capacity];
+            this.values = new Object[capacity];
+            this.expiryTimes = new long[capacity];
+        }
+
+        /**
+         * Probes for a key, at most once around the table, so that an
+         * optimistic reader racing with a writer terminates.
+         */
+        int indexOf(long key, long hash) {
+            int mask = values.length - 1;
+            int index = (int) hash & mask;
+            for (int probes = 0; probes <= mask; probes++) {
+                Object value = values[index];
+                if (null == value) {
+                    return -1;
+                }
+                if (value != REMOVED && keys[index] == key) {
+                    return index;
+                }
+                index = (index + 1) & mask;
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * A segment of the table. The methods other than {@link #get} and
+     * {@link #touch} have to be called while the write lock is held, the
+     * indexes they take and return are valid until it is released.
+     */
+    static final class Segment extends StampedLock {
+
+        private static final long serialVersionUID = 1L;
+
+        private Slots slots = new Slots(MINIMUM_CAPACITY);
+
+        /**
+         * Gets the value of a key without locking.
+         *
+         * @param key  the key
+         * @param hash the hash of the key
+         * @param now  the current time
+         * @return the value or null if the key is absent or expired
+         */
+        Object get(long key, long hash, long now) {
+            long stamp = tryOptimisticRead();
+            if (0 != stamp) {
+                Object value = get(slots, key, hash, now);
+                if (validate(stamp)) {
+                    return value;
+                }
+            }
+            stamp = readLock();
+            try {
+                return get(slots, key, hash, now);
+            } finally {
+                unlockRead(stamp);
+            }
+        }
+
+        /**
+         * Gets the value of a key and moves its expiry time, for a cache
+         * expiring its entries on access. The key is looked up without
+         * locking; the expiry time is written under the write lock, so that
+         * it is never stored into a slot a writer reused meanwhile, but
+         * only if it changes, that is at most once per tick of the clock.
+         *
+         * @param key        the key
+         * @param hash       the hash of the key
+         * @param now        the current time
+         * @param expiryTime the new expiry time of the entry
+         * @return the value or null if the key is absent or expired
+         */
+        Object touch(long key, long hash, long now, long expiryTime) {
+            long stamp = tryOptimisticRead();
+            if (0 != stamp) {
+                Slots current = slots;
+                int index = current.indexOf(key, hash);
+                Object value = index < 0 ? null : get(current, index, now);
+                boolean isMoved = null == value || current.expiryTimes[index] == expiryTime;
+                if (validate(stamp)) {
+                    if (isMoved) {
+                        return value;
+                    }
+                    //the slots are unchanged since the stamp if it converts
+                    long writeStamp = tryConvertToWriteLock(stamp);
+                    if (0 != writeStamp) {
+                        current.expiryTimes[index] = expiryTime;
+                        unlockWrite(writeStamp);
+                        return value;
+                    }
+                }
+            }
+            stamp = writeLock();
+            try {
+                Slots current = slots;
+                int index = current.indexOf(key, hash);
+                Object value = index < 0 ? null : get(current, index, now);
+                if (null != value) {
+                    current.expiryTimes[index] = expiryTime;
+                }
+                return value;
+            } finally {
+                unlockWrite(stamp);
+            }
+        }
+
+        private static Object get(Slots slots, int index, long now) {
+            Object value = slots.values[index];
+            return isExpired(slots.expiryTimes[index], now) ? null : value;
+        }
+
+        private static Object get(Slots slots, long key, long hash, long now) {
+            int index = slots.indexOf(key, hash);
+            return index < 0 ? null : get(slots, index, now);
+        }
+
+        /**
+         * Finds the slot of a key.
+         *
+         * @param key  the key
+         * @param hash the hash of the key
+         * @return the index or -1 if the key is absent
+         */
+        int indexOf(long key, long hash) {
+            return slots.indexOf(key, hash);
+        }
+
+        Object valueAt(int index) {
+            return slots.values[index];
+        }
+
+        long expiryTimeAt(int index) {
+            return slots.expiryTimes[index];
+        }
+
+        /**
+         * Replaces the value and the expiry time of an entry.
+         */
+        void set(int index, Object value, long expiryTime) {
+            slots.expiryTimes[index] = expiryTime;
+            slots.values[index] = value;
+        }
+
+        void setExpiryTime(int index, long expiryTime) {
+            slots.expiryTimes[index] = expiryTime;
+        }
+
+        /**
+         * Inserts an entry of a key found absent, rehashing the segment
+         * first if it is three quarters full.
+         *
+         * @param key        the key
+         * @param hash       the hash of the key
+         * @param value      the value
+         * @param expiryTime the expiry time
+         */
+        void insert(long key, long hash, Object value, long expiryTime) {
+            Slots current = slots;
+            int capacity = current.values.length;
+            if ((current.size + current.removedCount + 1) * 4L > capacity * 3L) {
+                //double only if the live entries need it, otherwise just drop the removal markers
+                rehash((current.size + 1) * 2L > capacity ? capacity * 2 : capacity);
+                current = slots;
+            }
+            int mask = current.values.length - 1;
+            int index = (int) hash & mask;
+            while (null != current.values[index] && current.values[index] != REMOVED) {
+                index = (index + 1) & mask;
+            }
+            if (current.values[index] == REMOVED) {
+                current.removedCount--;
+            }
+            current.keys[index] = key;
+            current.expiryTimes[index] = expiryTime;
+            current.values[index] = value;
+            current.size++;
+        }
+
+        /**
+         * Removes an entry.
+         *
+         * @param index the slot of the entry
+         */
+        void removeAt(int index) {
+            Slots current = slots;
+            int mask = current.values.length - 1;
+            current.values[index] = REMOVED;
+            current.keys[index] = 0;
+            current.size--;
+            current.removedCount++;
+            if (null == current.values[(index + 1) & mask]) {
+                //the markers ending a run are not needed by any probe
+                while (current.values[index] == REMOVED) {
+                    current.values[index] = null;
+                    current.removedCount--;
+                    index = (index - 1) & mask;
+                }
+            }
+        }
+
+        /**
+         * Removes the expired entries.
+         *
+         * @param now the current time
+         * @return the number of entries removed
+         */
+        int removeExpired(long now) {
+            int count = 0;
+            Slots current = slots;
+            for (int index = 0; index < current.values.length; index++) {
+                Object value = current.values[index];
+                if (null != value && value != REMOVED && isExpired(current.expiryTimes[index], now)) {
+                    removeAt(index);
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Copies the entries not expired, for a weakly consistent scan.
+         *
+         * @param now the current time
+         * @return the copy
+         */
+        Copy copy(long now) {
+            long stamp = readLock();
+            try {
+                Slots current = slots;
+                long[] keys = new long[current.size];
+                Object[] values = new Object[current.size];
+                int count = 0;
+                for (int index = 0; index < current.values.length; index++) {
+                    Object value = current.values[index];
+                    if (null != value && value != REMOVED && !isExpired(current.expiryTimes[index], now)) {
+                        keys[count] = current.keys[index];
+                        values[count] = value;
+                        count++;
+                    }
+                }
+                return new Copy(keys, values, count);
+            } finally {
+                unlockRead(stamp);
+            }
+        }
+
+        private void rehash(int capacity) {
+            Slots current = slots;
+            Slots rehashed = new Slots(capacity);
+            int mask = capacity - 1;
+            for (int index = 0; index < current.values.length; index++) {
+                Object value = current.values[index];
+                if (null != value && value != REMOVED) {
+                    long key = current.keys[index];
+                    int target = (int) hash(key) & mask;
+                    while (null != rehashed.values[target]) {
+                        target = (target + 1) & mask;
+                    }
+                    rehashed.keys[target] = key;
+                    rehashed.expiryTimes[target] = current.expiryTimes[index];
+                    rehashed.values[target] = value;
+                }
+            }
+            rehashed.size = current.size;
+            slots = rehashed;
+        }
+    }
+
+    /**
+     * The entries of a segment copied for a scan.
+     */
+    static final class Copy {
+
+        final long[] keys;
+
+        /**
+         * The values, in the order of the keys.
+         */
+        final Object[] values;
+
+        final int count;
+
+        Copy(long[] keys, Object[] values, int count) {
+            this.keys = keys;
+            this.values = values;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Determines if an expiry time has passed, as {@link TCachedValue#isExpiredAt(long)}.
+     *
+     * @param expiryTime the expiry time or -1 if the entry never expires
+     * @param now        the current time
+     * @return true if the entry expired
+     */
+    static boolean isExpired(long expiryTime, long now) {
+        return expiryTime > -1 && expiryTime <= now;
+    }
+}
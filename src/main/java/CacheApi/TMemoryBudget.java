@@ -0,0 +1,94 @@
+package CacheApi;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The memory budget shared by the caches of a {@link TCacheManager}.
+ * <p>
+ * Every cache charges the weight of its entries to the budget. Once the
+ * total weight exceeds the maximum, the entries are evicted coldest first
+ * across all caches: each time the victims proposed by the eviction
+ * policies of the caches are compared by their estimated frequency and the
+ * least frequently used one is discarded.
+ * </p>
+ * @author Kozlov Ivan
+ */
+class TMemoryBudget {
+
+    private final long maximumWeight;
+
+    private final AtomicLong weight = new AtomicLong();
+
+    private final CopyOnWriteArrayList<TEvictionPolicy> policies = new CopyOnWriteArrayList<>();
+
+    private final ReentrantLock reclaimLock = new ReentrantLock();
+
+    /**
+     * Constructs a budget.
+     *
+     * @param maximumWeight the maximum total weight of all caches
+     */
+    TMemoryBudget(long maximumWeight) {
+        if (maximumWeight < 0) {
+            throw new IllegalArgumentException("maximumWeight must not be negative");
+        }
+        this.maximumWeight = maximumWeight;
+    }
+
+    void register(TEvictionPolicy policy) {
+        policies.add(policy);
+    }
+
+    void unregister(TEvictionPolicy policy) {
+        policies.remove(policy);
+    }
+
+    /**
+     * Adds to the total weight.
+     *
+     * @param delta the weight to add, negative if weight is released
+     */
+    void charge(long delta) {
+        weight.addAndGet(delta);
+    }
+
+    long getWeight() {
+        return weight.get();
+    }
+
+    long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    /**
+     * Evicts the coldest entries of all caches until the budget is met.
+     * Called by the writers, which wait for each other only when the budget
+     * is exceeded.
+     */
+    void afterWrite() {
+        if (weight.get() <= maximumWeight) {
+            return;
+        }
+        reclaimLock.lock();
+        try {
+            while (weight.get() > maximumWeight) {
+                TEvictionPolicy coldest = null;
+                int coldestFrequency = Integer.MAX_VALUE;
+                for (TEvictionPolicy policy : policies) {
+                    int frequency = policy.coldestFrequency();
+                    if (frequency >= 0 && frequency < coldestFrequency) {
+                        coldest = policy;
+                        coldestFrequency = frequency;
+                    }
+                }
+                if (null == coldest || !coldest.evictColdest()) {
+                    return;
+                }
+            }
+        } finally {
+            reclaimLock.unlock();
+        }
+    }
+}
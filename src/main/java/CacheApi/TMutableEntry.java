@@ -0,0 +1,159 @@
+package CacheApi;
+
+import javax.cache.processor.EntryProcessor;
+import javax.cache.processor.MutableEntry;
+
+/**
+ * The {@link MutableEntry} passed to an {@link EntryProcessor} by
+ * {@link TCache#invoke}. It is used while the mapping of its key is locked
+ * and only records what the processor did; the {@link TCache} applies the
+ * resulting {@link Operation} once the processor returned.
+ * @param <K> the type of key
+ * @param <V> the type of value
+ * @author Kozlov Ivan
+ */
+class TMutableEntry<K, V> implements MutableEntry<K, V> {
+
+    /**
+     * The change of the entry resulting from the processing.
+     */
+    enum Operation {
+
+        /**
+         * The entry was neither read nor changed.
+         */
+        NONE,
+
+        /**
+         * The value was read.
+         */
+        ACCESS,
+
+        /**
+         * The value was missing and was read through the loader.
+         */
+        LOAD,
+
+        /**
+         * A value was set for a missing entry.
+         */
+        CREATE,
+
+        /**
+         * The value of an existing entry was set.
+         */
+        UPDATE,
+
+        /**
+         * An existing entry was removed.
+         */
+        REMOVE
+    }
+
+    private final K key;
+
+    private final TCachedValue<V> cachedValue;
+
+    private final long now;
+
+    private final TLoadCoordinator<K, V> loadCoordinator;
+
+    private V value;
+
+    private boolean isValueRead;
+
+    private Operation operation = Operation.NONE;
+
+    /**
+     * Constructs an entry.
+     *
+     * @param key             the key
+     * @param cachedValue     the unexpired value in the cache or null if there is none
+     * @param now             the time of the processing in milliseconds (since the Epoc)
+     * @param loadCoordinator the loader of a read-through cache or null
+     */
+    TMutableEntry(K key, TCachedValue<V> cachedValue, long now, TLoadCoordinator<K, V> loadCoordinator) {
+        this.key = key;
+        this.cachedValue = cachedValue;
+        this.now = now;
+        this.loadCoordinator = loadCoordinator;
+    }
+
+    @Override
+    public K getKey() {
+        return key;
+    }
+
+    @Override
+    public V getValue() {
+        if (!isValueRead && operation == Operation.NONE) {
+            isValueRead = true;
+            if (null != cachedValue) {
+                value = cachedValue.getInternalValue();
+                operation = Operation.ACCESS;
+            } else if (null != loadCoordinator) {
+                //the mapping is locked, the loaded value is stored by the cache
+                value = loadCoordinator.reload(key);
+                operation = null == value ? Operation.NONE : Operation.LOAD;
+            }
+        }
+        return value;
+    }
+
+    @Override
+    public boolean exists() {
+        switch (operation) {
+            case CREATE:
+            case UPDATE:
+            case LOAD:
+                return true;
+            case REMOVE:
+                return false;
+            default:
+                return null != cachedValue;
+        }
+    }
+
+    @Override
+    public void remove() {
+        isValueRead = true;
+        value = null;
+        operation = null == cachedValue ? Operation.NONE : Operation.REMOVE;
+    }
+
+    @Override
+    public void setValue(V value) {
+        if (null == value) {
+            throw new NullPointerException("value");
+        }
+        isValueRead = true;
+        this.value = value;
+        operation = null == cachedValue ? Operation.CREATE : Operation.UPDATE;
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> clazz) {
+        if (clazz.isAssignableFrom(getClass())) {
+            return clazz.cast(this);
+        }
+        throw new IllegalArgumentException("Unwrapping to " + clazz + " is not supported by this implementation");
+    }
+
+    /**
+     * Gets the change of the entry resulting from the processing.
+     *
+     * @return the operation
+     */
+    Operation getOperation() {
+        return operation;
+    }
+
+    /**
+     * Gets the value set or loaded by the processing.
+     *
+     * @return the new value
+     */
+    V getNewValue() {
+        return value;
+    }
+}
@@ -0,0 +1,144 @@
+package CacheApi;
+
+/**
+ * A {@link TCachedValue} whose value and timestamps live in a record of a
+ * {@link TOffHeapStore}; on the heap only the address of the record is kept.
+ * <p>
+ * The value is stored by value: it is serialized when it is set and every
+ * read returns a new deserialized copy. The record is accessed while the
+ * monitor of this value is held, so that it is not moved or freed while it
+ * is being read.
+ * </p>
+ * @param <V> the type of the value
+ * @author Kozlov Ivan
+ */
+class TOffHeapCachedValue<V> extends TCachedValue<V> {
+
+    private static final long FREED = -1;
+
+    private final TOffHeapStore store;
+
+    private final TSerializer<V> serializer;
+
+    /**
+     * The address of the record or {@link #FREED}. Guarded by this.
+     */
+    private long address;
+
+    /**
+     * Constructs a value.
+     *
+     * @param store         the store allocating the record
+     * @param serializer    the serializer of the value
+     * @param internalValue the value
+     * @param creationTime  the time when the cache entry was created
+     * @param expiryTime    the time when the cache entry should expire
+     */
+    TOffHeapCachedValue(TOffHeapStore store, TSerializer<V> serializer,
+                        V internalValue, long creationTime, long expiryTime) {
+        super(null, creationTime, expiryTime);
+        this.store = store;
+        this.serializer = serializer;
+        TSerializationBuffer buffer = serialize(internalValue);
+        long newAddress = store.allocate(buffer.length());
+        store.writeValue(newAddress, buffer.array(), buffer.length());
+        store.putLong(newAddress, TOffHeapStore.CREATION_TIME, creationTime);
+        store.putLong(newAddress, TOffHeapStore.EXPIRY_TIME, expiryTime);
+        synchronized (this) {
+            this.address = newAddress;
+        }
+    }
+
+    @Override
+    public void setInternalValue(V internalValue) {
+        TSerializationBuffer buffer = serialize(internalValue);
+        synchronized (this) {
+            if (address == FREED) {
+                return;
+            }
+            if (buffer.length() > store.capacity(address)) {
+                //the record outgrew its block, move it with its header
+                long newAddress = store.allocate(buffer.length());
+                store.putLong(newAddress, TOffHeapStore.CREATION_TIME, getLong(TOffHeapStore.CREATION_TIME));
+                store.putLong(newAddress, TOffHeapStore.EXPIRY_TIME, getLong(TOffHeapStore.EXPIRY_TIME));
+                store.free(address);
+                address = newAddress;
+            }
+            store.writeValue(address, buffer.array(), buffer.length());
+        }
+    }
+
+    @Override
+    public synchronized void setExpiryTime(long expiryTime) {
+        if (address != FREED) {
+            store.putLong(address, TOffHeapStore.EXPIRY_TIME, expiryTime);
+        }
+    }
+
+    @Override
+    public synchronized boolean compareAndSetExpiryTime(long expectedExpiryTime, long expiryTime) {
+        if (address == FREED || getLong(TOffHeapStore.EXPIRY_TIME) != expectedExpiryTime) {
+            return false;
+        }
+        store.putLong(address, TOffHeapStore.EXPIRY_TIME, expiryTime);
+        return true;
+    }
+
+    @Override
+    public V getInternalValue() {
+        TSerializationBuffer buffer;
+        synchronized (this) {
+            if (address == FREED) {
+                return null;
+            }
+            buffer = store.readValue(address);
+        }
+        return serializer.read(buffer);
+    }
+
+    @Override
+    public boolean equalsValue(V value) {
+        V internalValue = getInternalValue();
+        return null != internalValue && internalValue.equals(value);
+    }
+
+    @Override
+    public synchronized long getCreationTime() {
+        return getLong(TOffHeapStore.CREATION_TIME);
+    }
+
+    @Override
+    public synchronized long getExpiryTime() {
+        return getLong(TOffHeapStore.EXPIRY_TIME);
+    }
+
+    @Override
+    public boolean isExpiredAt(long now) {
+        long expiryTime = getExpiryTime();
+        return expiryTime > -1 && expiryTime <= now;
+    }
+
+    /**
+     * Returns the record to the store. Called once the value was removed
+     * from the cache, a freed value reads as absent and never expires.
+     */
+    synchronized void free() {
+        if (address != FREED) {
+            store.free(address);
+            address = FREED;
+        }
+    }
+
+    /**
+     * Reads a field of the header. Has to be called while holding the monitor.
+     */
+    private long getLong(int field) {
+        return address == FREED ? -1 : store.getLong(address, field);
+    }
+
+    private TSerializationBuffer serialize(V internalValue) {
+        TSerializationBuffer buffer = TSerializationBuffer.forWriting();
+        serializer.write(internalValue, buffer);
+        return buffer;
+    }
+}
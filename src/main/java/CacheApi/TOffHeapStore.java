@@ -0,0 +1,261 @@
+package CacheApi;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The off-heap memory of a {@link TCache} storing its values outside of the
+ * Java heap, so that the garbage collector does not have to trace them.
+ * <p>
+ * Memory is taken from the operating system in slabs of direct
+ * {@link ByteBuffer}s and handed out in power of two blocks, freed blocks
+ * being kept in a free list per block size. A block holds one record: a
+ * header with the timestamps of the entry followed by the serialized value.
+ * </p>
+ * <pre>
+ * | creation | expiry | capacity | length | value ...
+ * | 8        | 8      | 4        | 4      | length
+ * </pre>
+ * A record is addressed by a {@code long}, the index of the slab in the
+ * upper and the offset into the slab in the lower 32 bits.
+ * @author Kozlov Ivan
+ */
+class TOffHeapStore {
+
+    static final int CREATION_TIME = 0;
+
+    static final int EXPIRY_TIME = 8;
+
+    private static final int CAPACITY = 16;
+
+    private static final int LENGTH = 20;
+
+    static final int HEADER_SIZE = 24;
+
+    private static final int MINIMUM_BLOCK_SHIFT = 6;
+
+    /**
+     * The default size of a slab, 16 MB.
+     */
+    static final int DEFAULT_SLAB_SIZE = 1 << 24;
+
+    private final int slabSize;
+
+    private final ReentrantLock allocationLock = new ReentrantLock();
+
+    /**
+     * The slabs, replaced by a larger copy when a slab is added so that
+     * readers never lock.
+     */
+    private volatile ByteBuffer[] slabs = new ByteBuffer[0];
+
+    /**
+     * The views of the slabs of every thread, so that the records are
+     * copied without a shared buffer position and without allocation.
+     */
+    private final ThreadLocal<ByteBuffer[]> slabViews = ThreadLocal.withInitial(() -> new ByteBuffer[0]);
+
+    // the fields below are guarded by the allocation lock
+
+    private int slabOffset;
+
+    private final long[][] freeBlocks;
+
+    private final int[] freeBlockCounts;
+
+    private final AtomicLong reservedBytes = new AtomicLong();
+
+    private final AtomicLong usedBytes = new AtomicLong();
+
+    /**
+     * Constructs an empty store.
+     *
+     * @param slabSize the size of a slab in bytes, a power of two
+     */
+    TOffHeapStore(int slabSize) {
+        if (slabSize < (1 << MINIMUM_BLOCK_SHIFT) || Integer.bitCount(slabSize) != 1) {
+            throw new IllegalArgumentException("The off-heap slab size must be a power of two of at least 64 bytes");
+        }
+        this.slabSize = slabSize;
+        int sizeClasses = Integer.numberOfTrailingZeros(slabSize) - MINIMUM_BLOCK_SHIFT + 1;
+        this.freeBlocks = new long[sizeClasses][];
+        this.freeBlockCounts = new int[sizeClasses];
+        for (int i = 0; i < sizeClasses; i++) {
+            freeBlocks[i] = new long[16];
+        }
+        this.slabOffset = slabSize;
+    }
+
+    /**
+     * Allocates a record for a value of the given length.
+     *
+     * @param length the length of the serialized value
+     * @return the address of the record
+     */
+    long allocate(int length) {
+        int sizeClass = sizeClass(HEADER_SIZE + length);
+        int blockSize = 1 << (sizeClass + MINIMUM_BLOCK_SHIFT);
+        long address;
+        allocationLock.lock();
+        try {
+            if (freeBlockCounts[sizeClass] > 0) {
+                address = freeBlocks[sizeClass][--freeBlockCounts[sizeClass]];
+            } else {
+                if (slabOffset + blockSize > slabSize) {
+                    addSlab();
+                }
+                address = ((long) (slabs.length - 1) << 32) | slabOffset;
+                slabOffset += blockSize;
+            }
+        } finally {
+            allocationLock.unlock();
+        }
+        usedBytes.addAndGet(blockSize);
+        ByteBuffer slab = slab(address);
+        int offset = offset(address);
+        slab.putInt(offset + CAPACITY, blockSize - HEADER_SIZE);
+        slab.putInt(offset + LENGTH, 0);
+        return address;
+    }
+
+    /**
+     * Returns the block of a record to its free list.
+     *
+     * @param address the address of the record
+     */
+    void free(long address) {
+        int blockSize = capacity(address) + HEADER_SIZE;
+        int sizeClass = Integer.numberOfTrailingZeros(blockSize) - MINIMUM_BLOCK_SHIFT;
+        allocationLock.lock();
+        try {
+            long[] blocks = freeBlocks[sizeClass];
+            if (freeBlockCounts[sizeClass] == blocks.length) {
+                blocks = freeBlocks[sizeClass] = Arrays.copyOf(blocks, blocks.length * 2);
+            }
+            blocks[freeBlockCounts[sizeClass]++] = address;
+        } finally {
+            allocationLock.unlock();
+        }
+        usedBytes.addAndGet(-blockSize);
+    }
+
+    /**
+     * Releases all slabs. The store must not be used afterwards.
+     */
+    void release() {
+        allocationLock.lock();
+        try {
+            slabs = new ByteBuffer[0];
+            Arrays.fill(freeBlockCounts, 0);
+            slabOffset = slabSize;
+            reservedBytes.set(0);
+            usedBytes.set(0);
+        } finally {
+            allocationLock.unlock();
+        }
+    }
+
+    long getLong(long address, int field) {
+        return slab(address).getLong(offset(address) + field);
+    }
+
+    void putLong(long address, int field, long value) {
+        slab(address).putLong(offset(address) + field, value);
+    }
+
+    int capacity(long address) {
+        return slab(address).getInt(offset(address) + CAPACITY);
+    }
+
+    /**
+     * Copies the serialized value of a record into the read buffer of the
+     * current thread.
+     *
+     * @param address the address of the record
+     * @return the read buffer holding the serialized value
+     */
+    TSerializationBuffer readValue(long address) {
+        ByteBuffer slab = slabView(address);
+        int offset = offset(address);
+        int length = slab.getInt(offset + LENGTH);
+        TSerializationBuffer buffer = TSerializationBuffer.forReading(length);
+        slab.position(offset + HEADER_SIZE);
+        slab.get(buffer.array(), 0, length);
+        return buffer;
+    }
+
+    /**
+     * Writes the serialized value of a record, which must fit its capacity.
+     *
+     * @param address the address of the record
+     * @param bytes   the serialized value
+     * @param length  the length of the serialized value
+     */
+    void writeValue(long address, byte[] bytes, int length) {
+        ByteBuffer slab = slabView(address);
+        int offset = offset(address);
+        slab.putInt(offset + LENGTH, length);
+        slab.position(offset + HEADER_SIZE);
+        slab.put(bytes, 0, length);
+    }
+
+    /**
+     * Gets the number of bytes taken from the operating system.
+     *
+     * @return the reserved bytes
+     */
+    long getReservedBytes() {
+        return reservedBytes.get();
+    }
+
+    /**
+     * Gets the number of bytes of the allocated blocks.
+     *
+     * @return the used bytes
+     */
+    long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    private void addSlab() {
+        ByteBuffer[] newSlabs = Arrays.copyOf(slabs, slabs.length + 1);
+        newSlabs[slabs.length] = ByteBuffer.allocateDirect(slabSize);
+        slabs = newSlabs;
+        slabOffset = 0;
+        reservedBytes.addAndGet(slabSize);
+    }
+
+    private int sizeClass(int recordSize) {
+        if (recordSize > slabSize) {
+            throw new IllegalArgumentException("A value of " + (recordSize - HEADER_SIZE)
+                    + " bytes does not fit into an off-heap slab of " + slabSize + " bytes");
+        }
+        int blockShift = 32 - Integer.numberOfLeadingZeros(recordSize - 1);
+        return Math.max(blockShift, MINIMUM_BLOCK_SHIFT) - MINIMUM_BLOCK_SHIFT;
+    }
+
+    private ByteBuffer slab(long address) {
+        return slabs[(int) (address >>> 32)];
+    }
+
+    private ByteBuffer slabView(long address) {
+        int index = (int) (address >>> 32);
+        ByteBuffer[] views = slabViews.get();
+        if (index >= views.length) {
+            ByteBuffer[] currentSlabs = slabs;
+            int viewCount = views.length;
+            views = Arrays.copyOf(views, currentSlabs.length);
+            for (int i = viewCount; i < views.length; i++) {
+                views[i] = currentSlabs[i].duplicate();
+            }
+            slabViews.set(views);
+        }
+        return views[index];
+    }
+
+    private static int offset(long address) {
+        return (int) address;
+    }
+}
@@ -0,0 +1,1222 @@
+package CacheApi;
+
+import javax.cache.Cache;
+import javax.cache.CacheException;
+import javax.cache.CacheManager;
+import javax.cache.configuration.CacheEntryListenerConfiguration;
+import javax.cache.configuration.Configuration;
+import javax.cache.integration.CompletionListener;
+import javax.cache.integration.CompletionListenerFuture;
+import javax.cache.management.CacheStatisticsMXBean;
+import javax.cache.processor.EntryProcessor;
+import javax.cache.processor.EntryProcessorException;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A {@link Cache} whose keys are split among the members of the
+ * {@link TCluster} of its manager, every member storing the entries it
+ * owns in a local {@link TCache}, its partition. It is created by
+ * {@link TCacheManager#createPartitionedCache(String, Configuration)} with
+ * the same name and configuration on every member.
+ * <p>
+ * An operation on a key is applied to the partition if this member owns
+ * the key and sent to the owner otherwise, see {@link TClusterConnection};
+ * the operations on several keys, such as {@link #getAll(Set)}, send a
+ * request per owner at once and apply the local part meanwhile. The
+ * loaders, writers and expiry of the owner apply. A request the member no
+ * longer owns the key of is sent to the owner again, see
+ * {@link TClusterProtocol#MOVED}. Until the manager joins a cluster, it
+ * owns all keys. Until the entries a joining member owns are handed over
+ * to it, it reads the keys it misses from their previous owners, see
+ * {@link TClusterProtocol#PEEK}, and stores them before it mutates them,
+ * so that the conditional operations and the processors see them.
+ * </p>
+ * <p>
+ * The entry processors are sent to the owners of the keys with their
+ * arguments and results by Java serialization, so they have to be
+ * serializable. The iterator and the listeners see the entries owned by
+ * this member only. The persistence and the replication are not supported
+ * either, the entries of a member change with the membership.
+ * </p>
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ * @author Kozlov Ivan
+ */
+public class TPartitionedCache<K, V> implements Cache<K, V> {
+
+    private static final Logger LOGGER = Logger.getLogger("javax.cache");
+
+    /**
+     * The maximum number of entries handed over in a request.
+     */
+    private static final int HAND_OVER_BATCH_SIZE = 1024;
+
+    /**
+     * The maximum number of times a request is sent to the members that do
+     * not own its keys.
+     */
+    private static final int MAXIMUM_ATTEMPTS = 5;
+
+    /**
+     * The time in milliseconds to wait before sending a request again to a
+     * member that did not learn about a change of the membership yet.
+     */
+    private static final long RETRY_DELAY = 20;
+
+    private final String cacheName;
+
+    private final TCacheManager cacheManager;
+
+    private final TCache<K, V> partition;
+
+    private final TSerializer<K> keySerializer;
+
+    private final TSerializer<V> valueSerializer;
+
+    private volatile boolean isClosed;
+
+    /**
+     * The keys this member mutated while the entries it owns since it
+     * joined were handed over to it, whose handed over entries are dropped.
+     */
+    private final Set<K> settledKeys = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Constructs a cache and its partition.
+     *
+     * @param cacheManager  the manager
+     * @param cacheName     the name of the cache
+     * @param configuration the configuration of the partition
+     * @throws IllegalArgumentException if the configuration uses a feature a partitioned cache does not support
+     */
+    TPartitionedCache(TCacheManager cacheManager, String cacheName, Configuration<K, V> configuration) {
+        this.cacheManager = cacheManager;
+        this.cacheName = cacheName;
+        checkSupported(new TCacheConfiguration<>(configuration));
+        this.partition = new TCache<>(cacheManager, cacheName, configuration);
+        this.keySerializer = partition.getSnapshotKeySerializer();
+        this.valueSerializer = partition.getSnapshotValueSerializer();
+    }
+
+    private static void checkSupported(TCacheConfiguration<?, ?> configuration) {
+        if (null != configuration.getWriteAheadLogDirectory() || null != configuration.getSnapshotFile()) {
+            throw new IllegalArgumentException("A partitioned cache does not support persistence");
+        }
+        if (configuration.getReplicationMode() != TReplicationMode.NONE) {
+            throw new IllegalArgumentException("A partitioned cache does not support replication");
+        }
+    }
+
+    /**
+     * Gets the local partition.
+     *
+     * @return the cache of the entries owned by this member
+     */
+    TCache<K, V> getPartition() {
+        return partition;
+    }
+
+    private void ensureOpen() {
+        if (isClosed) {
+            throw new IllegalStateException("Cache " + cacheName + " is closed");
+        }
+    }
+
+    private byte[] serializeKey(K key) {
+        if (null == key) {
+            throw new NullPointerException("key");
+        }
+        return TSerializers.toBytes(keySerializer, key);
+    }
+
+    private byte[] serializeValue(V value) {
+        if (null == value) {
+            throw new NullPointerException("value");
+        }
+        return TSerializers.toBytes(valueSerializer, value);
+    }
+
+    private K readKey(DataInputStream in) throws IOException {
+        return TSerializers.fromBytes(keySerializer, TClusterProtocol.readBytes(in));
+    }
+
+    private V readValue(DataInputStream in) throws IOException {
+        byte[] bytes = TClusterProtocol.readBytes(in);
+        return null == bytes ? null : TSerializers.fromBytes(valueSerializer, bytes);
+    }
+
+    private void writeValue(DataOutputStream out, V value) throws IOException {
+        TClusterProtocol.writeBytes(out, null == value ? null : TSerializers.toBytes(valueSerializer, value));
+    }
+
+    /**
+     * Gets the connection to the owner of a key.
+     *
+     * @param key the serialized key
+     * @return the connection or null if this member owns the key
+     */
+    private TClusterConnection remoteOwner(byte[] key) {
+        TCluster cluster = cacheManager.getCluster();
+        if (null == cluster) {
+            return null;
+        }
+        InetSocketAddress owner = cluster.owner(TConsistentHashRing.hash(key));
+        return cluster.isLocal(owner) ? null : cluster.connection(owner);
+    }
+
+    /**
+     * Sends a request for this cache to the owner of its key, and again to
+     * the next owner if the member no longer owns the key.
+     *
+     * @param owner          the owner
+     * @param operation      the operation
+     * @param decoder        the decoder of the response
+     * @param localOperation the operation on the partition, should this member own the key meanwhile
+     * @param fields         the serialized key and values
+     */
+    private <T> T call(TClusterConnection owner, int operation, TClusterConnection.Decoder<T> decoder,
+                       Supplier<T> localOperation, byte[]... fields) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return TClusterConnection.await(owner.call(operation, out -> {
+                    out.writeUTF(cacheName);
+                    for (byte[] field : fields) {
+                        TClusterProtocol.writeBytes(out, field);
+                    }
+                }, decoder));
+            } catch (TClusterProtocol.MovedException e) {
+                learn(e, attempt);
+                owner = remoteOwner(fields[0]);
+                if (null == owner) {
+                    return localOperation.get();
+                }
+            }
+        }
+    }
+
+    /**
+     * Learns about the members told by a member that does not own a key of
+     * a request, before the request is sent again. If no member was new,
+     * the member did not learn about a change of the membership yet and is
+     * given some time to.
+     *
+     * @param moved   the answer of the member
+     * @param attempt the number of times the request was sent
+     * @throws TClusterProtocol.MovedException if the request was sent too often
+     */
+    private void learn(TClusterProtocol.MovedException moved, int attempt) {
+        TCluster cluster = cacheManager.getCluster();
+        if (attempt >= MAXIMUM_ATTEMPTS || null == cluster) {
+            throw moved;
+        }
+        if (!cluster.learn(moved.getMembers())) {
+            try {
+                Thread.sleep(RETRY_DELAY * attempt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CacheException("Interrupted while waiting for a cluster member", e);
+            }
+        }
+    }
+
+    private <T> CompletableFuture<T> call(TClusterConnection owner, int operation, Batch batch,
+                                          TClusterConnection.Decoder<T> decoder) {
+        return owner.call(operation, out -> {
+            out.writeUTF(cacheName);
+            batch.writeTo(out);
+        }, decoder);
+    }
+
+    /**
+     * Splits keys into those owned by this member and the batches of
+     * serialized keys for the other owners.
+     */
+    private Map<TClusterConnection, Batch> route(Set<? extends K> keys, Set<K> localKeys) {
+        Map<TClusterConnection, Batch> batches = new HashMap<>();
+        for (K key : keys) {
+            byte[] keyBytes = serializeKey(key);
+            TClusterConnection owner = remoteOwner(keyBytes);
+            if (null == owner) {
+                localKeys.add(key);
+            } else {
+                batches.computeIfAbsent(owner, o -> new Batch()).add(key, keyBytes, null, null);
+            }
+        }
+        return batches;
+    }
+
+    @Override
+    public V get(K key) {
+        ensureOpen();
+        byte[] keyBytes = serializeKey(key);
+        TClusterConnection owner = remoteOwner(keyBytes);
+        if (null == owner) {
+            return getOwned(key);
+        }
+        return call(owner, TClusterProtocol.GET, this::readValue, () -> getOwned(key), keyBytes);
+    }
+
+    @Override
+    public Map<K, V> getAll(Set<? extends K> keys) {
+        ensureOpen();
+        return getAll(keys, 1);
+    }
+
+    private Map<K, V> getAll(Set<? extends K> keys, int attempt) {
+        Set<K> localKeys = new HashSet<>();
+        Map<Batch, CompletableFuture<Map<K, V>>> futures = new HashMap<>();
+        for (Map.Entry<TClusterConnection, Batch> batch : route(keys, localKeys).entrySet()) {
+            futures.put(batch.getValue(), call(batch.getKey(), TClusterProtocol.GET_ALL, batch.getValue(),
+                    this::readEntries));
+        }
+        Map<K, V> result = localKeys.isEmpty() ? new HashMap<>() : getAllOwned(localKeys);
+        for (Map.Entry<Batch, CompletableFuture<Map<K, V>>> future : futures.entrySet()) {
+            try {
+                result.putAll(TClusterConnection.await(future.getValue()));
+            } catch (TClusterProtocol.MovedException e) {
+                learn(e, attempt);
+                result.putAll(getAll(future.getKey().entries.keySet(), attempt + 1));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean containsKey(K key) {
+        ensureOpen();
+        byte[] keyBytes = serializeKey(key);
+        TClusterConnection owner = remoteOwner(keyBytes);
+        if (null == owner) {
+            return containsOwnedKey(key);
+        }
+        return call(owner, TClusterProtocol.CONTAINS_KEY, DataInputStream::readBoolean,
+                () -> containsOwnedKey(key), keyBytes);
+    }
+
+    /**
+     * Gets the connection to the member that owned a key this member owns,
+     * while the entry may still be handed over to this member.
+     *
+     * @return the connection or null if the entries are handed over
+     */
+    private TClusterConnection previousOwner(K key) {
+        TCluster cluster = cacheManager.getCluster();
+        if (null == cluster || !cluster.isHandingOver()) {
+            return null;
+        }
+        InetSocketAddress previousOwner = cluster.previousOwner(TConsistentHashRing.hash(serializeKey(key)));
+        return null == previousOwner ? null : cluster.connection(previousOwner);
+    }
+
+    /**
+     * Gets the value of a key from the member that owned it.
+     *
+     * @return the value or null if the member does not have it or can not be reached
+     */
+    private V peek(TClusterConnection previousOwner, K key) {
+        try {
+            return TClusterConnection.await(previousOwner.call(TClusterProtocol.PEEK, out -> {
+                out.writeUTF(cacheName);
+                TClusterProtocol.writeBytes(out, serializeKey(key));
+            }, this::readValue));
+        } catch (CacheException e) {
+            LOGGER.log(Level.FINE, "Failed to read a key of cache " + cacheName + " from its previous owner", e);
+            return null;
+        }
+    }
+
+    /**
+     * Gets the value of a key this member owns. A key the partition misses
+     * is read from its previous owner while it may still be handed over,
+     * and from the partition again should it have arrived meanwhile, as the
+     * previous owner removes the entries it handed over.
+     */
+    private V getOwned(K key) {
+        TClusterConnection previousOwner = previousOwner(key);
+        if (null != previousOwner && !partition.containsKey(key)) {
+            V value = peek(previousOwner, key);
+            if (null != value) {
+                return value;
+            }
+        }
+        return partition.get(key);
+    }
+
+    private Map<K, V> getAllOwned(Set<K> keys) {
+        TCluster cluster = cacheManager.getCluster();
+        if (null == cluster || !cluster.isHandingOver()) {
+            return new HashMap<>(partition.getAll(keys));
+        }
+        Map<K, V> values = new HashMap<>();
+        for (K key : keys) {
+            V value = getOwned(key);
+            if (null != value) {
+                values.put(key, value);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Determines if this member, or the previous owner while the entry may
+     * still be handed over, has a key this member owns, see
+     * {@link #getOwned(Object)}.
+     */
+    private boolean containsOwnedKey(K key) {
+        if (partition.containsKey(key)) {
+            return true;
+        }
+        TClusterConnection previousOwner = previousOwner(key);
+        return null != previousOwner && (null != peek(previousOwner, key) || partition.containsKey(key));
+    }
+
+    /**
+     * Prepares the mutation of a key this member owns, while the entries
+     * may still be handed over to it: the entry of the previous owner is
+     * stored first, so that the mutation sees it, and the entry handed over
+     * later is dropped, so that it does not undo the mutation.
+     *
+     * @return the key
+     */
+    private K settle(K key) {
+        TCluster cluster = cacheManager.getCluster();
+        if (null == cluster || !cluster.isHandingOver()) {
+            if (!settledKeys.isEmpty()) {
+                settledKeys.clear();
+            }
+            return key;
+        }
+        if (!settledKeys.contains(key)) {
+            TClusterConnection previousOwner = previousOwner(key);
+            //the previous owner removes the entries once this member stored them
+            V value = null == previousOwner || partition.containsKey(key) ? null : peek(previousOwner, key);
+            //the previous owner no longer changes the value, a hand-over dropped from now on has the same
+            settledKeys.add(key);
+            if (null != value) {
+                partition.putIfAbsentWithoutWriter(key, value);
+            }
+        }
+        return key;
+    }
+
+    private <C extends Collection<K>> C settleAll(C keys) {
+        for (K key : keys) {
+            settle(key);
+        }
+        return keys;
+    }
+
+    /**
+     * Stores an entry handed over by its previous owner unless this member
+     * has the key, or mutated it meanwhile, see {@link #settle(Object)}.
+     */
+    private void storeHandedOver(K key, V value) {
+        TCluster cluster = cacheManager.getCluster();
+        if (null == cluster || !cluster.isHandingOver()) {
+            partition.putIfAbsentWithoutWriter(key, value);
+            return;
+        }
+        partition.putIfAbsentWithoutWriter(key, value, k -> !settledKeys.contains(k));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The keys are loaded by the loaders of their owners.
+     * </p>
+     */
+    @Override
+    public void loadAll(Set<? extends K> keys, boolean replaceExistingValues, CompletionListener completionListener) {
+        ensureOpen();
+        if (null == keys) {
+            throw new NullPointerException("keys");
+        }
+        Map<Batch, CompletableFuture<Void>> futures = new HashMap<>();
+        CompletionListenerFuture localLoad = startLoad(keys, replaceExistingValues, futures);
+        cacheManager.getLoaderExecutor().execute(() -> {
+            try {
+                awaitLoad(localLoad, futures, replaceExistingValues, 1);
+                if (null != completionListener) {
+                    completionListener.onCompletion();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | RuntimeException e) {
+                if (null != completionListener) {
+                    completionListener.onException(e instanceof ExecutionException ? (Exception) e.getCause() : e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts loading keys by their owners.
+     *
+     * @param futures the loads of the other owners, by the batches of their keys
+     * @return the load of the keys of this member
+     */
+    private CompletionListenerFuture startLoad(Set<? extends K> keys, boolean replaceExistingValues,
+                                               Map<Batch, CompletableFuture<Void>> futures) {
+        Set<K> localKeys = new HashSet<>();
+        for (Map.Entry<TClusterConnection, Batch> batch : route(keys, localKeys).entrySet()) {
+            futures.put(batch.getValue(), batch.getKey().call(TClusterProtocol.LOAD_ALL, out -> {
+                out.writeUTF(cacheName);
+                out.writeBoolean(replaceExistingValues);
+                batch.getValue().writeTo(out);
+            }, in -> null));
+        }
+        CompletionListenerFuture localLoad = new CompletionListenerFuture();
+        partition.loadAll(localKeys, replaceExistingValues, localLoad);
+        return localLoad;
+    }
+
+    private void awaitLoad(CompletionListenerFuture localLoad, Map<Batch, CompletableFuture<Void>> futures,
+                           boolean replaceExistingValues, int attempt)
+            throws InterruptedException, ExecutionException {
+        localLoad.get();
+        for (Map.Entry<Batch, CompletableFuture<Void>> future : futures.entrySet()) {
+            try {
+                TClusterConnection.await(future.getValue());
+            } catch (TClusterProtocol.MovedException e) {
+                learn(e, attempt);
+                Map<Batch, CompletableFuture<Void>> retries = new HashMap<>();
+                CompletionListenerFuture retriedLoad = startLoad(future.getKey().entries.keySet(),
+                        replaceExistingValues, retries);
+                awaitLoad(retriedLoad, retries, replaceExistingValues, attempt + 1);
+            }
+        }
+    }
+
+    @Override
+    public void put(K key, V value) {
+        ensureOpen();
+        byte[] keyBytes = serializeKey(key);
+        TClusterConnection owner = remoteOwner(keyBytes);
+        if (null == owner) {
+            partition.put(settle(key), value);
+        } else {
+            call(owner, TClusterProtocol.PUT, in -> null, () -> {
+                partition.put(settle(key), value);
+                return null;
+            }, keyBytes, serializeValue(value));
+        }
+    }
+
+    @Override
+    public V getAndPut(K key, V value) {
+        ensureOpen();
+        byte[] keyBytes = serializeKey(key);
+        TClusterConnection owner = remoteOwner(keyBytes);
+        if (null == owner) {
+            return partition.getAndPut(settle(key), value);
+        }
+        return call(owner, TClusterProtocol.GET_AND_PUT, this::readValue,
+                () -> partition.getAndPut(settle(key), value), keyBytes, serializeValue(value));
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> map) {
+        ensureOpen();
+        putAll(map, 1);
+    }
+
+    private void putAll(Map<? extends K, ? extends V> map, int attempt) {
+        Map<K, V> localEntries = new HashMap<>();
+        Map<TClusterConnection, Batch> batches = new HashMap<>();
+        for (Map.Entry<? extends K, ? extends V> entry : map.entrySet()) {
+            byte[] keyBytes = serializeKey(entry.getKey());
+            byte[] valueBytes = serializeValue(entry.getValue());
+            TClusterConnection owner = remoteOwner(keyBytes);
+            if (null == owner) {
+                localEntries.put(entry.getKey(), entry.getValue());
+            } else {
+                batches.computeIfAbsent(owner, o -> new Batch())
+                        .add(entry.getKey(), keyBytes, entry.getValue(), valueBytes);
+            }
+        }
+        Map<Batch, CompletableFuture<Void>> futures = new HashMap<>();
+        for (Map.Entry<TClusterConnection, Batch> batch : batches.entrySet()) {
+            futures.put(batch.getValue(), call(batch.getKey(), TClusterProtocol.PUT_ALL, batch.getValue(),
+                    in -> null));
+        }
+        if (!localEntries.isEmpty()) {
+            settleAll(localEntries.keySet());
+            partition.putAll(localEntries);
+        }
+        for (Map.Entry<Batch, CompletableFuture<Void>> future : futures.entrySet()) {
+            try {
+                TClusterConnection.await(future.getValue());
+            } catch (TClusterProtocol.MovedException e) {
+                learn(e, attempt);
+                putAll(future.getKey().entries, attempt + 1);
+            }
+        }
+    }
+
+    @Override
+    public boolean putIfAbsent(K key, V value) {
+        ensureOpen();
+        byte[] keyBytes = serializeKey(key);
+        TClusterConnection owner = remoteOwner(keyBytes);
+        if (null == owner) {
+            return partition.putIfAbsent(settle(key), value);
+        }
+        return call(owner, TClusterProtocol.PUT_IF_ABSENT, DataInputStream::readBoolean,
+                () -> partition.putIfAbsent(settle(key), value), keyBytes, serializeValue(value));
+    }
+
+    @Override
+    public boolean remove(K key) {
+        ensureOpen();
+        byte[] keyBytes = serializeKey(key);
+        TClusterConnection owner = remoteOwner(keyBytes);
+        if (null == owner) {
+            return partition.remove(settle(key));
+        }
+        return call(owner, TClusterProtocol.REMOVE, DataInputStream::readBoolean,
+                () -> partition.remove(settle(key)), keyBytes);
+    }
+
+    @Override
+    public boolean remove(K key, V oldValue) {
+        ensureOpen();
+        byte[] keyBytes = serializeKey(key);
+        TClusterConnection owner = remoteOwner(keyBytes);
+        if (null == owner) {
+            return partition.remove(settle(key), oldValue);
+        }
+        return call(owner, TClusterProtocol.REMOVE_IF_EQUAL, DataInputStream::readBoolean,
+                () -> partition.remove(settle(key), oldValue), keyBytes, serializeValue(oldValue));
+    }
+
+    @Override
+    public V getAndRemove(K key) {
+        ensureOpen();
+        byte[] keyBytes = serializeKey(key);
+        TClusterConnection owner = remoteOwner(keyBytes);
+        if (null == owner) {
+            return partition.getAndRemove(settle(key));
+        }
+        return call(owner, TClusterProtocol.GET_AND_REMOVE, this::readValue,
+                () -> partition.getAndRemove(settle(key)), keyBytes);
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        ensureOpen();
+        byte[] keyBytes = serializeKey(key);
+        TClusterConnection owner = remoteOwner(keyBytes);
+        if (null == owner) {
+            return partition.replace(settle(key), oldValue, newValue);
+        }
+        return call(owner, TClusterProtocol.REPLACE_IF_EQUAL, DataInputStream::readBoolean,
+                () -> partition.replace(settle(key), oldValue, newValue), keyBytes, serializeValue(oldValue),
+                serializeValue(newValue));
+    }
+
+    @Override
+    public boolean replace(K key, V value) {
+        ensureOpen();
+        byte[] keyBytes = serializeKey(key);
+        TClusterConnection owner = remoteOwner(keyBytes);
+        if (null == owner) {
+            return partition.replace(settle(key), value);
+        }
+        return call(owner, TClusterProtocol.REPLACE, DataInputStream::readBoolean,
+                () -> partition.replace(settle(key), value), keyBytes, serializeValue(value));
+    }
+
+    @Override
+    public V getAndReplace(K key, V value) {
+        ensureOpen();
+        byte[] keyBytes = serializeKey(key);
+        TClusterConnection owner = remoteOwner(keyBytes);
+        if (null == owner) {
+            return partition.getAndReplace(settle(key), value);
+        }
+        return call(owner, TClusterProtocol.GET_AND_REPLACE, this::readValue,
+                () -> partition.getAndReplace(settle(key), value), keyBytes, serializeValue(value));
+    }
+
+    @Override
+    public void removeAll(Set<? extends K> keys) {
+        ensureOpen();
+        removeAll(keys, 1);
+    }
+
+    private void removeAll(Set<? extends K> keys, int attempt) {
+        Set<K> localKeys = new HashSet<>();
+        Map<Batch, CompletableFuture<Void>> futures = new HashMap<>();
+        for (Map.Entry<TClusterConnection, Batch> batch : route(keys, localKeys).entrySet()) {
+            futures.put(batch.getValue(), call(batch.getKey(), TClusterProtocol.REMOVE_ALL, batch.getValue(),
+                    in -> null));
+        }
+        if (!localKeys.isEmpty()) {
+            partition.removeAll(settleAll(localKeys));
+        }
+        for (Map.Entry<Batch, CompletableFuture<Void>> future : futures.entrySet()) {
+            try {
+                TClusterConnection.await(future.getValue());
+            } catch (TClusterProtocol.MovedException e) {
+                learn(e, attempt);
+                removeAll(future.getKey().entries.keySet(), attempt + 1);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The entries of all members are removed.
+     * </p>
+     */
+    @Override
+    public void removeAll() {
+        ensureOpen();
+        broadcast(TClusterProtocol.REMOVE_EVERYTHING, partition::removeAll);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The entries of all members are cleared.
+     * </p>
+     */
+    @Override
+    public void clear() {
+        ensureOpen();
+        broadcast(TClusterProtocol.CLEAR, partition::clear);
+    }
+
+    private void broadcast(int operation, Runnable localOperation) {
+        TCluster cluster = cacheManager.getCluster();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        if (null != cluster) {
+            for (InetSocketAddress member : cluster.getMembers()) {
+                if (!cluster.isLocal(member)) {
+                    futures.add(cluster.connection(member).call(operation, out -> out.writeUTF(cacheName),
+                            in -> null));
+                }
+            }
+        }
+        localOperation.run();
+        for (CompletableFuture<Void> future : futures) {
+            TClusterConnection.await(future);
+        }
+    }
+
+    /**
+     * Handles a request of another member for the entries this member
+     * owns, on a worker of the {@link TClusterServer}. A request with a
+     * key another member owns is rejected before it is applied, the handed
+     * over entries and the peeked keys excepted: the former are stored and
+     * handed over again by the next rebalance if this member does not own
+     * them, the latter are read whoever owns them.
+     *
+     * @param operation the operation, see {@link TClusterProtocol}
+     * @param in        the payload of the request after the name of the cache
+     * @param out       the payload of the response
+     * @throws IOException if the payload can not be read or written
+     */
+    void handle(int operation, DataInputStream in, DataOutputStream out) throws IOException {
+        ensureOpen();
+        switch (operation) {
+            case TClusterProtocol.GET:
+                writeValue(out, getOwned(readOwnedKey(in)));
+                break;
+            case TClusterProtocol.GET_ALL:
+                Map<K, V> values = getAllOwned(readKeys(in));
+                out.writeInt(values.size());
+                for (Map.Entry<K, V> entry : values.entrySet()) {
+                    TClusterProtocol.writeBytes(out, TSerializers.toBytes(keySerializer, entry.getKey()));
+                    writeValue(out, entry.getValue());
+                }
+                break;
+            case TClusterProtocol.CONTAINS_KEY:
+                out.writeBoolean(containsOwnedKey(readOwnedKey(in)));
+                break;
+            case TClusterProtocol.PEEK:
+                TCachedValue<V> peeked = partition.peek(readKey(in));
+                writeValue(out, null == peeked ? null : peeked.getInternalValue());
+                break;
+            case TClusterProtocol.PUT:
+                partition.put(settle(readOwnedKey(in)), readValue(in));
+                break;
+            case TClusterProtocol.GET_AND_PUT:
+                writeValue(out, partition.getAndPut(settle(readOwnedKey(in)), readValue(in)));
+                break;
+            case TClusterProtocol.PUT_ALL:
+                Map<K, V> entries = readEntries(in, true);
+                settleAll(entries.keySet());
+                partition.putAll(entries);
+                break;
+            case TClusterProtocol.PUT_IF_ABSENT:
+                out.writeBoolean(partition.putIfAbsent(settle(readOwnedKey(in)), readValue(in)));
+                break;
+            case TClusterProtocol.REMOVE:
+                out.writeBoolean(partition.remove(settle(readOwnedKey(in))));
+                break;
+            case TClusterProtocol.REMOVE_IF_EQUAL:
+                out.writeBoolean(partition.remove(settle(readOwnedKey(in)), readValue(in)));
+                break;
+            case TClusterProtocol.GET_AND_REMOVE:
+                writeValue(out, partition.getAndRemove(settle(readOwnedKey(in))));
+                break;
+            case TClusterProtocol.REPLACE:
+                out.writeBoolean(partition.replace(settle(readOwnedKey(in)), readValue(in)));
+                break;
+            case TClusterProtocol.REPLACE_IF_EQUAL:
+                out.writeBoolean(partition.replace(settle(readOwnedKey(in)), readValue(in), readValue(in)));
+                break;
+            case TClusterProtocol.GET_AND_REPLACE:
+                writeValue(out, partition.getAndReplace(settle(readOwnedKey(in)), readValue(in)));
+                break;
+            case TClusterProtocol.REMOVE_ALL:
+                partition.removeAll(settleAll(readKeys(in)));
+                break;
+            case TClusterProtocol.REMOVE_EVERYTHING:
+                partition.removeAll();
+                break;
+            case TClusterProtocol.CLEAR:
+                partition.clear();
+                break;
+            case TClusterProtocol.LOAD_ALL:
+                boolean replaceExistingValues = in.readBoolean();
+                CompletionListenerFuture load = new CompletionListenerFuture();
+                partition.loadAll(readKeys(in), replaceExistingValues, load);
+                try {
+                    load.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CacheException(e);
+                } catch (ExecutionException e) {
+                    throw new CacheException(e.getCause());
+                }
+                break;
+            case TClusterProtocol.INVOKE:
+                K key = readOwnedKey(in);
+                writeResult(out, process(key, readInvocation(in)));
+                break;
+            case TClusterProtocol.INVOKE_ALL:
+                Object[] invocation = readInvocation(in);
+                Map<K, TEntryProcessorResult<Object>> results = partition.invokeAllWithResults(settleAll(readKeys(in)),
+                        processorOf(invocation), (Object[]) invocation[1]);
+                out.writeInt(results.size());
+                for (Map.Entry<K, TEntryProcessorResult<Object>> result : results.entrySet()) {
+                    TClusterProtocol.writeBytes(out, TSerializers.toBytes(keySerializer, result.getKey()));
+                    writeResult(out, result.getValue());
+                }
+                break;
+            case TClusterProtocol.HAND_OVER:
+                for (Map.Entry<K, V> entry : readEntries(in, false).entrySet()) {
+                    storeHandedOver(entry.getKey(), entry.getValue());
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+    }
+
+    /**
+     * Reads the key of a request.
+     *
+     * @throws TClusterProtocol.MovedException if another member owns the key
+     */
+    private K readOwnedKey(DataInputStream in) throws IOException {
+        byte[] bytes = TClusterProtocol.readBytes(in);
+        TCluster cluster = cacheManager.getCluster();
+        if (null != cluster) {
+            cluster.checkOwner(bytes);
+        }
+        return TSerializers.fromBytes(keySerializer, bytes);
+    }
+
+    private Set<K> readKeys(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        Set<K> keys = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            keys.add(readOwnedKey(in));
+        }
+        return keys;
+    }
+
+    private Map<K, V> readEntries(DataInputStream in) throws IOException {
+        return readEntries(in, false);
+    }
+
+    private Map<K, V> readEntries(DataInputStream in, boolean areKeysOwned) throws IOException {
+        int count = in.readInt();
+        Map<K, V> entries = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            entries.put(areKeysOwned ? readOwnedKey(in) : readKey(in), readValue(in));
+        }
+        return entries;
+    }
+
+    /**
+     * Hands the entries of the partition owned by other members over to
+     * them. The entries are removed from the partition whether the owners
+     * took them or not, so that this member does not serve them should it
+     * own them again. The owners keep the values written to them since they
+     * own the keys, which are newer than the handed over ones.
+     *
+     * @param cluster   the cluster of the manager
+     * @param ring      the ring of the owners
+     * @param isLeaving whether this member leaves, so that the partition is closed next
+     */
+    void handOver(TCluster cluster, TConsistentHashRing ring, boolean isLeaving) {
+        if (isClosed) {
+            return;
+        }
+        Map<InetSocketAddress, Batch> batches = new HashMap<>();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        List<K> movedKeys = new ArrayList<>();
+        for (Entry<K, V> entry : partition) {
+            byte[] keyBytes = TSerializers.toBytes(keySerializer, entry.getKey());
+            InetSocketAddress owner = ring.owner(TConsistentHashRing.hash(keyBytes));
+            if (null == owner || cluster.isLocal(owner)) {
+                continue;
+            }
+            Batch batch = batches.computeIfAbsent(owner, o -> new Batch());
+            batch.add(entry.getKey(), keyBytes, entry.getValue(),
+                    TSerializers.toBytes(valueSerializer, entry.getValue()));
+            movedKeys.add(entry.getKey());
+            if (batch.count == HAND_OVER_BATCH_SIZE) {
+                futures.add(call(cluster.connection(owner), TClusterProtocol.HAND_OVER, batch, in -> null));
+                batches.remove(owner);
+            }
+        }
+        for (Map.Entry<InetSocketAddress, Batch> batch : batches.entrySet()) {
+            futures.add(call(cluster.connection(batch.getKey()), TClusterProtocol.HAND_OVER, batch.getValue(),
+                    in -> null));
+        }
+        for (CompletableFuture<Void> future : futures) {
+            try {
+                TClusterConnection.await(future);
+            } catch (CacheException e) {
+                LOGGER.log(Level.WARNING, "Failed to hand over entries of cache " + cacheName, e);
+            }
+        }
+        if (!isLeaving) {
+            for (K key : movedKeys) {
+                partition.removeWithoutWriter(key);
+            }
+        }
+    }
+
+    @Override
+    public Configuration<K, V> getConfiguration() {
+        return partition.getConfiguration();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The processor runs on the owner of the key, as described by
+     * {@link TCache#invoke}.
+     * </p>
+     *
+     * @throws IllegalArgumentException if the processor is not {@link Serializable}
+     */
+    @Override
+    public <T> T invoke(K key, EntryProcessor<K, V, T> entryProcessor, Object... arguments) {
+        ensureOpen();
+        byte[] keyBytes = serializeKey(key);
+        byte[] invocation = serializeInvocation(entryProcessor, arguments);
+        TClusterConnection owner = remoteOwner(keyBytes);
+        if (null == owner) {
+            return partition.invoke(settle(key), entryProcessor, arguments);
+        }
+        TEntryProcessorResult<T> result = call(owner, TClusterProtocol.INVOKE, this::readResult,
+                () -> TEntryProcessorResult.success(partition.invoke(settle(key), entryProcessor, arguments)), keyBytes,
+                invocation);
+        return result.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The keys are processed by their owners, as described by
+     * {@link TCache#invokeAll}.
+     * </p>
+     *
+     * @throws IllegalArgumentException if the processor is not {@link Serializable}
+     */
+    @Override
+    public <T> Map<K, T> invokeAll(Set<? extends K> keys, EntryProcessor<K, V, T> entryProcessor,
+                                   Object... arguments) {
+        ensureOpen();
+        if (null == keys) {
+            throw new NullPointerException("keys");
+        }
+        byte[] invocation = serializeInvocation(entryProcessor, arguments);
+        return TEntryProcessorResult.getAll(invokeAll(keys, entryProcessor, arguments, invocation, 1));
+    }
+
+    private <T> Map<K, TEntryProcessorResult<T>> invokeAll(Set<? extends K> keys,
+                                                           EntryProcessor<K, V, T> entryProcessor,
+                                                           Object[] arguments, byte[] invocation, int attempt) {
+        Set<K> localKeys = new HashSet<>();
+        Map<Batch, CompletableFuture<Map<K, TEntryProcessorResult<T>>>> futures = new HashMap<>();
+        for (Map.Entry<TClusterConnection, Batch> batch : route(keys, localKeys).entrySet()) {
+            futures.put(batch.getValue(), batch.getKey().call(TClusterProtocol.INVOKE_ALL, out -> {
+                out.writeUTF(cacheName);
+                TClusterProtocol.writeBytes(out, invocation);
+                batch.getValue().writeTo(out);
+            }, this::readResults));
+        }
+        Map<K, TEntryProcessorResult<T>> results = localKeys.isEmpty() ? new HashMap<>()
+                : new HashMap<>(partition.invokeAllWithResults(settleAll(localKeys), entryProcessor, arguments));
+        for (Map.Entry<Batch, CompletableFuture<Map<K, TEntryProcessorResult<T>>>> future : futures.entrySet()) {
+            try {
+                results.putAll(TClusterConnection.await(future.getValue()));
+            } catch (TClusterProtocol.MovedException e) {
+                learn(e, attempt);
+                results.putAll(invokeAll(future.getKey().entries.keySet(), entryProcessor, arguments, invocation,
+                        attempt + 1));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Serializes a processor and its arguments to send them to the owners.
+     *
+     * @throws IllegalArgumentException if the processor is not {@link Serializable}
+     */
+    private static byte[] serializeInvocation(EntryProcessor<?, ?, ?> entryProcessor, Object[] arguments) {
+        if (null == entryProcessor) {
+            throw new NullPointerException("entryProcessor");
+        }
+        if (!(entryProcessor instanceof Serializable)) {
+            throw new IllegalArgumentException("The entry processors of a partitioned cache have to be serializable, "
+                    + entryProcessor.getClass() + " is not");
+        }
+        return TSerializers.toBytes(TSerializers.java(), new Object[]{entryProcessor, arguments});
+    }
+
+    /**
+     * Reads the processor and the arguments sent by another member.
+     */
+    private static Object[] readInvocation(DataInputStream in) throws IOException {
+        return TSerializers.fromBytes(TSerializers.java(), TClusterProtocol.readBytes(in));
+    }
+
+    @SuppressWarnings("unchecked")
+    private EntryProcessor<K, V, Object> processorOf(Object[] invocation) {
+        return (EntryProcessor<K, V, Object>) invocation[0];
+    }
+
+    /**
+     * Runs a processor sent by another member against a key this member
+     * owns.
+     *
+     * @param invocation the processor and the arguments
+     * @return the result or the failure of the processor
+     */
+    private TEntryProcessorResult<Object> process(K key, Object[] invocation) {
+        try {
+            return TEntryProcessorResult.success(partition.invoke(settle(key), processorOf(invocation),
+                    (Object[]) invocation[1]));
+        } catch (EntryProcessorException e) {
+            return TEntryProcessorResult.failure(e);
+        }
+    }
+
+    /**
+     * Writes the result of a processor, or its failure serialized with its
+     * causes and described by its cause should it not be serializable.
+     */
+    private static void writeResult(DataOutputStream out, TEntryProcessorResult<?> result) throws IOException {
+        Object value;
+        try {
+            value = result.get();
+        } catch (EntryProcessorException e) {
+            byte[] failure;
+            try {
+                failure = TSerializers.toBytes(TSerializers.java(), e);
+            } catch (CacheException notSerializable) {
+                failure = null;
+            }
+            out.writeBoolean(true);
+            TClusterProtocol.writeBytes(out, failure);
+            TClusterProtocol.writeFailure(out, null == e.getCause() ? e : e.getCause());
+            return;
+        }
+        out.writeBoolean(false);
+        TClusterProtocol.writeBytes(out, null == value ? null : TSerializers.toBytes(TSerializers.java(), value));
+    }
+
+    /**
+     * Reads the result of a processor written by
+     * {@link #writeResult(DataOutputStream, TEntryProcessorResult)}, so that
+     * a failure is thrown as the owner threw it.
+     */
+    private <T> TEntryProcessorResult<T> readResult(DataInputStream in) throws IOException {
+        if (in.readBoolean()) {
+            byte[] bytes = TClusterProtocol.readBytes(in);
+            String description = in.readUTF();
+            EntryProcessorException failure = null;
+            if (null != bytes) {
+                try {
+                    failure = TSerializers.fromBytes(TSerializers.java(), bytes);
+                } catch (CacheException e) {
+                    //a class of the failure is not known to this member
+                }
+            }
+            return TEntryProcessorResult.failure(null != failure ? failure : new EntryProcessorException(description));
+        }
+        byte[] bytes = TClusterProtocol.readBytes(in);
+        T result = null == bytes ? null : TSerializers.fromBytes(TSerializers.<T>java(), bytes);
+        return TEntryProcessorResult.success(result);
+    }
+
+    private <T> Map<K, TEntryProcessorResult<T>> readResults(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        Map<K, TEntryProcessorResult<T>> results = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            results.put(readKey(in), readResult(in));
+        }
+        return results;
+    }
+
+    @Override
+    public String getName() {
+        return cacheName;
+    }
+
+    @Override
+    public CacheManager getCacheManager() {
+        return cacheManager;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Closing is idempotent. The cache is released from its manager and its
+     * partition is closed; the entries are not handed over, the other
+     * members fail the requests for the cache.
+     * </p>
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (isClosed) {
+                return;
+            }
+            isClosed = true;
+        }
+        cacheManager.releaseCache(this);
+        partition.close();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return isClosed;
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> aClass) {
+        if (aClass.isAssignableFrom(getClass())) {
+            return aClass.cast(this);
+        }
+        throw new IllegalArgumentException("Unwapping to " + aClass + " is not a supported by this implementation");
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The listener is told about the events of the entries owned by this
+     * member.
+     * </p>
+     */
+    @Override
+    public void registerCacheEntryListener(CacheEntryListenerConfiguration<K, V> cacheEntryListenerConfiguration) {
+        partition.registerCacheEntryListener(cacheEntryListenerConfiguration);
+    }
+
+    @Override
+    public void deregisterCacheEntryListener(CacheEntryListenerConfiguration<K, V> cacheEntryListenerConfiguration) {
+        partition.deregisterCacheEntryListener(cacheEntryListenerConfiguration);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The iterator returns the entries owned by this member.
+     * </p>
+     */
+    @Override
+    public Iterator<Entry<K, V>> iterator() {
+        ensureOpen();
+        return partition.iterator();
+    }
+
+    /**
+     * Gets the statistics of the partition, which count the operations on
+     * the keys owned by this member, those sent by other members included.
+     *
+     * @return the statistics MBean
+     */
+    public CacheStatisticsMXBean getStatistics() {
+        return partition.getStatistics();
+    }
+
+    /**
+     * Serialized keys, or entries, for an owner, written as they are
+     * added. The entries are kept to send them again should the member
+     * not own them.
+     */
+    private final class Batch {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        /**
+         * The entries, or the keys mapped to null.
+         */
+        final Map<K, V> entries = new HashMap<>();
+
+        int count;
+
+        void add(K key, byte[] keyBytes, V value, byte[] valueBytes) {
+            entries.put(key, value);
+            try {
+                TClusterProtocol.writeBytes(out, keyBytes);
+                if (null != valueBytes) {
+                    TClusterProtocol.writeBytes(out, valueBytes);
+                }
+            } catch (IOException e) {
+                //a byte array stream does not fail
+                throw new UncheckedIOException(e);
+            }
+            count++;
+        }
+
+        void writeTo(DataOutputStream target) throws IOException {
+            target.writeInt(count);
+            bytes.writeTo(target);
+        }
+    }
+}
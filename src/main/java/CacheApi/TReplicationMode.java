@@ -0,0 +1,35 @@
+package CacheApi;
+
+/**
+ * What the {@link TCache}s of the managers linked by
+ * {@link TCacheManager#enableReplication(TReplicationTransport)} tell each
+ * other about their mutations, so that a cache does not keep serving a
+ * value another manager has changed.
+ * @author Kozlov Ivan
+ * @see TCacheConfiguration#setReplicationMode(TReplicationMode)
+ */
+public enum TReplicationMode {
+
+    /**
+     * The mutations are neither published nor applied.
+     */
+    NONE,
+
+    /**
+     * A mutation removes the key from the caches of the same name of the
+     * other managers, which load or receive the new value on their next
+     * access. Only the keys are sent.
+     */
+    INVALIDATE,
+
+    /**
+     * A mutation puts the new value into the caches of the same name of the
+     * other managers. The keys and the values are sent; a cache in the
+     * {@link #INVALIDATE} mode receiving an update removes the key. The
+     * last writer wins: the mutations are stamped by the time of their
+     * manager, and a manager discards a received mutation older than the
+     * last mutation of its key, so that managers changing a key
+     * concurrently end up with the same value.
+     */
+    UPDATE
+}
@@ -0,0 +1,116 @@
+package CacheApi;
+
+/**
+ * The replication of a {@link TCacheManager} up to a point in time, see
+ * {@link TCacheManager#getReplicationStatistics()}.
+ * <p>
+ * The lag of a batch is the time from its send until it was applied by
+ * this manager, measured by the wall clocks of the sender
+ * and the receiver, which are the same clock for the processes of a host.
+ * </p>
+ * @author Kozlov Ivan
+ */
+public final class TReplicationStatistics {
+
+    private final long sentMessageCount;
+
+    private final long sentBatchCount;
+
+    private final long appliedMessageCount;
+
+    private final long discardedMessageCount;
+
+    private final long receivedBatchCount;
+
+    private final long lostCount;
+
+    private final TLatencySnapshot lag;
+
+    /**
+     * Constructs the statistics.
+     *
+     * @param sentMessageCount      the number of messages sent
+     * @param sentBatchCount        the number of batches sent
+     * @param appliedMessageCount   the number of messages applied
+     * @param discardedMessageCount the number of messages discarded as older than the last mutation of their key
+     * @param receivedBatchCount    the number of batches received
+     * @param lostCount             the number of times batches were lost
+     * @param lag                   the lag of the applied batches
+     */
+    TReplicationStatistics(long sentMessageCount, long sentBatchCount, long appliedMessageCount,
+                           long discardedMessageCount, long receivedBatchCount, long lostCount,
+                           TLatencySnapshot lag) {
+        this.sentMessageCount = sentMessageCount;
+        this.sentBatchCount = sentBatchCount;
+        this.appliedMessageCount = appliedMessageCount;
+        this.discardedMessageCount = discardedMessageCount;
+        this.receivedBatchCount = receivedBatchCount;
+        this.lostCount = lostCount;
+        this.lag = lag;
+    }
+
+    /**
+     * Gets the number of messages sent, after the mutations of a key in a
+     * batch were merged into one.
+     *
+     * @return the count
+     */
+    public long getSentMessageCount() {
+        return sentMessageCount;
+    }
+
+    public long getSentBatchCount() {
+        return sentBatchCount;
+    }
+
+    /**
+     * Gets the number of messages received and applied to a cache.
+     *
+     * @return the count
+     */
+    public long getAppliedMessageCount() {
+        return appliedMessageCount;
+    }
+
+    /**
+     * Gets the number of messages received and discarded, as a later
+     * mutation of their key was made, by this manager or another one.
+     *
+     * @return the count
+     */
+    public long getDiscardedMessageCount() {
+        return discardedMessageCount;
+    }
+
+    public long getReceivedBatchCount() {
+        return receivedBatchCount;
+    }
+
+    /**
+     * Gets the number of times the replicated caches were cleared because
+     * messages for them were lost, on the way or by an overflow of the
+     * queue of a sender.
+     *
+     * @return the count
+     */
+    public long getLostCount() {
+        return lostCount;
+    }
+
+    /**
+     * Gets the lag of the applied batches.
+     *
+     * @return the lag in nanoseconds
+     */
+    public TLatencySnapshot getLag() {
+        return lag;
+    }
+
+    @Override
+    public String toString() {
+        return "sent " + sentMessageCount + " messages in " + sentBatchCount + " batches, applied "
+                + appliedMessageCount + " and discarded " + discardedMessageCount + " messages of "
+                + receivedBatchCount + " batches, lost "
+                + lostCount + " times, lag " + lag;
+    }
+}
@@ -0,0 +1,64 @@
+package CacheApi;
+
+import java.io.IOException;
+
+/**
+ * Carries the batches of replication messages between the
+ * {@link TCacheManager}s linked by
+ * {@link TCacheManager#enableReplication(TReplicationTransport)}, usually
+ * one per process of a host.
+ * <p>
+ * A transport delivers the batches of a peer in the order they were sent.
+ * It may lose batches, for example while a peer is unreachable, but then
+ * it has to tell the receiver of the peer by {@link Receiver#lost()} before
+ * delivering the next batch, so that the receiver drops the entries the
+ * lost batches may have changed. {@link TSocketTransport} sends over TCP on
+ * the loopback interface.
+ * </p>
+ * @author Kozlov Ivan
+ */
+public interface TReplicationTransport {
+
+    /**
+     * Starts receiving the batches sent by the peers.
+     *
+     * @param receiver the receiver of the batches, called by the threads of
+     *                 the transport
+     * @throws IOException if the transport can not be started
+     */
+    void start(Receiver receiver) throws IOException;
+
+    /**
+     * Sends a batch to every peer. Called by a single thread. A peer that
+     * can not be reached is skipped, its receiver is told about the lost
+     * batch once the peer is reached again.
+     *
+     * @param batch  the array holding the batch
+     * @param length the length of the batch
+     */
+    void send(byte[] batch, int length);
+
+    /**
+     * Stops sending and receiving and releases the resources of the
+     * transport.
+     */
+    void close();
+
+    /**
+     * Receives the batches of the peers.
+     */
+    interface Receiver {
+
+        /**
+         * Receives a batch.
+         *
+         * @param batch the batch, owned by the receiver
+         */
+        void receive(byte[] batch);
+
+        /**
+         * Tells that batches of a peer were lost.
+         */
+        void lost();
+    }
+}
@@ -0,0 +1,583 @@
+package CacheApi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Publishes the mutations of the replicated {@link TCache}s of a manager to
+ * the other managers over a {@link TReplicationTransport} and applies
+ * theirs.
+ * <p>
+ * The caches publish their mutations while the mapping of the key is
+ * locked, so that the messages of a key are queued in the order of its
+ * mutations. A sender thread takes the queued messages in batches, all
+ * that were queued while the previous batch was sent up to a maximum,
+ * merges the mutations of a key into the last one and sends the batch. An
+ * applier thread applies the received batches in the order they arrived;
+ * the mutations it makes are not published again.
+ * </p>
+ * <p>
+ * The keys and values are serialized like in the snapshots of the caches.
+ * A batch is laid out as
+ * </p>
+ * <pre>
+ * batch:   | sender | send time | flags | cache count | caches ...
+ *          | 8      | 8         | 1     | 4           |
+ * cache:   | name | cleared | message count | messages ...
+ * message: | operation | stamp | key length | key | value length | value
+ *          | 1         | 8     | 4          |     | 4            |
+ * </pre>
+ * with the value present for a put only. If the queue of the sender
+ * overflows or a batch can not be sent, messages are lost: the next batch
+ * is flagged so that its receivers clear their replicated caches, which
+ * then reload the values instead of serving stale ones.
+ * <p>
+ * The last writer wins: every mutation of a key is stamped with the time
+ * of a hybrid logical clock, in microseconds, and the sender as a tie
+ * breaker. A manager keeps the stamp of the last mutation of every
+ * recently mutated key, made by itself or applied, and discards the
+ * mutations that arrive with an older stamp, so that managers putting a
+ * key concurrently converge on the same value. The clock of a manager
+ * runs ahead of the stamps it applies, so that a mutation following one it
+ * received wins over it. The stamps are kept for {@link #STAMP_RETENTION};
+ * a mutation delayed for longer is applied whatever its stamp. The
+ * clearing of a cache is not stamped, it is applied as it arrives.
+ * </p>
+ * @author Kozlov Ivan
+ */
+class TReplicator implements TReplicationTransport.Receiver {
+
+    private static final Logger LOGGER = Logger.getLogger("javax.cache");
+
+    private static final int PUT = 1;
+
+    private static final int REMOVE = 2;
+
+    private static final int CLEAR = 3;
+
+    /**
+     * The flag of a batch sent after messages were lost.
+     */
+    private static final int LOST = 1;
+
+    /**
+     * The maximum number of messages waiting for the sender.
+     */
+    private static final int QUEUE_CAPACITY = 1 << 16;
+
+    /**
+     * The maximum number of received batches waiting for the applier; the
+     * threads of the transport wait while it is reached.
+     */
+    private static final int RECEIVE_QUEUE_CAPACITY = 1024;
+
+    private static final int MAXIMUM_BATCH_SIZE = 1024;
+
+    /**
+     * Marks the loss of batches among the received batches.
+     */
+    private static final byte[] LOST_BATCHES = new byte[0];
+
+    /**
+     * How long the stamp of the last mutation of a key is kept, in
+     * microseconds.
+     */
+    private static final long STAMP_RETENTION = TimeUnit.MINUTES.toMicros(1);
+
+    /**
+     * How often the sender drops the stamps past their retention, in
+     * microseconds.
+     */
+    private static final long PRUNE_PERIOD = TimeUnit.SECONDS.toMicros(1);
+
+    private final TCacheManager cacheManager;
+
+    private final TReplicationTransport transport;
+
+    /**
+     * Identifies the batches of this replicator, so that it ignores them
+     * should a transport deliver them back.
+     */
+    private final long id = ThreadLocalRandom.current().nextLong();
+
+    private final BlockingQueue<Message> outbound = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    private final BlockingQueue<byte[]> inbound = new ArrayBlockingQueue<>(RECEIVE_QUEUE_CAPACITY);
+
+    /**
+     * The stamps of the last mutations of the recently mutated keys, per
+     * cache. The stamp of a key is changed while the mapping of the key is
+     * locked.
+     */
+    private final ConcurrentHashMap<TCache<?, ?>, ConcurrentHashMap<Object, Stamp>> stamps =
+            new ConcurrentHashMap<>();
+
+    /**
+     * The hybrid logical clock stamping the mutations: the wall clock time
+     * in microseconds, unless a previous or applied stamp was later.
+     */
+    private final AtomicLong clock = new AtomicLong();
+
+    /**
+     * The time the stamps were last pruned, used by the sender only.
+     */
+    private long pruneTime;
+
+    private final Thread sender;
+
+    private final Thread applier;
+
+    /**
+     * Whether messages were lost since the last batch was sent.
+     */
+    private final AtomicBoolean isLost = new AtomicBoolean();
+
+    private volatile boolean isClosed;
+
+    private final LongAdder sentMessageCount = new LongAdder();
+
+    private final LongAdder sentBatchCount = new LongAdder();
+
+    private final LongAdder appliedMessageCount = new LongAdder();
+
+    private final LongAdder discardedMessageCount = new LongAdder();
+
+    private final LongAdder receivedBatchCount = new LongAdder();
+
+    private final LongAdder lostCount = new LongAdder();
+
+    private final TLatencyHistogram lag = new TLatencyHistogram();
+
+    /**
+     * Constructs a replicator.
+     *
+     * @param cacheManager the manager of the replicated caches
+     * @param transport    the transport to the other managers
+     */
+    TReplicator(TCacheManager cacheManager, TReplicationTransport transport) {
+        this.cacheManager = cacheManager;
+        this.transport = transport;
+        this.sender = new Thread(this::send, "TCacheManager-replication-sender");
+        sender.setDaemon(true);
+        this.applier = new Thread(this::apply, "TCacheManager-replication-applier");
+        applier.setDaemon(true);
+    }
+
+    /**
+     * Starts the transport and the threads.
+     *
+     * @throws IOException if the transport can not be started
+     */
+    void start() throws IOException {
+        transport.start(this);
+        sender.start();
+        applier.start();
+    }
+
+    /**
+     * Publishes the put of a value.
+     * Has to be called while the mapping of the key is locked
+     *
+     * @param cache the cache
+     * @param key   the key
+     * @param value the new value
+     */
+    void publishPut(TCache<?, ?> cache, Object key, Object value) {
+        publish(cache, PUT, key, value);
+    }
+
+    /**
+     * Publishes the removal of a key, or a put that is replicated as an
+     * invalidation.
+     * Has to be called while the mapping of the key is locked
+     *
+     * @param cache the cache
+     * @param key   the key
+     */
+    void publishRemove(TCache<?, ?> cache, Object key) {
+        publish(cache, REMOVE, key, null);
+    }
+
+    /**
+     * Publishes the clearing of a cache.
+     *
+     * @param cache the cache
+     */
+    void publishClear(TCache<?, ?> cache) {
+        publish(cache, CLEAR, null, null);
+    }
+
+    private void publish(TCache<?, ?> cache, int operation, Object key, Object value) {
+        if (isClosed || Thread.currentThread() == applier) {
+            return;
+        }
+        long now = currentTimeMicros();
+        long stamp = clock.updateAndGet(last -> Math.max(now, last + 1));
+        if (operation != CLEAR) {
+            stampsOf(cache).put(key, new Stamp(stamp, id));
+        }
+        if (!outbound.offer(new Message(cache, operation, key, value, stamp))) {
+            isLost.set(true);
+        }
+    }
+
+    private ConcurrentHashMap<Object, Stamp> stampsOf(TCache<?, ?> cache) {
+        ConcurrentHashMap<Object, Stamp> cacheStamps = stamps.get(cache);
+        return null != cacheStamps ? cacheStamps : stamps.computeIfAbsent(cache, c -> new ConcurrentHashMap<>());
+    }
+
+    private void send() {
+        List<Message> messages = new ArrayList<>(MAXIMUM_BATCH_SIZE);
+        BatchBuffer buffer = new BatchBuffer();
+        while (!isClosed || !outbound.isEmpty()) {
+            try {
+                Message first = outbound.poll(100, TimeUnit.MILLISECONDS);
+                pruneStamps();
+                boolean isBatchLost = isLost.getAndSet(false);
+                if (null == first && !isBatchLost) {
+                    continue;
+                }
+                if (null != first) {
+                    messages.add(first);
+                    outbound.drainTo(messages, MAXIMUM_BATCH_SIZE - 1);
+                }
+                buffer.reset();
+                int count = encode(messages, isBatchLost, new DataOutputStream(buffer));
+                transport.send(buffer.array(), buffer.size());
+                sentBatchCount.increment();
+                sentMessageCount.add(count);
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Failed to send a replication batch", e);
+                isLost.set(true);
+            } finally {
+                messages.clear();
+            }
+        }
+    }
+
+    /**
+     * Drops the stamps past their retention and those of the closed caches,
+     * once per {@link #PRUNE_PERIOD}.
+     */
+    private void pruneStamps() {
+        long now = currentTimeMicros();
+        if (now - pruneTime < PRUNE_PERIOD) {
+            return;
+        }
+        pruneTime = now;
+        long limit = Math.max(now, clock.get()) - STAMP_RETENTION;
+        for (Map.Entry<TCache<?, ?>, ConcurrentHashMap<Object, Stamp>> entry : stamps.entrySet()) {
+            if (entry.getKey().isClosed()) {
+                stamps.remove(entry.getKey(), entry.getValue());
+            } else {
+                //a stamp replaced meanwhile is kept
+                entry.getValue().values().removeIf(stamp -> stamp.time < limit);
+            }
+        }
+    }
+
+    /**
+     * Encodes a batch, merging the messages of a key into the last one.
+     *
+     * @return the number of messages encoded
+     */
+    private int encode(List<Message> messages, boolean isBatchLost, DataOutputStream out) throws IOException {
+        Map<TCache<?, ?>, Group> groups = new IdentityHashMap<>();
+        List<Group> orderedGroups = new ArrayList<>();
+        for (Message message : messages) {
+            Group group = groups.get(message.cache);
+            if (null == group) {
+                group = new Group(message.cache);
+                groups.put(message.cache, group);
+                orderedGroups.add(group);
+            }
+            if (message.operation == CLEAR) {
+                group.isCleared = true;
+                group.messages.clear();
+            } else {
+                group.messages.put(message.key, message);
+            }
+        }
+        out.writeLong(id);
+        out.writeLong(currentTimeMicros());
+        out.writeByte(isBatchLost ? LOST : 0);
+        out.writeInt(orderedGroups.size());
+        int count = 0;
+        for (Group group : orderedGroups) {
+            out.writeUTF(group.cache.getName());
+            out.writeBoolean(group.isCleared);
+            out.writeInt(group.messages.size());
+            for (Message message : group.messages.values()) {
+                out.writeByte(message.operation);
+                out.writeLong(message.stamp);
+                write(out, group.cache.getSnapshotKeySerializer(), message.key);
+                if (message.operation == PUT) {
+                    write(out, group.cache.getSnapshotValueSerializer(), message.value);
+                }
+            }
+            count += group.messages.size() + (group.isCleared ? 1 : 0);
+        }
+        out.flush();
+        return count;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void write(DataOutputStream out, TSerializer<T> serializer, Object value) throws IOException {
+        byte[] bytes = TSerializers.toBytes(serializer, (T) value);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    @Override
+    public void receive(byte[] batch) {
+        enqueue(batch);
+    }
+
+    @Override
+    public void lost() {
+        enqueue(LOST_BATCHES);
+    }
+
+    private void enqueue(byte[] batch) {
+        try {
+            inbound.put(batch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void apply() {
+        while (!isClosed) {
+            byte[] batch;
+            try {
+                batch = inbound.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (batch == LOST_BATCHES) {
+                clearReplicatedCaches();
+                continue;
+            }
+            try {
+                apply(batch);
+            } catch (IOException | RuntimeException e) {
+                //the batch may be applied in part, the caches may be stale
+                LOGGER.log(Level.WARNING, "Failed to apply a replication batch", e);
+                clearReplicatedCaches();
+            }
+        }
+    }
+
+    private void apply(byte[] batch) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(batch));
+        long origin = in.readLong();
+        if (origin == id) {
+            return;
+        }
+        long sendTime = in.readLong();
+        int flags = in.readByte();
+        receivedBatchCount.increment();
+        if ((flags & LOST) != 0) {
+            clearReplicatedCaches();
+        }
+        int groupCount = in.readInt();
+        for (int g = 0; g < groupCount; g++) {
+            String name = in.readUTF();
+            boolean isCleared = in.readBoolean();
+            int count = in.readInt();
+            TCache<?, ?> cache = cacheManager.getReplicatedCache(name);
+            if (null != cache && isCleared) {
+                cache.applyReplicatedClear();
+                appliedMessageCount.increment();
+            }
+            for (int i = 0; i < count; i++) {
+                int operation = in.readByte();
+                long stamp = in.readLong();
+                byte[] key = read(in);
+                byte[] value = operation == PUT ? read(in) : null;
+                //the mutations made after this one are stamped later
+                clock.accumulateAndGet(stamp, Math::max);
+                if (null != cache) {
+                    apply(cache, key, value, new Stamp(stamp, origin));
+                }
+            }
+        }
+        lag.record(TimeUnit.MICROSECONDS.toNanos(currentTimeMicros() - sendTime));
+    }
+
+    private <K, V> void apply(TCache<K, V> cache, byte[] key, byte[] value, Stamp stamp) {
+        K k = TSerializers.fromBytes(cache.getSnapshotKeySerializer(), key);
+        ConcurrentHashMap<Object, Stamp> cacheStamps = stampsOf(cache);
+        Predicate<Object> isAccepted = mutatedKey -> accept(cacheStamps, mutatedKey, stamp);
+        if (null != value && cache.getReplicationMode() == TReplicationMode.UPDATE) {
+            cache.applyReplicatedPut(k, TSerializers.fromBytes(cache.getSnapshotValueSerializer(), value), isAccepted);
+        } else {
+            cache.applyReplicatedRemove(k, isAccepted);
+        }
+    }
+
+    /**
+     * Decides if a replicated mutation is applied: unless the last
+     * mutation of its key has a later stamp, the mutation takes its place.
+     * Called while the mapping of the key is locked.
+     */
+    private boolean accept(ConcurrentHashMap<Object, Stamp> cacheStamps, Object key, Stamp stamp) {
+        Stamp last = cacheStamps.get(key);
+        if (null != last && last.isAfter(stamp)) {
+            discardedMessageCount.increment();
+            return false;
+        }
+        cacheStamps.put(key, stamp);
+        appliedMessageCount.increment();
+        return true;
+    }
+
+    private static byte[] read(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private void clearReplicatedCaches() {
+        lostCount.increment();
+        for (TCache<?, ?> cache : cacheManager.getReplicatedCaches()) {
+            try {
+                cache.applyReplicatedClear();
+            } catch (IllegalStateException e) {
+                //the cache was closed meanwhile
+            }
+        }
+    }
+
+    /**
+     * Gets the wall clock time in microseconds, the precision of the
+     * system clock permitting, to measure the lag between processes.
+     */
+    private static long currentTimeMicros() {
+        Instant now = Instant.now();
+        return TimeUnit.SECONDS.toMicros(now.getEpochSecond()) + TimeUnit.NANOSECONDS.toMicros(now.getNano());
+    }
+
+    /**
+     * Copies the statistics of the replication.
+     *
+     * @return the statistics
+     */
+    TReplicationStatistics getStatistics() {
+        return new TReplicationStatistics(sentMessageCount.sum(), sentBatchCount.sum(), appliedMessageCount.sum(),
+                discardedMessageCount.sum(), receivedBatchCount.sum(), lostCount.sum(), lag.snapshot());
+    }
+
+    /**
+     * Sends the queued messages, stops the threads and closes the transport.
+     */
+    void close() {
+        isClosed = true;
+        try {
+            sender.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sender.interrupt();
+        applier.interrupt();
+        transport.close();
+    }
+
+    /**
+     * A mutation of a cache.
+     */
+    private static final class Message {
+
+        final TCache<?, ?> cache;
+
+        final int operation;
+
+        final Object key;
+
+        final Object value;
+
+        final long stamp;
+
+        Message(TCache<?, ?> cache, int operation, Object key, Object value, long stamp) {
+            this.cache = cache;
+            this.operation = operation;
+            this.key = key;
+            this.value = value;
+            this.stamp = stamp;
+        }
+    }
+
+    /**
+     * The stamp of a mutation of a key.
+     */
+    private static final class Stamp {
+
+        /**
+         * The time of the hybrid logical clock of the sender.
+         */
+        final long time;
+
+        /**
+         * The replicator of the sender, breaking the ties of the times.
+         */
+        final long origin;
+
+        Stamp(long time, long origin) {
+            this.time = time;
+            this.origin = origin;
+        }
+
+        boolean isAfter(Stamp other) {
+            return time > other.time || time == other.time && origin > other.origin;
+        }
+    }
+
+    /**
+     * The messages of a batch for a cache, the last one per key.
+     */
+    private static final class Group {
+
+        final TCache<?, ?> cache;
+
+        final LinkedHashMap<Object, Message> messages = new LinkedHashMap<>();
+
+        boolean isCleared;
+
+        Group(TCache<?, ?> cache) {
+            this.cache = cache;
+        }
+    }
+
+    /**
+     * A byte array stream exposing its array, so that a batch is sent
+     * without copying it.
+     */
+    private static final class BatchBuffer extends ByteArrayOutputStream {
+
+        byte[] array() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package CacheApi;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A growable byte buffer the {@link TSerializer}s write to and read from.
+ * <p>
+ * Every thread has one buffer for writing and one for reading, which are
+ * reused by all caches. For reading, the buffer is pointed at the stored
+ * bytes instead of copying them.
+ * </p>
+ * Not thread-safe class.
+ * @author Kozlov Ivan
+ */
+public final class TSerializationBuffer {
+
+    private static final ThreadLocal<TSerializationBuffer> WRITE_BUFFERS =
+            ThreadLocal.withInitial(TSerializationBuffer::new);
+
+    private static final ThreadLocal<TSerializationBuffer> READ_BUFFERS =
+            ThreadLocal.withInitial(TSerializationBuffer::new);
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    /**
+     * The buffers grown over this capacity are shrunk when they are reused,
+     * so that a single large value does not pin memory of every thread.
+     */
+    private static final int RETAINED_CAPACITY = 1 << 16;
+
+    private byte[] array;
+
+    /**
+     * The array owned by the buffer, as opposed to the stored bytes the
+     * buffer may be pointed at for reading.
+     */
+    private byte[] ownArray;
+
+    private int length;
+
+    private int position;
+
+    private TSerializationBuffer() {
+        this.ownArray = new byte[INITIAL_CAPACITY];
+        this.array = ownArray;
+    }
+
+    /**
+     * Gets the empty write buffer of the current thread.
+     *
+     * @return the write buffer
+     */
+    static TSerializationBuffer forWriting() {
+        TSerializationBuffer buffer = WRITE_BUFFERS.get();
+        if (buffer.ownArray.length > RETAINED_CAPACITY) {
+            buffer.ownArray = new byte[INITIAL_CAPACITY];
+        }
+        buffer.array = buffer.ownArray;
+        buffer.length = 0;
+        buffer.position = 0;
+        return buffer;
+    }
+
+    /**
+     * Gets the read buffer of the current thread, positioned at the start
+     * of the given bytes.
+     *
+     * @param bytes  the bytes to read, not copied
+     * @param length the number of bytes to read
+     * @return the read buffer
+     */
+    static TSerializationBuffer forReading(byte[] bytes, int length) {
+        TSerializationBuffer buffer = READ_BUFFERS.get();
+        buffer.array = bytes;
+        buffer.length = length;
+        buffer.position = 0;
+        return buffer;
+    }
+
+    /**
+     * Gets the read buffer of the current thread with room for the given
+     * number of bytes, to be filled through {@link #array()}.
+     *
+     * @param length the number of bytes to read
+     * @return the read buffer
+     */
+    static TSerializationBuffer forReading(int length) {
+        TSerializationBuffer buffer = READ_BUFFERS.get();
+        if (buffer.ownArray.length < length || buffer.ownArray.length > RETAINED_CAPACITY) {
+            buffer.ownArray = new byte[Math.max(length, INITIAL_CAPACITY)];
+        }
+        buffer.array = buffer.ownArray;
+        buffer.length = length;
+        buffer.position = 0;
+        return buffer;
+    }
+
+    /**
+     * Gets the backing array, valid up to {@link #length()}.
+     *
+     * @return the backing array
+     */
+    public byte[] array() {
+        return array;
+    }
+
+    /**
+     * Gets the number of bytes written.
+     *
+     * @return the length
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Gets the number of bytes left to read.
+     *
+     * @return the remaining bytes
+     */
+    public int remaining() {
+        return length - position;
+    }
+
+    /**
+     * Copies the written bytes.
+     *
+     * @return a new array of {@link #length()} bytes
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(array, length);
+    }
+
+    public void writeByte(int value) {
+        ensureCapacity(1);
+        array[length++] = (byte) value;
+    }
+
+    public void writeShort(int value) {
+        ensureCapacity(2);
+        array[length++] = (byte) (value >>> 8);
+        array[length++] = (byte) value;
+    }
+
+    public void writeInt(int value) {
+        ensureCapacity(4);
+        array[length++] = (byte) (value >>> 24);
+        array[length++] = (byte) (value >>> 16);
+        array[length++] = (byte) (value >>> 8);
+        array[length++] = (byte) value;
+    }
+
+    public void writeLong(long value) {
+        writeInt((int) (value >>> 32));
+        writeInt((int) value);
+    }
+
+    public void writeBytes(byte[] bytes, int offset, int count) {
+        ensureCapacity(count);
+        System.arraycopy(bytes, offset, array, length, count);
+        length += count;
+    }
+
+    public int readByte() {
+        checkRemaining(1);
+        return array[position++];
+    }
+
+    public int readShort() {
+        checkRemaining(2);
+        return (short) (((array[position++] & 0xff) << 8) | (array[position++] & 0xff));
+    }
+
+    public int readInt() {
+        checkRemaining(4);
+        return ((array[position++] & 0xff) << 24)
+                | ((array[position++] & 0xff) << 16)
+                | ((array[position++] & 0xff) << 8)
+                | (array[position++] & 0xff);
+    }
+
+    public long readLong() {
+        return ((long) readInt() << 32) | (readInt() & 0xffffffffL);
+    }
+
+    public void readBytes(byte[] bytes, int offset, int count) {
+        checkRemaining(count);
+        System.arraycopy(array, position, bytes, offset, count);
+        position += count;
+    }
+
+    /**
+     * Gets the read position, to read directly from {@link #array()}.
+     *
+     * @return the read position
+     */
+    public int position() {
+        return position;
+    }
+
+    /**
+     * Skips bytes read directly from {@link #array()}.
+     *
+     * @param count the number of bytes read
+     */
+    public void skip(int count) {
+        checkRemaining(count);
+        position += count;
+    }
+
+    /**
+     * Makes room for the given number of bytes to be written.
+     *
+     * @param count the number of bytes
+     */
+    public void ensureCapacity(int count) {
+        if (length + count > array.length) {
+            array = Arrays.copyOf(array, Math.max(array.length * 2, length + count));
+            ownArray = array;
+        }
+    }
+
+    /**
+     * Views the buffer as an {@link OutputStream} appending to it.
+     *
+     * @return the stream
+     */
+    OutputStream asOutputStream() {
+        return new OutputStream() {
+            @Override
+            public void write(int value) {
+                writeByte(value);
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int count) {
+                writeBytes(bytes, offset, count);
+            }
+        };
+    }
+
+    /**
+     * Views the buffer as an {@link InputStream} reading the remaining bytes.
+     *
+     * @return the stream
+     */
+    InputStream asInputStream() {
+        return new InputStream() {
+            @Override
+            public int read() {
+                return position < length ? array[position++] & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int count) {
+                if (position >= length) {
+                    return -1;
+                }
+                int read = Math.min(count, length - position);
+                readBytes(bytes, offset, read);
+                return read;
+            }
+        };
+    }
+
+    private void checkRemaining(int count) {
+        if (count > length - position) {
+            throw new IndexOutOfBoundsException("Reading " + count + " bytes with " + remaining() + " remaining");
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package CacheApi;
+
+/**
+ * A {@link TCachedValue} stored by value: the value is serialized when it is
+ * set and every read returns a new deserialized copy, so that callers
+ * mutating the objects they put or got do not change the cached value.
+ * @param <V> the type of the value
+ * @author Kozlov Ivan
+ */
+class TSerializedCachedValue<V> extends TCachedValue<V> {
+
+    private final TSerializer<V> serializer;
+
+    /**
+     * The serialized internal value.
+     */
+    private volatile byte[] serializedValue;
+
+    /**
+     * Constructs a value.
+     *
+     * @param serializer    the serializer of the value
+     * @param internalValue the value
+     * @param creationTime  the time when the cache entry was created
+     * @param expiryTime    the time when the cache entry should expire
+     */
+    TSerializedCachedValue(TSerializer<V> serializer, V internalValue, long creationTime, long expiryTime) {
+        super(null, creationTime, expiryTime);
+        this.serializer = serializer;
+        this.serializedValue = TSerializers.toBytes(serializer, internalValue);
+    }
+
+    @Override
+    public void setInternalValue(V internalValue) {
+        this.serializedValue = TSerializers.toBytes(serializer, internalValue);
+    }
+
+    @Override
+    public V getInternalValue() {
+        return TSerializers.fromBytes(serializer, serializedValue);
+    }
+
+    @Override
+    public boolean equalsValue(V value) {
+        return getInternalValue().equals(value);
+    }
+}
@@ -0,0 +1,34 @@
+package CacheApi;
+
+/**
+ * Converts the values of a {@link TCache} into bytes and back, used to store
+ * the values by value on the heap and off the heap.
+ * <p>
+ * Serializers write into and read from a {@link TSerializationBuffer}, which
+ * is reused by the thread, so that a serializer that does not allocate
+ * itself makes a round-trip through the cache without garbage beyond the
+ * stored bytes and the returned object. {@link TSerializers} provides the
+ * serializers of the common types.
+ * </p>
+ * @param <T> the type of the serialized values
+ * @author Kozlov Ivan
+ */
+public interface TSerializer<T> {
+
+    /**
+     * Writes a value at the end of the buffer.
+     *
+     * @param value  the value, not null
+     * @param buffer the buffer to write to
+     */
+    void write(T value, TSerializationBuffer buffer);
+
+    /**
+     * Reads a value written by {@link #write(Object, TSerializationBuffer)}
+     * from the current position of the buffer.
+     *
+     * @param buffer the buffer to read from
+     * @return a new copy of the value
+     */
+    T read(TSerializationBuffer buffer);
+}
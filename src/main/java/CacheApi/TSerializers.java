@@ -0,0 +1,274 @@
+package CacheApi;
+
+import javax.cache.CacheException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The built-in {@link TSerializer}s: compact codecs for {@link String}, the
+ * boxed primitives and {@code byte[]}, and a fallback to Java serialization
+ * for any other {@link java.io.Serializable} type.
+ * @author Kozlov Ivan
+ */
+public final class TSerializers {
+
+    public static final TSerializer<String> STRING = new StringSerializer();
+
+    public static final TSerializer<Long> LONG = new TSerializer<Long>() {
+        @Override
+        public void write(Long value, TSerializationBuffer buffer) {
+            buffer.writeLong(value);
+        }
+
+        @Override
+        public Long read(TSerializationBuffer buffer) {
+            return buffer.readLong();
+        }
+    };
+
+    public static final TSerializer<Integer> INTEGER = new TSerializer<Integer>() {
+        @Override
+        public void write(Integer value, TSerializationBuffer buffer) {
+            buffer.writeInt(value);
+        }
+
+        @Override
+        public Integer read(TSerializationBuffer buffer) {
+            return buffer.readInt();
+        }
+    };
+
+    public static final TSerializer<Short> SHORT = new TSerializer<Short>() {
+        @Override
+        public void write(Short value, TSerializationBuffer buffer) {
+            buffer.writeShort(value);
+        }
+
+        @Override
+        public Short read(TSerializationBuffer buffer) {
+            return (short) buffer.readShort();
+        }
+    };
+
+    public static final TSerializer<Byte> BYTE = new TSerializer<Byte>() {
+        @Override
+        public void write(Byte value, TSerializationBuffer buffer) {
+            buffer.writeByte(value);
+        }
+
+        @Override
+        public Byte read(TSerializationBuffer buffer) {
+            return (byte) buffer.readByte();
+        }
+    };
+
+    public static final TSerializer<Character> CHARACTER = new TSerializer<Character>() {
+        @Override
+        public void write(Character value, TSerializationBuffer buffer) {
+            buffer.writeShort(value);
+        }
+
+        @Override
+        public Character read(TSerializationBuffer buffer) {
+            return (char) buffer.readShort();
+        }
+    };
+
+    public static final TSerializer<Boolean> BOOLEAN = new TSerializer<Boolean>() {
+        @Override
+        public void write(Boolean value, TSerializationBuffer buffer) {
+            buffer.writeByte(value ? 1 : 0);
+        }
+
+        @Override
+        public Boolean read(TSerializationBuffer buffer) {
+            return buffer.readByte() != 0;
+        }
+    };
+
+    public static final TSerializer<Double> DOUBLE = new TSerializer<Double>() {
+        @Override
+        public void write(Double value, TSerializationBuffer buffer) {
+            buffer.writeLong(Double.doubleToRawLongBits(value));
+        }
+
+        @Override
+        public Double read(TSerializationBuffer buffer) {
+            return Double.longBitsToDouble(buffer.readLong());
+        }
+    };
+
+    public static final TSerializer<Float> FLOAT = new TSerializer<Float>() {
+        @Override
+        public void write(Float value, TSerializationBuffer buffer) {
+            buffer.writeInt(Float.floatToRawIntBits(value));
+        }
+
+        @Override
+        public Float read(TSerializationBuffer buffer) {
+            return Float.intBitsToFloat(buffer.readInt());
+        }
+    };
+
+    public static final TSerializer<byte[]> BYTE_ARRAY = new TSerializer<byte[]>() {
+        @Override
+        public void write(byte[] value, TSerializationBuffer buffer) {
+            buffer.writeInt(value.length);
+            buffer.writeBytes(value, 0, value.length);
+        }
+
+        @Override
+        public byte[] read(TSerializationBuffer buffer) {
+            byte[] value = new byte[buffer.readInt()];
+            buffer.readBytes(value, 0, value.length);
+            return value;
+        }
+    };
+
+    private static final TSerializer<Object> JAVA = new JavaSerializer();
+
+    private static final Map<Class<?>, TSerializer<?>> BUILT_IN = new HashMap<>();
+
+    static {
+        BUILT_IN.put(String.class, STRING);
+        BUILT_IN.put(Long.class, LONG);
+        BUILT_IN.put(Integer.class, INTEGER);
+        BUILT_IN.put(Short.class, SHORT);
+        BUILT_IN.put(Byte.class, BYTE);
+        BUILT_IN.put(Character.class, CHARACTER);
+        BUILT_IN.put(Boolean.class, BOOLEAN);
+        BUILT_IN.put(Double.class, DOUBLE);
+        BUILT_IN.put(Float.class, FLOAT);
+        BUILT_IN.put(byte[].class, BYTE_ARRAY);
+    }
+
+    private TSerializers() {
+    }
+
+    /**
+     * Gets the serializer falling back to Java serialization.
+     *
+     * @param <T> the type of the values, which must be serializable
+     * @return the serializer
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> TSerializer<T> java() {
+        return (TSerializer<T>) JAVA;
+    }
+
+    /**
+     * Gets the built-in serializer of a type, Java serialization if there
+     * is no dedicated one.
+     *
+     * @param type the type of the values
+     * @param <T>  the type of the values
+     * @return the serializer
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> TSerializer<T> forType(Class<T> type) {
+        TSerializer<?> serializer = BUILT_IN.get(type);
+        return null == serializer ? TSerializers.<T>java() : (TSerializer<T>) serializer;
+    }
+
+    /**
+     * Determines if the values of a type can not be changed once they are
+     * created, so that storing them by value needs no copy.
+     *
+     * @param type the type of the values
+     * @return true for {@link String} and the boxed primitives
+     */
+    static boolean isImmutable(Class<?> type) {
+        return BUILT_IN.containsKey(type) && type != byte[].class;
+    }
+
+    /**
+     * Writes a value and copies the written bytes.
+     *
+     * @param serializer the serializer
+     * @param value      the value
+     * @param <T>        the type of the value
+     * @return the serialized value
+     */
+    static <T> byte[] toBytes(TSerializer<T> serializer, T value) {
+        TSerializationBuffer buffer = TSerializationBuffer.forWriting();
+        serializer.write(value, buffer);
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Reads a value from its serialized form.
+     *
+     * @param serializer the serializer
+     * @param bytes      the serialized value
+     * @param <T>        the type of the value
+     * @return a new copy of the value
+     */
+    static <T> T fromBytes(TSerializer<T> serializer, byte[] bytes) {
+        return serializer.read(TSerializationBuffer.forReading(bytes, bytes.length));
+    }
+
+    /**
+     * Stores the characters as ISO-8859-1 if they all fit into a byte and
+     * as UTF-16 otherwise, without intermediate arrays.
+     */
+    private static final class StringSerializer implements TSerializer<String> {
+
+        @Override
+        public void write(String value, TSerializationBuffer buffer) {
+            int length = value.length();
+            boolean isLatin1 = true;
+            for (int i = 0; i < length && isLatin1; i++) {
+                isLatin1 = value.charAt(i) < 256;
+            }
+            buffer.writeInt(isLatin1 ? length : -length - 1);
+            buffer.ensureCapacity(isLatin1 ? length : 2 * length);
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                if (isLatin1) {
+                    buffer.writeByte(c);
+                } else {
+                    buffer.writeShort(c);
+                }
+            }
+        }
+
+        @Override
+        public String read(TSerializationBuffer buffer) {
+            int header = buffer.readInt();
+            boolean isLatin1 = header >= 0;
+            int count = isLatin1 ? header : 2 * (-header - 1);
+            int position = buffer.position();
+            buffer.skip(count);
+            return new String(buffer.array(), position, count,
+                    isLatin1 ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_16BE);
+        }
+    }
+
+    /**
+     * Falls back to Java serialization.
+     */
+    private static final class JavaSerializer implements TSerializer<Object> {
+
+        @Override
+        public void write(Object value, TSerializationBuffer buffer) {
+            try (ObjectOutputStream out = new ObjectOutputStream(buffer.asOutputStream())) {
+                out.writeObject(value);
+            } catch (IOException e) {
+                throw new CacheException("Failed to serialize a value of " + value.getClass(), e);
+            }
+        }
+
+        @Override
+        public Object read(TSerializationBuffer buffer) {
+            try (ObjectInputStream in = new ObjectInputStream(buffer.asInputStream())) {
+                return in.readObject();
+            } catch (IOException | ClassNotFoundException e) {
+                throw new CacheException("Failed to deserialize a value", e);
+            }
+        }
+    }
+}
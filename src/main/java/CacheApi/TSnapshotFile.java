@@ -0,0 +1,302 @@
+package CacheApi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Writes the entries of a {@link TCache} to a snapshot file and loads them
+ * back, see {@link TCache#writeSnapshot(Path)}.
+ * <p>
+ * A snapshot starts with a header of the magic number, the version of the
+ * format and the time of the snapshot, followed by segments of up to
+ * {@link #SEGMENT_SIZE} bytes of records and an empty segment marking the
+ * end. A segment starts with the length of its body, its number of records
+ * and the CRC-32 of its body. A record is the serialized key and value,
+ * each preceded by its length, and the creation and expiry times of the
+ * entry.
+ * </p>
+ * <p>
+ * The snapshot is written to a temporary file which replaces the snapshot
+ * once it is complete, so that a crash while writing leaves the previous
+ * snapshot intact. It is loaded by mapping the segments into memory and
+ * restoring them in parallel; a segment failing its checksum is skipped.
+ * </p>
+ * @author Kozlov Ivan
+ */
+final class TSnapshotFile {
+
+    private static final Logger LOGGER = Logger.getLogger("javax.cache");
+
+    static final int MAGIC = 0x54435331;
+
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 16;
+
+    static final int SEGMENT_HEADER_SIZE = 12;
+
+    /**
+     * The maximum length of the body of a segment, unless a single record
+     * is longer.
+     */
+    static final int SEGMENT_SIZE = 8 << 20;
+
+    /**
+     * The length of a record beyond its key and value.
+     */
+    private static final int RECORD_OVERHEAD = 24;
+
+    /**
+     * Restores the entries read from a snapshot.
+     */
+    interface Restorer<K, V> {
+
+        /**
+         * Restores an entry unless the key is mapped already.
+         *
+         * @param key          the key
+         * @param value        the value
+         * @param creationTime the time when the entry was created
+         * @param expiryTime   the time when the entry expires or -1
+         * @return true if the entry was restored
+         */
+        boolean restore(K key, V value, long creationTime, long expiryTime);
+    }
+
+    private TSnapshotFile() {
+    }
+
+    /**
+     * Writes the entries not expired at the time of the snapshot. The
+     * entries are scanned like by the iterator of the cache, without
+     * blocking the writers: every entry is written as it was at some point
+     * of the scan.
+     *
+     * @param keys            the keys of the entries of the cache
+     * @param lookup          gets the entry of a key or null if it was removed
+     * @param keySerializer   the serializer of the keys
+     * @param valueSerializer the serializer of the values
+     * @param now             the time of the snapshot
+     * @param file            the snapshot file
+     * @param <K>             the type of keys
+     * @param <V>             the type of values
+     * @return the number of entries written
+     * @throws IOException if the file can not be written
+     */
+    @SuppressWarnings("unchecked")
+    static <K, V> long write(Iterator<Object> keys, Function<Object, TCachedValue<V>> lookup,
+                             TSerializer<K> keySerializer, TSerializer<V> valueSerializer, long now, Path file)
+            throws IOException {
+        Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+        long count = 0;
+        try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(now).flip();
+            writeFully(channel, header);
+            ByteBuffer segment = ByteBuffer.allocate(SEGMENT_HEADER_SIZE + SEGMENT_SIZE);
+            segment.position(SEGMENT_HEADER_SIZE);
+            int recordCount = 0;
+            while (keys.hasNext()) {
+                Object key = keys.next();
+                TCachedValue<V> cachedValue = lookup.apply(key);
+                if (null == cachedValue) {
+                    continue;
+                }
+                //the times first, a value freed meanwhile reads as null
+                long creationTime = cachedValue.getCreationTime();
+                long expiryTime = cachedValue.getExpiryTime();
+                V value = cachedValue.getInternalValue();
+                if (null == value || (expiryTime > -1 && expiryTime <= now)) {
+                    continue;
+                }
+                byte[] keyBytes = TSerializers.toBytes(keySerializer, (K) key);
+                TSerializationBuffer valueBuffer = TSerializationBuffer.forWriting();
+                valueSerializer.write(value, valueBuffer);
+                int recordLength = RECORD_OVERHEAD + keyBytes.length + valueBuffer.length();
+                if (segment.remaining() < recordLength && recordCount > 0) {
+                    writeSegment(channel, segment, recordCount);
+                    recordCount = 0;
+                }
+                if (segment.remaining() < recordLength) {
+                    //a record longer than a segment gets a segment of its own
+                    segment = ByteBuffer.allocate(SEGMENT_HEADER_SIZE + recordLength);
+                    segment.position(SEGMENT_HEADER_SIZE);
+                }
+                segment.putInt(keyBytes.length).put(keyBytes);
+                segment.putInt(valueBuffer.length()).put(valueBuffer.array(), 0, valueBuffer.length());
+                segment.putLong(creationTime).putLong(expiryTime);
+                recordCount++;
+                count++;
+            }
+            if (recordCount > 0) {
+                writeSegment(channel, segment, recordCount);
+            }
+            ByteBuffer end = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+            writeFully(channel, end);
+            channel.force(true);
+        }
+        try {
+            Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return count;
+    }
+
+    private static void writeSegment(FileChannel channel, ByteBuffer segment, int recordCount) throws IOException {
+        int bodyLength = segment.position() - SEGMENT_HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        crc.update(segment.array(), SEGMENT_HEADER_SIZE, bodyLength);
+        segment.putInt(0, bodyLength).putInt(4, recordCount).putInt(8, (int) crc.getValue());
+        segment.flip();
+        writeFully(channel, segment);
+        segment.clear();
+        segment.position(SEGMENT_HEADER_SIZE);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Loads a snapshot. The segments are mapped into memory and restored in
+     * parallel by the executor; the entries expired since the snapshot are
+     * dropped.
+     *
+     * @param file            the snapshot file
+     * @param keySerializer   the serializer of the keys
+     * @param valueSerializer the serializer of the values
+     * @param now             the current time
+     * @param executor        the executor restoring the segments
+     * @param restorer        restores the entries into the cache
+     * @param <K>             the type of keys
+     * @param <V>             the type of values
+     * @return the number of entries restored
+     * @throws IOException if the file is not a complete snapshot
+     */
+    static <K, V> long read(Path file, TSerializer<K> keySerializer, TSerializer<V> valueSerializer, long now,
+                            Executor executor, Restorer<K, V> restorer) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header, 0);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                throw new IOException("Not a snapshot of version " + VERSION + ": " + file);
+            }
+            List<MappedByteBuffer> segments = new ArrayList<>();
+            List<int[]> segmentHeaders = new ArrayList<>();
+            ByteBuffer segmentHeader = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+            long position = HEADER_SIZE;
+            while (true) {
+                readFully(channel, segmentHeader, position);
+                int bodyLength = segmentHeader.getInt(0);
+                if (bodyLength == 0) {
+                    break;
+                }
+                position += SEGMENT_HEADER_SIZE;
+                if (bodyLength < 0 || position + bodyLength > size) {
+                    throw new IOException("Truncated snapshot: " + file);
+                }
+                segments.add(channel.map(FileChannel.MapMode.READ_ONLY, position, bodyLength));
+                segmentHeaders.add(new int[]{segmentHeader.getInt(4), segmentHeader.getInt(8)});
+                position += bodyLength;
+            }
+            LongAdder count = new LongAdder();
+            List<CompletableFuture<Void>> loads = new ArrayList<>(segments.size());
+            for (int i = 0; i < segments.size(); i++) {
+                MappedByteBuffer segment = segments.get(i);
+                int[] headerFields = segmentHeaders.get(i);
+                Runnable load = () -> count.add(readSegment(segment, headerFields[0], headerFields[1],
+                        keySerializer, valueSerializer, now, restorer, file));
+                if (segments.size() == 1) {
+                    load.run();
+                } else {
+                    loads.add(CompletableFuture.runAsync(load, executor));
+                }
+            }
+            try {
+                CompletableFuture.allOf(loads.toArray(new CompletableFuture<?>[0])).join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+            return count.sum();
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Truncated snapshot");
+            }
+        }
+    }
+
+    /**
+     * Restores the records of a segment.
+     *
+     * @return the number of entries restored
+     */
+    private static <K, V> long readSegment(ByteBuffer segment, int recordCount, int checksum,
+                                           TSerializer<K> keySerializer, TSerializer<V> valueSerializer,
+                                           long now, Restorer<K, V> restorer, Path file) {
+        CRC32 crc = new CRC32();
+        crc.update(segment.duplicate());
+        if ((int) crc.getValue() != checksum) {
+            LOGGER.log(Level.WARNING, "Skipped a corrupt segment of " + recordCount + " entries of snapshot " + file);
+            return 0;
+        }
+        long count = 0;
+        for (int i = 0; i < recordCount; i++) {
+            K key = keySerializer.read(readBytes(segment));
+            int valueLength = segment.getInt();
+            int valuePosition = segment.position();
+            long creationTime = segment.getLong(valuePosition + valueLength);
+            long expiryTime = segment.getLong(valuePosition + valueLength + 8);
+            if (expiryTime > -1 && expiryTime <= now) {
+                //expired since the snapshot, the value is not even read
+                segment.position(valuePosition + valueLength + 16);
+                continue;
+            }
+            TSerializationBuffer valueBuffer = TSerializationBuffer.forReading(valueLength);
+            segment.get(valueBuffer.array(), 0, valueLength);
+            V value = valueSerializer.read(valueBuffer);
+            segment.position(segment.position() + 16);
+            if (restorer.restore(key, value, creationTime, expiryTime)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Copies the bytes following their length into the read buffer of the thread.
+     */
+    private static TSerializationBuffer readBytes(ByteBuffer segment) {
+        int length = segment.getInt();
+        TSerializationBuffer buffer = TSerializationBuffer.forReading(length);
+        segment.get(buffer.array(), 0, length);
+        return buffer;
+    }
+}
@@ -0,0 +1,269 @@
+package CacheApi;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A {@link TReplicationTransport} over TCP, meant for the processes of a
+ * host talking over the loopback interface.
+ * <p>
+ * The transport listens on its local address and connects to each peer
+ * added by {@link #addPeer(InetSocketAddress)} on the first send, so that
+ * the processes may start in any order. A batch is framed by its length;
+ * a frame of length 0 tells the receiver that batches were lost, it is
+ * sent first on a connection to a peer a send has failed for. Every
+ * accepted connection is read by a thread of its own.
+ * </p>
+ * @author Kozlov Ivan
+ */
+public class TSocketTransport implements TReplicationTransport {
+
+    private static final Logger LOGGER = Logger.getLogger("javax.cache");
+
+    /**
+     * The timeout in milliseconds of connecting to a peer.
+     */
+    private static final int CONNECT_TIMEOUT = 1000;
+
+    /**
+     * The length of the frame telling that batches were lost.
+     */
+    private static final int LOST = 0;
+
+    private final InetSocketAddress localAddress;
+
+    private final List<Peer> peers = new CopyOnWriteArrayList<>();
+
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+
+    private volatile ServerSocket serverSocket;
+
+    private volatile boolean isClosed;
+
+    /**
+     * Constructs a transport listening on a port of the loopback interface.
+     *
+     * @param port the port or 0 for any free one
+     */
+    public TSocketTransport(int port) {
+        this(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    /**
+     * Constructs a transport listening on an address.
+     *
+     * @param localAddress the address
+     */
+    public TSocketTransport(InetSocketAddress localAddress) {
+        if (null == localAddress) {
+            throw new NullPointerException("localAddress");
+        }
+        this.localAddress = localAddress;
+    }
+
+    /**
+     * Adds a peer the batches are sent to.
+     *
+     * @param address the address the transport of the peer listens on
+     * @return the transport to permit fluent-style method calls
+     */
+    public TSocketTransport addPeer(InetSocketAddress address) {
+        if (null == address) {
+            throw new NullPointerException("address");
+        }
+        peers.add(new Peer(address));
+        return this;
+    }
+
+    /**
+     * Gets the address the transport listens on, with the port chosen if
+     * it was constructed with port 0.
+     *
+     * @return the address or null if the transport was not started
+     */
+    public InetSocketAddress getLocalAddress() {
+        ServerSocket socket = serverSocket;
+        return null == socket ? null : (InetSocketAddress) socket.getLocalSocketAddress();
+    }
+
+    @Override
+    public void start(Receiver receiver) throws IOException {
+        if (null != serverSocket) {
+            throw new IllegalStateException("The transport was started already");
+        }
+        ServerSocket socket = new ServerSocket();
+        try {
+            socket.bind(localAddress);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        serverSocket = socket;
+        startThread("TSocketTransport-accept", () -> accept(socket, receiver));
+    }
+
+    private void accept(ServerSocket socket, Receiver receiver) {
+        while (!isClosed) {
+            try {
+                Socket connection = socket.accept();
+                connection.setTcpNoDelay(true);
+                connections.add(connection);
+                if (isClosed) {
+                    closeQuietly(connection);
+                    return;
+                }
+                startThread("TSocketTransport-receive", () -> receive(connection, receiver));
+            } catch (IOException e) {
+                if (!isClosed) {
+                    LOGGER.log(Level.WARNING, "Failed to accept a replication connection", e);
+                }
+            }
+        }
+    }
+
+    private void receive(Socket connection, Receiver receiver) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()))) {
+            while (!isClosed) {
+                int length = in.readInt();
+                if (length == LOST) {
+                    receiver.lost();
+                } else {
+                    byte[] batch = new byte[length];
+                    in.readFully(batch);
+                    receiver.receive(batch);
+                }
+            }
+        } catch (EOFException | SocketException e) {
+            //the peer closed the connection
+        } catch (IOException e) {
+            if (!isClosed) {
+                LOGGER.log(Level.WARNING, "Failed to receive from " + connection.getRemoteSocketAddress(), e);
+            }
+        } finally {
+            connections.remove(connection);
+            closeQuietly(connection);
+        }
+    }
+
+    @Override
+    public void send(byte[] batch, int length) {
+        for (Peer peer : peers) {
+            peer.send(batch, length);
+        }
+    }
+
+    @Override
+    public void close() {
+        isClosed = true;
+        ServerSocket socket = serverSocket;
+        if (null != socket) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to close the replication socket", e);
+            }
+        }
+        for (Socket connection : connections) {
+            closeQuietly(connection);
+        }
+        for (Peer peer : peers) {
+            peer.close();
+        }
+    }
+
+    private static void startThread(String name, Runnable runnable) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            //nothing is left to release
+        }
+    }
+
+    /**
+     * The connection to a peer, opened on demand and reopened after a
+     * failure.
+     */
+    private final class Peer {
+
+        private final InetSocketAddress address;
+
+        private Socket socket;
+
+        private DataOutputStream out;
+
+        /**
+         * Whether a batch for the peer was lost since the last frame it got.
+         */
+        private boolean isLost;
+
+        Peer(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        synchronized void send(byte[] batch, int length) {
+            if (isClosed) {
+                return;
+            }
+            try {
+                if (null == socket) {
+                    connect();
+                }
+                if (isLost) {
+                    out.writeInt(LOST);
+                }
+                out.writeInt(length);
+                out.write(batch, 0, length);
+                out.flush();
+                isLost = false;
+            } catch (IOException e) {
+                if (null != socket) {
+                    LOGGER.log(Level.WARNING, "Failed to send to the replication peer " + address, e);
+                }
+                close();
+                isLost = true;
+            }
+        }
+
+        private void connect() throws IOException {
+            Socket newSocket = new Socket();
+            try {
+                newSocket.setTcpNoDelay(true);
+                newSocket.connect(address, CONNECT_TIMEOUT);
+                out = new DataOutputStream(new BufferedOutputStream(newSocket.getOutputStream()));
+            } catch (IOException e) {
+                closeQuietly(newSocket);
+                throw e;
+            }
+            socket = newSocket;
+        }
+
+        synchronized void close() {
+            if (null != socket) {
+                closeQuietly(socket);
+                socket = null;
+                out = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package CacheApi;
+
+import javax.cache.management.CacheStatisticsMXBean;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Formats the statistics of the caches of a {@link TCacheManager} as text
+ * or as JSON, see {@link TCacheManager#dumpStatistics()}.
+ * <p>
+ * Latencies are written in microseconds. The snapshots are taken while the
+ * caches keep running, so that the figures of a cache are not consistent
+ * with each other to the operation.
+ * </p>
+ * @author Kozlov Ivan
+ */
+final class TStatisticsDump {
+
+    private TStatisticsDump() {
+    }
+
+    /**
+     * Formats the statistics as text, a block of lines per cache.
+     *
+     * @param caches the caches
+     * @return the text
+     */
+    static String toText(Collection<TCache<?, ?>> caches) {
+        StringBuilder text = new StringBuilder();
+        for (TCache<?, ?> cache : caches) {
+            CacheStatisticsMXBean statistics = cache.getStatistics();
+            text.append("cache ").append(cache.getName());
+            if (!cache.getConfiguration().isStatisticsEnabled()) {
+                text.append(" (statistics disabled)");
+            }
+            text.append('\n');
+            text.append(String.format(Locale.ROOT,
+                    "  gets=%d hits=%d misses=%d hitPercentage=%.2f puts=%d removals=%d evictions=%d%n",
+                    statistics.getCacheGets(), statistics.getCacheHits(), statistics.getCacheMisses(),
+                    statistics.getCacheHitPercentage(), statistics.getCachePuts(),
+                    statistics.getCacheRemovals(), statistics.getCacheEvictions()));
+            if (cache.isTiered()) {
+                text.append(String.format(Locale.ROOT,
+                        "  heapHitPercentage=%.2f diskHits=%d diskHitPercentage=%.2f demotions=%d%n",
+                        cache.getHeapHitPercentage(), cache.getDiskHitCount(), cache.getDiskHitPercentage(),
+                        cache.getDemotionCount()));
+            }
+            appendTextLatency(text, "get", cache.getGetLatency());
+            appendTextLatency(text, "put", cache.getPutLatency());
+            appendTextLatency(text, "invoke", cache.getInvokeLatency());
+            appendTextLatency(text, "load", cache.getLoadLatency());
+            Map<?, Long> hotKeys = cache.getHotKeys();
+            if (!hotKeys.isEmpty()) {
+                text.append("  hot keys:");
+                hotKeys.forEach((key, count) -> text.append(' ').append(key).append('=').append(count));
+                text.append('\n');
+            }
+        }
+        return text.toString();
+    }
+
+    private static void appendTextLatency(StringBuilder text, String operation, TLatencySnapshot latency) {
+        if (null != latency) {
+            text.append(String.format(Locale.ROOT, "  %-7s%s%n", operation, latency));
+        }
+    }
+
+    /**
+     * Formats the statistics as a JSON object with an array of caches.
+     *
+     * @param caches the caches
+     * @return the JSON document
+     */
+    static String toJson(Collection<TCache<?, ?>> caches) {
+        StringBuilder json = new StringBuilder("{\"caches\":[");
+        boolean isFirstCache = true;
+        for (TCache<?, ?> cache : caches) {
+            if (!isFirstCache) {
+                json.append(',');
+            }
+            isFirstCache = false;
+            CacheStatisticsMXBean statistics = cache.getStatistics();
+            json.append("{\"name\":");
+            appendString(json, cache.getName());
+            json.append(",\"statisticsEnabled\":").append(cache.getConfiguration().isStatisticsEnabled());
+            json.append(",\"gets\":").append(statistics.getCacheGets());
+            json.append(",\"hits\":").append(statistics.getCacheHits());
+            json.append(",\"misses\":").append(statistics.getCacheMisses());
+            json.append(",\"puts\":").append(statistics.getCachePuts());
+            json.append(",\"removals\":").append(statistics.getCacheRemovals());
+            json.append(",\"evictions\":").append(statistics.getCacheEvictions());
+            if (cache.isTiered()) {
+                json.append(String.format(Locale.ROOT,
+                        ",\"tiers\":{\"heapHitPercentage\":%.2f,\"diskHits\":%d,\"diskHitPercentage\":%.2f,"
+                                + "\"demotions\":%d}",
+                        cache.getHeapHitPercentage(), cache.getDiskHitCount(), cache.getDiskHitPercentage(),
+                        cache.getDemotionCount()));
+            }
+            json.append(",\"latency\":{");
+            int length = json.length();
+            appendJsonLatency(json, "get", cache.getGetLatency());
+            appendJsonLatency(json, "put", cache.getPutLatency());
+            appendJsonLatency(json, "invoke", cache.getInvokeLatency());
+            appendJsonLatency(json, "load", cache.getLoadLatency());
+            if (json.length() > length) {
+                //drop the separator after the last operation
+                json.setLength(json.length() - 1);
+            }
+            json.append("},\"hotKeys\":[");
+            boolean isFirstKey = true;
+            for (Map.Entry<?, Long> hotKey : cache.getHotKeys().entrySet()) {
+                if (!isFirstKey) {
+                    json.append(',');
+                }
+                isFirstKey = false;
+                json.append("{\"key\":");
+                appendString(json, String.valueOf(hotKey.getKey()));
+                json.append(",\"count\":").append(hotKey.getValue()).append('}');
+            }
+            json.append("]}");
+        }
+        return json.append("]}").toString();
+    }
+
+    private static void appendJsonLatency(StringBuilder json, String operation, TLatencySnapshot latency) {
+        if (null == latency) {
+            return;
+        }
+        json.append('"').append(operation).append("\":");
+        json.append(String.format(Locale.ROOT,
+                "{\"count\":%d,\"mean\":%.3f,\"p50\":%.3f,\"p99\":%.3f,\"p999\":%.3f,\"max\":%.3f},",
+                latency.getCount(), TLatencySnapshot.micros(latency.getMean()),
+                TLatencySnapshot.micros(latency.getValueAtPercentile(50)),
+                TLatencySnapshot.micros(latency.getValueAtPercentile(99)),
+                TLatencySnapshot.micros(latency.getValueAtPercentile(99.9)),
+                TLatencySnapshot.micros(latency.getMaximum())));
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+}
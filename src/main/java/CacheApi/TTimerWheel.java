@@ -0,0 +1,320 @@
+package CacheApi;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A hierarchical timing wheel indexing the entries of a {@link TCache} by
+ * their {@link TCachedValue#getExpiryTime()}, so that expired entries are
+ * found without scanning the cache.
+ * <p>
+ * The wheel has five levels of buckets, each bucket of a level spanning a
+ * power of two of milliseconds: about a second, a minute, an hour, a day
+ * and a week. An entry is put into the coarsest bucket covering its expiry
+ * time, and when time advances past a bucket its entries either expire or
+ * cascade down into a finer level. Scheduling, rescheduling and expiring
+ * are O(1), and every entry cascades at most once per level.
+ * </p>
+ * <p>
+ * Writers only queue the changes of the expiry times; the queue is replayed
+ * and the wheel advanced by the maintenance thread of the
+ * {@link TCacheManager}. Accesses extending the expiry time of an entry are
+ * not queued at all, the entry is rescheduled when its bucket fires.
+ * </p>
+ * @author Kozlov Ivan
+ */
+class TTimerWheel {
+
+    /**
+     * Removes the entries found to be expired from the cache.
+     */
+    interface Expirer {
+
+        /**
+         * Removes the entry if it is still mapped to the given value.
+         *
+         * @param key   the key of the entry
+         * @param value the expired value
+         * @return true if the entry was removed
+         */
+        boolean expire(Object key, TCachedValue<?> value);
+    }
+
+    private static final int[] BUCKETS = {64, 64, 32, 4, 1};
+
+    private static final long[] SPANS = {
+            1L << 10,   // 1.02 seconds
+            1L << 16,   // 1.09 minutes
+            1L << 22,   // 1.17 hours
+            1L << 27,   // 1.55 days
+            1L << 29,   // 6.21 days
+            1L << 29,   // 6.21 days
+    };
+
+    private static final int[] SHIFT = {10, 16, 22, 27, 29};
+
+    private final Expirer expirer;
+
+    private final ReentrantLock wheelLock = new ReentrantLock();
+
+    // the fields below are guarded by the wheel lock
+
+    private final Node[][] wheel;
+
+    private long currentTime;
+
+    private final ConcurrentLinkedQueue<Task> tasks = new ConcurrentLinkedQueue<>();
+
+    private final AtomicLong reapedCount = new AtomicLong();
+
+    private volatile long lastReapLag;
+
+    private volatile long maximumReapLag;
+
+    /**
+     * Constructs a timing wheel.
+     *
+     * @param expirer the callback removing expired entries from the cache
+     * @param now     the current time in milliseconds (since the Epoc)
+     */
+    TTimerWheel(Expirer expirer, long now) {
+        this.expirer = expirer;
+        this.currentTime = now;
+        this.wheel = new Node[BUCKETS.length][];
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = new Node[BUCKETS[i]];
+            for (int j = 0; j < wheel[i].length; j++) {
+                wheel[i][j] = new Node(null, null);
+            }
+        }
+    }
+
+    /**
+     * Records that the expiry time of an entry was set. Has to be called
+     * while the mapping of the key is locked.
+     *
+     * @param key   the key of the entry
+     * @param value the entry
+     */
+    void recordSchedule(Object key, TCachedValue<?> value) {
+        tasks.offer(new Task(key, value, true));
+    }
+
+    /**
+     * Records the removal of an entry. May be called once the mapping is gone.
+     *
+     * @param value the removed entry
+     */
+    void recordRemoval(TCachedValue<?> value) {
+        tasks.offer(new Task(null, value, false));
+    }
+
+    /**
+     * Replays the queued changes and expires the entries up to the given time.
+     *
+     * @param now the current time in milliseconds (since the Epoc)
+     */
+    void advance(long now) {
+        wheelLock.lock();
+        try {
+            drainTasks();
+            long previousTime = currentTime;
+            if (now <= previousTime) {
+                return;
+            }
+            currentTime = now;
+            long lag = 0;
+            for (int i = 0; i < SHIFT.length; i++) {
+                long previousTicks = previousTime >>> SHIFT[i];
+                long currentTicks = now >>> SHIFT[i];
+                if (currentTicks - previousTicks <= 0) {
+                    break;
+                }
+                lag = Math.max(lag, expire(i, previousTicks, currentTicks));
+            }
+            lastReapLag = lag;
+            if (lag > maximumReapLag) {
+                maximumReapLag = lag;
+            }
+        } finally {
+            wheelLock.unlock();
+        }
+    }
+
+    /**
+     * Forgets all scheduled entries.
+     */
+    void clear() {
+        wheelLock.lock();
+        try {
+            tasks.clear();
+            for (Node[] buckets : wheel) {
+                for (Node sentinel : buckets) {
+                    Node node = sentinel.next;
+                    while (node != sentinel) {
+                        Node next = node.next;
+                        node.value.timerNode = null;
+                        node.prev = null;
+                        node.next = null;
+                        node = next;
+                    }
+                    sentinel.prev = sentinel;
+                    sentinel.next = sentinel;
+                }
+            }
+        } finally {
+            wheelLock.unlock();
+        }
+    }
+
+    long getReapedCount() {
+        return reapedCount.get();
+    }
+
+    long getLastReapLag() {
+        return lastReapLag;
+    }
+
+    long getMaximumReapLag() {
+        return maximumReapLag;
+    }
+
+    private void drainTasks() {
+        Task task;
+        while ((task = tasks.poll()) != null) {
+            Node node = task.value.timerNode;
+            if (null != node) {
+                unlink(node);
+                task.value.timerNode = null;
+            }
+            if (task.schedule) {
+                long expiryTime = task.value.getExpiryTime();
+                if (isScheduled(expiryTime)) {
+                    node = new Node(task.key, task.value);
+                    node.time = expiryTime;
+                    task.value.timerNode = node;
+                    link(findBucket(expiryTime), node);
+                }
+            }
+        }
+    }
+
+    /**
+     * Expires or cascades the entries of the buckets of a level that the
+     * time has passed.
+     *
+     * @return the maximum delay between the expiry and the removal of an entry
+     */
+    private long expire(int level, long previousTicks, long currentTicks) {
+        Node[] buckets = wheel[level];
+        int mask = buckets.length - 1;
+        long delta = Math.min(currentTicks - previousTicks, buckets.length - 1);
+        int start = (int) (previousTicks & mask);
+        long lag = 0;
+        for (int i = 0; i <= delta; i++) {
+            Node sentinel = buckets[(start + i) & mask];
+            Node node = sentinel.next;
+            sentinel.prev = sentinel;
+            sentinel.next = sentinel;
+            while (node != sentinel) {
+                Node next = node.next;
+                node.prev = null;
+                node.next = null;
+                TCachedValue<?> value = node.value;
+                long expiryTime = value.getExpiryTime();
+                if (value.isExpiredAt(currentTime)) {
+                    value.timerNode = null;
+                    if (expirer.expire(node.key, value)) {
+                        reapedCount.incrementAndGet();
+                        lag = Math.max(lag, currentTime - expiryTime);
+                    }
+                } else if (isScheduled(expiryTime)) {
+                    // the bucket is not due yet or the expiry time was extended
+                    node.time = expiryTime;
+                    link(findBucket(expiryTime), node);
+                } else {
+                    value.timerNode = null;
+                }
+                node = next;
+            }
+        }
+        return lag;
+    }
+
+    private Node findBucket(long time) {
+        long duration = time - currentTime;
+        int length = wheel.length - 1;
+        for (int i = 0; i < length; i++) {
+            if (duration < SPANS[i + 1]) {
+                long ticks = time >>> SHIFT[i];
+                int index = (int) (ticks & (wheel[i].length - 1));
+                return wheel[i][index];
+            }
+        }
+        return wheel[length][0];
+    }
+
+    private static boolean isScheduled(long expiryTime) {
+        return expiryTime > -1 && expiryTime != Long.MAX_VALUE;
+    }
+
+    private static void link(Node sentinel, Node node) {
+        node.prev = sentinel.prev;
+        node.next = sentinel;
+        sentinel.prev.next = node;
+        sentinel.prev = node;
+    }
+
+    private static void unlink(Node node) {
+        if (null != node.next) {
+            node.next.prev = node.prev;
+            node.prev.next = node.next;
+            node.next = null;
+            node.prev = null;
+        }
+    }
+
+    /**
+     * A change of the expiry time of an entry waiting to be replayed.
+     */
+    private static final class Task {
+
+        final Object key;
+
+        final TCachedValue<?> value;
+
+        final boolean schedule;
+
+        Task(Object key, TCachedValue<?> value, boolean schedule) {
+            this.key = key;
+            this.value = value;
+            this.schedule = schedule;
+        }
+    }
+
+    /**
+     * An entry linked into a bucket of the wheel, or the sentinel of a bucket.
+     */
+    static final class Node {
+
+        final Object key;
+
+        final TCachedValue<?> value;
+
+        long time;
+
+        Node prev;
+
+        Node next;
+
+        Node(Object key, TCachedValue<?> value) {
+            this.key = key;
+            this.value = value;
+            if (null == value) {
+                this.prev = this;
+                this.next = this;
+            }
+        }
+    }
+}
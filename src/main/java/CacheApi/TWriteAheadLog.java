@@ -0,0 +1,699 @@
+package CacheApi;
+
+import javax.cache.CacheException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * The write-ahead log of a durable {@link TCache}.
+ * <p>
+ * The mutations of the cache append records to the log while the mapping
+ * of their key is locked, so that the records of a key are in the order of
+ * its mutations. The records are buffered and a dedicated thread writes the
+ * buffer to the current segment file, committing the records appended by
+ * all threads meanwhile as a group with a single write and, depending on
+ * the {@link TLogSyncPolicy}, a single sync. A segment is closed once it
+ * exceeds the configured size and a new one is started.
+ * </p>
+ * <p>
+ * Once enough segments were written, the log is compacted in the
+ * background: a new segment is started, the entries of the cache are
+ * written to a checkpoint by {@link TSnapshotFile} and the segments older
+ * than the one before the new segment are deleted. The checkpoint is
+ * written while the cache keeps running, so that its entries may be older
+ * or newer than the records of the retained segments; replaying them in
+ * order after the checkpoint yields the latest state of every key. The
+ * segment before the new one is retained for the mutations in flight while
+ * the segment was started.
+ * </p>
+ * <p>
+ * A record is its length, the CRC-32 of its body and its body: the type,
+ * the serialized key and value, each preceded by its length, and the
+ * creation and expiry times of the entry. Replay stops at the first torn
+ * or corrupt record of a segment.
+ * </p>
+ * @param <K> the type of keys maintained by the cache
+ * @param <V> the type of cached values
+ * @author Kozlov Ivan
+ */
+class TWriteAheadLog<K, V> {
+
+    private static final Logger LOGGER = Logger.getLogger("javax.cache");
+
+    static final int PUT = 1;
+
+    static final int REMOVE = 2;
+
+    static final int CLEAR = 3;
+
+    static final int MAGIC = 0x5443574C;
+
+    static final int VERSION = 1;
+
+    private static final int SEGMENT_HEADER_SIZE = 8;
+
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    /**
+     * The number of bytes buffered beyond which appending waits for the
+     * writing thread.
+     */
+    static final int MAXIMUM_PENDING = 4 << 20;
+
+    /**
+     * The number of segments written since the last checkpoint that
+     * triggers a compaction.
+     */
+    static final int COMPACTION_SEGMENT_COUNT = 4;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final String CHECKPOINT_PREFIX = "checkpoint-";
+
+    private static final String CHECKPOINT_SUFFIX = ".snapshot";
+
+    /**
+     * Applies the records of the log to the cache.
+     */
+    interface Replayer<K, V> {
+
+        /**
+         * Applies a record.
+         *
+         * @param type         {@link #PUT}, {@link #REMOVE} or {@link #CLEAR}
+         * @param key          the key or null for {@link #CLEAR}
+         * @param value        the value of {@link #PUT} or null
+         * @param creationTime the creation time of {@link #PUT}
+         * @param expiryTime   the expiry time of {@link #PUT}
+         */
+        void replay(int type, K key, V value, long creationTime, long expiryTime);
+    }
+
+    private final String cacheName;
+
+    private final Path directory;
+
+    private final TSerializer<K> keySerializer;
+
+    private final TSerializer<V> valueSerializer;
+
+    private final TLogSyncPolicy syncPolicy;
+
+    private final long syncIntervalNanos;
+
+    private final long segmentSize;
+
+    private final ThreadLocal<long[]> lastSequence = ThreadLocal.withInitial(() -> new long[1]);
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition hasWork = lock.newCondition();
+
+    private final Condition isWritten = lock.newCondition();
+
+    // the fields below are guarded by the lock
+
+    private ByteBuffer pending = ByteBuffer.allocate(1 << 16);
+
+    private long appendedSequence;
+
+    private long writtenSequence;
+
+    private boolean isSyncRequested;
+
+    private boolean isRollRequested;
+
+    private long rolledSegment;
+
+    private boolean isClosed;
+
+    private IOException failure;
+
+    private Thread writer;
+
+    /**
+     * The sequence number of the last record forced to the disk.
+     */
+    private volatile long durableSequence;
+
+    // the fields below are owned by the writing thread once it is started
+
+    private FileChannel channel;
+
+    private long segmentNumber;
+
+    private long segmentLength;
+
+    private long lastSyncTime;
+
+    private volatile int segmentsSinceCheckpoint;
+
+    /**
+     * Held by a running compaction and by {@link #close()}, so that closing
+     * waits for the compaction and the log is not compacted once closed.
+     */
+    private final ReentrantLock compactionLock = new ReentrantLock();
+
+    private final LongAdder syncCount = new LongAdder();
+
+    /**
+     * Constructs a log. It is opened for appending by {@link #open()}.
+     *
+     * @param cacheName       the name of the cache
+     * @param directory       the directory of the segments and the checkpoint
+     * @param keySerializer   the serializer of the keys
+     * @param valueSerializer the serializer of the values
+     * @param syncPolicy      when the log is forced to the disk
+     * @param syncInterval    the interval in milliseconds of {@link TLogSyncPolicy#PERIODIC}
+     * @param segmentSize     the size in bytes beyond which a new segment is started
+     */
+    TWriteAheadLog(String cacheName, Path directory, TSerializer<K> keySerializer, TSerializer<V> valueSerializer,
+                   TLogSyncPolicy syncPolicy, long syncInterval, long segmentSize) {
+        this.cacheName = cacheName;
+        this.directory = directory;
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        this.syncPolicy = syncPolicy;
+        this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(syncInterval);
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Replays the checkpoint and the segments after it. Has to be called
+     * before {@link #open()}.
+     *
+     * @param replayer the replayer applying the records
+     * @param restorer the restorer of the entries of the checkpoint
+     * @param now      the current time
+     * @param executor the executor restoring the checkpoint in parallel
+     * @return the number of records replayed
+     * @throws IOException if the log can not be read
+     */
+    long replay(Replayer<K, V> replayer, TSnapshotFile.Restorer<K, V> restorer, long now, Executor executor)
+            throws IOException {
+        Files.createDirectories(directory);
+        long checkpoint = -1;
+        List<Long> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.startsWith(CHECKPOINT_PREFIX) && name.endsWith(CHECKPOINT_SUFFIX)) {
+                    checkpoint = Math.max(checkpoint, parseNumber(name, CHECKPOINT_PREFIX, CHECKPOINT_SUFFIX));
+                } else if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    segments.add(parseNumber(name, SEGMENT_PREFIX, SEGMENT_SUFFIX));
+                }
+            }
+        }
+        Collections.sort(segments);
+        long count = 0;
+        if (checkpoint >= 0) {
+            count += TSnapshotFile.read(checkpointFile(checkpoint), keySerializer, valueSerializer, now,
+                    executor, restorer);
+        }
+        for (long segment : segments) {
+            if (segment >= checkpoint) {
+                count += replaySegment(segmentFile(segment), replayer);
+            }
+            segmentNumber = segment + 1;
+        }
+        segmentNumber = Math.max(segmentNumber, checkpoint + 1);
+        segmentsSinceCheckpoint = segments.size();
+        return count;
+    }
+
+    private long replaySegment(Path file, Replayer<K, V> replayer) throws IOException {
+        try (FileChannel segmentChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = segmentChannel.size();
+            if (size < SEGMENT_HEADER_SIZE) {
+                return 0;
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Segment too large: " + file);
+            }
+            MappedByteBuffer buffer = segmentChannel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Not a log segment of version " + VERSION + ": " + file);
+            }
+            long count = 0;
+            CRC32 crc = new CRC32();
+            while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+                int bodyLength = buffer.getInt();
+                int checksum = buffer.getInt();
+                if (bodyLength <= 0 || bodyLength > buffer.remaining()) {
+                    break;
+                }
+                ByteBuffer body = buffer.slice();
+                body.limit(bodyLength);
+                crc.reset();
+                crc.update(body.duplicate());
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                buffer.position(buffer.position() + bodyLength);
+                replayRecord(body, replayer);
+                count++;
+            }
+            if (buffer.hasRemaining()) {
+                LOGGER.log(Level.WARNING, "Skipped a torn or corrupt tail of " + buffer.remaining()
+                        + " bytes of log segment " + file);
+            }
+            return count;
+        }
+    }
+
+    private void replayRecord(ByteBuffer body, Replayer<K, V> replayer) {
+        int type = body.get();
+        if (type == CLEAR) {
+            replayer.replay(CLEAR, null, null, 0, 0);
+            return;
+        }
+        K key = keySerializer.read(readBytes(body));
+        if (type == REMOVE) {
+            replayer.replay(REMOVE, key, null, 0, 0);
+            return;
+        }
+        V value = valueSerializer.read(readBytes(body));
+        replayer.replay(PUT, key, value, body.getLong(), body.getLong());
+    }
+
+    private static TSerializationBuffer readBytes(ByteBuffer body) {
+        int length = body.getInt();
+        TSerializationBuffer buffer = TSerializationBuffer.forReading(length);
+        body.get(buffer.array(), 0, length);
+        return buffer;
+    }
+
+    /**
+     * Starts a new segment and the thread writing the appended records.
+     *
+     * @throws IOException if the segment can not be created
+     */
+    void open() throws IOException {
+        openSegment();
+        lastSyncTime = System.nanoTime();
+        lock.lock();
+        try {
+            writer = new Thread(this::runWriter, "TCache-" + cacheName + "-log");
+            writer.setDaemon(true);
+            writer.start();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void openSegment() throws IOException {
+        channel = FileChannel.open(segmentFile(segmentNumber), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        writeFully(header);
+        segmentLength = SEGMENT_HEADER_SIZE;
+    }
+
+    /**
+     * Appends the put of an entry. Has to be called while the mapping of
+     * the key is locked.
+     *
+     * @param key          the key
+     * @param value        the value
+     * @param creationTime the creation time of the entry
+     * @param expiryTime   the expiry time of the entry
+     */
+    void appendPut(K key, V value, long creationTime, long expiryTime) {
+        byte[] keyBytes = TSerializers.toBytes(keySerializer, key);
+        TSerializationBuffer valueBuffer = TSerializationBuffer.forWriting();
+        valueSerializer.write(value, valueBuffer);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + 1 + 4 + keyBytes.length + 4
+                + valueBuffer.length() + 16);
+        record.position(RECORD_HEADER_SIZE);
+        record.put((byte) PUT).putInt(keyBytes.length).put(keyBytes);
+        record.putInt(valueBuffer.length()).put(valueBuffer.array(), 0, valueBuffer.length());
+        record.putLong(creationTime).putLong(expiryTime);
+        append(record);
+    }
+
+    /**
+     * Appends the removal of an entry. Has to be called while the mapping
+     * of the key is locked.
+     *
+     * @param key the key
+     */
+    void appendRemove(K key) {
+        byte[] keyBytes = TSerializers.toBytes(keySerializer, key);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + 1 + 4 + keyBytes.length);
+        record.position(RECORD_HEADER_SIZE);
+        record.put((byte) REMOVE).putInt(keyBytes.length).put(keyBytes);
+        append(record);
+    }
+
+    /**
+     * Appends the removal of all entries.
+     */
+    void appendClear() {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + 1);
+        record.position(RECORD_HEADER_SIZE);
+        record.put((byte) CLEAR);
+        append(record);
+    }
+
+    private void append(ByteBuffer record) {
+        int bodyLength = record.position() - RECORD_HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), RECORD_HEADER_SIZE, bodyLength);
+        record.putInt(0, bodyLength).putInt(4, (int) crc.getValue());
+        record.flip();
+        lock.lock();
+        try {
+            while (pending.position() > MAXIMUM_PENDING && !isClosed && null == failure) {
+                isWritten.awaitUninterruptibly();
+            }
+            checkOpen();
+            if (pending.remaining() < record.remaining()) {
+                ByteBuffer grown = ByteBuffer.allocate(
+                        Math.max(2 * pending.capacity(), pending.position() + record.remaining()));
+                pending.flip();
+                grown.put(pending);
+                pending = grown;
+            }
+            pending.put(record);
+            lastSequence.get()[0] = ++appendedSequence;
+            hasWork.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void checkOpen() {
+        if (null != failure) {
+            throw new CacheException("The write-ahead log of cache " + cacheName + " failed", failure);
+        }
+        if (isClosed || null == writer) {
+            throw new IllegalStateException("The write-ahead log of cache " + cacheName + " is not open");
+        }
+    }
+
+    /**
+     * Gets when the log is forced to the disk.
+     *
+     * @return the sync policy
+     */
+    TLogSyncPolicy getSyncPolicy() {
+        return syncPolicy;
+    }
+
+    /**
+     * Waits until the records appended by the current thread are forced to
+     * the disk, if the sync policy is {@link TLogSyncPolicy#ALWAYS}. Has to
+     * be called once the mappings of the keys are unlocked.
+     */
+    void awaitDurable() {
+        if (syncPolicy != TLogSyncPolicy.ALWAYS) {
+            return;
+        }
+        long sequence = lastSequence.get()[0];
+        if (durableSequence >= sequence) {
+            return;
+        }
+        lock.lock();
+        try {
+            while (durableSequence < sequence && null == failure && null != writer && writer.isAlive()) {
+                isWritten.awaitUninterruptibly();
+            }
+            if (durableSequence < sequence) {
+                checkOpen();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forces the records appended so far to the disk and waits for it,
+     * whatever the sync policy.
+     */
+    void sync() {
+        lock.lock();
+        try {
+            long sequence = appendedSequence;
+            isSyncRequested = true;
+            hasWork.signal();
+            while (durableSequence < sequence && null == failure && null != writer && writer.isAlive()) {
+                isWritten.awaitUninterruptibly();
+            }
+            if (durableSequence < sequence) {
+                checkOpen();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Determines if enough segments were written since the last checkpoint
+     * for a compaction, and no compaction is running.
+     *
+     * @return true if the log should be compacted
+     */
+    boolean isCompactionDue() {
+        return segmentsSinceCheckpoint >= COMPACTION_SEGMENT_COUNT && !compactionLock.isLocked();
+    }
+
+    /**
+     * Compacts the log: starts a new segment, writes the entries to a new
+     * checkpoint and deletes the older checkpoints and segments.
+     *
+     * @param keys    the keys of the entries of the cache
+     * @param lookup  gets the entry of a key or null if it was removed
+     * @param now     the current time
+     */
+    void compact(Iterator<Object> keys, Function<Object, TCachedValue<V>> lookup, long now) {
+        if (!compactionLock.tryLock()) {
+            return;
+        }
+        try {
+            if (isClosed()) {
+                return;
+            }
+            long first = roll() - 1;
+            TSnapshotFile.write(keys, lookup, keySerializer, valueSerializer, now, checkpointFile(first));
+            segmentsSinceCheckpoint = 1;
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files) {
+                    String name = file.getFileName().toString();
+                    if ((name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)
+                            && parseNumber(name, SEGMENT_PREFIX, SEGMENT_SUFFIX) < first)
+                            || (name.startsWith(CHECKPOINT_PREFIX) && name.endsWith(CHECKPOINT_SUFFIX)
+                            && parseNumber(name, CHECKPOINT_PREFIX, CHECKPOINT_SUFFIX) < first)) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Error compacting the write-ahead log of cache " + cacheName, e);
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    /**
+     * Makes the writing thread start a new segment and waits for it.
+     *
+     * @return the number of the new segment
+     */
+    private long roll() {
+        lock.lock();
+        try {
+            checkOpen();
+            isRollRequested = true;
+            hasWork.signal();
+            while (isRollRequested && null == failure && writer.isAlive()) {
+                isWritten.awaitUninterruptibly();
+            }
+            checkOpen();
+            return rolledSegment;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes and forces the records appended so far and stops the writing
+     * thread.
+     */
+    void close() {
+        compactionLock.lock();
+        try {
+            Thread thread;
+            lock.lock();
+            try {
+                isClosed = true;
+                hasWork.signal();
+                isWritten.signalAll();
+                thread = writer;
+            } finally {
+                lock.unlock();
+            }
+            if (null == thread) {
+                return;
+            }
+            boolean isInterrupted = false;
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    isInterrupted = true;
+                }
+            }
+            if (isInterrupted) {
+                Thread.currentThread().interrupt();
+            }
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    private boolean isClosed() {
+        lock.lock();
+        try {
+            return isClosed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getSyncCount() {
+        return syncCount.sum();
+    }
+
+    private void runWriter() {
+        ByteBuffer writing = ByteBuffer.allocate(pending.capacity());
+        while (true) {
+            long sequence;
+            boolean isSync;
+            boolean isRoll;
+            boolean isClosing;
+            lock.lock();
+            try {
+                while (pending.position() == 0 && !isClosed && !isRollRequested && !isSyncRequested
+                        && !isPeriodicSyncDue()) {
+                    if (syncPolicy == TLogSyncPolicy.PERIODIC && writtenSequence > durableSequence) {
+                        hasWork.awaitNanos(syncIntervalNanos - (System.nanoTime() - lastSyncTime));
+                    } else {
+                        hasWork.awaitUninterruptibly();
+                    }
+                }
+                ByteBuffer swapped = pending;
+                pending = writing;
+                writing = swapped;
+                sequence = appendedSequence;
+                isRoll = isRollRequested;
+                isClosing = isClosed;
+                isSync = syncPolicy == TLogSyncPolicy.ALWAYS || isSyncRequested || isRoll || isClosing;
+                isSyncRequested = false;
+            } catch (InterruptedException e) {
+                //the writing thread is only stopped by close
+                continue;
+            } finally {
+                lock.unlock();
+            }
+            IOException writeFailure = null;
+            try {
+                writing.flip();
+                segmentLength += writing.remaining();
+                writeFully(writing);
+                isSync |= syncPolicy == TLogSyncPolicy.PERIODIC
+                        && System.nanoTime() - lastSyncTime >= syncIntervalNanos;
+                if (isSync && sequence > durableSequence) {
+                    channel.force(false);
+                    syncCount.increment();
+                }
+                if (isSync) {
+                    lastSyncTime = System.nanoTime();
+                }
+                if (isClosing) {
+                    channel.close();
+                } else if (isRoll || segmentLength >= segmentSize) {
+                    channel.force(false);
+                    channel.close();
+                    segmentNumber++;
+                    segmentsSinceCheckpoint++;
+                    openSegment();
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Error writing the write-ahead log of cache " + cacheName, e);
+                writeFailure = e;
+            }
+            writing.clear();
+            if (writing.capacity() > MAXIMUM_PENDING) {
+                writing = ByteBuffer.allocate(1 << 16);
+            }
+            lock.lock();
+            try {
+                writtenSequence = sequence;
+                if (null != writeFailure) {
+                    failure = writeFailure;
+                } else if (isSync) {
+                    durableSequence = sequence;
+                }
+                if (isRoll) {
+                    isRollRequested = false;
+                    rolledSegment = segmentNumber;
+                }
+                isWritten.signalAll();
+                if (isClosing || null != failure) {
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private boolean isPeriodicSyncDue() {
+        return syncPolicy == TLogSyncPolicy.PERIODIC && writtenSequence > durableSequence
+                && System.nanoTime() - lastSyncTime >= syncIntervalNanos;
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private Path segmentFile(long number) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    private Path checkpointFile(long number) {
+        return directory.resolve(String.format("%s%020d%s", CHECKPOINT_PREFIX, number, CHECKPOINT_SUFFIX));
+    }
+
+    private static long parseNumber(String name, String prefix, String suffix) {
+        try {
+            return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package CacheApi;
+
+import javax.cache.Cache;
+import javax.cache.integration.CacheWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Buffers the mutations of a write-behind {@link TCache} and passes them on
+ * to its {@link CacheWriter} in batches.
+ * <p>
+ * Pending mutations are kept by key, so that repeated writes of a key
+ * collapse into the last one. A batch is flushed by a dedicated thread as
+ * soon as it is full or the oldest pending mutation waited for the
+ * configured delay. The queue holds a bounded number of keys; writers
+ * of new keys block while it is full, so that a slow backing store slows
+ * the application down instead of exhausting the heap.
+ * </p>
+ * @param <K> the type of keys maintained by the cache
+ * @param <V> the type of cached values
+ * @author Kozlov Ivan
+ */
+class TWriteBehindQueue<K, V> {
+
+    private static final Logger LOGGER = Logger.getLogger("javax.cache");
+
+    private final CacheWriter<K, V> writer;
+
+    private final int batchSize;
+
+    private final long delayNanos;
+
+    private final int capacity;
+
+    private final Thread flusher;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Signalled when the flusher has work: the first mutation is pending,
+     * a batch is full or a flush was requested.
+     */
+    private final Condition isFlushable = lock.newCondition();
+
+    private final Condition isNotFull = lock.newCondition();
+
+    private final Condition isFlushed = lock.newCondition();
+
+    // the fields below are guarded by the lock
+
+    private final LinkedHashMap<Object, Mutation<K, V>> pending = new LinkedHashMap<>();
+
+    private long oldestPendingTime;
+
+    private boolean isWriting;
+
+    private boolean isFlushRequested;
+
+    private boolean isClosed;
+
+    private final LongAdder coalescedCount = new LongAdder();
+
+    private final LongAdder batchCount = new LongAdder();
+
+    private final LongAdder failureCount = new LongAdder();
+
+    /**
+     * Constructs a queue and starts its flusher thread.
+     *
+     * @param cacheName the name of the cache
+     * @param writer    the writer of the cache
+     * @param batchSize the maximum number of mutations passed to the writer at once
+     * @param delay     the maximum time in milliseconds a mutation waits to be flushed
+     * @param capacity  the maximum number of pending keys
+     */
+    TWriteBehindQueue(String cacheName, CacheWriter<K, V> writer, int batchSize, long delay, int capacity) {
+        this.writer = writer;
+        this.batchSize = batchSize;
+        this.delayNanos = TimeUnit.MILLISECONDS.toNanos(delay);
+        this.capacity = capacity;
+        this.flusher = new Thread(this::runFlusher, "TCache-" + cacheName + "-write-behind");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Queues the write of a value. Has to be called while the mapping of
+     * the key is locked, so that the mutations of a key are queued in order.
+     *
+     * @param key   the key
+     * @param value the written value
+     */
+    void write(K key, V value) {
+        enqueue(key, value);
+    }
+
+    /**
+     * Queues the deletion of a key. Has to be called while the mapping of
+     * the key is locked, so that the mutations of a key are queued in order.
+     *
+     * @param key the key
+     */
+    void delete(K key) {
+        enqueue(key, null);
+    }
+
+    /**
+     * Passes the pending mutations on to the writer and waits until they
+     * are written.
+     */
+    void flush() {
+        lock.lock();
+        try {
+            isFlushRequested = true;
+            isFlushable.signal();
+            while ((!pending.isEmpty() || isWriting) && flusher.isAlive()) {
+                isFlushed.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Flushes the pending mutations and stops the flusher thread.
+     */
+    void close() {
+        lock.lock();
+        try {
+            isClosed = true;
+            isFlushable.signal();
+            isNotFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        boolean isInterrupted = false;
+        while (flusher.isAlive()) {
+            try {
+                flusher.join();
+            } catch (InterruptedException e) {
+                isInterrupted = true;
+            }
+        }
+        if (isInterrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Gets the number of keys waiting to be flushed.
+     *
+     * @return the pending count
+     */
+    int getPendingCount() {
+        lock.lock();
+        try {
+            return pending.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getCoalescedCount() {
+        return coalescedCount.sum();
+    }
+
+    long getBatchCount() {
+        return batchCount.sum();
+    }
+
+    long getFailureCount() {
+        return failureCount.sum();
+    }
+
+    private void enqueue(K key, V value) {
+        lock.lock();
+        try {
+            if (isClosed) {
+                throw new IllegalStateException("The cache is closed");
+            }
+            Mutation<K, V> previous = pending.get(key);
+            if (null != previous) {
+                //the mutation keeps the place and the age of the one it replaces
+                pending.put(key, new Mutation<>(key, value, previous.enqueueTime));
+                coalescedCount.increment();
+                return;
+            }
+            while (pending.size() >= capacity) {
+                isNotFull.awaitUninterruptibly();
+                if (isClosed) {
+                    throw new IllegalStateException("The cache is closed");
+                }
+            }
+            long now = System.nanoTime();
+            if (pending.isEmpty()) {
+                oldestPendingTime = now;
+                isFlushable.signal();
+            }
+            pending.put(key, new Mutation<>(key, value, now));
+            if (pending.size() == batchSize) {
+                isFlushable.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void runFlusher() {
+        List<Mutation<K, V>> batch = new ArrayList<>(Math.min(batchSize, capacity));
+        while (nextBatch(batch)) {
+            writeBatch(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Waits until a batch is due and takes it from the pending mutations.
+     *
+     * @return false once the queue is closed and all mutations were flushed
+     */
+    private boolean nextBatch(List<Mutation<K, V>> batch) {
+        lock.lock();
+        try {
+            isWriting = false;
+            if (pending.isEmpty()) {
+                isFlushRequested = false;
+                isFlushed.signalAll();
+            }
+            while (pending.isEmpty()) {
+                if (isClosed) {
+                    return false;
+                }
+                isFlushable.awaitUninterruptibly();
+            }
+            long delay;
+            while (!isClosed && !isFlushRequested && pending.size() < batchSize
+                    && (delay = oldestPendingTime + delayNanos - System.nanoTime()) > 0) {
+                try {
+                    isFlushable.awaitNanos(delay);
+                } catch (InterruptedException e) {
+                    //the mutations are flushed before the thread ends
+                    isClosed = true;
+                }
+            }
+            Iterator<Mutation<K, V>> iterator = pending.values().iterator();
+            while (iterator.hasNext() && batch.size() < batchSize) {
+                batch.add(iterator.next());
+                iterator.remove();
+            }
+            if (iterator.hasNext()) {
+                oldestPendingTime = iterator.next().enqueueTime;
+            }
+            isWriting = true;
+            isNotFull.signalAll();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeBatch(List<Mutation<K, V>> batch) {
+        List<Cache.Entry<? extends K, ? extends V>> writes = new ArrayList<>();
+        List<Object> deletes = new ArrayList<>();
+        for (Mutation<K, V> mutation : batch) {
+            if (null == mutation.value) {
+                deletes.add(mutation.key);
+            } else {
+                writes.add(new TEntry<>(mutation.key, mutation.value));
+            }
+        }
+        if (!writes.isEmpty()) {
+            try {
+                writer.writeAll(writes);
+            } catch (Exception e) {
+                failureCount.add(writes.size());
+                LOGGER.log(Level.WARNING, "Failed to write " + writes.size() + " entries behind", e);
+            }
+        }
+        if (!deletes.isEmpty()) {
+            try {
+                writer.deleteAll(deletes);
+            } catch (Exception e) {
+                failureCount.add(deletes.size());
+                LOGGER.log(Level.WARNING, "Failed to delete " + deletes.size() + " entries behind", e);
+            }
+        }
+        batchCount.increment();
+    }
+
+    /**
+     * A pending write, or a deletion if the value is null.
+     */
+    private static final class Mutation<K, V> {
+
+        final K key;
+
+        final V value;
+
+        final long enqueueTime;
+
+        Mutation(K key, V value, long enqueueTime) {
+            this.key = key;
+            this.value = value;
+            this.enqueueTime = enqueueTime;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+import CacheApi.LongKeyTCache;
+import CacheApi.TCacheConfiguration;
+import CacheApi.TCacheManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.cache.Cache;
+import javax.cache.CacheException;
+import javax.cache.configuration.Factory;
+import javax.cache.configuration.MutableCacheEntryListenerConfiguration;
+import javax.cache.event.CacheEntryCreatedListener;
+import javax.cache.expiry.CreatedExpiryPolicy;
+import javax.cache.expiry.Duration;
+import javax.cache.expiry.TouchedExpiryPolicy;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LongKeyTCacheTest {
+
+    private static final int SIZE = 100_000;
+
+    private TCacheManager cacheManager;
+
+    @Before
+    public void setupCacheManager() {
+        cacheManager = new TCacheManager();
+    }
+
+    @After
+    public void closeCacheManager() {
+        cacheManager.close();
+    }
+
+    private static TCacheConfiguration<Long, String> config() {
+        TCacheConfiguration<Long, String> config = new TCacheConfiguration<>();
+        config.setTypes(Long.class, String.class);
+        return config;
+    }
+
+    @Test
+    public void primitiveAndBoxedViewsShareTheEntries() {
+        LongKeyTCache<String> cache = cacheManager.createLongKeyCache("longCache", config());
+        Cache<Long, String> view = cacheManager.getCache("longCache", Long.class, String.class);
+        assertSame(cache, view);
+        long[] keys = {0, -1, 1, Long.MIN_VALUE, Long.MAX_VALUE, 1L << 40};
+        for (long key : keys) {
+            cache.put(key, "value_" + key);
+        }
+        for (long key : keys) {
+            assertEquals("value_" + key, cache.get(key));
+            assertEquals("value_" + key, view.get(Long.valueOf(key)));
+            assertTrue(view.containsKey(Long.valueOf(key)));
+        }
+        assertNull(cache.get(2));
+        assertFalse(cache.putIfAbsent(0, "other"));
+        assertTrue(view.putIfAbsent(2L, "two"));
+        assertEquals("two", cache.getAndPut(2, "second"));
+        assertFalse(cache.replace(2, "two", "third"));
+        assertTrue(view.replace(2L, "second", "third"));
+        assertEquals("third", cache.getAndReplace(2, "fourth"));
+        assertFalse(cache.replace(3, "three"));
+        assertFalse(cache.remove(2, "third"));
+        assertTrue(view.remove(2L, "fourth"));
+        assertEquals("value_1", view.getAndRemove(1L));
+        assertFalse(cache.remove(1));
+        assertEquals(Integer.valueOf(17), cache.invokeLong(0, (entry, arguments) -> {
+            entry.setValue(entry.getValue() + "_processed");
+            return entry.getValue().length();
+        }));
+        assertEquals("value_0_processed", cache.get(0));
+        cache.invokeLong(0, (entry, arguments) -> {
+            entry.remove();
+            return null;
+        });
+        assertFalse(cache.containsKey(0));
+    }
+
+    @Test
+    public void tableGrowsAndReusesRemovedSlots() {
+        LongKeyTCache<String> cache = cacheManager.createLongKeyCache("longCache", config());
+        for (int round = 0; round < 3; ++round) {
+            for (long key = 0; key < SIZE; ++key) {
+                cache.put(key * 31, "value_" + key);
+            }
+            for (long key = 0; key < SIZE; key += 2) {
+                assertTrue(cache.remove(key * 31));
+            }
+            for (long key = 0; key < SIZE; ++key) {
+                assertEquals(key % 2 == 0 ? null : "value_" + key, cache.get(key * 31));
+            }
+        }
+        Set<Long> keys = new HashSet<>();
+        for (Iterator<Cache.Entry<Long, String>> iterator = cache.iterator(); iterator.hasNext(); ) {
+            Cache.Entry<Long, String> entry = iterator.next();
+            assertEquals("value_" + entry.getKey() / 31, entry.getValue());
+            assertTrue(keys.add(entry.getKey()));
+            if (entry.getKey() % 3 == 0) {
+                iterator.remove();
+            }
+        }
+        assertEquals(SIZE / 2, keys.size());
+        for (long key : keys) {
+            assertEquals(key % 3 != 0, cache.containsKey(key));
+        }
+        cache.removeAll();
+        assertFalse(cache.iterator().hasNext());
+    }
+
+    @Test
+    public void bulkOperations() {
+        Cache<Long, String> cache = cacheManager.createLongKeyCache("longCache", config());
+        Map<Long, String> entries = new HashMap<>();
+        for (long key = 0; key < 100; ++key) {
+            entries.put(key, "value_" + key);
+        }
+        cache.putAll(entries);
+        assertEquals(entries, cache.getAll(entries.keySet()));
+        Map<Long, Integer> lengths = cache.invokeAll(entries.keySet(),
+                (entry, arguments) -> entry.getValue().length());
+        assertEquals(Integer.valueOf("value_99".length()), lengths.get(99L));
+        cache.removeAll(entries.keySet());
+        assertTrue(cache.getAll(entries.keySet()).isEmpty());
+    }
+
+    @Test
+    public void entriesExpire() throws InterruptedException {
+        TCacheConfiguration<Long, String> config = config();
+        config.setExpiryPolicyFactory(CreatedExpiryPolicy.factoryOf(new Duration(TimeUnit.MILLISECONDS, 200)));
+        LongKeyTCache<String> cache = cacheManager.createLongKeyCache("longCache", config);
+        for (long key = 0; key < 1000; ++key) {
+            cache.put(key, "value");
+        }
+        assertTrue(cache.containsKey(0));
+        Thread.sleep(400);
+        for (long key = 0; key < 1000; ++key) {
+            assertNull(cache.get(key));
+        }
+        assertFalse(cache.iterator().hasNext());
+        assertTrue(cache.putIfAbsent(0, "again"));
+    }
+
+    @Test
+    public void accessExtendsTheExpiry() throws InterruptedException {
+        TCacheConfiguration<Long, String> config = config();
+        config.setExpiryPolicyFactory(TouchedExpiryPolicy.factoryOf(new Duration(TimeUnit.MILLISECONDS, 300)));
+        LongKeyTCache<String> cache = cacheManager.createLongKeyCache("longCache", config);
+        cache.put(1, "touched");
+        cache.put(2, "untouched");
+        for (int i = 0; i < 5; ++i) {
+            Thread.sleep(100);
+            assertEquals("touched", cache.get(1));
+        }
+        assertEquals("touched", cache.get(1));
+        assertNull(cache.get(2));
+    }
+
+    @Test
+    public void valuesAreStoredByValue() {
+        TCacheConfiguration<Long, byte[]> config = new TCacheConfiguration<>();
+        config.setTypes(Long.class, byte[].class);
+        LongKeyTCache<byte[]> cache = cacheManager.createLongKeyCache("longCache", config);
+        byte[] value = {1, 2, 3};
+        cache.put(1, value);
+        value[0] = 9;
+        assertArrayEquals(new byte[]{1, 2, 3}, cache.get(1));
+        cache.get(1)[1] = 9;
+        assertArrayEquals(new byte[]{1, 2, 3}, cache.get(1));
+    }
+
+    @Test
+    public void statisticsAreRecorded() {
+        TCacheConfiguration<Long, String> config = config();
+        config.setStatisticsEnabled(true);
+        LongKeyTCache<String> cache = cacheManager.createLongKeyCache("longCache", config);
+        cache.put(1, "one");
+        cache.get(1);
+        cache.get(2);
+        cache.remove(1);
+        assertEquals(1, cache.getStatistics().getCachePuts());
+        assertEquals(1, cache.getStatistics().getCacheHits());
+        assertEquals(1, cache.getStatistics().getCacheMisses());
+        assertEquals(1, cache.getStatistics().getCacheRemovals());
+    }
+
+    @Test
+    public void concurrentWritersAndReaders() throws Exception {
+        LongKeyTCache<String> cache = cacheManager.createLongKeyCache("longCache", config());
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; ++t) {
+            long offset = t * (long) SIZE;
+            threads[t] = new Thread(() -> {
+                try {
+                    for (long key = offset; key < offset + SIZE / 10; ++key) {
+                        cache.put(key, "value_" + key);
+                        assertEquals("value_" + key, cache.get(key));
+                        if (key % 2 == 0) {
+                            assertTrue(cache.remove(key));
+                        }
+                    }
+                    for (long key = offset; key < offset + SIZE / 10; ++key) {
+                        assertEquals(key % 2 == 0 ? null : "value_" + key, cache.get(key));
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (null != failure.get()) {
+            throw new AssertionError(failure.get());
+        }
+    }
+
+    @Test
+    public void sharesTheNamesAndLifecycleOfTheManager() {
+        LongKeyTCache<String> cache = cacheManager.createLongKeyCache("longCache", config());
+        try {
+            cacheManager.createCache("longCache", config());
+            throw new AssertionError();
+        } catch (CacheException e) {
+            //expected
+        }
+        assertTrue(cacheManager.getCacheNames().iterator().hasNext());
+        cache.put(1, "one");
+        cacheManager.destroyCache("longCache");
+        assertTrue(cache.isClosed());
+        assertNull(cacheManager.getCache("longCache"));
+        assertNull(cacheManager.createLongKeyCache("longCache", config()).get(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsupportedFeaturesAreRejected() {
+        TCacheConfiguration<Long, String> config = config();
+        config.setMaximumSize(100);
+        cacheManager.createLongKeyCache("longCache", config);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void listenersAreRejected() {
+        LongKeyTCache<String> cache = cacheManager.createLongKeyCache("longCache", config());
+        Factory<CacheEntryCreatedListener<Long, String>> listenerFactory = () -> events -> { };
+        cache.registerCacheEntryListener(
+                new MutableCacheEntryListenerConfiguration<>(listenerFactory, null, false, true));
+    }
+}
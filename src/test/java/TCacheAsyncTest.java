@@ -0,0 +1,145 @@
+import CacheApi.TAsyncCache;
+import CacheApi.TCache;
+import CacheApi.TCacheConfiguration;
+import CacheApi.TCacheManager;
+import CacheApi.TLogSyncPolicy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.cache.configuration.Factory;
+import javax.cache.configuration.FactoryBuilder;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TCacheAsyncTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TCacheManager cacheManager;
+
+    private TCacheLoaderTest.CountingLoader loader;
+
+    private TAsyncCache<Integer, String> cache;
+
+    @Before
+    public void setupCache() {
+        loader = new TCacheLoaderTest.CountingLoader();
+        TCacheConfiguration<Integer, String> config = new TCacheConfiguration<>();
+        config.setTypes(Integer.class, String.class);
+        config.setReadThrough(true).setCacheLoaderFactory(FactoryBuilder.factoryOf(loader));
+        cacheManager = new TCacheManager();
+        TCache<Integer, String> syncCache = cacheManager.createCache("asyncCache", config).unwrap(TCache.class);
+        cache = syncCache.async();
+    }
+
+    @After
+    public void closeCacheManager() {
+        cacheManager.close();
+    }
+
+    @Test
+    public void hitsCompleteInline() {
+        CompletableFuture<Void> put = cache.putAsync(1, "one");
+        assertTrue(put.isDone());
+        CompletableFuture<String> get = cache.getAsync(1);
+        assertTrue(get.isDone());
+        assertEquals("one", get.join());
+        assertEquals("one", cache.sync().get(1));
+        assertEquals(Boolean.TRUE, cache.removeAsync(1).join());
+        assertEquals(0, loader.loads.get());
+    }
+
+    @Test
+    public void createdExecutorIsShutDownWithTheCache() {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        TCacheConfiguration<Integer, String> config = new TCacheConfiguration<>();
+        config.setTypes(Integer.class, String.class);
+        config.setAsyncExecutorFactory((Factory<ExecutorService>) () -> executor);
+        TCache<Integer, String> syncCache = cacheManager.createCache("executedCache", config).unwrap(TCache.class);
+        syncCache.async().putAsync(1, "one").join();
+        assertFalse(executor.isShutdown());
+        syncCache.close();
+        assertTrue(executor.isShutdown());
+    }
+
+    @Test
+    public void loadsDoNotBlockTheCaller() throws Exception {
+        loader.gate = new CountDownLatch(1);
+        CompletableFuture<String> get = cache.getAsync(1);
+        assertFalse(get.isDone());
+        loader.gate.countDown();
+        assertEquals("value_1", get.get(5, TimeUnit.SECONDS));
+        assertEquals("value_1", cache.sync().get(1));
+        assertEquals(1, loader.loads.get());
+    }
+
+    @Test
+    public void getAllLoadsOnlyTheMisses() throws Exception {
+        cache.putAsync(1, "one");
+        Map<Integer, String> values = cache.getAllAsync(new HashSet<>(Arrays.asList(1, 2))).get(5, TimeUnit.SECONDS);
+        assertEquals("one", values.get(1));
+        assertEquals("value_2", values.get(2));
+        assertEquals(1, loader.batches.get());
+    }
+
+    @Test
+    public void invokesShareTheEntries() throws Exception {
+        cache.sync().put(1, "one");
+        String result = cache.<String>invokeAsync(1, (entry, arguments) -> {
+            String value = entry.getValue();
+            entry.setValue(value + "!");
+            return value;
+        }).get(5, TimeUnit.SECONDS);
+        assertEquals("one", result);
+        assertEquals("one!", cache.sync().get(1));
+    }
+
+    @Test
+    public void operationsOnAClosedCacheFail() {
+        cache.sync().put(1, "one");
+        cache.sync().close();
+        assertTrue(cache.getAsync(1).isCompletedExceptionally());
+        assertTrue(cache.getAllAsync(new HashSet<>(Arrays.asList(1, 2))).isCompletedExceptionally());
+        assertTrue(cache.putAsync(1, "one").isCompletedExceptionally());
+    }
+
+    @Test
+    public void syncedMutationsDoNotBlockTheCaller() throws Exception {
+        Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        TCacheConfiguration<Integer, String> config = new TCacheConfiguration<>();
+        config.setTypes(Integer.class, String.class);
+        config.setWriteAheadLogDirectory(folder.newFolder().toString())
+                .setWriteAheadLogSyncPolicy(TLogSyncPolicy.ALWAYS);
+        config.setAsyncExecutorFactory((Factory<Executor>) () -> tasks::add);
+        TAsyncCache<Integer, String> durableCache =
+                cacheManager.createCache("durableCache", config).unwrap(TCache.class).async();
+        CompletableFuture<Void> put = durableCache.putAsync(1, "one");
+        CompletableFuture<Boolean> remove = durableCache.removeAsync(1);
+        assertFalse(put.isDone());
+        assertFalse(remove.isDone());
+        assertEquals(2, tasks.size());
+        for (Runnable task : tasks) {
+            task.run();
+        }
+        put.get(5, TimeUnit.SECONDS);
+        assertEquals(Boolean.TRUE, remove.get(5, TimeUnit.SECONDS));
+    }
+}
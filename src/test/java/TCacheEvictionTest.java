@@ -0,0 +1,185 @@
+import CacheApi.TCacheConfiguration;
+import CacheApi.TCacheManager;
+import CacheApi.TCacheWeigher;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.cache.Cache;
+import javax.cache.configuration.FactoryBuilder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TCacheEvictionTest {
+
+    private static final int MAXIMUM_SIZE = 100;
+
+    private final List<TCacheManager> cacheManagers = new ArrayList<>();
+
+    private Cache<Integer, String> cache;
+
+    @Before
+    public void setupCache() {
+        TCacheConfiguration<Integer, String> config = new TCacheConfiguration<>();
+        config.setTypes(Integer.class, String.class);
+        config.setMaximumSize(MAXIMUM_SIZE);
+        cache = newCacheManager().createCache("boundedCache", config);
+    }
+
+    @After
+    public void closeCacheManagers() {
+        for (TCacheManager cacheManager : cacheManagers) {
+            cacheManager.close();
+        }
+    }
+
+    private TCacheManager newCacheManager() {
+        TCacheManager cacheManager = new TCacheManager();
+        cacheManagers.add(cacheManager);
+        return cacheManager;
+    }
+
+    private int size() {
+        int size = 0;
+        for (int i = 0; i < 100_000; ++i) {
+            if (cache.containsKey(i)) {
+                ++size;
+            }
+        }
+        return size;
+    }
+
+    @Test
+    public void sizeIsBounded() {
+        for (int i = 0; i < 10_000; ++i) {
+            cache.put(i, "value_" + i);
+        }
+        assertTrue(size() <= MAXIMUM_SIZE);
+    }
+
+    @Test
+    public void frequentKeysSurvive() {
+        for (int i = 0; i < MAXIMUM_SIZE / 2; ++i) {
+            cache.put(i, "hot_" + i);
+        }
+        for (int round = 0; round < 10; ++round) {
+            for (int i = 0; i < MAXIMUM_SIZE / 2; ++i) {
+                cache.get(i);
+            }
+        }
+        // a scan of keys seen only once must not flush the hot keys
+        for (int i = 1000; i < 100_000; ++i) {
+            cache.put(i, "cold_" + i);
+            for (int hot = (i % 10) * 5; hot < (i % 10) * 5 + 5; ++hot) {
+                cache.get(hot);
+            }
+        }
+        int hotSurvivors = 0;
+        for (int i = 0; i < MAXIMUM_SIZE / 2; ++i) {
+            if (cache.containsKey(i)) {
+                ++hotSurvivors;
+            }
+        }
+        assertTrue("hot keys evicted: " + hotSurvivors, hotSurvivors >= MAXIMUM_SIZE / 2 * 9 / 10);
+    }
+
+    @Test
+    public void removedEntriesFreeCapacity() {
+        for (int i = 0; i < MAXIMUM_SIZE; ++i) {
+            cache.put(i, "value_" + i);
+        }
+        cache.clear();
+        for (int i = 0; i < MAXIMUM_SIZE; ++i) {
+            cache.put(i, "value_" + i);
+        }
+        assertEquals(MAXIMUM_SIZE, size());
+    }
+
+    @Test
+    public void readsOfEntryProcessorsDrainThePolicyOutsideTheirLock() throws Exception {
+        //the readers overflow the read buffer while the writers make the policy evict
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> failures = new CopyOnWriteArrayList<>();
+        for (int t = 0; t < 4; ++t) {
+            int thread = t;
+            threads.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < 50_000; ++i) {
+                        int key = (i * 31 + thread * 7919) % 10_000;
+                        cache.put(key, "value_" + key);
+                        cache.invoke(i % MAXIMUM_SIZE, (entry, arguments) -> entry.getValue());
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Collections.emptyList(), failures);
+        assertTrue(size() <= MAXIMUM_SIZE);
+    }
+
+    public static class LengthWeigher implements TCacheWeigher<Integer, String> {
+        @Override
+        public int weigh(Integer key, String value) {
+            return value.length();
+        }
+    }
+
+    private static TCacheConfiguration<Integer, String> weightedConfiguration() {
+        TCacheConfiguration<Integer, String> config = new TCacheConfiguration<>();
+        config.setTypes(Integer.class, String.class);
+        config.setWeigherFactory(FactoryBuilder.factoryOf(LengthWeigher.class));
+        return config;
+    }
+
+    private static long weight(Cache<Integer, String> cache, int keys) {
+        long weight = 0;
+        for (int i = 0; i < keys; ++i) {
+            String value = cache.get(i);
+            if (null != value) {
+                weight += value.length();
+            }
+        }
+        return weight;
+    }
+
+    @Test
+    public void weightIsBounded() {
+        TCacheConfiguration<Integer, String> config = weightedConfiguration();
+        config.setMaximumWeight(1000);
+        Cache<Integer, String> weightedCache = newCacheManager().createCache("weightedCache", config);
+        for (int i = 0; i < 1000; ++i) {
+            weightedCache.put(i, new String(new char[i % 50]));
+        }
+        assertTrue(weight(weightedCache, 1000) <= 1000);
+        // an entry growing by an update is charged too
+        weightedCache.put(0, new String(new char[2000]));
+        assertTrue(weight(weightedCache, 1000) <= 1000);
+    }
+
+    @Test
+    public void managerBudgetIsShared() {
+        TCacheManager manager = new TCacheManager(5000);
+        cacheManagers.add(manager);
+        Cache<Integer, String> first = manager.createCache("first", weightedConfiguration());
+        Cache<Integer, String> second = manager.createCache("second", weightedConfiguration());
+        for (int i = 0; i < 1000; ++i) {
+            first.put(i, new String(new char[10]));
+            second.put(i, new String(new char[20]));
+        }
+        long total = weight(first, 1000) + weight(second, 1000);
+        assertTrue("total weight " + total, total <= 5000);
+        assertTrue(total > 0);
+    }
+}
@@ -0,0 +1,148 @@
+import CacheApi.TCache;
+import CacheApi.TCacheManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.cache.Cache;
+import javax.cache.configuration.MutableConfiguration;
+import javax.cache.expiry.AccessedExpiryPolicy;
+import javax.cache.expiry.CreatedExpiryPolicy;
+import javax.cache.expiry.Duration;
+import javax.cache.expiry.ModifiedExpiryPolicy;
+import javax.cache.management.CacheStatisticsMXBean;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TCacheExpiryTest {
+
+    private static final int SIZE = 10_000;
+
+    private TCacheManager cacheManager;
+
+    @Before
+    public void setupCacheManager() {
+        cacheManager = new TCacheManager();
+    }
+
+    @After
+    public void closeCacheManager() {
+        cacheManager.close();
+    }
+
+    private static void awaitReaped(TCache<?, ?> cache, long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (cache.getReapedCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+    }
+
+    @Test
+    public void unreadEntriesAreReaped() throws InterruptedException {
+        MutableConfiguration<Integer, String> config = new MutableConfiguration<>();
+        config.setTypes(Integer.class, String.class);
+        config.setExpiryPolicyFactory(CreatedExpiryPolicy.factoryOf(new Duration(TimeUnit.MILLISECONDS, 100)));
+        Cache<Integer, String> cache = cacheManager.createCache("expiringCache", config);
+        for (int i = 0; i < SIZE; ++i) {
+            cache.put(i, "value_" + i);
+        }
+        TCache<?, ?> tCache = cache.unwrap(TCache.class);
+        awaitReaped(tCache, SIZE);
+        assertEquals(SIZE, tCache.getReapedCount());
+        for (int i = 0; i < SIZE; ++i) {
+            assertFalse(cache.containsKey(i));
+        }
+        assertTrue(tCache.getMaximumReapLag() < 5_000);
+    }
+
+    @Test
+    public void removedEntriesAreNotReaped() throws InterruptedException {
+        MutableConfiguration<Integer, String> config = new MutableConfiguration<>();
+        config.setTypes(Integer.class, String.class);
+        config.setExpiryPolicyFactory(CreatedExpiryPolicy.factoryOf(new Duration(TimeUnit.MILLISECONDS, 100)));
+        Cache<Integer, String> cache = cacheManager.createCache("removedCache", config);
+        for (int i = 0; i < SIZE; ++i) {
+            cache.put(i, "value_" + i);
+        }
+        for (int i = 0; i < SIZE / 2; ++i) {
+            cache.remove(i);
+        }
+        TCache<?, ?> tCache = cache.unwrap(TCache.class);
+        awaitReaped(tCache, SIZE / 2);
+        assertEquals(SIZE / 2, tCache.getReapedCount());
+    }
+
+    @Test
+    public void accessExtendsExpiry() throws InterruptedException {
+        MutableConfiguration<Integer, String> config = new MutableConfiguration<>();
+        config.setTypes(Integer.class, String.class);
+        config.setExpiryPolicyFactory(AccessedExpiryPolicy.factoryOf(new Duration(TimeUnit.MILLISECONDS, 300)));
+        Cache<Integer, String> cache = cacheManager.createCache("accessedCache", config);
+        cache.put(1, "read");
+        cache.put(2, "unread");
+        for (int i = 0; i < 10; ++i) {
+            Thread.sleep(100);
+            assertEquals("read", cache.get(1));
+        }
+        assertFalse(cache.containsKey(2));
+        // an update does not change the expiry of an accessed entry
+        cache.put(1, "updated");
+        Thread.sleep(400);
+        assertNull(cache.get(1));
+    }
+
+    @Test
+    public void expiredEntriesAreNotReplacedOrRemoved() throws InterruptedException {
+        MutableConfiguration<Integer, String> config = new MutableConfiguration<>();
+        config.setTypes(Integer.class, String.class);
+        config.setExpiryPolicyFactory(CreatedExpiryPolicy.factoryOf(new Duration(TimeUnit.MILLISECONDS, 50)));
+        Cache<Integer, String> cache = cacheManager.createCache("replacedCache", config);
+        for (int i = 0; i < 4; ++i) {
+            cache.put(i, "value_" + i);
+        }
+        // expired, but not yet reaped by the coarser buckets of the timer wheel
+        Thread.sleep(150);
+        assertFalse(cache.replace(0, "replaced"));
+        assertFalse(cache.replace(1, "value_1", "replaced"));
+        assertNull(cache.getAndReplace(2, "replaced"));
+        assertFalse(cache.remove(3, "value_3"));
+        for (int i = 0; i < 4; ++i) {
+            assertNull(cache.get(i));
+        }
+    }
+
+    @Test
+    public void expiredEntriesAreNotRemovedByKey() throws InterruptedException {
+        MutableConfiguration<Integer, String> config = new MutableConfiguration<>();
+        config.setTypes(Integer.class, String.class);
+        config.setStatisticsEnabled(true);
+        config.setExpiryPolicyFactory(CreatedExpiryPolicy.factoryOf(new Duration(TimeUnit.MILLISECONDS, 50)));
+        Cache<Integer, String> cache = cacheManager.createCache("removedByKeyCache", config);
+        cache.put(0, "value_0");
+        cache.put(1, "value_1");
+        // expired, but not yet reaped by the coarser buckets of the timer wheel
+        Thread.sleep(150);
+        assertFalse(cache.remove(0));
+        assertNull(cache.getAndRemove(1));
+        CacheStatisticsMXBean statistics = cache.unwrap(TCache.class).getStatistics();
+        assertEquals(0, statistics.getCacheHits());
+        assertEquals(0, statistics.getCacheRemovals());
+    }
+
+    @Test
+    public void zeroDurationIsNotCached() {
+        MutableConfiguration<Integer, String> config = new MutableConfiguration<>();
+        config.setTypes(Integer.class, String.class);
+        config.setExpiryPolicyFactory(ModifiedExpiryPolicy.factoryOf(Duration.ZERO));
+        Cache<Integer, String> cache = cacheManager.createCache("zeroCache", config);
+        cache.put(1, "value");
+        assertFalse(cache.containsKey(1));
+        assertTrue(cache.putIfAbsent(1, "value"));
+        assertNull(cache.get(1));
+    }
+}
@@ -0,0 +1,128 @@
+import CacheApi.TCache;
+import CacheApi.TCacheConfiguration;
+import CacheApi.TCacheManager;
+import CacheApi.TEntryProcessorResult;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.cache.processor.EntryProcessor;
+import javax.cache.processor.EntryProcessorException;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TCacheInvokeTest {
+
+    private static final EntryProcessor<String, Long, Long> INCREMENT = (entry, arguments) -> {
+        long value = entry.exists() ? entry.getValue() : 0;
+        entry.setValue(value + (Long) arguments[0]);
+        return value;
+    };
+
+    private TCacheManager cacheManager;
+
+    private TCache<String, Long> cache;
+
+    @Before
+    public void setupCache() {
+        TCacheConfiguration<String, Long> config = new TCacheConfiguration<>();
+        config.setTypes(String.class, Long.class);
+        cacheManager = new TCacheManager();
+        cache = cacheManager.createCache("counterCache", config).unwrap(TCache.class);
+    }
+
+    @After
+    public void closeCacheManager() {
+        cacheManager.close();
+    }
+
+    @Test
+    public void entriesAreCreatedUpdatedAndRemoved() {
+        assertEquals(Long.valueOf(0), cache.invoke("counter", INCREMENT, 5L));
+        assertEquals(Long.valueOf(5), cache.invoke("counter", INCREMENT, 1L));
+        assertEquals(Long.valueOf(6), cache.get("counter"));
+        assertTrue(cache.invoke("counter", (entry, arguments) -> {
+            entry.remove();
+            return !entry.exists();
+        }));
+        assertFalse(cache.containsKey("counter"));
+        assertNull(cache.invoke("missing", (entry, arguments) -> entry.getValue()));
+        assertFalse(cache.containsKey("missing"));
+    }
+
+    @Test
+    public void concurrentIncrementsAreAtomic() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            Future<?>[] workers = new Future<?>[8];
+            for (int i = 0; i < workers.length; i++) {
+                workers[i] = executor.submit(() -> {
+                    for (int j = 0; j < 1000; j++) {
+                        cache.invoke("counter", INCREMENT, 1L);
+                    }
+                });
+            }
+            for (Future<?> worker : workers) {
+                worker.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(Long.valueOf(8000), cache.get("counter"));
+    }
+
+    @Test
+    public void failingProcessorLeavesTheEntryUnchanged() {
+        cache.put("counter", 1L);
+        try {
+            cache.invoke("counter", (entry, arguments) -> {
+                entry.setValue(2L);
+                throw new IllegalStateException("failed");
+            });
+            fail();
+        } catch (EntryProcessorException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertEquals(Long.valueOf(1), cache.get("counter"));
+    }
+
+    @Test
+    public void invokeAllCapturesFailuresPerKey() {
+        Set<String> keys = new HashSet<>();
+        for (int i = 0; i < 2000; i++) {
+            keys.add("key_" + i);
+        }
+        EntryProcessor<String, Long, Long> processor = (entry, arguments) -> {
+            if (entry.getKey().equals("key_7")) {
+                throw new IllegalArgumentException("key_7");
+            }
+            return INCREMENT.process(entry, arguments);
+        };
+        Map<String, TEntryProcessorResult<Long>> results = cache.invokeAllWithResults(keys, processor, 3L);
+        assertEquals(keys.size(), results.size());
+        assertTrue(results.get("key_7").isFailure());
+        assertEquals(Long.valueOf(0), results.get("key_8").get());
+        assertEquals(Long.valueOf(3), cache.get("key_8"));
+        assertFalse(cache.containsKey("key_7"));
+
+        try {
+            cache.invokeAll(keys, processor, 3L);
+            fail();
+        } catch (EntryProcessorException e) {
+            assertTrue(e.getMessage().contains("key_7"));
+        }
+        assertEquals(Long.valueOf(6), cache.get("key_8"));
+    }
+}
@@ -0,0 +1,149 @@
+import CacheApi.TCache;
+import CacheApi.TCacheManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.cache.Cache;
+import javax.cache.configuration.MutableConfiguration;
+import javax.cache.expiry.CreatedExpiryPolicy;
+import javax.cache.expiry.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.StreamSupport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TCacheIteratorTest {
+
+    private static final int SIZE = 200_000;
+
+    private TCacheManager cacheManager;
+
+    @Before
+    public void setupCacheManager() {
+        cacheManager = new TCacheManager();
+    }
+
+    @After
+    public void closeCacheManager() {
+        cacheManager.close();
+    }
+
+    private TCache<Integer, String> createCache(String name, MutableConfiguration<Integer, String> config) {
+        config.setTypes(Integer.class, String.class);
+        return cacheManager.createCache(name, config).unwrap(TCache.class);
+    }
+
+    @Test
+    public void iteratorReturnsEveryEntry() {
+        TCache<Integer, String> cache = createCache("iteratedCache", new MutableConfiguration<>());
+        Map<Integer, String> expected = new HashMap<>();
+        for (int i = 0; i < 1000; ++i) {
+            cache.put(i, "value_" + i);
+            expected.put(i, "value_" + i);
+        }
+        Map<Integer, String> actual = new HashMap<>();
+        for (Cache.Entry<Integer, String> entry : cache) {
+            assertNull(actual.put(entry.getKey(), entry.getValue()));
+        }
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void iteratorRemovesEntries() {
+        TCache<Integer, String> cache = createCache("removedCache", new MutableConfiguration<>());
+        for (int i = 0; i < 100; ++i) {
+            cache.put(i, "value_" + i);
+        }
+        Iterator<Cache.Entry<Integer, String>> iterator = cache.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getKey() % 2 == 0) {
+                iterator.remove();
+            }
+        }
+        for (int i = 0; i < 100; ++i) {
+            assertEquals(i % 2 != 0, cache.containsKey(i));
+        }
+    }
+
+    @Test
+    public void iteratorToleratesConcurrentMutations() {
+        TCache<Integer, String> cache = createCache("mutatedCache", new MutableConfiguration<>());
+        for (int i = 0; i < 1000; ++i) {
+            cache.put(i, "value_" + i);
+        }
+        Set<Integer> keys = new HashSet<>();
+        int next = 1000;
+        for (Cache.Entry<Integer, String> entry : cache) {
+            assertTrue(keys.add(entry.getKey()));
+            cache.remove(entry.getKey() + 1);
+            cache.put(next++, "value");
+        }
+        assertFalse(keys.isEmpty());
+    }
+
+    @Test
+    public void expiredEntriesAreSkipped() throws InterruptedException {
+        MutableConfiguration<Integer, String> config = new MutableConfiguration<>();
+        config.setExpiryPolicyFactory(CreatedExpiryPolicy.factoryOf(new Duration(TimeUnit.MILLISECONDS, 100)));
+        TCache<Integer, String> cache = createCache("expiringCache", config);
+        for (int i = 0; i < 100; ++i) {
+            cache.put(i, "value_" + i);
+        }
+        Thread.sleep(200);
+        assertFalse(cache.iterator().hasNext());
+        assertEquals(0, StreamSupport.stream(cache.spliterator(true), true).count());
+    }
+
+    @Test
+    public void parallelStreamScansEveryEntry() {
+        TCache<Integer, String> cache = createCache("scannedCache", new MutableConfiguration<>());
+        for (int i = 0; i < SIZE; ++i) {
+            cache.put(i, "value_" + i);
+        }
+        Spliterator<Cache.Entry<Integer, String>> spliterator = cache.spliterator();
+        assertTrue(spliterator.hasCharacteristics(Spliterator.CONCURRENT));
+        assertTrue(spliterator.trySplit() != null);
+        assertEquals(SIZE, StreamSupport.stream(cache.spliterator(), true).count());
+        long keySum = StreamSupport.stream(cache.spliterator(true), true)
+                .mapToLong(Cache.Entry::getKey)
+                .sum();
+        assertEquals((long) SIZE * (SIZE - 1) / 2, keySum);
+    }
+
+    @Test
+    public void flyweightScanReusesTheEntry() {
+        TCache<Integer, String> cache = createCache("flyweightCache", new MutableConfiguration<>());
+        for (int i = 0; i < 100; ++i) {
+            cache.put(i, "value_" + i);
+        }
+        Set<Cache.Entry<Integer, String>> instances = new HashSet<>();
+        Set<Integer> keys = new HashSet<>();
+        cache.spliterator(true).forEachRemaining(entry -> {
+            instances.add(entry);
+            keys.add(entry.getKey());
+            assertEquals("value_" + entry.getKey(), entry.getValue());
+        });
+        assertEquals(1, instances.size());
+        assertEquals(100, keys.size());
+        Set<Cache.Entry<Integer, String>> copies = new HashSet<>();
+        cache.spliterator().forEachRemaining(copies::add);
+        assertEquals(100, copies.size());
+        Cache.Entry<Integer, String> instance = instances.iterator().next();
+        Spliterator<Cache.Entry<Integer, String>> spliterator = cache.spliterator(true);
+        spliterator.tryAdvance(entry -> assertFalse(entry == instance));
+        Cache.Entry<?, ?>[] first = new Cache.Entry<?, ?>[1];
+        spliterator.tryAdvance(entry -> first[0] = entry);
+        spliterator.tryAdvance(entry -> assertSame(first[0], entry));
+    }
+}
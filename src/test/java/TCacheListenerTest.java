@@ -0,0 +1,228 @@
+import CacheApi.TCache;
+import CacheApi.TCacheConfiguration;
+import CacheApi.TCacheManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.cache.configuration.FactoryBuilder;
+import javax.cache.configuration.MutableCacheEntryListenerConfiguration;
+import javax.cache.event.CacheEntryCreatedListener;
+import javax.cache.event.CacheEntryEvent;
+import javax.cache.event.CacheEntryEventFilter;
+import javax.cache.event.CacheEntryExpiredListener;
+import javax.cache.event.CacheEntryRemovedListener;
+import javax.cache.event.CacheEntryUpdatedListener;
+import javax.cache.event.EventType;
+import javax.cache.expiry.CreatedExpiryPolicy;
+import javax.cache.expiry.Duration;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TCacheListenerTest {
+
+    private TCacheManager cacheManager;
+
+    private RecordingListener listener;
+
+    @Before
+    public void setupCacheManager() {
+        cacheManager = new TCacheManager();
+        listener = new RecordingListener();
+    }
+
+    @After
+    public void closeCacheManager() {
+        listener.gate.countDown();
+        cacheManager.close();
+    }
+
+    private TCache<Integer, String> createCache(TCacheConfiguration<Integer, String> config) {
+        config.setTypes(Integer.class, String.class);
+        return cacheManager.createCache("listenedCache", config).unwrap(TCache.class);
+    }
+
+    private MutableCacheEntryListenerConfiguration<Integer, String> listenerConfiguration(boolean isSynchronous) {
+        return new MutableCacheEntryListenerConfiguration<>(
+                FactoryBuilder.factoryOf(listener), null, true, isSynchronous);
+    }
+
+    @Test
+    public void synchronousListenersAreCalledInline() {
+        TCacheConfiguration<Integer, String> config = new TCacheConfiguration<>();
+        config.addCacheEntryListenerConfiguration(listenerConfiguration(true));
+        TCache<Integer, String> cache = createCache(config);
+        cache.put(1, "one");
+        assertEquals(Collections.singletonList("CREATED 1=one"), listener.events());
+        cache.put(1, "uno");
+        cache.replace(1, "uno", "eins");
+        cache.invoke(2, (entry, arguments) -> {
+            entry.setValue("two");
+            return null;
+        });
+        cache.remove(1);
+        cache.remove(3);
+        assertEquals(Arrays.asList("CREATED 1=one", "UPDATED 1=uno/one", "UPDATED 1=eins/uno",
+                "CREATED 2=two", "REMOVED 1=eins/eins"), listener.events());
+    }
+
+    @Test
+    public void removeAllPublishesTheRemovals() {
+        TCacheConfiguration<Integer, String> config = new TCacheConfiguration<>();
+        config.addCacheEntryListenerConfiguration(listenerConfiguration(true));
+        TCache<Integer, String> cache = createCache(config);
+        cache.put(1, "one");
+        cache.removeAll();
+        assertEquals(Arrays.asList("CREATED 1=one", "REMOVED 1=one/one"), listener.events());
+    }
+
+    @Test
+    public void deregisteredListenersAreNotCalled() {
+        TCache<Integer, String> cache = createCache(new TCacheConfiguration<>());
+        MutableCacheEntryListenerConfiguration<Integer, String> listenerConfiguration = listenerConfiguration(true);
+        cache.registerCacheEntryListener(listenerConfiguration);
+        assertEquals(1, cache.getConfiguration().getCacheEntryListenerConfigurations().size());
+        cache.put(1, "one");
+        cache.deregisterCacheEntryListener(listenerConfiguration);
+        assertTrue(cache.getConfiguration().getCacheEntryListenerConfigurations().isEmpty());
+        cache.put(2, "two");
+        assertEquals(Collections.singletonList("CREATED 1=one"), listener.events());
+    }
+
+    @Test
+    public void filtersSelectTheEvents() {
+        TCache<Integer, String> cache = createCache(new TCacheConfiguration<>());
+        cache.registerCacheEntryListener(new MutableCacheEntryListenerConfiguration<>(
+                FactoryBuilder.factoryOf(listener), FactoryBuilder.factoryOf(new EvenKeyFilter()), false, true));
+        for (int i = 0; i < 4; i++) {
+            cache.put(i, "value_" + i);
+        }
+        assertEquals(Arrays.asList("CREATED 0=value_0", "CREATED 2=value_2"), listener.events());
+    }
+
+    @Test
+    public void asynchronousEventsKeepTheOrderOfTheirKey() {
+        TCacheConfiguration<Integer, String> config = new TCacheConfiguration<>();
+        config.addCacheEntryListenerConfiguration(listenerConfiguration(false));
+        TCache<Integer, String> cache = createCache(config);
+        for (int i = 0; i < 10_000; i++) {
+            cache.put(i % 100, String.valueOf(i));
+        }
+        cache.flushEvents();
+        assertEquals(0, cache.getPendingEventCount());
+        assertEquals(0, cache.getDroppedEventCount());
+        List<String> events = listener.events();
+        assertEquals(10_000, events.size());
+        Map<Integer, Integer> lastValues = new HashMap<>();
+        for (String event : events) {
+            String[] entry = event.substring(event.indexOf(' ') + 1).split("[=/]");
+            int value = Integer.parseInt(entry[1]);
+            Integer lastValue = lastValues.put(Integer.parseInt(entry[0]), value);
+            assertTrue(event, null == lastValue || lastValue < value);
+        }
+        assertTrue("events delivered one by one", listener.callCount() < events.size());
+    }
+
+    @Test
+    public void slowListenersDoNotStallWriters() {
+        TCacheConfiguration<Integer, String> config = new TCacheConfiguration<>();
+        config.setEventQueueCapacity(16);
+        config.addCacheEntryListenerConfiguration(listenerConfiguration(false));
+        TCache<Integer, String> cache = createCache(config);
+        listener.gate = new CountDownLatch(1);
+        long start = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            cache.put(i, "value_" + i);
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        assertTrue(cache.getDroppedEventCount() > 0);
+        listener.gate.countDown();
+        cache.flushEvents();
+        assertEquals(1000, listener.events().size() + cache.getDroppedEventCount());
+    }
+
+    @Test
+    public void expiredEntriesArePublished() throws InterruptedException {
+        TCacheConfiguration<Integer, String> config = new TCacheConfiguration<>();
+        config.setExpiryPolicyFactory(CreatedExpiryPolicy.factoryOf(new Duration(TimeUnit.MILLISECONDS, 50)));
+        config.addCacheEntryListenerConfiguration(listenerConfiguration(true));
+        TCache<Integer, String> cache = createCache(config);
+        cache.put(1, "one");
+        Thread.sleep(100);
+        cache.put(1, "uno");
+        assertEquals(Arrays.asList("CREATED 1=one", "EXPIRED 1=one/one", "CREATED 1=uno"), listener.events());
+    }
+
+    public static class RecordingListener implements CacheEntryCreatedListener<Integer, String>,
+            CacheEntryUpdatedListener<Integer, String>, CacheEntryRemovedListener<Integer, String>,
+            CacheEntryExpiredListener<Integer, String>, Serializable {
+
+        private final List<String> events = new ArrayList<>();
+
+        private int callCount;
+
+        volatile CountDownLatch gate = new CountDownLatch(0);
+
+        synchronized List<String> events() {
+            return new ArrayList<>(events);
+        }
+
+        synchronized int callCount() {
+            return callCount;
+        }
+
+        private void record(Iterable<CacheEntryEvent<? extends Integer, ? extends String>> iterable) {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (this) {
+                callCount++;
+                for (CacheEntryEvent<? extends Integer, ? extends String> event : iterable) {
+                    events.add(event.getEventType() + " " + event.getKey() + "=" + event.getValue()
+                            + (event.isOldValueAvailable() ? "/" + event.getOldValue() : ""));
+                }
+            }
+        }
+
+        @Override
+        public void onCreated(Iterable<CacheEntryEvent<? extends Integer, ? extends String>> iterable) {
+            record(iterable);
+        }
+
+        @Override
+        public void onUpdated(Iterable<CacheEntryEvent<? extends Integer, ? extends String>> iterable) {
+            record(iterable);
+        }
+
+        @Override
+        public void onRemoved(Iterable<CacheEntryEvent<? extends Integer, ? extends String>> iterable) {
+            record(iterable);
+        }
+
+        @Override
+        public void onExpired(Iterable<CacheEntryEvent<? extends Integer, ? extends String>> iterable) {
+            record(iterable);
+        }
+    }
+
+    public static class EvenKeyFilter implements CacheEntryEventFilter<Integer, String>, Serializable {
+
+        @Override
+        public boolean evaluate(CacheEntryEvent<? extends Integer, ? extends String> event) {
+            return event.getEventType() == EventType.CREATED && event.getKey() % 2 == 0;
+        }
+    }
+}
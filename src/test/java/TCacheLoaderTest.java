@@ -0,0 +1,226 @@
+import CacheApi.TCache;
+import CacheApi.TCacheConfiguration;
+import CacheApi.TCacheManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.cache.configuration.FactoryBuilder;
+import javax.cache.expiry.CreatedExpiryPolicy;
+import javax.cache.expiry.Duration;
+import javax.cache.integration.CacheLoader;
+import javax.cache.integration.CacheLoaderException;
+import javax.cache.integration.CompletionListenerFuture;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TCacheLoaderTest {
+
+    private TCacheManager cacheManager;
+
+    private TCache<Integer, String> cache;
+
+    private CountingLoader loader;
+
+    @Before
+    public void setupCache() {
+        loader = new CountingLoader();
+        TCacheConfiguration<Integer, String> config = new TCacheConfiguration<>();
+        config.setTypes(Integer.class, String.class);
+        config.setReadThrough(true).setCacheLoaderFactory(FactoryBuilder.factoryOf(loader));
+        cacheManager = new TCacheManager();
+        cache = cacheManager.createCache("loadingCache", config).unwrap(TCache.class);
+    }
+
+    @After
+    public void closeCacheManager() {
+        cacheManager.close();
+    }
+
+    @Test
+    public void missesAreLoaded() {
+        assertEquals("value_1", cache.get(1));
+        assertEquals("value_1", cache.get(1));
+        assertEquals(1, loader.loads.get());
+        assertNull(cache.get(-1));
+        assertEquals(2, cache.getLoadCount());
+    }
+
+    @Test
+    public void concurrentMissesAreCoalesced() throws Exception {
+        loader.gate = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            Future<?>[] gets = new Future<?>[8];
+            for (int i = 0; i < gets.length; i++) {
+                gets[i] = executor.submit(() -> assertEquals("value_1", cache.get(1)));
+            }
+            while (cache.getCoalescedLoadCount() < gets.length - 1) {
+                Thread.sleep(1);
+            }
+            loader.gate.countDown();
+            for (Future<?> get : gets) {
+                get.get(5, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, loader.loads.get());
+    }
+
+    @Test
+    public void getAllLoadsMissesInOneBatch() {
+        cache.put(1, "cached");
+        Map<Integer, String> values = cache.getAll(new HashSet<>(Arrays.asList(1, 2, 3)));
+        assertEquals("cached", values.get(1));
+        assertEquals("value_2", values.get(2));
+        assertEquals("value_3", values.get(3));
+        assertEquals(1, loader.batches.get());
+        assertEquals("value_3", cache.get(3));
+    }
+
+    @Test
+    public void loadAllRunsInTheBackground() throws Exception {
+        cache.put(1, "cached");
+        CompletionListenerFuture future = new CompletionListenerFuture();
+        cache.loadAll(new HashSet<>(Arrays.asList(1, 2)), false, future);
+        future.get(5, TimeUnit.SECONDS);
+        assertEquals("cached", cache.get(1));
+        assertEquals("value_2", cache.get(2));
+
+        future = new CompletionListenerFuture();
+        cache.loadAll(new HashSet<>(Arrays.asList(1, 2)), true, future);
+        future.get(5, TimeUnit.SECONDS);
+        assertEquals("value_1", cache.get(1));
+    }
+
+    @Test
+    public void loadFailuresAreTracked() throws Exception {
+        try {
+            cache.get(-2);
+            fail();
+        } catch (CacheLoaderException e) {
+            //expected
+        }
+        CompletionListenerFuture future = new CompletionListenerFuture();
+        cache.loadAll(new HashSet<>(Arrays.asList(-2)), false, future);
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (java.util.concurrent.ExecutionException e) {
+            assertTrue(e.getCause() instanceof CacheLoaderException);
+        }
+        assertEquals(2, cache.getLoadFailureCount());
+    }
+
+    @Test
+    public void entriesNearingExpiryAreRefreshed() throws Exception {
+        TCacheConfiguration<Integer, String> config = new TCacheConfiguration<>();
+        config.setTypes(Integer.class, String.class);
+        config.setReadThrough(true).setCacheLoaderFactory(FactoryBuilder.factoryOf(loader));
+        config.setExpiryPolicyFactory(CreatedExpiryPolicy.factoryOf(new Duration(TimeUnit.MILLISECONDS, 1000)));
+        config.setRefreshAheadFraction(0.5f);
+        TCache<Integer, String> refreshingCache =
+                cacheManager.createCache("refreshingCache", config).unwrap(TCache.class);
+
+        assertEquals("value_1", refreshingCache.get(1));
+        assertEquals("value_1", refreshingCache.get(1));
+        assertEquals(0, refreshingCache.getRefreshCount());
+        Thread.sleep(600);
+        assertEquals("value_1", refreshingCache.get(1));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (refreshingCache.getRefreshCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, refreshingCache.getRefreshCount());
+        assertEquals(2, loader.loads.get());
+        //the refreshed entry outlives the one that was loaded first
+        Thread.sleep(600);
+        assertTrue(refreshingCache.containsKey(1));
+    }
+
+    @Test
+    public void refreshDoesNotOverwriteAWrite() throws Exception {
+        TCacheConfiguration<Integer, String> config = new TCacheConfiguration<>();
+        config.setTypes(Integer.class, String.class);
+        config.setReadThrough(true).setCacheLoaderFactory(FactoryBuilder.factoryOf(loader));
+        config.setExpiryPolicyFactory(CreatedExpiryPolicy.factoryOf(new Duration(TimeUnit.MILLISECONDS, 2000)));
+        config.setRefreshAheadFraction(0.5f);
+        TCache<Integer, String> refreshingCache =
+                cacheManager.createCache("refreshingCache", config).unwrap(TCache.class);
+
+        assertEquals("value_1", refreshingCache.get(1));
+        Thread.sleep(1100);
+        loader.gate = new CountDownLatch(1);
+        //schedules the refresh, which waits for the gate
+        assertEquals("value_1", refreshingCache.get(1));
+        refreshingCache.put(1, "written");
+        //the refresh in flight is not scheduled twice
+        assertEquals("written", refreshingCache.get(1));
+        loader.gate.countDown();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (loader.loads.get() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(100);
+        assertEquals(2, loader.loads.get());
+        assertEquals(0, refreshingCache.getRefreshCount());
+        assertEquals("written", refreshingCache.get(1));
+    }
+
+    /**
+     * Loads "value_" + key, nothing for -1 and fails for -2.
+     */
+    public static class CountingLoader implements CacheLoader<Integer, String>, Serializable {
+
+        final AtomicInteger loads = new AtomicInteger();
+
+        final AtomicInteger batches = new AtomicInteger();
+
+        volatile CountDownLatch gate;
+
+        @Override
+        public String load(Integer key) {
+            if (null != gate) {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    throw new CacheLoaderException(e);
+                }
+            }
+            loads.incrementAndGet();
+            if (key == -2) {
+                throw new IllegalStateException("backing store is down");
+            }
+            return key == -1 ? null : "value_" + key;
+        }
+
+        @Override
+        public Map<Integer, String> loadAll(Iterable<? extends Integer> keys) {
+            batches.incrementAndGet();
+            Map<Integer, String> values = new HashMap<>();
+            for (Integer key : keys) {
+                if (key == -2) {
+                    throw new IllegalStateException("backing store is down");
+                }
+                values.put(key, "value_" + key);
+            }
+            return values;
+        }
+    }
+}
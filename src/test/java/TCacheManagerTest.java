@@ -0,0 +1,184 @@
+import CacheApi.TCacheConfiguration;
+import CacheApi.TCacheManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.cache.Cache;
+import javax.cache.CacheException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TCacheManagerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TCacheManager cacheManager;
+
+    @Before
+    public void setupCacheManager() {
+        cacheManager = new TCacheManager();
+    }
+
+    @After
+    public void closeCacheManager() {
+        cacheManager.close();
+    }
+
+    private static TCacheConfiguration<Integer, String> config() {
+        TCacheConfiguration<Integer, String> config = new TCacheConfiguration<>();
+        config.setTypes(Integer.class, String.class);
+        return config;
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void typedLookupChecksTheTypes() {
+        Cache<Integer, String> cache = cacheManager.createCache("cache", config());
+        assertSame(cache, cacheManager.getCache("cache", Integer.class, String.class));
+        assertSame(cache, cacheManager.getCache("cache"));
+        assertNull(cacheManager.getCache("other", Integer.class, String.class));
+        try {
+            cacheManager.getCache("cache", Long.class, String.class);
+            fail();
+        } catch (ClassCastException e) {
+            assertTrue(e.getMessage().contains("key types"));
+        }
+        try {
+            cacheManager.getCache("cache", Integer.class, Integer.class);
+            fail();
+        } catch (ClassCastException e) {
+            assertTrue(e.getMessage().contains("value types"));
+        }
+        //the types the cache was created with are checked, not its current configuration
+        ((TCacheConfiguration) cache.getConfiguration()).setTypes(Long.class, Long.class);
+        assertSame(cache, cacheManager.getCache("cache", Integer.class, String.class));
+    }
+
+    @Test(expected = CacheException.class)
+    public void cacheNamesAreUnique() {
+        cacheManager.createCache("cache", config());
+        cacheManager.createCache("cache", config());
+    }
+
+    @Test
+    public void closedCacheIsReleased() throws Exception {
+        TCacheConfiguration<Integer, String> config = config();
+        config.setStatisticsEnabled(true);
+        Cache<Integer, String> cache = cacheManager.createCache("cache", config);
+        cache.put(1, "one");
+        assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(
+                cacheManager.getStatisticsObjectName("cache")));
+        cache.close();
+        cache.close();
+        assertTrue(cache.isClosed());
+        assertNull(cacheManager.getCache("cache"));
+        assertFalse(cacheManager.getCacheNames().iterator().hasNext());
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(
+                cacheManager.getStatisticsObjectName("cache")));
+        try {
+            cache.get(1);
+            fail();
+        } catch (IllegalStateException e) {
+            //expected
+        }
+        try {
+            cache.put(2, "two");
+            fail();
+        } catch (IllegalStateException e) {
+            //expected
+        }
+        //the name can be used again
+        Cache<Integer, String> other = cacheManager.createCache("cache", config());
+        assertNull(other.get(1));
+        //closing the old cache again does not release the new one
+        cache.close();
+        assertSame(other, cacheManager.getCache("cache"));
+    }
+
+    @Test
+    public void destroyedCacheLeavesNoEntries() {
+        Path logDirectory = folder.getRoot().toPath().resolve("log");
+        Path snapshotFile = folder.getRoot().toPath().resolve("cache.snapshot");
+        TCacheConfiguration<Integer, String> config = config();
+        config.setWriteAheadLogDirectory(logDirectory.toString());
+        config.setSnapshotFile(snapshotFile.toString());
+        Cache<Integer, String> cache = cacheManager.createCache("cache", config);
+        for (int i = 0; i < 100; ++i) {
+            cache.put(i, "value_" + i);
+        }
+        cacheManager.destroyCache("cache");
+        assertTrue(cache.isClosed());
+        assertNull(cacheManager.getCache("cache"));
+        Cache<Integer, String> recreated = cacheManager.createCache("cache", config);
+        for (int i = 0; i < 100; ++i) {
+            assertFalse(recreated.containsKey(i));
+        }
+    }
+
+    @Test
+    public void closingTheManagerClosesTheCaches() {
+        Cache<Integer, String> first = cacheManager.createCache("first", config());
+        Cache<Integer, String> second = cacheManager.createCache("second", config());
+        cacheManager.close();
+        assertTrue(first.isClosed());
+        assertTrue(second.isClosed());
+    }
+
+    @Test
+    public void lookupsRunConcurrentlyWithCreation() throws Exception {
+        int threads = 4;
+        int count = 200;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (int t = 0; t < threads; ++t) {
+                int thread = t;
+                tasks.add(() -> {
+                    for (int i = 0; i < count; ++i) {
+                        String name = "cache_" + thread + "_" + i;
+                        Cache<Integer, String> cache = cacheManager.createCache(name, config());
+                        assertSame(cache, cacheManager.getCache(name, Integer.class, String.class));
+                        cacheManager.getCacheNames().forEach(cacheName -> {
+                            Cache<?, ?> other = cacheManager.getCache(cacheName);
+                            //the cache may have been destroyed meanwhile
+                            if (null != other) {
+                                assertEquals(cacheName, other.getName());
+                            }
+                        });
+                        if (i % 2 == 0) {
+                            cacheManager.destroyCache(name);
+                        }
+                    }
+                    return null;
+                });
+            }
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Set<String> names = new HashSet<>();
+        cacheManager.getCacheNames().forEach(names::add);
+        assertEquals(threads * count / 2, names.size());
+    }
+}
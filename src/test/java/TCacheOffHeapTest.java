@@ -0,0 +1,93 @@
+import CacheApi.TCache;
+import CacheApi.TCacheConfiguration;
+import CacheApi.TCacheManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.cache.Cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TCacheOffHeapTest {
+
+    private TCacheManager cacheManager;
+
+    private Cache<Integer, ArrayList<String>> cache;
+
+    @Before
+    public void setupCache() {
+        TCacheConfiguration<Integer, ArrayList<String>> config = new TCacheConfiguration<>();
+        config.setOffHeap(true).setOffHeapSlabSize(1 << 16);
+        cacheManager = new TCacheManager();
+        cache = cacheManager.createCache("offHeapCache", config);
+    }
+
+    @After
+    public void closeCacheManager() {
+        cacheManager.close();
+    }
+
+    private static ArrayList<String> list(String... values) {
+        return new ArrayList<>(Arrays.asList(values));
+    }
+
+    @Test
+    public void valuesAreStoredByValue() {
+        ArrayList<String> value = list("a", "b");
+        cache.put(1, value);
+        value.add("c");
+        List<String> cachedValue = cache.get(1);
+        assertEquals(list("a", "b"), cachedValue);
+        cachedValue.clear();
+        assertEquals(list("a", "b"), cache.get(1));
+    }
+
+    @Test
+    public void growingValuesAreMoved() {
+        cache.put(1, list("small"));
+        ArrayList<String> large = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            large.add("element_" + i);
+        }
+        cache.put(1, large);
+        assertEquals(large, cache.get(1));
+        assertTrue(cache.replace(1, large, list("small again")));
+        assertEquals(list("small again"), cache.get(1));
+    }
+
+    @Test
+    public void removedValuesAreFreed() {
+        TCache<?, ?> tCache = cache.unwrap(TCache.class);
+        for (int i = 0; i < 1000; ++i) {
+            cache.put(i, list("value_" + i));
+        }
+        assertTrue(tCache.getOffHeapUsedBytes() > 0);
+        assertEquals(list("value_7"), cache.getAndRemove(7));
+        assertFalse(cache.containsKey(7));
+        assertTrue(cache.remove(8));
+        assertNull(cache.get(8));
+        cache.clear();
+        assertEquals(0, tCache.getOffHeapUsedBytes());
+        long reservedBytes = tCache.getOffHeapReservedBytes();
+        for (int i = 0; i < 1000; ++i) {
+            cache.put(i, list("value_" + i));
+        }
+        // the freed blocks are reused
+        assertEquals(reservedBytes, tCache.getOffHeapReservedBytes());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void storeByReferenceIsRejected() {
+        TCacheConfiguration<Integer, String> config = new TCacheConfiguration<>();
+        config.setOffHeap(true).setStoreByValue(false);
+        cacheManager.createCache("referenceCache", config);
+    }
+}
@@ -0,0 +1,492 @@
+import CacheApi.TCacheConfiguration;
+import CacheApi.TCacheManager;
+import CacheApi.TCluster;
+import CacheApi.TPartitionedCache;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.cache.Cache;
+import javax.cache.configuration.FactoryBuilder;
+import javax.cache.configuration.MutableCacheEntryListenerConfiguration;
+import javax.cache.event.CacheEntryCreatedListener;
+import javax.cache.event.CacheEntryEvent;
+import javax.cache.integration.CacheLoader;
+import javax.cache.integration.CacheLoaderException;
+import javax.cache.processor.EntryProcessor;
+import javax.cache.processor.EntryProcessorException;
+import javax.cache.processor.MutableEntry;
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TCachePartitionedTest {
+
+    private static final String CACHE_NAME = "partitionedCache";
+
+    private final List<TCacheManager> cacheManagers = new ArrayList<>();
+
+    private final List<TPartitionedCache<Integer, String>> caches = new ArrayList<>();
+
+    @After
+    public void closeCacheManagers() {
+        for (TCacheManager cacheManager : cacheManagers) {
+            cacheManager.close();
+        }
+    }
+
+    /**
+     * Starts a member on a free port of the loopback interface, joining the
+     * first member if there is one.
+     */
+    private TPartitionedCache<Integer, String> startMember() {
+        return startMember((BlockingLoader) null);
+    }
+
+    private TPartitionedCache<Integer, String> startMember(BlockingLoader loader) {
+        TCacheConfiguration<Integer, String> config = new TCacheConfiguration<>();
+        config.setTypes(Integer.class, String.class);
+        if (null != loader) {
+            config.setReadThrough(true).setCacheLoaderFactory(FactoryBuilder.factoryOf(loader));
+        }
+        return startMember(config);
+    }
+
+    private TPartitionedCache<Integer, String> startMember(TCacheConfiguration<Integer, String> config) {
+        TCacheManager cacheManager = new TCacheManager();
+        TPartitionedCache<Integer, String> cache = cacheManager.createPartitionedCache(CACHE_NAME, config);
+        InetSocketAddress localAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        if (cacheManagers.isEmpty()) {
+            cacheManager.joinCluster(localAddress);
+        } else {
+            cacheManager.joinCluster(localAddress, cacheManagers.get(0).getCluster().getLocalAddress());
+        }
+        cacheManagers.add(cacheManager);
+        caches.add(cache);
+        return cache;
+    }
+
+    private static int localSize(Cache<?, ?> cache) {
+        int size = 0;
+        for (Cache.Entry<?, ?> ignored : cache) {
+            size++;
+        }
+        return size;
+    }
+
+    private int totalLocalSize() {
+        int size = 0;
+        for (TPartitionedCache<Integer, String> cache : caches) {
+            if (!cache.isClosed()) {
+                size += localSize(cache);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Finds keys a member owns, by putting them through the first member.
+     */
+    private List<Integer> keysOwnedBy(TPartitionedCache<Integer, String> owner, int count) {
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 0; keys.size() < count; i++) {
+            caches.get(0).put(i, "value_" + i);
+            if (localSize(owner) > 0) {
+                keys.add(i);
+            }
+            caches.get(0).remove(i);
+        }
+        return keys;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean()) {
+            assertTrue("timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Waits until the other members handed the entries a member owns over
+     * to it.
+     */
+    private void awaitHandOver(int member) throws Exception {
+        cacheManagers.get(member).getCluster().getHandOverFuture().get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void keysAreSplitAmongTheMembers() {
+        for (int i = 0; i < 3; i++) {
+            startMember();
+        }
+        for (TCacheManager cacheManager : cacheManagers) {
+            assertEquals(3, cacheManager.getCluster().getMembers().size());
+        }
+        int count = 3000;
+        for (int i = 0; i < count; i++) {
+            caches.get(i % 3).put(i, "value_" + i);
+        }
+        for (int i = 0; i < count; i++) {
+            assertEquals("value_" + i, caches.get((i + 1) % 3).get(i));
+        }
+        assertNull(caches.get(0).get(-1));
+        for (TPartitionedCache<Integer, String> cache : caches) {
+            //every member owns about a third of the keys
+            assertTrue(localSize(cache) > count / 6);
+        }
+        assertEquals(count, totalLocalSize());
+    }
+
+    @Test
+    public void operationsAreAppliedByTheOwners() {
+        TPartitionedCache<Integer, String> first = startMember();
+        TPartitionedCache<Integer, String> second = startMember();
+
+        Map<Integer, String> values = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            values.put(i, "value_" + i);
+        }
+        first.putAll(values);
+        assertEquals(values, second.getAll(values.keySet()));
+
+        assertFalse(second.putIfAbsent(1, "other"));
+        assertTrue(second.replace(1, "value_1", "replaced"));
+        assertEquals("replaced", first.getAndPut(1, "put"));
+        assertEquals("put", first.getAndRemove(1));
+        assertFalse(second.containsKey(1));
+        assertTrue(second.remove(2, "value_2"));
+
+        Set<Integer> removed = new HashSet<>();
+        for (int i = 10; i < 20; i++) {
+            removed.add(i);
+        }
+        second.removeAll(removed);
+        assertTrue(first.getAll(removed).isEmpty());
+        assertEquals(88, totalLocalSize());
+
+        first.clear();
+        assertEquals(0, totalLocalSize());
+    }
+
+    @Test
+    public void requestsOfConcurrentCallersArePipelined() throws Exception {
+        TPartitionedCache<Integer, String> first = startMember();
+        startMember();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 1000; i++) {
+                        int key = thread * 1000 + i;
+                        first.put(key, "value_" + key);
+                        assertEquals("value_" + key, first.get(key));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(8000, totalLocalSize());
+    }
+
+    @Test
+    public void slowLoadersDoNotStallTheOtherRequests() throws Exception {
+        BlockingLoader loader = new BlockingLoader();
+        TPartitionedCache<Integer, String> first = startMember(loader);
+        TPartitionedCache<Integer, String> second = startMember(loader);
+        List<Integer> keys = keysOwnedBy(second, 21);
+        ExecutorService executor = Executors.newFixedThreadPool(keys.size());
+        try {
+            //the owner loads the first key until the gate opens
+            Future<String> load = executor.submit(() -> first.get(keys.get(0)));
+            assertTrue(loader.started.await(10, TimeUnit.SECONDS));
+            List<Future<?>> puts = new ArrayList<>();
+            for (int key : keys.subList(1, keys.size())) {
+                puts.add(executor.submit(() -> first.put(key, "value_" + key)));
+            }
+            //the keys of the other stripes are written meanwhile
+            await(() -> puts.stream().anyMatch(Future::isDone));
+            assertFalse(load.isDone());
+            loader.gate.countDown();
+            assertEquals("loaded_" + keys.get(0), load.get());
+            for (Future<?> put : puts) {
+                put.get();
+            }
+        } finally {
+            loader.gate.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void handedOverEntriesDoNotOverwriteNewerWrites() throws Exception {
+        TPartitionedCache<Integer, String> first = startMember();
+        int count = 2000;
+        for (int i = 0; i < count; i++) {
+            first.put(i, "old_" + i);
+        }
+
+        //the new member takes writes before the entries it owns arrive
+        TPartitionedCache<Integer, String> second = startMember();
+        for (int i = 0; i < count; i++) {
+            second.put(i, "new_" + i);
+        }
+        awaitHandOver(1);
+        assertTrue(localSize(second) > count / 4);
+        assertEquals(count, totalLocalSize());
+        for (int i = 0; i < count; i++) {
+            assertEquals("new_" + i, first.get(i));
+        }
+    }
+
+    @Test
+    public void writesDuringAJoinReachTheNewOwner() throws Exception {
+        startMember();
+        TPartitionedCache<Integer, String> second = startMember();
+        int count = 1000;
+        AtomicBoolean isJoined = new AtomicBoolean();
+        AtomicInteger lastRound = new AtomicInteger();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            //the writes go on while the members learn about the new one
+            Future<?> writes = executor.submit(() -> {
+                for (int round = 0; round < 3 || !isJoined.get(); round++) {
+                    for (int i = 0; i < count; i++) {
+                        second.put(i, round + "_" + i);
+                    }
+                    lastRound.set(round);
+                }
+            });
+            TPartitionedCache<Integer, String> third = startMember();
+            isJoined.set(true);
+            writes.get();
+            awaitHandOver(2);
+            assertTrue(localSize(third) > count / 6);
+            assertEquals(count, totalLocalSize());
+        } finally {
+            executor.shutdownNow();
+        }
+        for (TPartitionedCache<Integer, String> cache : caches) {
+            for (int i = 0; i < count; i++) {
+                assertEquals(lastRound.get() + "_" + i, cache.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void entriesAreHandedOverWhenMembersJoinAndLeave() throws Exception {
+        TPartitionedCache<Integer, String> first = startMember();
+        startMember();
+        int count = 2000;
+        for (int i = 0; i < count; i++) {
+            first.put(i, "value_" + i);
+        }
+
+        TPartitionedCache<Integer, String> third = startMember();
+        //the others hand the entries the new member owns over in the background, it reads those it misses from them
+        for (int i = 0; i < count; i++) {
+            assertEquals("value_" + i, third.get(i));
+        }
+        awaitHandOver(2);
+        assertTrue(localSize(third) > count / 6);
+        assertEquals(count, totalLocalSize());
+        for (int i = 0; i < count; i++) {
+            assertEquals("value_" + i, third.get(i));
+        }
+
+        TCacheManager thirdManager = cacheManagers.get(2);
+        thirdManager.close();
+        TCluster cluster = cacheManagers.get(0).getCluster();
+        assertEquals(2, cluster.getMembers().size());
+        assertEquals(count, totalLocalSize());
+        for (int i = 0; i < count; i++) {
+            assertEquals("value_" + i, first.get(i));
+        }
+    }
+
+    @Test
+    public void entryProcessorsRunOnTheOwners() {
+        TPartitionedCache<Integer, String> first = startMember();
+        TPartitionedCache<Integer, String> second = startMember();
+        int count = 100;
+        Set<Integer> keys = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            first.put(i, "value_" + i);
+            keys.add(i);
+        }
+
+        for (int i = 0; i < count; i++) {
+            assertEquals("value_" + i, second.invoke(i, new AppendingProcessor(), "_1"));
+        }
+        Map<Integer, String> results = first.invokeAll(keys, new AppendingProcessor(), "_2");
+        assertEquals(count, results.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals("value_" + i + "_1", results.get(i));
+            assertEquals("value_" + i + "_1_2", second.get(i));
+        }
+        assertEquals(count, totalLocalSize());
+
+        int remoteKey = keysOwnedBy(second, 1).get(0);
+        first.put(remoteKey, "fail");
+        try {
+            first.invoke(remoteKey, new AppendingProcessor(), "_3");
+            fail();
+        } catch (EntryProcessorException e) {
+            //the failure of the owner, as it is thrown for a local key
+            assertTrue(e.getCause() instanceof IllegalStateException);
+            assertNull(e.getCause().getMessage());
+        }
+        try {
+            first.invokeAll(Collections.singleton(remoteKey), new AppendingProcessor(), "_3");
+            fail();
+        } catch (EntryProcessorException e) {
+            assertTrue(e.getCause().getCause() instanceof IllegalStateException);
+        }
+        assertEquals("fail", first.get(remoteKey));
+        try {
+            first.invoke(remoteKey, (entry, arguments) -> null);
+            fail();
+        } catch (IllegalArgumentException e) {
+            //a lambda is not serializable
+        }
+    }
+
+    @Test
+    public void mutationsDuringAHandOverSeeTheHandedOverEntries() throws Exception {
+        TPartitionedCache<Integer, String> first = startMember();
+        startMember();
+        int count = 1000;
+        for (int i = 0; i < count; i++) {
+            first.put(i, "value_" + i);
+        }
+
+        //the new member stores the handed over entries until the gate opens
+        BlockingHandOverListener listener = new BlockingHandOverListener();
+        TCacheConfiguration<Integer, String> config = new TCacheConfiguration<>();
+        config.setTypes(Integer.class, String.class);
+        config.addCacheEntryListenerConfiguration(new MutableCacheEntryListenerConfiguration<>(
+                FactoryBuilder.factoryOf(listener), null, false, true));
+        TPartitionedCache<Integer, String> third = startMember(config);
+        int removedCount = 0;
+        try {
+            assertTrue(listener.started.await(10, TimeUnit.SECONDS));
+            assertFalse(cacheManagers.get(2).getCluster().getHandOverFuture().isDone());
+            for (int i = 0; i < count; i++) {
+                assertFalse(third.putIfAbsent(i, "other_" + i));
+                assertEquals("value_" + i, third.invoke(i, new AppendingProcessor(), "_1"));
+                if (i % 10 == 0) {
+                    assertTrue(third.remove(i, "value_" + i + "_1"));
+                    removedCount++;
+                }
+            }
+        } finally {
+            listener.gate.countDown();
+        }
+        awaitHandOver(2);
+
+        //the entries handed over late neither undo the removals nor the processors
+        assertTrue(localSize(third) > count / 6);
+        assertEquals(count - removedCount, totalLocalSize());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i % 10 == 0 ? null : "value_" + i + "_1", first.get(i));
+        }
+    }
+
+    /**
+     * Blocks the workers of the cluster storing the handed over entries
+     * until its gate opens.
+     */
+    public static class BlockingHandOverListener
+            implements CacheEntryCreatedListener<Integer, String>, Serializable {
+
+        final CountDownLatch started = new CountDownLatch(1);
+
+        final CountDownLatch gate = new CountDownLatch(1);
+
+        @Override
+        public void onCreated(Iterable<CacheEntryEvent<? extends Integer, ? extends String>> events) {
+            if (!Thread.currentThread().getName().startsWith("TCluster-worker")) {
+                return;
+            }
+            started.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Appends its argument to the value and returns the previous value,
+     * failing without a message for the value "fail".
+     */
+    public static class AppendingProcessor implements EntryProcessor<Integer, String, String>, Serializable {
+
+        @Override
+        public String process(MutableEntry<Integer, String> entry, Object... arguments) {
+            String value = entry.getValue();
+            if ("fail".equals(value)) {
+                throw new IllegalStateException();
+            }
+            entry.setValue(value + arguments[0]);
+            return value;
+        }
+    }
+
+    /**
+     * Loads "loaded_" + key once its gate opens.
+     */
+    public static class BlockingLoader implements CacheLoader<Integer, String>, Serializable {
+
+        final CountDownLatch started = new CountDownLatch(1);
+
+        final CountDownLatch gate = new CountDownLatch(1);
+
+        @Override
+        public String load(Integer key) {
+            started.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new CacheLoaderException(e);
+            }
+            return "loaded_" + key;
+        }
+
+        @Override
+        public Map<Integer, String> loadAll(Iterable<? extends Integer> keys) {
+            Map<Integer, String> values = new HashMap<>();
+            for (Integer key : keys) {
+                values.put(key, load(key));
+            }
+            return values;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+import CacheApi.TCacheConfiguration;
+import CacheApi.TCacheManager;
+import CacheApi.TReplicationMode;
+import CacheApi.TReplicationStatistics;
+import CacheApi.TSocketTransport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.cache.Cache;
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TCacheReplicationTest {
+
+    private static final String CACHE_NAME = "replicatedCache";
+
+    private TCacheManager first;
+
+    private TCacheManager second;
+
+    @Before
+    public void setupCacheManagers() {
+        first = new TCacheManager();
+        second = new TCacheManager();
+    }
+
+    @After
+    public void closeCacheManagers() {
+        first.close();
+        second.close();
+    }
+
+    private static TCacheConfiguration<Integer, String> config(TReplicationMode mode) {
+        TCacheConfiguration<Integer, String> config = new TCacheConfiguration<>();
+        config.setTypes(Integer.class, String.class);
+        config.setReplicationMode(mode);
+        return config;
+    }
+
+    private void link() {
+        TSocketTransport firstTransport = new TSocketTransport(0);
+        TSocketTransport secondTransport = new TSocketTransport(0);
+        first.enableReplication(firstTransport);
+        second.enableReplication(secondTransport);
+        firstTransport.addPeer(secondTransport.getLocalAddress());
+        secondTransport.addPeer(firstTransport.getLocalAddress());
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue("timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static int size(Cache<?, ?> cache) {
+        int size = 0;
+        for (Cache.Entry<?, ?> ignored : cache) {
+            size++;
+        }
+        return size;
+    }
+
+    @Test
+    public void putsInvalidateThePeers() throws Exception {
+        Cache<Integer, String> firstCache = first.createCache(CACHE_NAME, config(TReplicationMode.INVALIDATE));
+        Cache<Integer, String> secondCache = second.createCache(CACHE_NAME, config(TReplicationMode.INVALIDATE));
+        link();
+
+        secondCache.put(1, "old");
+        await(() -> first.getReplicationStatistics().getAppliedMessageCount() == 1);
+        firstCache.put(1, "new");
+        await(() -> !secondCache.containsKey(1));
+        assertEquals("new", firstCache.get(1));
+    }
+
+    @Test
+    public void updatesArePropagatedWithoutEchoes() throws Exception {
+        Cache<Integer, String> firstCache = first.createCache(CACHE_NAME, config(TReplicationMode.UPDATE));
+        Cache<Integer, String> secondCache = second.createCache(CACHE_NAME, config(TReplicationMode.UPDATE));
+        link();
+
+        for (int i = 0; i < 100; i++) {
+            firstCache.put(i, "value_" + i);
+        }
+        firstCache.put(0, "replaced");
+        await(() -> size(secondCache) == 100 && "replaced".equals(secondCache.get(0)));
+        assertEquals("value_99", secondCache.get(99));
+
+        secondCache.remove(5);
+        await(() -> !firstCache.containsKey(5));
+        firstCache.clear();
+        await(() -> size(secondCache) == 0);
+
+        //the applied mutations are not sent back
+        Thread.sleep(200);
+        assertEquals(1, second.getReplicationStatistics().getSentMessageCount());
+        assertEquals(1, first.getReplicationStatistics().getAppliedMessageCount());
+        assertEquals(0, first.getReplicationStatistics().getLostCount());
+    }
+
+    @Test
+    public void concurrentUpdatesConverge() throws Exception {
+        Cache<Integer, String> firstCache = first.createCache(CACHE_NAME, config(TReplicationMode.UPDATE));
+        Cache<Integer, String> secondCache = second.createCache(CACHE_NAME, config(TReplicationMode.UPDATE));
+        link();
+
+        //the updates of a key cross on the way, the later one wins on both managers
+        int count = 1000;
+        for (int i = 0; i < count; i++) {
+            firstCache.put(i, "first_" + i);
+            secondCache.put(i, "second_" + i);
+        }
+        await(() -> {
+            for (int i = 0; i < count; i++) {
+                String value = firstCache.get(i);
+                if (null == value || !value.equals(secondCache.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        });
+        //the managers settled, the stale updates were discarded
+        Thread.sleep(200);
+        for (int i = 0; i < count; i++) {
+            assertEquals(firstCache.get(i), secondCache.get(i));
+        }
+        assertEquals(0, first.getReplicationStatistics().getLostCount());
+        assertEquals(0, second.getReplicationStatistics().getLostCount());
+    }
+
+    @Test
+    public void unreplicatedCachesAreLeftAlone() throws Exception {
+        Cache<Integer, String> firstCache = first.createCache(CACHE_NAME, config(TReplicationMode.NONE));
+        Cache<Integer, String> secondCache = second.createCache(CACHE_NAME, config(TReplicationMode.UPDATE));
+        link();
+
+        secondCache.put(1, "second");
+        firstCache.put(2, "first");
+        await(() -> first.getReplicationStatistics().getReceivedBatchCount() == 1);
+        assertNull(firstCache.get(1));
+        assertFalse(secondCache.containsKey(2));
+        assertEquals(0, first.getReplicationStatistics().getSentMessageCount());
+    }
+
+    /**
+     * Replicates the puts of another JVM. The puts stay within the queue of
+     * the sender, so that none are lost. The throughput and the lag are
+     * measured by CacheBenchmarks.TReplicationThroughput.
+     */
+    @Test
+    public void putsOfAnotherProcessAreApplied() throws Exception {
+        int count = 50000;
+        Cache<Integer, String> cache = first.createCache(CACHE_NAME, config(TReplicationMode.UPDATE));
+        TSocketTransport transport = new TSocketTransport(0);
+        first.enableReplication(transport);
+
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process peer = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                Peer.class.getName(), String.valueOf(transport.getLocalAddress().getPort()), String.valueOf(count))
+                .inheritIO().start();
+        try {
+            long deadline = System.currentTimeMillis() + 30000;
+            while (first.getReplicationStatistics().getAppliedMessageCount() == 0) {
+                assertTrue("timed out", System.currentTimeMillis() < deadline);
+                Thread.sleep(1);
+            }
+            while (!cache.containsKey(count - 1)) {
+                assertTrue("timed out", System.currentTimeMillis() < deadline);
+                Thread.sleep(1);
+            }
+            assertTrue(peer.waitFor(30, TimeUnit.SECONDS));
+            assertEquals(0, peer.exitValue());
+
+            assertEquals(count, size(cache));
+            assertEquals("value_0", cache.get(0));
+            TReplicationStatistics statistics = first.getReplicationStatistics();
+            assertEquals(0, statistics.getLostCount());
+            assertTrue(statistics.getLag().getCount() > 0);
+            //the lag of a batch is bounded by the time the test waited for it
+            assertTrue(statistics.getLag().getMaximum() < TimeUnit.SECONDS.toNanos(30));
+        } finally {
+            peer.destroyForcibly();
+        }
+    }
+
+    /**
+     * The other JVM, putting the values and closing its manager, which
+     * sends the queued messages.
+     */
+    public static class Peer {
+
+        public static void main(String[] args) {
+            int port = Integer.parseInt(args[0]);
+            int count = Integer.parseInt(args[1]);
+            TCacheManager cacheManager = new TCacheManager();
+            Cache<Integer, String> cache = cacheManager.createCache(CACHE_NAME, config(TReplicationMode.UPDATE));
+            cacheManager.enableReplication(new TSocketTransport(0)
+                    .addPeer(new InetSocketAddress(InetAddress.getLoopbackAddress(), port)));
+            for (int i = 0; i < count; i++) {
+                cache.put(i, "value_" + i);
+            }
+            cacheManager.close();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+import CacheApi.TCache;
+import CacheApi.TCacheConfiguration;
+import CacheApi.TCacheManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.cache.Cache;
+import javax.cache.expiry.CreatedExpiryPolicy;
+import javax.cache.expiry.Duration;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TCacheSnapshotTest {
+
+    private static final int SIZE = 10_000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TCacheManager cacheManager;
+
+    private Path snapshotFile;
+
+    @Before
+    public void setupCacheManager() throws Exception {
+        cacheManager = new TCacheManager();
+        snapshotFile = folder.getRoot().toPath().resolve("cache.snapshot");
+    }
+
+    @After
+    public void closeCacheManager() {
+        cacheManager.close();
+    }
+
+    private TCacheConfiguration<Integer, String> config() {
+        TCacheConfiguration<Integer, String> config = new TCacheConfiguration<>();
+        config.setTypes(Integer.class, String.class);
+        config.setSnapshotFile(snapshotFile.toString());
+        return config;
+    }
+
+    private TCacheManager restart() {
+        cacheManager.close();
+        cacheManager = new TCacheManager();
+        return cacheManager;
+    }
+
+    @Test
+    public void restartIsWarmedFromTheSnapshot() {
+        Cache<Integer, String> cache = cacheManager.createCache("persistedCache", config());
+        for (int i = 0; i < SIZE; ++i) {
+            cache.put(i, "value_" + i);
+        }
+        Cache<Integer, String> restored = restart().createCache("persistedCache", config());
+        assertTrue(Files.exists(snapshotFile));
+        for (int i = 0; i < SIZE; ++i) {
+            assertEquals("value_" + i, restored.get(i));
+        }
+        assertFalse(restored.containsKey(SIZE));
+    }
+
+    @Test
+    public void entriesExpiredSinceTheSnapshotAreDropped() throws InterruptedException {
+        TCacheConfiguration<Integer, String> config = config();
+        config.setExpiryPolicyFactory(CreatedExpiryPolicy.factoryOf(new Duration(TimeUnit.MILLISECONDS, 300)));
+        TCache<Integer, String> cache = cacheManager.createCache("expiringCache", config).unwrap(TCache.class);
+        for (int i = 0; i < 100; ++i) {
+            cache.put(i, "value_" + i);
+        }
+        assertEquals(100, cache.writeSnapshot(snapshotFile));
+        TCache<Integer, String> restored = restart().createCache("restoredCache", new TCacheConfiguration<>(config)
+                .setSnapshotFile(null)).unwrap(TCache.class);
+        assertEquals(100, restored.loadSnapshot(snapshotFile));
+        Thread.sleep(500);
+        TCache<Integer, String> late = cacheManager.createCache("lateCache", new TCacheConfiguration<>(config)
+                .setSnapshotFile(null)).unwrap(TCache.class);
+        assertEquals(0, late.loadSnapshot(snapshotFile));
+        assertFalse(restored.iterator().hasNext());
+    }
+
+    @Test
+    public void loadedEntriesDoNotReplaceLiveOnes() {
+        TCache<Integer, String> cache = cacheManager.createCache("liveCache", config()).unwrap(TCache.class);
+        cache.put(1, "old");
+        cache.put(2, "old");
+        cache.writeSnapshot(snapshotFile);
+        cache.put(1, "new");
+        cache.remove(2);
+        assertEquals(1, cache.loadSnapshot(snapshotFile));
+        assertEquals("new", cache.get(1));
+        assertEquals("old", cache.get(2));
+    }
+
+    @Test
+    public void corruptSegmentsAreSkipped() throws Exception {
+        TCache<Integer, String> cache = cacheManager.createCache("corruptCache", config()).unwrap(TCache.class);
+        for (int i = 0; i < 100; ++i) {
+            cache.put(i, "value_" + i);
+        }
+        cache.writeSnapshot(snapshotFile);
+        try (RandomAccessFile file = new RandomAccessFile(snapshotFile.toFile(), "rw")) {
+            file.seek(100);
+            int b = file.read();
+            file.seek(100);
+            file.write(b ^ 0xFF);
+        }
+        cache.clear();
+        assertEquals(0, cache.loadSnapshot(snapshotFile));
+    }
+
+    @Test
+    public void largeSnapshotsAreLoadedInParallel() {
+        TCacheConfiguration<Integer, byte[]> config = new TCacheConfiguration<>();
+        config.setTypes(Integer.class, byte[].class);
+        TCache<Integer, byte[]> cache = cacheManager.createCache("largeCache", config).unwrap(TCache.class);
+        byte[] value = new byte[256 * 1024];
+        for (int i = 0; i < 100; ++i) {
+            Arrays.fill(value, (byte) i);
+            cache.put(i, value);
+        }
+        assertEquals(100, cache.writeSnapshot(snapshotFile));
+        TCache<Integer, byte[]> restored = cacheManager.createCache("restoredLargeCache", config)
+                .unwrap(TCache.class);
+        assertEquals(100, restored.loadSnapshot(snapshotFile));
+        for (int i = 0; i < 100; ++i) {
+            Arrays.fill(value, (byte) i);
+            assertArrayEquals(value, restored.get(i));
+        }
+    }
+
+    @Test
+    public void offHeapCachesAreRestored() {
+        TCacheConfiguration<Integer, ArrayList<String>> config = new TCacheConfiguration<>();
+        config.setOffHeap(true).setOffHeapSlabSize(1 << 16);
+        TCache<Integer, ArrayList<String>> cache = cacheManager.createCache("offHeapCache", config)
+                .unwrap(TCache.class);
+        for (int i = 0; i < 1000; ++i) {
+            cache.put(i, new ArrayList<>(Arrays.asList("a" + i, "b" + i)));
+        }
+        cache.writeSnapshot(snapshotFile);
+        TCache<Integer, ArrayList<String>> restored = cacheManager.createCache("restoredOffHeapCache", config)
+                .unwrap(TCache.class);
+        assertEquals(1000, restored.loadSnapshot(snapshotFile));
+        assertEquals(Arrays.asList("a7", "b7"), restored.get(7));
+    }
+}
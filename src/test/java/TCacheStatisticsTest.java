@@ -0,0 +1,206 @@
+import CacheApi.TCache;
+import CacheApi.TCacheConfiguration;
+import CacheApi.TCacheManager;
+import CacheApi.TLatencySnapshot;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.cache.Cache;
+import javax.cache.management.CacheStatisticsMXBean;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TCacheStatisticsTest {
+
+    private static final MBeanServer MBEAN_SERVER = ManagementFactory.getPlatformMBeanServer();
+
+    private TCacheManager cacheManager;
+
+    @Before
+    public void createCacheManager() {
+        cacheManager = new TCacheManager();
+    }
+
+    @After
+    public void closeCacheManager() {
+        cacheManager.close();
+    }
+
+    private Cache<Integer, String> createCache(String cacheName, TCacheConfiguration<Integer, String> config) {
+        config.setTypes(Integer.class, String.class);
+        return cacheManager.createCache(cacheName, config);
+    }
+
+    @Test
+    public void operationsAreCounted() {
+        TCacheConfiguration<Integer, String> config = new TCacheConfiguration<>();
+        config.setStatisticsEnabled(true);
+        config.setLatencySampleInterval(1);
+        Cache<Integer, String> cache = createCache("countedCache", config);
+        cache.put(1, "one");
+        cache.put(2, "two");
+        cache.putIfAbsent(1, "uno");
+        assertEquals("one", cache.get(1));
+        assertEquals(null, cache.get(3));
+        cache.getAll(new HashSet<>(Arrays.asList(1, 2, 4)));
+        assertTrue(cache.remove(2));
+        assertFalse(cache.remove(2));
+
+        CacheStatisticsMXBean statistics = cache.unwrap(TCache.class).getStatistics();
+        assertEquals(3, statistics.getCacheHits());
+        assertEquals(2, statistics.getCacheMisses());
+        assertEquals(5, statistics.getCacheGets());
+        assertEquals(60f, statistics.getCacheHitPercentage(), 0.01f);
+        assertEquals(2, statistics.getCachePuts());
+        assertEquals(1, statistics.getCacheRemovals());
+        assertTrue(statistics.getAverageGetTime() > 0);
+        assertTrue(statistics.getAveragePutTime() > 0);
+        assertTrue(statistics.getAverageRemoveTime() > 0);
+
+        statistics.clear();
+        assertEquals(0, statistics.getCacheGets());
+        assertEquals(0, statistics.getAverageGetTime(), 0);
+    }
+
+    @Test
+    public void statisticsAreRegisteredOnThePlatformMBeanServer() throws Exception {
+        TCacheConfiguration<Integer, String> config = new TCacheConfiguration<>();
+        config.setStatisticsEnabled(true);
+        Cache<Integer, String> cache = createCache("registeredCache", config);
+        ObjectName objectName = cacheManager.getStatisticsObjectName("registeredCache");
+        assertTrue(MBEAN_SERVER.isRegistered(objectName));
+        cache.put(1, "one");
+        cache.get(1);
+        assertEquals(1L, MBEAN_SERVER.getAttribute(objectName, "CachePuts"));
+        assertEquals(1L, MBEAN_SERVER.getAttribute(objectName, "CacheHits"));
+
+        cacheManager.enableStatistics("registeredCache", false);
+        assertFalse(MBEAN_SERVER.isRegistered(objectName));
+        cache.get(1);
+        assertEquals(1, cache.unwrap(TCache.class).getStatistics().getCacheHits());
+
+        cacheManager.enableStatistics("registeredCache", true);
+        assertTrue(MBEAN_SERVER.isRegistered(objectName));
+        cacheManager.close();
+        assertFalse(MBEAN_SERVER.isRegistered(objectName));
+    }
+
+    @Test
+    public void disabledStatisticsAreNotRecorded() {
+        Cache<Integer, String> cache = createCache("uncountedCache", new TCacheConfiguration<>());
+        cache.put(1, "one");
+        cache.get(1);
+        CacheStatisticsMXBean statistics = cache.unwrap(TCache.class).getStatistics();
+        assertEquals(0, statistics.getCachePuts());
+        assertEquals(0, statistics.getCacheHits());
+        assertFalse(MBEAN_SERVER.isRegistered(cacheManager.getStatisticsObjectName("uncountedCache")));
+    }
+
+    @Test
+    public void evictionsAreCounted() {
+        TCacheConfiguration<Integer, String> config = new TCacheConfiguration<>();
+        config.setStatisticsEnabled(true);
+        config.setMaximumSize(10);
+        Cache<Integer, String> cache = createCache("boundedCache", config);
+        for (int i = 0; i < 100; i++) {
+            cache.put(i, "value_" + i);
+        }
+        assertEquals(100, cache.unwrap(TCache.class).getStatistics().getCachePuts());
+        assertEquals(90, cache.unwrap(TCache.class).getStatistics().getCacheEvictions());
+    }
+
+    @Test
+    public void latenciesAreRecordedByHistograms() {
+        TCacheConfiguration<Integer, String> config = new TCacheConfiguration<>();
+        config.setStatisticsEnabled(true);
+        config.setLatencySampleInterval(1);
+        config.setLatencyHistogramsEnabled(true);
+        Cache<Integer, String> cache = createCache("histogramCache", config);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(i, "value_" + i);
+            cache.get(i);
+        }
+        cache.invoke(1, (entry, arguments) -> entry.getValue());
+
+        TCache<?, ?> tCache = cache.unwrap(TCache.class);
+        TLatencySnapshot getLatency = tCache.getGetLatency();
+        assertEquals(1000, getLatency.getCount());
+        assertTrue(getLatency.getValueAtPercentile(50) <= getLatency.getValueAtPercentile(99));
+        assertTrue(getLatency.getValueAtPercentile(99) <= getLatency.getValueAtPercentile(99.9));
+        assertTrue(getLatency.getValueAtPercentile(99.9) <= getLatency.getMaximum());
+        assertTrue(getLatency.getMaximum() > 0);
+        assertEquals(1000, tCache.getPutLatency().getCount());
+        assertEquals(1, tCache.getInvokeLatency().getCount());
+        assertEquals(0, tCache.getLoadLatency().getCount());
+
+        cache.unwrap(TCache.class).getStatistics().clear();
+        assertEquals(0, tCache.getGetLatency().getCount());
+        assertEquals(0, tCache.getGetLatency().getValueAtPercentile(99));
+    }
+
+    @Test
+    public void histogramsAreDisabledByDefault() {
+        TCacheConfiguration<Integer, String> config = new TCacheConfiguration<>();
+        config.setStatisticsEnabled(true);
+        Cache<Integer, String> cache = createCache("plainCache", config);
+        assertNull(cache.unwrap(TCache.class).getGetLatency());
+        assertTrue(cache.unwrap(TCache.class).getHotKeys().isEmpty());
+    }
+
+    @Test
+    public void hotKeysAreDetected() {
+        TCacheConfiguration<Integer, String> config = new TCacheConfiguration<>();
+        config.setStatisticsEnabled(true);
+        config.setHotKeyCount(3);
+        Cache<Integer, String> cache = createCache("hotKeyCache", config);
+        Random random = new Random(7);
+        for (int i = 0; i < 200_000; i++) {
+            int key = i % 4 == 0 ? random.nextInt(3) : 100 + random.nextInt(10_000);
+            cache.get(key);
+        }
+        Map<?, Long> hotKeys = cache.unwrap(TCache.class).getHotKeys();
+        assertEquals(new HashSet<>(Arrays.asList(0, 1, 2)), hotKeys.keySet());
+        for (long count : hotKeys.values()) {
+            assertTrue("count " + count, count > 1000);
+        }
+    }
+
+    @Test
+    public void statisticsAreDumped() {
+        TCacheConfiguration<Integer, String> config = new TCacheConfiguration<>();
+        config.setStatisticsEnabled(true);
+        config.setLatencyHistogramsEnabled(true);
+        config.setHotKeyCount(1);
+        Cache<Integer, String> cache = createCache("dumped \"cache\"", config);
+        for (int i = 0; i < 100; i++) {
+            cache.put(1, "one");
+            cache.get(1);
+        }
+        String text = cacheManager.dumpStatistics();
+        assertTrue(text, text.startsWith("cache dumped \"cache\"\n  gets=100 hits=100 misses=0"));
+        assertTrue(text, text.contains("  get    count="));
+        assertTrue(text, text.contains("  hot keys: 1="));
+        String json = cacheManager.dumpStatisticsAsJson();
+        assertTrue(json, json.startsWith("{\"caches\":[{\"name\":\"dumped \\\"cache\\\"\",\"statisticsEnabled\":true,"
+                + "\"gets\":100,\"hits\":100,\"misses\":0,\"puts\":100,"));
+        assertTrue(json, json.contains(",\"latency\":{\"get\":{\"count\":"));
+        assertTrue(json, json.contains("\"hotKeys\":[{\"key\":\"1\",\"count\":"));
+        assertTrue(json, json.endsWith("}]}]}"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sampleIntervalIsAPowerOfTwo() {
+        new TCacheConfiguration<Integer, String>().setLatencySampleInterval(3);
+    }
+}
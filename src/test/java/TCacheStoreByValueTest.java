@@ -0,0 +1,124 @@
+import CacheApi.TCacheConfiguration;
+import CacheApi.TCacheManager;
+import CacheApi.TSerializationBuffer;
+import CacheApi.TSerializer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.cache.Cache;
+import javax.cache.configuration.FactoryBuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TCacheStoreByValueTest {
+
+    private TCacheManager cacheManager;
+
+    @Before
+    public void createCacheManager() {
+        cacheManager = new TCacheManager();
+    }
+
+    @After
+    public void closeCacheManager() {
+        cacheManager.close();
+    }
+
+    @Test
+    public void putAndGotValuesAreCopies() {
+        Cache<Integer, ArrayList<String>> cache = cacheManager.createCache("listCache",
+                new TCacheConfiguration<Integer, ArrayList<String>>());
+        ArrayList<String> value = new ArrayList<>(Arrays.asList("a", "b"));
+        cache.put(1, value);
+        value.add("c");
+        List<String> cachedValue = cache.get(1);
+        assertEquals(Arrays.asList("a", "b"), cachedValue);
+        cachedValue.clear();
+        assertEquals(Arrays.asList("a", "b"), cache.get(1));
+    }
+
+    @Test
+    public void byteArraysAreCopied() {
+        TCacheConfiguration<Integer, byte[]> config = new TCacheConfiguration<>();
+        config.setTypes(Integer.class, byte[].class);
+        Cache<Integer, byte[]> cache = cacheManager.createCache("bytesCache", config);
+        byte[] value = {1, 2, 3};
+        cache.put(1, value);
+        value[0] = 42;
+        byte[] cachedValue = cache.get(1);
+        assertArrayEquals(new byte[]{1, 2, 3}, cachedValue);
+        assertNotSame(cachedValue, cache.get(1));
+    }
+
+    @Test
+    public void stringsRoundTrip() {
+        TCacheConfiguration<Integer, String> config = new TCacheConfiguration<>();
+        config.setTypes(Integer.class, String.class);
+        config.setOffHeap(true).setOffHeapSlabSize(1 << 16);
+        Cache<Integer, String> cache = cacheManager.createCache("stringCache", config);
+        cache.put(1, "latin");
+        cache.put(2, "\u043a\u0438\u0440\u0438\u043b\u043b\u0438\u0446\u0430 \u20ac");
+        cache.put(3, "");
+        assertEquals("latin", cache.get(1));
+        assertEquals("\u043a\u0438\u0440\u0438\u043b\u043b\u0438\u0446\u0430 \u20ac", cache.get(2));
+        assertEquals("", cache.get(3));
+    }
+
+    @Test
+    public void immutableValuesAreNotCopied() {
+        TCacheConfiguration<Integer, String> config = new TCacheConfiguration<>();
+        config.setTypes(Integer.class, String.class);
+        Cache<Integer, String> cache = cacheManager.createCache("immutableCache", config);
+        String value = new String("value");
+        cache.put(1, value);
+        assertSame(value, cache.get(1));
+    }
+
+    @Test
+    public void configuredSerializerIsUsed() {
+        CountingSerializer.writes = 0;
+        TCacheConfiguration<Integer, ArrayList<String>> config = new TCacheConfiguration<>();
+        config.setValueSerializerFactory(FactoryBuilder.factoryOf(CountingSerializer.class));
+        Cache<Integer, ArrayList<String>> cache = cacheManager.createCache("customCache", config);
+        cache.put(1, new ArrayList<>(Arrays.asList("a", "b", "c")));
+        assertEquals(Arrays.asList("a", "b", "c"), cache.get(1));
+        assertTrue(CountingSerializer.writes > 0);
+    }
+
+    public static class CountingSerializer implements TSerializer<ArrayList<String>> {
+
+        static volatile int writes;
+
+        @Override
+        public void write(ArrayList<String> value, TSerializationBuffer buffer) {
+            writes++;
+            buffer.writeInt(value.size());
+            for (String element : value) {
+                byte[] bytes = element.getBytes();
+                buffer.writeInt(bytes.length);
+                buffer.writeBytes(bytes, 0, bytes.length);
+            }
+        }
+
+        @Override
+        public ArrayList<String> read(TSerializationBuffer buffer) {
+            int size = buffer.readInt();
+            ArrayList<String> value = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                byte[] bytes = new byte[buffer.readInt()];
+                buffer.readBytes(bytes, 0, bytes.length);
+                value.add(new String(bytes));
+            }
+            return value;
+        }
+    }
+}
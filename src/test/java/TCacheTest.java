@@ -181,4 +181,18 @@ public class TCacheTest {
             assertFalse(cache.containsKey(i));
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void largeBulkOperations() {
+        Map<Integer, String> entries = new HashMap<>();
+        for (int i = 0; i < 10000; ++i) {
+            entries.put(INIT_SIZE_CACHE + i, PREFIX + i);
+        }
+        cache.putAll(entries);
+        Map<Integer, String> cacheAll = cache.getAll(entries.keySet());
+        assertEquals(entries, cacheAll);
+        cache.removeAll(entries.keySet());
+        assertTrue(cache.getAll(entries.keySet()).isEmpty());
+        assertTrue(cache.containsKey(0));
+    }
+}
@@ -0,0 +1,210 @@
+import CacheApi.TCache;
+import CacheApi.TCacheConfiguration;
+import CacheApi.TCacheManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.cache.Cache;
+import javax.cache.expiry.CreatedExpiryPolicy;
+import javax.cache.expiry.Duration;
+import javax.cache.processor.EntryProcessorException;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TCacheTieredTest {
+
+    private static final int SIZE = 1000;
+
+    private static final int HEAP_SIZE = 100;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TCacheManager cacheManager;
+
+    private Path tierDirectory;
+
+    @Before
+    public void setupCacheManager() {
+        cacheManager = new TCacheManager();
+        tierDirectory = folder.getRoot().toPath().resolve("tier");
+    }
+
+    @After
+    public void closeCacheManager() {
+        cacheManager.close();
+    }
+
+    private TCacheConfiguration<Integer, String> config() {
+        TCacheConfiguration<Integer, String> config = new TCacheConfiguration<>();
+        config.setTypes(Integer.class, String.class);
+        config.setMaximumSize(HEAP_SIZE);
+        config.setDiskTierDirectory(tierDirectory.toString());
+        config.setStatisticsEnabled(true);
+        return config;
+    }
+
+    private static Cache<Integer, String> fill(Cache<Integer, String> cache) {
+        for (int i = 0; i < SIZE; ++i) {
+            cache.put(i, "value_" + i);
+        }
+        return cache;
+    }
+
+    @Test
+    public void evictedEntriesAreDemotedAndPromoted() {
+        Cache<Integer, String> cache = fill(cacheManager.createCache("tieredCache", config()));
+        TCache<?, ?> tCache = cache.unwrap(TCache.class);
+        assertTrue(tCache.isTiered());
+        assertTrue(tCache.getDemotionCount() >= SIZE - HEAP_SIZE - HEAP_SIZE / 10);
+        assertEquals(0, tCache.getStatistics().getCacheEvictions());
+        for (int i = 0; i < SIZE; ++i) {
+            assertTrue(cache.containsKey(i));
+            assertEquals("value_" + i, cache.get(i));
+        }
+        assertEquals(SIZE, tCache.getStatistics().getCacheHits());
+        assertTrue(tCache.getDiskHitCount() > 0);
+        assertTrue(tCache.getDiskHitPercentage() > 99);
+        assertEquals(100 - tCache.getDiskHitCount() * 100f / SIZE, tCache.getHeapHitPercentage(), 0.01);
+        assertFalse(cache.containsKey(SIZE));
+        assertNull(cache.get(SIZE));
+    }
+
+    @Test
+    public void mutationsApplyToDemotedEntries() {
+        Cache<Integer, String> cache = fill(cacheManager.createCache("tieredCache", config()));
+        //the first keys were demoted by the later ones
+        assertFalse(cache.putIfAbsent(0, "other"));
+        assertEquals("value_1", cache.getAndPut(1, "put"));
+        assertFalse(cache.replace(2, "other", "replaced"));
+        assertTrue(cache.replace(2, "value_2", "replaced"));
+        assertTrue(cache.remove(3));
+        assertFalse(cache.remove(4, "other"));
+        assertTrue(cache.remove(4, "value_4"));
+        assertEquals(Integer.valueOf(5), cache.invoke(5, (entry, arguments) -> entry.getValue().length() - 2));
+        fill(cache);
+        assertEquals("value_0", cache.get(0));
+        assertEquals("value_1", cache.get(1));
+        cache.remove(2);
+        fill(cache);
+        //a removed key does not come back from the disk tier
+        cache.remove(2);
+        cache.remove(3);
+        for (int i = 0; i < SIZE; ++i) {
+            assertEquals(i == 2 || i == 3 ? null : "value_" + i, cache.get(i));
+        }
+        cache.clear();
+        for (int i = 0; i < SIZE; ++i) {
+            assertFalse(cache.containsKey(i));
+        }
+    }
+
+    @Test
+    public void failedMutationsKeepDemotedEntries() {
+        Cache<Integer, String> cache = fill(cacheManager.createCache("tieredCache", config()));
+        TCache<?, ?> tCache = cache.unwrap(TCache.class);
+        long demotionCount = tCache.getDemotionCount();
+        for (int i = 0; i < HEAP_SIZE; ++i) {
+            try {
+                cache.invoke(i, (entry, arguments) -> {
+                    throw new IllegalStateException("failed");
+                });
+                fail();
+            } catch (EntryProcessorException e) {
+                //the processor failed, the entry is unchanged
+            }
+        }
+        assertTrue(tCache.getDemotionCount() < demotionCount + HEAP_SIZE / 10);
+        for (int i = 0; i < SIZE; ++i) {
+            assertEquals("value_" + i, cache.get(i));
+        }
+    }
+
+    @Test
+    public void expiredEntriesAreNotPromoted() throws InterruptedException {
+        TCacheConfiguration<Integer, String> config = config();
+        config.setExpiryPolicyFactory(CreatedExpiryPolicy.factoryOf(new Duration(TimeUnit.MILLISECONDS, 200)));
+        Cache<Integer, String> cache = fill(cacheManager.createCache("tieredCache", config));
+        assertTrue(cache.containsKey(0));
+        Thread.sleep(400);
+        for (int i = 0; i < SIZE; ++i) {
+            assertFalse(cache.containsKey(i));
+            assertNull(cache.get(i));
+        }
+        assertEquals(0, cache.unwrap(TCache.class).getDiskHitCount());
+    }
+
+    @Test
+    public void fullDiskTierEvictsItsOldestSegment() {
+        TCacheConfiguration<Integer, String> config = config();
+        config.setDiskTierSegmentSize(1024).setDiskTierSize(4096);
+        Cache<Integer, String> cache = fill(cacheManager.createCache("tieredCache", config));
+        TCache<?, ?> tCache = cache.unwrap(TCache.class);
+        long evictions = tCache.getStatistics().getCacheEvictions();
+        assertTrue(evictions > 0);
+        int count = 0;
+        for (int i = 0; i < SIZE; ++i) {
+            if (cache.containsKey(i)) {
+                count++;
+            }
+        }
+        assertEquals(SIZE - evictions, count);
+        //the latest keys are kept
+        assertEquals("value_" + (SIZE - 1), cache.get(SIZE - 1));
+        assertNull(cache.get(0));
+    }
+
+    @Test
+    public void iterationCoversBothTiers() {
+        Cache<Integer, String> cache = fill(cacheManager.createCache("tieredCache", config()));
+        Set<Integer> keys = new HashSet<>();
+        for (Cache.Entry<Integer, String> entry : cache) {
+            assertEquals("value_" + entry.getKey(), entry.getValue());
+            keys.add(entry.getKey());
+        }
+        assertEquals(SIZE, keys.size());
+        //the scan does not promote
+        assertEquals(0, cache.unwrap(TCache.class).getDiskHitCount());
+    }
+
+    @Test
+    public void snapshotCoversBothTiers() {
+        Cache<Integer, String> cache = fill(cacheManager.createCache("tieredCache", config()));
+        Path file = folder.getRoot().toPath().resolve("tiered.snapshot");
+        assertEquals(SIZE, cache.unwrap(TCache.class).writeSnapshot(file));
+        cacheManager.destroyCache("tieredCache");
+        TCacheConfiguration<Integer, String> config = config();
+        config.setDiskTierDirectory(folder.getRoot().toPath().resolve("otherTier").toString());
+        Cache<Integer, String> restored = cacheManager.createCache("restoredCache", config);
+        assertEquals(SIZE, restored.unwrap(TCache.class).loadSnapshot(file));
+        for (int i = 0; i < SIZE; ++i) {
+            assertEquals("value_" + i, restored.get(i));
+        }
+    }
+
+    @Test
+    public void statisticsDumpReportsTheTiers() {
+        Cache<Integer, String> cache = fill(cacheManager.createCache("tieredCache", config()));
+        cache.get(0);
+        assertTrue(cacheManager.dumpStatistics().contains("diskHitPercentage=100.00"));
+        assertTrue(cacheManager.dumpStatisticsAsJson().contains("\"tiers\":{\"heapHitPercentage\":0.00"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tieredCacheHasToBeBounded() {
+        TCacheConfiguration<Integer, String> config = config();
+        config.setMaximumSize(TCacheConfiguration.UNBOUNDED);
+        cacheManager.createCache("tieredCache", config);
+    }
+}
@@ -0,0 +1,229 @@
+import CacheApi.TCache;
+import CacheApi.TCacheConfiguration;
+import CacheApi.TCacheManager;
+import CacheApi.TLogSyncPolicy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.cache.Cache;
+import javax.cache.CacheException;
+import javax.cache.expiry.CreatedExpiryPolicy;
+import javax.cache.expiry.Duration;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TCacheWriteAheadLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TCacheManager cacheManager;
+
+    private Path logDirectory;
+
+    @Before
+    public void setupCacheManager() {
+        cacheManager = new TCacheManager();
+        logDirectory = folder.getRoot().toPath().resolve("log");
+    }
+
+    @After
+    public void closeCacheManager() {
+        cacheManager.close();
+    }
+
+    private TCacheConfiguration<Integer, String> config(TLogSyncPolicy syncPolicy) {
+        TCacheConfiguration<Integer, String> config = new TCacheConfiguration<>();
+        config.setTypes(Integer.class, String.class);
+        config.setWriteAheadLogDirectory(logDirectory.toString()).setWriteAheadLogSyncPolicy(syncPolicy);
+        return config;
+    }
+
+    private TCache<Integer, String> restart(TCacheConfiguration<Integer, String> config) {
+        cacheManager.close();
+        cacheManager = new TCacheManager();
+        return cacheManager.createCache("durableCache", config).unwrap(TCache.class);
+    }
+
+    private List<Path> files(String prefix) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(logDirectory, prefix + "*")) {
+            stream.forEach(files::add);
+        }
+        return files;
+    }
+
+    @Test
+    public void mutationsAreReplayed() {
+        TCacheConfiguration<Integer, String> config = config(TLogSyncPolicy.PERIODIC);
+        Cache<Integer, String> cache = cacheManager.createCache("durableCache", config);
+        for (int i = 0; i < 1000; ++i) {
+            cache.put(i, "value_" + i);
+        }
+        cache.replace(1, "replaced");
+        cache.remove(2);
+        cache.invoke(3, (entry, arguments) -> {
+            entry.setValue("processed");
+            return null;
+        });
+        cache.invoke(4, (entry, arguments) -> {
+            entry.remove();
+            return null;
+        });
+        Map<Integer, String> map = new HashMap<>();
+        map.put(2000, "putAll");
+        cache.putAll(map);
+        TCache<Integer, String> restored = restart(config);
+        assertEquals("replaced", restored.get(1));
+        assertFalse(restored.containsKey(2));
+        assertEquals("processed", restored.get(3));
+        assertFalse(restored.containsKey(4));
+        assertEquals("putAll", restored.get(2000));
+        for (int i = 5; i < 1000; ++i) {
+            assertEquals("value_" + i, restored.get(i));
+        }
+    }
+
+    @Test
+    public void completedMutationsSurviveACrash() throws IOException {
+        TCacheConfiguration<Integer, String> config = config(TLogSyncPolicy.ALWAYS);
+        Cache<Integer, String> cache = cacheManager.createCache("durableCache", config);
+        for (int i = 0; i < 100; ++i) {
+            cache.put(i, "value_" + i);
+        }
+        cache.remove(7);
+        //copy the log as a crash would leave it, without closing the cache
+        Path copy = folder.getRoot().toPath().resolve("copy");
+        Files.createDirectories(copy);
+        for (Path file : files("")) {
+            Files.copy(file, copy.resolve(file.getFileName()));
+        }
+        TCache<Integer, String> restored = restart(config(TLogSyncPolicy.ALWAYS)
+                .setWriteAheadLogDirectory(copy.toString()));
+        for (int i = 0; i < 100; ++i) {
+            assertEquals(i == 7 ? null : "value_" + i, restored.get(i));
+        }
+    }
+
+    @Test
+    public void cacheFailingToRecoverIsClosed() throws IOException {
+        Files.createFile(logDirectory);
+        try {
+            cacheManager.createCache("durableCache", config(TLogSyncPolicy.OS));
+            fail();
+        } catch (CacheException e) {
+            //the log directory is a file
+        }
+        assertNull(cacheManager.getCache("durableCache"));
+        Files.delete(logDirectory);
+        Cache<Integer, String> cache = cacheManager.createCache("durableCache", config(TLogSyncPolicy.OS));
+        cache.put(1, "one");
+        assertEquals("one", restart(config(TLogSyncPolicy.OS)).get(1));
+    }
+
+    @Test
+    public void clearIsReplayed() {
+        TCacheConfiguration<Integer, String> config = config(TLogSyncPolicy.OS);
+        Cache<Integer, String> cache = cacheManager.createCache("durableCache", config);
+        cache.put(1, "one");
+        cache.put(2, "two");
+        cache.clear();
+        cache.put(3, "three");
+        TCache<Integer, String> restored = restart(config);
+        assertNull(restored.get(1));
+        assertNull(restored.get(2));
+        assertEquals("three", restored.get(3));
+    }
+
+    @Test
+    public void expiredEntriesAreNotReplayed() throws InterruptedException {
+        TCacheConfiguration<Integer, String> config = config(TLogSyncPolicy.PERIODIC);
+        config.setExpiryPolicyFactory(CreatedExpiryPolicy.factoryOf(new Duration(TimeUnit.MILLISECONDS, 200)));
+        Cache<Integer, String> cache = cacheManager.createCache("durableCache", config);
+        cache.put(1, "one");
+        cacheManager.close();
+        Thread.sleep(300);
+        TCache<Integer, String> restored = restart(config);
+        assertFalse(restored.containsKey(1));
+    }
+
+    @Test
+    public void tornTailIsIgnored() throws IOException {
+        TCacheConfiguration<Integer, String> config = config(TLogSyncPolicy.ALWAYS);
+        Cache<Integer, String> cache = cacheManager.createCache("durableCache", config);
+        cache.put(1, "one");
+        cache.put(2, "two");
+        cacheManager.close();
+        List<Path> segments = files("segment-");
+        Path last = segments.get(segments.size() - 1);
+        Files.write(last, new byte[]{0, 0, 0, 100, 1, 2, 3}, StandardOpenOption.APPEND);
+        TCache<Integer, String> restored = restart(config);
+        assertEquals("one", restored.get(1));
+        assertEquals("two", restored.get(2));
+        restored.put(3, "three");
+        TCache<Integer, String> again = restart(config);
+        assertEquals("three", again.get(3));
+    }
+
+    @Test
+    public void logIsCompacted() throws Exception {
+        TCacheConfiguration<Integer, String> config = config(TLogSyncPolicy.OS);
+        config.setWriteAheadLogSegmentSize(4096);
+        Cache<Integer, String> cache = cacheManager.createCache("durableCache", config);
+        for (int round = 0; round < 50; ++round) {
+            for (int i = 0; i < 100; ++i) {
+                cache.put(i, "value_" + round + "_" + i);
+            }
+        }
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (files("checkpoint-").isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertFalse(files("checkpoint-").isEmpty());
+        cache.put(0, "last");
+        TCache<Integer, String> restored = restart(config);
+        assertTrue(files("segment-").size() < 50);
+        assertEquals("last", restored.get(0));
+        for (int i = 1; i < 100; ++i) {
+            assertEquals("value_49_" + i, restored.get(i));
+        }
+    }
+
+    @Test
+    public void concurrentMutationsShareSyncs() throws InterruptedException {
+        TCache<Integer, String> cache = cacheManager.createCache("durableCache", config(TLogSyncPolicy.ALWAYS))
+                .unwrap(TCache.class);
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; ++t) {
+            int offset = t * 1000;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 200; ++i) {
+                    cache.put(offset + i, "value");
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(cache.getLogSyncCount() > 0);
+        assertTrue(cache.getLogSyncCount() <= 1600);
+    }
+}
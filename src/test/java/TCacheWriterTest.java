@@ -0,0 +1,235 @@
+import CacheApi.TCache;
+import CacheApi.TCacheConfiguration;
+import CacheApi.TCacheManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.cache.Cache;
+import javax.cache.configuration.FactoryBuilder;
+import javax.cache.integration.CacheWriter;
+import javax.cache.integration.CacheWriterException;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TCacheWriterTest {
+
+    private TCacheManager cacheManager;
+
+    private RecordingWriter writer;
+
+    @Before
+    public void createCacheManager() {
+        cacheManager = new TCacheManager();
+        writer = new RecordingWriter();
+    }
+
+    @After
+    public void closeCacheManager() {
+        cacheManager.close();
+    }
+
+    private TCache<Integer, String> createCache(TCacheConfiguration<Integer, String> config) {
+        config.setTypes(Integer.class, String.class);
+        config.setWriteThrough(true).setCacheWriterFactory(FactoryBuilder.factoryOf(writer));
+        return cacheManager.createCache("writingCache", config).unwrap(TCache.class);
+    }
+
+    @Test
+    public void mutationsAreWrittenThrough() {
+        TCache<Integer, String> cache = createCache(new TCacheConfiguration<>());
+        cache.put(1, "one");
+        assertEquals("one", writer.store.get(1));
+        cache.putAll(Collections.singletonMap(2, "two"));
+        assertEquals("two", writer.store.get(2));
+        assertFalse(cache.replace(2, "three", "four"));
+        assertNull(writer.store.get(4));
+        assertEquals("two", cache.getAndReplace(2, "three"));
+        assertEquals("three", writer.store.get(2));
+        cache.remove(1);
+        assertFalse(writer.store.containsKey(1));
+        cache.removeAll();
+        assertTrue(writer.store.isEmpty());
+    }
+
+    @Test
+    public void writesBehindAreCoalescedAndBatched() {
+        TCacheConfiguration<Integer, String> config = new TCacheConfiguration<>();
+        config.setWriteBehind(true).setWriteBehindDelay(60000);
+        TCache<Integer, String> cache = createCache(config);
+        for (int i = 0; i < 10; i++) {
+            cache.put(1, "value_" + i);
+        }
+        cache.putAll(Collections.singletonMap(2, "two"));
+        cache.put(3, "three");
+        cache.remove(3);
+        assertTrue(writer.store.isEmpty());
+        assertEquals(3, cache.getPendingWriteCount());
+        assertEquals(9 + 1, cache.getCoalescedWriteCount());
+
+        cache.flushWrites();
+        assertEquals(0, cache.getPendingWriteCount());
+        assertEquals("value_9", writer.store.get(1));
+        assertEquals("two", writer.store.get(2));
+        assertEquals(1, writer.batches.size());
+        assertEquals(1, cache.getWriteBatchCount());
+    }
+
+    @Test
+    public void writesBehindAreFlushedAfterTheDelay() throws InterruptedException {
+        TCacheConfiguration<Integer, String> config = new TCacheConfiguration<>();
+        config.setWriteBehind(true).setWriteBehindDelay(50);
+        TCache<Integer, String> cache = createCache(config);
+        cache.put(1, "one");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!writer.store.containsKey(1) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("one", writer.store.get(1));
+    }
+
+    @Test
+    public void writesBehindAreFlushedOnClose() {
+        TCacheConfiguration<Integer, String> config = new TCacheConfiguration<>();
+        config.setWriteBehind(true).setWriteBehindDelay(60000);
+        TCache<Integer, String> cache = createCache(config);
+        for (int i = 0; i < 250; i++) {
+            cache.put(i, "value_" + i);
+        }
+        cache.close();
+        assertEquals(250, writer.store.size());
+        assertEquals(3, writer.batches.size());
+    }
+
+    @Test
+    public void fullQueueBlocksWriters() throws Exception {
+        TCacheConfiguration<Integer, String> config = new TCacheConfiguration<>();
+        config.setWriteBehind(true).setWriteBehindBatchSize(1).setWriteBehindQueueCapacity(2);
+        TCache<Integer, String> cache = createCache(config);
+        writer.gate = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            for (int i = 0; i < 3; i++) {
+                cache.put(i, "value_" + i);
+            }
+            Future<?> blockedPut = executor.submit(() -> cache.put(3, "value_3"));
+            Thread.sleep(100);
+            assertFalse(blockedPut.isDone());
+            writer.gate.countDown();
+            blockedPut.get(5, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        cache.flushWrites();
+        assertEquals(4, writer.store.size());
+    }
+
+    @Test
+    public void loadedValuesAreNotWritten() {
+        TCacheConfiguration<Integer, String> config = new TCacheConfiguration<>();
+        config.setReadThrough(true).setCacheLoaderFactory(FactoryBuilder.factoryOf(new TCacheLoaderTest.CountingLoader()));
+        TCache<Integer, String> cache = createCache(config);
+        assertEquals("value_1", cache.get(1));
+        assertTrue(writer.store.isEmpty());
+    }
+
+    @Test
+    public void bulkMutationsSkipTheKeysTheWriterFailed() {
+        TCache<Integer, String> cache = createCache(new TCacheConfiguration<>());
+        writer.failingKey = 2;
+        Map<Integer, String> values = new HashMap<>();
+        for (int i = 1; i <= 3; ++i) {
+            values.put(i, "value_" + i);
+        }
+        try {
+            cache.putAll(values);
+            fail();
+        } catch (CacheWriterException e) {
+            //expected
+        }
+        assertEquals("value_1", cache.get(1));
+        assertNull(cache.get(2));
+        assertEquals("value_3", cache.get(3));
+        cache.put(4, "value_4");
+        try {
+            cache.removeAll(new HashSet<>(Arrays.asList(1, 2, 4)));
+            fail();
+        } catch (CacheWriterException e) {
+            //expected
+        }
+        assertNull(cache.get(1));
+        assertEquals("value_3", cache.get(3));
+        assertNull(cache.get(4));
+        assertEquals(Collections.singletonMap(3, "value_3"), writer.store);
+    }
+
+    /**
+     * Records the written entries in a map.
+     */
+    public static class RecordingWriter implements CacheWriter<Integer, String>, Serializable {
+
+        final Map<Integer, String> store = Collections.synchronizedMap(new HashMap<>());
+
+        final List<Integer> batches = Collections.synchronizedList(new ArrayList<>());
+
+        volatile CountDownLatch gate;
+
+        /**
+         * The key whose writes and deletes fail or null.
+         */
+        volatile Integer failingKey;
+
+        @Override
+        public void write(Cache.Entry<? extends Integer, ? extends String> entry) {
+            if (entry.getKey().equals(failingKey)) {
+                throw new CacheWriterException("Failed to write " + entry.getKey());
+            }
+            store.put(entry.getKey(), entry.getValue());
+        }
+
+        @Override
+        public void writeAll(Collection<Cache.Entry<? extends Integer, ? extends String>> entries) {
+            if (null != gate) {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            batches.add(entries.size());
+            entries.forEach(this::write);
+        }
+
+        @Override
+        public void delete(Object key) {
+            if (key.equals(failingKey)) {
+                throw new CacheWriterException("Failed to delete " + key);
+            }
+            store.remove(key);
+        }
+
+        @Override
+        public void deleteAll(Collection<?> keys) {
+            keys.forEach(this::delete);
+        }
+    }
+}